@@ -169,6 +169,36 @@ public class FileRecords extends AbstractRecords implements Closeable {
         return written;
     }
 
+    /**
+     * Append a range of complete record batches from another file to this file. The bytes are transferred between
+     * the channels, so the file system can copy them without going through the heap. This method is not thread-safe
+     * and must be protected with a lock.
+     *
+     * @param source The records to copy from
+     * @param position The position in the source records of the first batch to copy
+     * @param length The number of bytes to copy
+     * @return the number of bytes written to the underlying file
+     */
+    public int appendFrom(FileRecords source, int position, int length) throws IOException {
+        if (position < 0 || length < 0 || length > source.sizeInBytes() - position)
+            throw new IllegalArgumentException("Invalid range [" + position + ", " + position + " + " + length +
+                    ") for source of size " + source.sizeInBytes());
+        if (length > Integer.MAX_VALUE - size.get())
+            throw new IllegalArgumentException("Append of size " + length +
+                    " bytes is too large for segment with current file position at " + size.get());
+
+        int written = 0;
+        while (written < length) {
+            long transferred = source.writeTo(channel, position + written, length - written);
+            if (transferred <= 0)
+                throw new KafkaException(String.format("Failed to copy %d bytes from %s at position %d to %s",
+                        length - written, source.file().getAbsolutePath(), position + written, file.getAbsolutePath()));
+            written += (int) transferred;
+        }
+        size.getAndAdd(written);
+        return written;
+    }
+
     /**
      * Commit all written data to the physical disk
      */
@@ -35,6 +35,17 @@ public abstract class AbstractControlRequest extends AbstractRequest {
             this.brokerEpoch = brokerEpoch;
         }
 
+        public int controllerId() {
+            return controllerId;
+        }
+
+        public int controllerEpoch() {
+            return controllerEpoch;
+        }
+
+        public long brokerEpoch() {
+            return brokerEpoch;
+        }
     }
 
     protected AbstractControlRequest(ApiKeys api, short version) {
@@ -24,10 +24,16 @@ import org.apache.kafka.common.message.MetadataResponseData;
 import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseBroker;
 import org.apache.kafka.common.message.MetadataResponseData.MetadataResponsePartition;
 import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic;
+import org.apache.kafka.common.network.NetworkSend;
+import org.apache.kafka.common.network.Send;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.protocol.types.BoundField;
+import org.apache.kafka.common.protocol.types.CompactArrayOf;
 import org.apache.kafka.common.protocol.types.Struct;
+import org.apache.kafka.common.protocol.types.Type;
 import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.utils.ByteUtils;
 import org.apache.kafka.common.utils.Utils;
 
 import java.nio.ByteBuffer;
@@ -60,7 +66,13 @@ public class MetadataResponse extends AbstractResponse {
     public static final int NO_LEADER_ID = -1;
     public static final int AUTHORIZED_OPERATIONS_OMITTED = Integer.MIN_VALUE;
 
+    private static final String TOPICS_KEY_NAME = "topics";
+
     private final MetadataResponseData data;
+    // topics already serialized in the format of `serializedTopicsVersion`, sent ahead of the topics in `data`
+    private final List<ByteBuffer> serializedTopics;
+    private final short serializedTopicsVersion;
+    private volatile MetadataResponseData completeData;
     private volatile Holder holder;
     private final boolean hasReliableLeaderEpochs;
 
@@ -68,6 +80,15 @@ public class MetadataResponse extends AbstractResponse {
         this(data, true);
     }
 
+    /**
+     * Create a response which carries, in addition to the topics in `data`, topics that have already been
+     * serialized with {@link #serializeTopic(MetadataResponseTopic, short)} for the given version. The serialized
+     * topics are copied into the response buffer as they are, so the response can only be sent with that version.
+     */
+    public MetadataResponse(MetadataResponseData data, List<ByteBuffer> serializedTopics, short version) {
+        this(data, serializedTopics, version, true);
+    }
+
     public MetadataResponse(Struct struct, short version) {
         // Prior to Kafka version 2.4 (which coincides with Metadata version 9), the broker
         // does not propagate leader epoch information accurately while a reassignment is in
@@ -79,13 +100,123 @@ public class MetadataResponse extends AbstractResponse {
     }
 
     private MetadataResponse(MetadataResponseData data, boolean hasReliableLeaderEpochs) {
+        this(data, Collections.emptyList(), (short) -1, hasReliableLeaderEpochs);
+    }
+
+    private MetadataResponse(MetadataResponseData data,
+                             List<ByteBuffer> serializedTopics,
+                             short serializedTopicsVersion,
+                             boolean hasReliableLeaderEpochs) {
         this.data = data;
+        this.serializedTopics = serializedTopics;
+        this.serializedTopicsVersion = serializedTopicsVersion;
         this.hasReliableLeaderEpochs = hasReliableLeaderEpochs;
     }
 
+    @Override
+    protected Send toSend(String destination, ResponseHeader header, short apiVersion) {
+        if (serializedTopics.isEmpty())
+            return super.toSend(destination, header, apiVersion);
+        return new NetworkSend(destination, serializeWithTopicFragments(header.toStruct(), apiVersion));
+    }
+
     @Override
     protected Struct toStruct(short version) {
-        return data.toStruct(version);
+        if (serializedTopics.isEmpty())
+            return data.toStruct(version);
+        ensureSerializedTopicsVersion(version);
+        return completeData().toStruct(version);
+    }
+
+    /**
+     * Serialize the response with the pre-serialized topics copied in place, which avoids materializing them
+     * as structs again.
+     */
+    private ByteBuffer serializeWithTopicFragments(Struct headerStruct, short version) {
+        ensureSerializedTopicsVersion(version);
+        Struct struct = data.toStruct(version);
+        BoundField topicsField = struct.schema().get(TOPICS_KEY_NAME);
+        boolean compact = topicsField.def.type instanceof CompactArrayOf;
+        Type topicType = topicsField.def.type.arrayElementType().get();
+        Object[] topics = (Object[]) struct.get(topicsField);
+        int numTopics = serializedTopics.size() + topics.length;
+
+        int size = headerStruct.sizeOf();
+        for (BoundField field : struct.schema().fields()) {
+            if (field == topicsField) {
+                size += compact ? ByteUtils.sizeOfUnsignedVarint(numTopics + 1) : 4;
+                for (ByteBuffer topic : serializedTopics)
+                    size += topic.remaining();
+                for (Object topic : topics)
+                    size += topicType.sizeOf(topic);
+            } else {
+                size += field.def.type.sizeOf(struct.get(field));
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        headerStruct.writeTo(buffer);
+        for (BoundField field : struct.schema().fields()) {
+            if (field == topicsField) {
+                if (compact)
+                    ByteUtils.writeUnsignedVarint(numTopics + 1, buffer);
+                else
+                    buffer.putInt(numTopics);
+                for (ByteBuffer topic : serializedTopics)
+                    buffer.put(topic.duplicate());
+                for (Object topic : topics)
+                    topicType.write(buffer, topic);
+            } else {
+                field.def.type.write(buffer, struct.get(field));
+            }
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    private void ensureSerializedTopicsVersion(short version) {
+        if (version != serializedTopicsVersion)
+            throw new IllegalArgumentException("Cannot serialize topics serialized for version " +
+                serializedTopicsVersion + " as version " + version);
+    }
+
+    /**
+     * The response data including the pre-serialized topics, which are deserialized on first use.
+     */
+    private MetadataResponseData completeData() {
+        if (serializedTopics.isEmpty())
+            return data;
+        if (completeData == null) {
+            synchronized (data) {
+                if (completeData == null) {
+                    MetadataResponseData complete = new MetadataResponseData()
+                        .setThrottleTimeMs(data.throttleTimeMs())
+                        .setBrokers(data.brokers())
+                        .setClusterId(data.clusterId())
+                        .setControllerId(data.controllerId())
+                        .setClusterAuthorizedOperations(data.clusterAuthorizedOperations());
+                    for (ByteBuffer topic : serializedTopics)
+                        complete.topics().add(new MetadataResponseTopic(
+                            MetadataResponseTopic.SCHEMAS[serializedTopicsVersion].read(topic.duplicate()),
+                            serializedTopicsVersion));
+                    for (MetadataResponseTopic topic : data.topics())
+                        complete.topics().add(topic.duplicate());
+                    completeData = complete;
+                }
+            }
+        }
+        return completeData;
+    }
+
+    /**
+     * Serialize a topic in the format of an element of the topics array of the given response version.
+     */
+    public static ByteBuffer serializeTopic(MetadataResponseTopic topic, short version) {
+        Struct struct = topic.toStruct(version);
+        ByteBuffer buffer = ByteBuffer.allocate(struct.sizeOf());
+        struct.writeTo(buffer);
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
     }
 
     @Override
@@ -99,7 +230,7 @@ public class MetadataResponse extends AbstractResponse {
      */
     public Map<String, Errors> errors() {
         Map<String, Errors> errors = new HashMap<>();
-        for (MetadataResponseTopic metadata : data.topics()) {
+        for (MetadataResponseTopic metadata : completeData().topics()) {
             if (metadata.errorCode() != Errors.NONE.code())
                 errors.put(metadata.name(), Errors.forCode(metadata.errorCode()));
         }
@@ -109,6 +240,9 @@ public class MetadataResponse extends AbstractResponse {
     @Override
     public Map<Errors, Integer> errorCounts() {
         Map<Errors, Integer> errorCounts = new HashMap<>();
+        // the error code is the first field of every version of the topic, so there is no need to parse the rest
+        serializedTopics.forEach(topic ->
+            updateErrorCounts(errorCounts, Errors.forCode(topic.getShort(topic.position()))));
         data.topics().forEach(metadata ->
             updateErrorCounts(errorCounts, Errors.forCode(metadata.errorCode())));
         return errorCounts;
@@ -119,7 +253,7 @@ public class MetadataResponse extends AbstractResponse {
      */
     public Set<String> topicsByError(Errors error) {
         Set<String> errorTopics = new HashSet<>();
-        for (MetadataResponseTopic metadata : data.topics()) {
+        for (MetadataResponseTopic metadata : completeData().topics()) {
             if (metadata.errorCode() == error.code())
                 errorTopics.add(metadata.name());
         }
@@ -169,7 +303,7 @@ public class MetadataResponse extends AbstractResponse {
      * Returns a 32-bit bitfield to represent authorized operations for this topic.
      */
     public Optional<Integer> topicAuthorizedOperations(String topicName) {
-        MetadataResponseTopic topic = data.topics().find(topicName);
+        MetadataResponseTopic topic = completeData().topics().find(topicName);
         if (topic == null)
             return Optional.empty();
         else
@@ -187,7 +321,7 @@ public class MetadataResponse extends AbstractResponse {
         if (holder == null) {
             synchronized (data) {
                 if (holder == null)
-                    holder = new Holder(data);
+                    holder = new Holder(completeData());
             }
         }
         return holder;
@@ -501,6 +635,28 @@ public class MetadataResponse extends AbstractResponse {
                                                    String clusterId,
                                                    int controllerId,
                                                    int clusterAuthorizedOperations) {
+        return new MetadataResponse(prepareResponseData(throttleTimeMs, topicMetadataList, brokers, clusterId,
+            controllerId, clusterAuthorizedOperations));
+    }
+
+    public static MetadataResponse prepareResponse(int throttleTimeMs,
+                                                   List<ByteBuffer> serializedTopics,
+                                                   List<MetadataResponseTopic> topicMetadataList,
+                                                   Collection<Node> brokers,
+                                                   String clusterId,
+                                                   int controllerId,
+                                                   int clusterAuthorizedOperations,
+                                                   short responseVersion) {
+        return new MetadataResponse(prepareResponseData(throttleTimeMs, topicMetadataList, brokers, clusterId,
+            controllerId, clusterAuthorizedOperations), serializedTopics, responseVersion);
+    }
+
+    private static MetadataResponseData prepareResponseData(int throttleTimeMs,
+                                                            List<MetadataResponseTopic> topicMetadataList,
+                                                            Collection<Node> brokers,
+                                                            String clusterId,
+                                                            int controllerId,
+                                                            int clusterAuthorizedOperations) {
         MetadataResponseData responseData = new MetadataResponseData();
         responseData.setThrottleTimeMs(throttleTimeMs);
         brokers.forEach(broker ->
@@ -516,7 +672,7 @@ public class MetadataResponse extends AbstractResponse {
         responseData.setClusterAuthorizedOperations(clusterAuthorizedOperations);
 
         topicMetadataList.forEach(topicMetadata -> responseData.topics().add(topicMetadata));
-        return new MetadataResponse(responseData);
+        return responseData;
     }
 
     @Override
@@ -52,6 +52,14 @@ public class UpdateMetadataRequest extends AbstractControlRequest {
             this.liveBrokers = liveBrokers;
         }
 
+        public List<UpdateMetadataPartitionState> partitionStates() {
+            return partitionStates;
+        }
+
+        public List<UpdateMetadataBroker> liveBrokers() {
+            return liveBrokers;
+        }
+
         @Override
         public UpdateMetadataRequest build(short version) {
             if (version < 3) {
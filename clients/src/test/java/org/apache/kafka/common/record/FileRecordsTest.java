@@ -109,6 +109,34 @@ public class FileRecordsTest {
         }
     }
 
+    @Test
+    public void testAppendFrom() throws IOException {
+        List<RecordBatch> items = batches(fileRecords);
+        int firstBatchSize = items.get(0).sizeInBytes();
+
+        FileRecords copy = FileRecords.open(tempFile());
+        assertEquals(fileRecords.sizeInBytes() - firstBatchSize,
+                copy.appendFrom(fileRecords, firstBatchSize, fileRecords.sizeInBytes() - firstBatchSize));
+        assertEquals(copy.channel().size(), copy.sizeInBytes());
+        List<RecordBatch> copied = batches(copy);
+        assertEquals(items.size() - 1, copied.size());
+        for (int i = 0; i < copied.size(); i++) {
+            assertEquals(items.get(i + 1).baseOffset(), copied.get(i).baseOffset());
+            assertEquals(items.get(i + 1).checksum(), copied.get(i).checksum());
+            copied.get(i).ensureValid();
+        }
+
+        copy.append(MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord("abcd".getBytes())));
+        assertEquals(copy.channel().size(), copy.sizeInBytes());
+        assertEquals(items.size(), batches(copy).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendFromOutOfRange() throws IOException {
+        FileRecords copy = FileRecords.open(tempFile());
+        copy.appendFrom(fileRecords, 1, fileRecords.sizeInBytes());
+    }
+
     /**
      * Test that adding invalid bytes to the end of the log doesn't break iteration
      */
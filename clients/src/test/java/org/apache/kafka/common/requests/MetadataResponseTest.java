@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.common.requests;
+
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponsePartition;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic;
+import org.apache.kafka.common.network.Send;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.Errors;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class MetadataResponseTest {
+
+    private final List<Node> brokers = Arrays.asList(new Node(0, "host0", 9092, "rack0"), new Node(1, "host1", 9093));
+
+    @Test
+    public void testSerializedTopicsMatchRegularSerialization() throws IOException {
+        for (short version = ApiKeys.METADATA.oldestVersion(); version <= ApiKeys.METADATA.latestVersion(); version++) {
+            int clusterAuthorizedOperations = version >= 8 ? 7 : MetadataResponse.AUTHORIZED_OPERATIONS_OMITTED;
+            MetadataResponse regular = MetadataResponse.prepareResponse(10,
+                Arrays.asList(topic("foo", 3), topic("__consumer_offsets", 2), unknownTopic("bar")),
+                brokers, "cluster", 1, clusterAuthorizedOperations);
+            MetadataResponse spliced = MetadataResponse.prepareResponse(10,
+                Arrays.asList(MetadataResponse.serializeTopic(topic("foo", 3), version),
+                    MetadataResponse.serializeTopic(topic("__consumer_offsets", 2), version)),
+                Collections.singletonList(unknownTopic("bar")),
+                brokers, "cluster", 1, clusterAuthorizedOperations, version);
+
+            assertArrayEquals("Unexpected serialization for version " + version,
+                sendBytes(regular, version), sendBytes(spliced, version));
+        }
+    }
+
+    @Test
+    public void testSerializedTopicsAreVisibleInResponse() {
+        short version = ApiKeys.METADATA.latestVersion();
+        MetadataResponse response = MetadataResponse.prepareResponse(0,
+            Arrays.asList(MetadataResponse.serializeTopic(topic("foo", 3), version),
+                MetadataResponse.serializeTopic(topic("baz", 1), version)),
+            Collections.singletonList(unknownTopic("bar")),
+            brokers, "cluster", 1, MetadataResponse.AUTHORIZED_OPERATIONS_OMITTED, version);
+
+        assertEquals(Integer.valueOf(2), response.errorCounts().get(Errors.NONE));
+        assertEquals(Integer.valueOf(1), response.errorCounts().get(Errors.UNKNOWN_TOPIC_OR_PARTITION));
+        assertEquals(Collections.singletonMap("bar", Errors.UNKNOWN_TOPIC_OR_PARTITION), response.errors());
+        assertEquals(3, response.topicMetadata().size());
+        assertEquals(4, response.cluster().partitionCountForTopic("foo") + response.cluster().partitionCountForTopic("baz"));
+        assertEquals(3, response.toStruct(version).getArray("topics").length);
+    }
+
+    @Test
+    public void testSerializedTopicsCannotBeSentWithAnotherVersion() {
+        short version = ApiKeys.METADATA.latestVersion();
+        MetadataResponse response = MetadataResponse.prepareResponse(0,
+            Collections.singletonList(MetadataResponse.serializeTopic(topic("foo", 1), version)),
+            Collections.emptyList(), brokers, "cluster", 1, MetadataResponse.AUTHORIZED_OPERATIONS_OMITTED, version);
+
+        assertThrows(IllegalArgumentException.class, () -> sendBytes(response, (short) (version - 1)));
+    }
+
+    private byte[] sendBytes(MetadataResponse response, short version) throws IOException {
+        Send send = response.toSend("0", new ResponseHeader(5, ApiKeys.METADATA.responseHeaderVersion(version)), version);
+        ByteBufferChannel channel = new ByteBufferChannel(send.size());
+        send.writeTo(channel);
+        channel.close();
+        ByteBuffer buffer = channel.buffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private MetadataResponseTopic topic(String name, int numPartitions) {
+        MetadataResponseTopic topic = new MetadataResponseTopic()
+            .setErrorCode(Errors.NONE.code())
+            .setName(name)
+            .setIsInternal(name.startsWith("__"));
+        for (int partition = 0; partition < numPartitions; partition++) {
+            topic.partitions().add(new MetadataResponsePartition()
+                .setErrorCode(Errors.NONE.code())
+                .setPartitionIndex(partition)
+                .setLeaderId(partition % 2)
+                .setLeaderEpoch(partition + 5)
+                .setReplicaNodes(Arrays.asList(0, 1))
+                .setIsrNodes(Collections.singletonList(partition % 2))
+                .setOfflineReplicas(Collections.singletonList((partition + 1) % 2)));
+        }
+        return topic;
+    }
+
+    private MetadataResponseTopic unknownTopic(String name) {
+        return new MetadataResponseTopic()
+            .setErrorCode(Errors.UNKNOWN_TOPIC_OR_PARTITION.code())
+            .setName(name)
+            .setIsInternal(false);
+    }
+}
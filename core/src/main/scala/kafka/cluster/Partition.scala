@@ -21,7 +21,7 @@ import java.util.{Optional, Properties}
 
 import kafka.api.{ApiVersion, LeaderAndIsr}
 import kafka.common.UnexpectedAppendOffsetException
-import kafka.controller.{KafkaController, StateChangeLogger}
+import kafka.controller.{KafkaController, LeaderIsrAndControllerEpoch, StateChangeLogger}
 import kafka.log._
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server._
@@ -45,8 +45,17 @@ import scala.jdk.CollectionConverters._
 
 trait PartitionStateStore {
   def fetchTopicConfig(): Properties
-  def shrinkIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr): Option[Int]
-  def expandIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr): Option[Int]
+
+  /**
+   * Persist the shrunk ISR of a partition. The callback is invoked with the new zkVersion once it is written, or
+   * with None if the update failed, and must be invoked without holding the lock of the partition.
+   */
+  def shrinkIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr, callback: Option[Int] => Unit): Unit
+
+  /**
+   * Persist the expanded ISR of a partition, see `shrinkIsr`.
+   */
+  def expandIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr, callback: Option[Int] => Unit): Unit
 }
 
 class ZkPartitionStateStore(topicPartition: TopicPartition,
@@ -58,31 +67,32 @@ class ZkPartitionStateStore(topicPartition: TopicPartition,
     adminZkClient.fetchEntityConfig(ConfigType.Topic, topicPartition.topic)
   }
 
-  override def shrinkIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr): Option[Int] = {
-    val newVersionOpt = updateIsr(controllerEpoch, leaderAndIsr)
-    if (newVersionOpt.isDefined)
-      replicaManager.isrShrinkRate.mark()
-    newVersionOpt
+  override def shrinkIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr, callback: Option[Int] => Unit): Unit = {
+    updateIsr(controllerEpoch, leaderAndIsr, { newVersionOpt =>
+      if (newVersionOpt.isDefined)
+        replicaManager.isrShrinkRate.mark()
+      callback(newVersionOpt)
+    })
   }
 
-  override def expandIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr): Option[Int] = {
-    val newVersionOpt = updateIsr(controllerEpoch, leaderAndIsr)
-    if (newVersionOpt.isDefined)
-      replicaManager.isrExpandRate.mark()
-    newVersionOpt
+  override def expandIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr, callback: Option[Int] => Unit): Unit = {
+    updateIsr(controllerEpoch, leaderAndIsr, { newVersionOpt =>
+      if (newVersionOpt.isDefined)
+        replicaManager.isrExpandRate.mark()
+      callback(newVersionOpt)
+    })
   }
 
-  private def updateIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr): Option[Int] = {
-    val (updateSucceeded, newVersion) = ReplicationUtils.updateLeaderAndIsr(zkClient, topicPartition,
-      leaderAndIsr, controllerEpoch)
-
-    if (updateSucceeded) {
-      replicaManager.recordIsrChange(topicPartition)
-      Some(newVersion)
-    } else {
-      replicaManager.failedIsrUpdatesRate.mark()
-      None
-    }
+  // the update is written by the ISR update thread, in a batch with the updates of other partitions
+  private def updateIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr, callback: Option[Int] => Unit): Unit = {
+    replicaManager.isrUpdateManager.submit(topicPartition, LeaderIsrAndControllerEpoch(leaderAndIsr, controllerEpoch),
+      { newVersionOpt =>
+        if (newVersionOpt.isDefined)
+          replicaManager.recordIsrChange(topicPartition)
+        else
+          replicaManager.failedIsrUpdatesRate.mark()
+        callback(newVersionOpt)
+      })
   }
 }
 
@@ -171,6 +181,21 @@ case class OngoingReassignmentState(addingReplicas: Seq[Int],
 
 case class SimpleAssignmentState(replicas: Seq[Int]) extends AssignmentState
 
+/**
+ * An ISR change of a partition which has been sent to the partition state store, and is applied once it is written.
+ */
+private[cluster] case class PendingIsrUpdate(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr, isShrink: Boolean)
+
+/**
+ * The leader state of a partition. It is replaced as a whole whenever any part of it changes, so that
+ * readers always see a consistent leader epoch, leader, ISR and log without acquiring a lock.
+ */
+private[cluster] case class LeaderState(leaderEpoch: Int,
+                                        leaderEpochStartOffsetOpt: Option[Long],
+                                        leaderReplicaIdOpt: Option[Int],
+                                        isr: Set[Int],
+                                        log: Option[Log])
+
 /**
  * Data structure that represents a topic partition. The leader maintains the AR, ISR, CUR, RAR
  *
@@ -180,7 +205,8 @@ case class SimpleAssignmentState(replicas: Seq[Int]) extends AssignmentState
  * 2) ISR updates are synchronized using a read-write lock. Read lock is used to check if an update
  *    is required to avoid acquiring write lock in the common case of replica fetch when no update
  *    is performed. ISR update condition is checked a second time under write lock before performing
- *    the update
+ *    the update. The new ISR is written to the partition state store without holding the lock, and
+ *    applied under the write lock once it is written. No other ISR change is made in the meantime.
  * 3) Various other operations like leader changes are processed while holding the ISR write lock.
  *    This can introduce delays in produce and replica fetch requests, but these operations are typically
  *    infrequent.
@@ -188,6 +214,10 @@ case class SimpleAssignmentState(replicas: Seq[Int]) extends AssignmentState
  *    locking order Partition lock -> Log lock.
  * 5) lock is used to prevent the follower replica from being updated while ReplicaAlterDirThread is
  *    executing maybeReplaceCurrentWithFutureReplica() to replace follower replica with the future replica.
+ * 6) The leader epoch, leader, ISR and log are published together as an immutable LeaderState through a
+ *    volatile reference. Fetches and offset lookups read a snapshot of it without acquiring the ISR lock.
+ *    This is safe since a log which is replaced by the future log or deleted is only renamed, and can
+ *    still be read until it is asynchronously deleted.
  */
 class Partition(val topicPartition: TopicPartition,
                 val replicaLagTimeMaxMs: Long,
@@ -209,19 +239,31 @@ class Partition(val topicPartition: TopicPartition,
   // lock to prevent the follower replica log update while checking if the log dir could be replaced with future log.
   private val futureLogLock = new Object()
   private var zkVersion: Int = LeaderAndIsr.initialZKVersion
-  @volatile private var leaderEpoch: Int = LeaderAndIsr.initialLeaderEpoch - 1
+  @volatile private var leaderState = LeaderState(
+    leaderEpoch = LeaderAndIsr.initialLeaderEpoch - 1,
+    leaderEpochStartOffsetOpt = None,
+    leaderReplicaIdOpt = None,
+    isr = Set.empty,
+    log = None)
+  // serializes updates of leaderState, since the log may be created without holding the ISR write lock
+  private val leaderStateUpdateLock = new Object()
+  @volatile var assignmentState: AssignmentState = SimpleAssignmentState(Seq.empty)
+
+  private def leaderEpoch: Int = leaderState.leaderEpoch
   // start offset for 'leaderEpoch' above (leader epoch of the current leader for this partition),
   // defined when this broker is leader for partition
-  @volatile private var leaderEpochStartOffsetOpt: Option[Long] = None
-  @volatile var leaderReplicaIdOpt: Option[Int] = None
-  @volatile var inSyncReplicaIds = Set.empty[Int]
-  @volatile var assignmentState: AssignmentState = SimpleAssignmentState(Seq.empty)
+  private def leaderEpochStartOffsetOpt: Option[Long] = leaderState.leaderEpochStartOffsetOpt
+  def leaderReplicaIdOpt: Option[Int] = leaderState.leaderReplicaIdOpt
+  // Visible for testing
+  def leaderReplicaIdOpt_=(leaderReplicaIdOpt: Option[Int]): Unit =
+    updateLeaderState(_.copy(leaderReplicaIdOpt = leaderReplicaIdOpt))
+  def inSyncReplicaIds: Set[Int] = leaderState.isr
 
   // Logs belonging to this partition. Majority of time it will be only one log, but if log directory
   // is getting changed (as a result of ReplicaAlterLogDirs command), we may have two logs until copy
   // completes and a switch to new location is performed.
   // log and futureLog variables defined below are used to capture this
-  @volatile var log: Option[Log] = None
+  def log: Option[Log] = leaderState.log
   // If ReplicaAlterLogDir command is in progress, this is future location of the log
   @volatile var futureLog: Option[Log] = None
 
@@ -231,8 +273,14 @@ class Partition(val topicPartition: TopicPartition,
    * In addition to the leader, the controller can also send the epoch of the controller that elected the leader for
    * each partition. */
   private var controllerEpoch: Int = KafkaController.InitialControllerEpoch
+  // the ISR change which is being written to the partition state store, guarded by leaderIsrUpdateLock
+  private var pendingIsrUpdate: Option[PendingIsrUpdate] = None
   this.logIdent = s"[Partition $topicPartition broker=$localBrokerId] "
 
+  private def updateLeaderState(update: LeaderState => LeaderState): Unit = leaderStateUpdateLock.synchronized {
+    leaderState = update(leaderState)
+  }
+
   private val tags = Map("topic" -> topic, "partition" -> partitionId.toString)
 
   newGauge("UnderReplicated", () => if (isUnderReplicated) 1 else 0, tags)
@@ -295,7 +343,7 @@ class Partition(val topicPartition: TopicPartition,
         this.futureLog = Option(log)
       case false if log.isEmpty =>
         val log = createLog(isNew, isFutureReplica, offsetCheckpoints)
-        this.log = Option(log)
+        updateLeaderState(_.copy(log = Some(log)))
       case _ => trace(s"${if (isFutureReplica) "Future Log" else "Log"} already exists.")
     }
   }
@@ -334,12 +382,11 @@ class Partition(val topicPartition: TopicPartition,
     throw new NotLeaderOrFollowerException(s"Replica with id $replicaId is not available on broker $localBrokerId")
   }
 
-  private def checkCurrentLeaderEpoch(remoteLeaderEpochOpt: Optional[Integer]): Errors = {
+  private def checkCurrentLeaderEpoch(localLeaderEpoch: Int, remoteLeaderEpochOpt: Optional[Integer]): Errors = {
     if (!remoteLeaderEpochOpt.isPresent) {
       Errors.NONE
     } else {
       val remoteLeaderEpoch = remoteLeaderEpochOpt.get
-      val localLeaderEpoch = leaderEpoch
       if (localLeaderEpoch > remoteLeaderEpoch)
         Errors.FENCED_LEADER_EPOCH
       else if (localLeaderEpoch < remoteLeaderEpoch)
@@ -349,14 +396,15 @@ class Partition(val topicPartition: TopicPartition,
     }
   }
 
-  private def getLocalLog(currentLeaderEpoch: Optional[Integer],
+  private def getLocalLog(state: LeaderState,
+                          currentLeaderEpoch: Optional[Integer],
                           requireLeader: Boolean): Either[Log, Errors] = {
-    checkCurrentLeaderEpoch(currentLeaderEpoch) match {
+    checkCurrentLeaderEpoch(state.leaderEpoch, currentLeaderEpoch) match {
       case Errors.NONE =>
-        if (requireLeader && !isLeader) {
+        if (requireLeader && !state.leaderReplicaIdOpt.contains(localBrokerId)) {
           Right(Errors.NOT_LEADER_OR_FOLLOWER)
         } else {
-          log match {
+          state.log match {
             case Some(partitionLog) =>
               Left(partitionLog)
             case _ =>
@@ -379,7 +427,8 @@ class Partition(val topicPartition: TopicPartition,
   }
 
   def leaderLogIfLocal: Option[Log] = {
-    log.filter(_ => isLeader)
+    val state = leaderState
+    state.log.filter(_ => state.leaderReplicaIdOpt.contains(localBrokerId))
   }
 
   /**
@@ -387,14 +436,15 @@ class Partition(val topicPartition: TopicPartition,
    */
   def isLeader: Boolean = leaderReplicaIdOpt.contains(localBrokerId)
 
-  private def localLogWithEpochOrException(currentLeaderEpoch: Optional[Integer],
+  private def localLogWithEpochOrException(state: LeaderState,
+                                           currentLeaderEpoch: Optional[Integer],
                                            requireLeader: Boolean): Log = {
-    getLocalLog(currentLeaderEpoch, requireLeader) match {
+    getLocalLog(state, currentLeaderEpoch, requireLeader) match {
       case Left(localLog) => localLog
       case Right(error) =>
         throw error.exception(s"Failed to find ${if (requireLeader) "leader " else ""} log for " +
           s"partition $topicPartition with leader epoch $currentLeaderEpoch. The current leader " +
-          s"is $leaderReplicaIdOpt and the current epoch $leaderEpoch")
+          s"is ${state.leaderReplicaIdOpt} and the current epoch ${state.leaderEpoch}")
     }
   }
 
@@ -403,7 +453,7 @@ class Partition(val topicPartition: TopicPartition,
     if (isFutureLog)
       futureLog = Some(log)
     else
-      this.log = Some(log)
+      updateLeaderState(_.copy(log = Some(log)))
   }
 
   // remoteReplicas will be called in the hot path, and must be inexpensive
@@ -440,7 +490,7 @@ class Partition(val topicPartition: TopicPartition,
             case Some(futurePartitionLog) =>
               if (log.exists(_.logEndOffset == futurePartitionLog.logEndOffset)) {
                 logManager.replaceCurrentWithFutureLog(topicPartition)
-                log = futureLog
+                updateLeaderState(_.copy(log = futureLog))
                 removeFutureLocalReplica(false)
                 true
               } else false
@@ -461,11 +511,10 @@ class Partition(val topicPartition: TopicPartition,
     inWriteLock(leaderIsrUpdateLock) {
       remoteReplicasMap.clear()
       assignmentState = SimpleAssignmentState(Seq.empty)
-      log = None
+      updateLeaderState(_.copy(leaderEpochStartOffsetOpt = None, leaderReplicaIdOpt = None, isr = Set.empty,
+        log = None))
+      pendingIsrUpdate = None
       futureLog = None
-      inSyncReplicaIds = Set.empty
-      leaderReplicaIdOpt = None
-      leaderEpochStartOffsetOpt = None
       Partition.removeMetrics(topicPartition)
       logManager.asyncDelete(topicPartition)
       if (logManager.getLog(topicPartition, isFuture = true).isDefined)
@@ -486,6 +535,8 @@ class Partition(val topicPartition: TopicPartition,
       // record the epoch of the controller that made the leadership decision. This is useful while updating the isr
       // to maintain the decision maker controller's epoch in the zookeeper path
       controllerEpoch = partitionState.controllerEpoch
+      // an ISR change which is still being written is based on the previous partition state
+      pendingIsrUpdate = None
 
       val isr = partitionState.isr.asScala.map(_.toInt).toSet
       val addingReplicas = partitionState.addingReplicas.asScala.map(_.toInt)
@@ -505,17 +556,13 @@ class Partition(val topicPartition: TopicPartition,
         s"ISR ${isr.mkString("[", ",", "]")} addingReplicas ${addingReplicas.mkString("[", ",", "]")} " +
         s"removingReplicas ${removingReplicas.mkString("[", ",", "]")}. Previous leader epoch was $leaderEpoch.")
 
-      //We cache the leader epoch here, persisting it only if it's local (hence having a log dir)
-      leaderEpoch = partitionState.leaderEpoch
-      leaderEpochStartOffsetOpt = Some(leaderEpochStartOffset)
-      zkVersion = partitionState.zkVersion
-
       // In the case of successive leader elections in a short time period, a follower may have
       // entries in its log from a later epoch than any entry in the new leader's log. In order
       // to ensure that these followers can truncate to the right offset, we must cache the new
       // leader epoch and the start offset since it should be larger than any epoch that a follower
-      // would try to query.
-      leaderLog.maybeAssignEpochStartOffset(leaderEpoch, leaderEpochStartOffset)
+      // would try to query. This is done before the new epoch is published, since followers may
+      // query it without acquiring the ISR lock.
+      leaderLog.maybeAssignEpochStartOffset(partitionState.leaderEpoch, leaderEpochStartOffset)
 
       val isNewLeader = !isLeader
       val curTimeMs = time.milliseconds
@@ -526,8 +573,6 @@ class Partition(val topicPartition: TopicPartition,
       }
 
       if (isNewLeader) {
-        // mark local replica as the leader after converting hw
-        leaderReplicaIdOpt = Some(localBrokerId)
         // reset log end offset for remote replicas
         remoteReplicas.foreach { replica =>
           replica.updateFetchState(
@@ -537,12 +582,26 @@ class Partition(val topicPartition: TopicPartition,
             leaderEndOffset = Log.UnknownOffset)
         }
       }
+
+      //We cache the leader epoch here, persisting it only if it's local (hence having a log dir).
+      // The epoch and the local replica as leader are published together after the remote replicas are
+      // reset, since fetches read them without acquiring the ISR lock.
+      updateLeaderState(_.copy(
+        leaderEpoch = partitionState.leaderEpoch,
+        leaderEpochStartOffsetOpt = Some(leaderEpochStartOffset),
+        leaderReplicaIdOpt = Some(localBrokerId)))
+      zkVersion = partitionState.zkVersion
+
       // we may need to increment high watermark since ISR could be down to 1
       (maybeIncrementLeaderHW(leaderLog), isNewLeader)
     }
     // some delayed operations may be unblocked after HW changed
     if (leaderHWIncremented)
       tryCompleteDelayedRequests()
+    else {
+      // delayed fetches only check this partition again when its key fires, and the new leader epoch may fence them
+      delayedOperations.checkAndCompleteFetch()
+    }
     isNewLeader
   }
 
@@ -560,6 +619,8 @@ class Partition(val topicPartition: TopicPartition,
       // record the epoch of the controller that made the leadership decision. This is useful while updating the isr
       // to maintain the decision maker controller's epoch in the zookeeper path
       controllerEpoch = partitionState.controllerEpoch
+      // an ISR change which is still being written is based on the previous partition state
+      pendingIsrUpdate = None
 
       updateAssignmentAndIsr(
         assignment = partitionState.replicas.asScala.iterator.map(_.toInt).toSeq,
@@ -575,16 +636,14 @@ class Partition(val topicPartition: TopicPartition,
         s"offset $leaderEpochEndOffset with high watermark ${followerLog.highWatermark}. " +
         s"Previous leader epoch was $leaderEpoch.")
 
-      leaderEpoch = partitionState.leaderEpoch
-      leaderEpochStartOffsetOpt = None
+      val isNewLeaderOrEpoch = !leaderReplicaIdOpt.contains(newLeaderBrokerId) ||
+        partitionState.leaderEpoch != oldLeaderEpoch
+      updateLeaderState(_.copy(
+        leaderEpoch = partitionState.leaderEpoch,
+        leaderEpochStartOffsetOpt = None,
+        leaderReplicaIdOpt = Some(newLeaderBrokerId)))
       zkVersion = partitionState.zkVersion
-
-      if (leaderReplicaIdOpt.contains(newLeaderBrokerId) && leaderEpoch == oldLeaderEpoch) {
-        false
-      } else {
-        leaderReplicaIdOpt = Some(newLeaderBrokerId)
-        true
-      }
+      isNewLeaderOrEpoch
     }
   }
 
@@ -672,7 +731,7 @@ class Partition(val topicPartition: TopicPartition,
       assignmentState = OngoingReassignmentState(addingReplicas, removingReplicas, assignment)
     else
       assignmentState = SimpleAssignmentState(assignment)
-    inSyncReplicaIds = isr
+    updateLeaderState(_.copy(isr = isr))
   }
 
   /**
@@ -694,20 +753,23 @@ class Partition(val topicPartition: TopicPartition,
       needsExpandIsr(followerReplica)
     }
     if (needsIsrUpdate) {
-      inWriteLock(leaderIsrUpdateLock) {
+      val isrUpdateOpt = inWriteLock(leaderIsrUpdateLock) {
         // check if this replica needs to be added to the ISR
         if (needsExpandIsr(followerReplica)) {
           val newInSyncReplicaIds = inSyncReplicaIds + followerReplica.brokerId
           info(s"Expanding ISR from ${inSyncReplicaIds.mkString(",")} to ${newInSyncReplicaIds.mkString(",")}")
-          // update ISR in ZK and cache
-          expandIsr(newInSyncReplicaIds)
+          Some(expandIsr(newInSyncReplicaIds))
+        } else {
+          None
         }
       }
+      // update ISR in ZK, and in cache once it is written
+      isrUpdateOpt.foreach(sendIsrUpdate)
     }
   }
 
   private def needsExpandIsr(followerReplica: Replica): Boolean = {
-    leaderLogIfLocal.exists { leaderLog =>
+    pendingIsrUpdate.isEmpty && leaderLogIfLocal.exists { leaderLog =>
       val leaderHighwatermark = leaderLog.highWatermark
       !inSyncReplicaIds.contains(followerReplica.brokerId) && isFollowerInSync(followerReplica, leaderHighwatermark)
     }
@@ -850,7 +912,7 @@ class Partition(val topicPartition: TopicPartition,
     val needsIsrUpdate = inReadLock(leaderIsrUpdateLock) {
       needsShrinkIsr()
     }
-    val leaderHWIncremented = needsIsrUpdate && inWriteLock(leaderIsrUpdateLock) {
+    val isrUpdateOpt = if (!needsIsrUpdate) None else inWriteLock(leaderIsrUpdateLock) {
       leaderLogIfLocal match {
         case Some(leaderLog) =>
           val outOfSyncReplicaIds = getOutOfSyncReplicas(replicaLagTimeMaxMs)
@@ -868,26 +930,21 @@ class Partition(val topicPartition: TopicPartition,
               )
             )
 
-            // update ISR in zk and in cache
-            shrinkIsr(newInSyncReplicaIds)
-
-            // we may need to increment high watermark since ISR could be down to 1
-            maybeIncrementLeaderHW(leaderLog)
+            Some(shrinkIsr(newInSyncReplicaIds))
           } else {
-            false
+            None
           }
 
-        case None => false // do nothing if no longer leader
+        case None => None // do nothing if no longer leader
       }
     }
 
-    // some delayed operations may be unblocked after HW changed
-    if (leaderHWIncremented)
-      tryCompleteDelayedRequests()
+    // update ISR in zk, and in cache once it is written
+    isrUpdateOpt.foreach(sendIsrUpdate)
   }
 
   private def needsShrinkIsr(): Boolean = {
-    if (isLeader) {
+    if (isLeader && pendingIsrUpdate.isEmpty) {
       val outOfSyncReplicaIds = getOutOfSyncReplicas(replicaLagTimeMaxMs)
       outOfSyncReplicaIds.nonEmpty
     } else {
@@ -1008,9 +1065,9 @@ class Partition(val topicPartition: TopicPartition,
                   maxBytes: Int,
                   fetchIsolation: FetchIsolation,
                   fetchOnlyFromLeader: Boolean,
-                  minOneMessage: Boolean): LogReadInfo = inReadLock(leaderIsrUpdateLock) {
+                  minOneMessage: Boolean): LogReadInfo = {
     // decide whether to only fetch from leader
-    val localLog = localLogWithEpochOrException(currentLeaderEpoch, fetchOnlyFromLeader)
+    val localLog = localLogWithEpochOrException(leaderState, currentLeaderEpoch, fetchOnlyFromLeader)
 
     // Note we use the log end offset prior to the read. This ensures that any appends following
     // the fetch do not prevent a follower from coming into sync.
@@ -1031,9 +1088,10 @@ class Partition(val topicPartition: TopicPartition,
   def fetchOffsetForTimestamp(timestamp: Long,
                               isolationLevel: Option[IsolationLevel],
                               currentLeaderEpoch: Optional[Integer],
-                              fetchOnlyFromLeader: Boolean): Option[TimestampAndOffset] = inReadLock(leaderIsrUpdateLock) {
+                              fetchOnlyFromLeader: Boolean): Option[TimestampAndOffset] = {
+    val state = leaderState
     // decide whether to only fetch from leader
-    val localLog = localLogWithEpochOrException(currentLeaderEpoch, fetchOnlyFromLeader)
+    val localLog = localLogWithEpochOrException(state, currentLeaderEpoch, fetchOnlyFromLeader)
 
     val lastFetchableOffset = isolationLevel match {
       case Some(IsolationLevel.READ_COMMITTED) => localLog.lastStableOffset
@@ -1049,7 +1107,7 @@ class Partition(val topicPartition: TopicPartition,
 
     // Only consider throwing an error if we get a client request (isolationLevel is defined) and the start offset
     // is lagging behind the high watermark
-    val maybeOffsetsError: Option[ApiException] = leaderEpochStartOffsetOpt
+    val maybeOffsetsError: Option[ApiException] = state.leaderEpochStartOffsetOpt
       .filter(epochStart => isolationLevel.isDefined && epochStart > localLog.highWatermark)
       .map(epochStart => Errors.OFFSET_NOT_AVAILABLE.exception(s"Failed to fetch offsets for " +
         s"partition $topicPartition with leader $epochLogString as this partition's " +
@@ -1065,7 +1123,7 @@ class Partition(val topicPartition: TopicPartition,
     timestamp match {
       case ListOffsetRequest.LATEST_TIMESTAMP =>
         maybeOffsetsError.map(e => throw e)
-          .orElse(Some(new TimestampAndOffset(RecordBatch.NO_TIMESTAMP, lastFetchableOffset, Optional.of(leaderEpoch))))
+          .orElse(Some(new TimestampAndOffset(RecordBatch.NO_TIMESTAMP, lastFetchableOffset, Optional.of(state.leaderEpoch))))
       case ListOffsetRequest.EARLIEST_TIMESTAMP =>
         getOffsetByTimestamp
       case _ =>
@@ -1075,17 +1133,17 @@ class Partition(val topicPartition: TopicPartition,
   }
 
   def fetchOffsetSnapshot(currentLeaderEpoch: Optional[Integer],
-                          fetchOnlyFromLeader: Boolean): LogOffsetSnapshot = inReadLock(leaderIsrUpdateLock) {
+                          fetchOnlyFromLeader: Boolean): LogOffsetSnapshot = {
     // decide whether to only fetch from leader
-    val localLog = localLogWithEpochOrException(currentLeaderEpoch, fetchOnlyFromLeader)
+    val localLog = localLogWithEpochOrException(leaderState, currentLeaderEpoch, fetchOnlyFromLeader)
     localLog.fetchOffsetSnapshot
   }
 
   def legacyFetchOffsetsForTimestamp(timestamp: Long,
                                      maxNumOffsets: Int,
                                      isFromConsumer: Boolean,
-                                     fetchOnlyFromLeader: Boolean): Seq[Long] = inReadLock(leaderIsrUpdateLock) {
-    val localLog = localLogWithEpochOrException(Optional.empty(), fetchOnlyFromLeader)
+                                     fetchOnlyFromLeader: Boolean): Seq[Long] = {
+    val localLog = localLogWithEpochOrException(leaderState, Optional.empty(), fetchOnlyFromLeader)
     val allOffsets = localLog.legacyFetchOffsetsBefore(timestamp, maxNumOffsets)
 
     if (!isFromConsumer) {
@@ -1100,9 +1158,7 @@ class Partition(val topicPartition: TopicPartition,
   }
 
   def logStartOffset: Long = {
-    inReadLock(leaderIsrUpdateLock) {
-      leaderLogIfLocal.map(_.logStartOffset).getOrElse(-1)
-    }
+    leaderLogIfLocal.map(_.logStartOffset).getOrElse(-1)
   }
 
   /**
@@ -1178,36 +1234,70 @@ class Partition(val topicPartition: TopicPartition,
   def lastOffsetForLeaderEpoch(currentLeaderEpoch: Optional[Integer],
                                leaderEpoch: Int,
                                fetchOnlyFromLeader: Boolean): EpochEndOffset = {
-    inReadLock(leaderIsrUpdateLock) {
-      val localLogOrError = getLocalLog(currentLeaderEpoch, fetchOnlyFromLeader)
-      localLogOrError match {
-        case Left(localLog) =>
-          localLog.endOffsetForEpoch(leaderEpoch) match {
-            case Some(epochAndOffset) => new EpochEndOffset(NONE, epochAndOffset.leaderEpoch, epochAndOffset.offset)
-            case None => new EpochEndOffset(NONE, UNDEFINED_EPOCH, UNDEFINED_EPOCH_OFFSET)
-          }
-        case Right(error) =>
-          new EpochEndOffset(error, UNDEFINED_EPOCH, UNDEFINED_EPOCH_OFFSET)
-      }
+    val localLogOrError = getLocalLog(leaderState, currentLeaderEpoch, fetchOnlyFromLeader)
+    localLogOrError match {
+      case Left(localLog) =>
+        localLog.endOffsetForEpoch(leaderEpoch) match {
+          case Some(epochAndOffset) => new EpochEndOffset(NONE, epochAndOffset.leaderEpoch, epochAndOffset.offset)
+          case None => new EpochEndOffset(NONE, UNDEFINED_EPOCH, UNDEFINED_EPOCH_OFFSET)
+        }
+      case Right(error) =>
+        new EpochEndOffset(error, UNDEFINED_EPOCH, UNDEFINED_EPOCH_OFFSET)
     }
   }
 
-  private def expandIsr(newIsr: Set[Int]): Unit = {
-    val newLeaderAndIsr = new LeaderAndIsr(localBrokerId, leaderEpoch, newIsr.toList, zkVersion)
-    val zkVersionOpt = stateStore.expandIsr(controllerEpoch, newLeaderAndIsr)
-    maybeUpdateIsrAndVersion(newIsr, zkVersionOpt)
+  /**
+   * Prepare the expansion of the ISR, which must be sent with `sendIsrUpdate` after releasing the write lock.
+   */
+  private def expandIsr(newIsr: Set[Int]): PendingIsrUpdate = {
+    prepareIsrUpdate(newIsr, isShrink = false)
   }
 
-  private[cluster] def shrinkIsr(newIsr: Set[Int]): Unit = {
+  /**
+   * Prepare the shrinking of the ISR, which must be sent with `sendIsrUpdate` after releasing the write lock.
+   */
+  private[cluster] def shrinkIsr(newIsr: Set[Int]): PendingIsrUpdate = {
+    prepareIsrUpdate(newIsr, isShrink = true)
+  }
+
+  private def prepareIsrUpdate(newIsr: Set[Int], isShrink: Boolean): PendingIsrUpdate = {
     val newLeaderAndIsr = new LeaderAndIsr(localBrokerId, leaderEpoch, newIsr.toList, zkVersion)
-    val zkVersionOpt = stateStore.shrinkIsr(controllerEpoch, newLeaderAndIsr)
-    maybeUpdateIsrAndVersion(newIsr, zkVersionOpt)
+    val isrUpdate = PendingIsrUpdate(controllerEpoch, newLeaderAndIsr, isShrink)
+    pendingIsrUpdate = Some(isrUpdate)
+    isrUpdate
+  }
+
+  private def sendIsrUpdate(isrUpdate: PendingIsrUpdate): Unit = {
+    val callback = (zkVersionOpt: Option[Int]) => completeIsrUpdate(isrUpdate, zkVersionOpt)
+    if (isrUpdate.isShrink)
+      stateStore.shrinkIsr(isrUpdate.controllerEpoch, isrUpdate.leaderAndIsr, callback)
+    else
+      stateStore.expandIsr(isrUpdate.controllerEpoch, isrUpdate.leaderAndIsr, callback)
+  }
+
+  private def completeIsrUpdate(isrUpdate: PendingIsrUpdate, zkVersionOpt: Option[Int]): Unit = {
+    val leaderHWIncremented = inWriteLock(leaderIsrUpdateLock) {
+      // the update is ignored if the partition state was changed by the controller while it was written
+      if (pendingIsrUpdate.exists(_ eq isrUpdate)) {
+        pendingIsrUpdate = None
+        maybeUpdateIsrAndVersion(isrUpdate.leaderAndIsr.isr.toSet, zkVersionOpt)
+        // we may need to increment high watermark since ISR could be down to 1
+        zkVersionOpt.isDefined && leaderLogIfLocal.exists(leaderLog => maybeIncrementLeaderHW(leaderLog))
+      } else {
+        info(s"Ignoring ISR update to ${isrUpdate.leaderAndIsr} since the partition state has changed")
+        false
+      }
+    }
+
+    // some delayed operations may be unblocked after HW changed
+    if (leaderHWIncremented)
+      tryCompleteDelayedRequests()
   }
 
   private[cluster] def maybeUpdateIsrAndVersion(isr: Set[Int], zkVersionOpt: Option[Int]): Unit = {
     zkVersionOpt match {
       case Some(newVersion) =>
-        inSyncReplicaIds = isr
+        updateLeaderState(_.copy(isr = isr))
         zkVersion = newVersion
         info("ISR updated to [%s] and zkVersion updated to [%d]".format(isr.mkString(","), zkVersion))
 
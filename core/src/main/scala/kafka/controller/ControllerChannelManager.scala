@@ -16,10 +16,12 @@
 */
 package kafka.controller
 
+import java.io.IOException
 import java.net.SocketTimeoutException
+import java.util
 import java.util.concurrent.{BlockingQueue, LinkedBlockingQueue, TimeUnit}
 
-import com.yammer.metrics.core.{Gauge, Timer}
+import com.yammer.metrics.core.{Gauge, Meter, Timer}
 import kafka.api._
 import kafka.cluster.Broker
 import kafka.metrics.KafkaMetricsGroup
@@ -45,6 +47,7 @@ import scala.collection.{Seq, Set, mutable}
 object ControllerChannelManager {
   val QueueSizeMetricName = "QueueSize"
   val RequestRateAndQueueTimeMetricName = "RequestRateAndQueueTimeMs"
+  val MergedUpdateMetadataRequestsMetricName = "MergedUpdateMetadataRequestsPerSec"
 }
 
 class ControllerChannelManager(controllerContext: ControllerContext,
@@ -86,6 +89,8 @@ class ControllerChannelManager(controllerContext: ControllerContext,
       stateInfoOpt match {
         case Some(stateInfo) =>
           stateInfo.messageQueue.put(QueueItem(request.apiKey, request, callback, time.milliseconds()))
+          // the send thread may be waiting for the responses of the requests in flight rather than for queued requests
+          stateInfo.networkClient.wakeup()
         case None =>
           warn(s"Not sending request $request to broker $brokerId, since it is offline.")
       }
@@ -147,7 +152,7 @@ class ControllerChannelManager(controllerContext: ControllerContext,
         selector,
         new ManualMetadataUpdater(Seq(brokerNode).asJava),
         config.brokerId.toString,
-        1,
+        config.controllerMaxInFlightRequestsPerBroker,
         0,
         0,
         Selectable.USE_DEFAULT_BUFFER_SIZE,
@@ -170,8 +175,13 @@ class ControllerChannelManager(controllerContext: ControllerContext,
       RequestRateAndQueueTimeMetricName, TimeUnit.MILLISECONDS, TimeUnit.SECONDS, brokerMetricTags(broker.id)
     )
 
+    val mergedUpdateMetadataRequestsMeter = newMeter(
+      MergedUpdateMetadataRequestsMetricName, "requests", TimeUnit.SECONDS, brokerMetricTags(broker.id)
+    )
+
     val requestThread = new RequestSendThread(config.brokerId, controllerContext, messageQueue, networkClient,
-      brokerNode, config, time, requestRateAndQueueTimeMetrics, stateChangeLogger, threadName)
+      brokerNode, config, time, requestRateAndQueueTimeMetrics, mergedUpdateMetadataRequestsMeter, stateChangeLogger,
+      threadName)
     requestThread.setDaemon(false)
 
     val queueSizeGauge = newGauge(QueueSizeMetricName, () => messageQueue.size, brokerMetricTags(broker.id))
@@ -194,6 +204,7 @@ class ControllerChannelManager(controllerContext: ControllerContext,
       brokerState.messageQueue.clear()
       removeMetric(QueueSizeMetricName, brokerMetricTags(brokerState.brokerNode.id))
       removeMetric(RequestRateAndQueueTimeMetricName, brokerMetricTags(brokerState.brokerNode.id))
+      removeMetric(MergedUpdateMetadataRequestsMetricName, brokerMetricTags(brokerState.brokerNode.id))
       brokerStateInfo.remove(brokerState.brokerNode.id)
     } catch {
       case e: Throwable => error("Error while removing broker by the controller", e)
@@ -210,79 +221,185 @@ class ControllerChannelManager(controllerContext: ControllerContext,
 case class QueueItem(apiKey: ApiKeys, request: AbstractControlRequest.Builder[_ <: AbstractControlRequest],
                      callback: AbstractResponse => Unit, enqueueTimeMs: Long)
 
+/**
+ * A request sent to a broker, which is either a queued request or the merge of several queued UpdateMetadata requests.
+ */
+private[controller] class ControllerRequest(val requestBuilder: AbstractControlRequest.Builder[_ <: AbstractControlRequest],
+                                            val queueItems: Seq[QueueItem]) {
+  var correlationId: Int = -1
+}
+
+object RequestSendThread {
+
+  /**
+   * Whether the UpdateMetadata request `next` can be merged into the UpdateMetadata requests queued before it.
+   */
+  def canMerge(first: QueueItem, next: QueueItem): Boolean = {
+    next != null && next.apiKey == ApiKeys.UPDATE_METADATA && {
+      val firstRequest = first.request
+      val nextRequest = next.request
+      nextRequest.latestAllowedVersion == firstRequest.latestAllowedVersion &&
+        nextRequest.controllerId == firstRequest.controllerId &&
+        nextRequest.controllerEpoch == firstRequest.controllerEpoch &&
+        nextRequest.brokerEpoch == firstRequest.brokerEpoch
+    }
+  }
+
+  /**
+   * Merges UpdateMetadata requests into one which leaves the metadata cache of the broker in the same state as the
+   * requests would in order: the state of a partition is its state in the last request which includes it, and the
+   * live brokers are those of the last request, since each request replaces the live brokers of the cache.
+   */
+  def mergeUpdateMetadataRequests(requests: Seq[UpdateMetadataRequest.Builder]): UpdateMetadataRequest.Builder = {
+    val partitionStates = mutable.LinkedHashMap[TopicPartition, UpdateMetadataPartitionState]()
+    requests.foreach { request =>
+      request.partitionStates.forEach { partitionState =>
+        partitionStates.put(new TopicPartition(partitionState.topicName, partitionState.partitionIndex), partitionState)
+      }
+    }
+    val lastRequest = requests.last
+    new UpdateMetadataRequest.Builder(lastRequest.latestAllowedVersion, lastRequest.controllerId,
+      lastRequest.controllerEpoch, lastRequest.brokerEpoch, partitionStates.values.toBuffer.asJava,
+      lastRequest.liveBrokers)
+  }
+}
+
+/**
+ * Sends the requests queued for a broker, with up to `config.controllerMaxInFlightRequestsPerBroker` requests in
+ * flight. Brokers process the requests of a connection one at a time and in order, so the requests are processed in
+ * the order they were queued, and their callbacks are invoked in that order. If the connection fails, the requests
+ * in flight are sent again, in order, once the controller has reconnected.
+ *
+ * UpdateMetadata requests queued one after the other are merged into a single request before they are sent.
+ */
 class RequestSendThread(val controllerId: Int,
                         val controllerContext: ControllerContext,
                         val queue: BlockingQueue[QueueItem],
-                        val networkClient: NetworkClient,
+                        val networkClient: KafkaClient,
                         val brokerNode: Node,
                         val config: KafkaConfig,
                         val time: Time,
                         val requestRateAndQueueTimeMetrics: Timer,
+                        val mergedUpdateMetadataRequestsMeter: Meter,
                         val stateChangeLogger: StateChangeLogger,
                         name: String)
   extends ShutdownableThread(name = name) {
+  import RequestSendThread._
 
   logIdent = s"[RequestSendThread controllerId=$controllerId] "
 
   private val socketTimeoutMs = config.controllerSocketTimeoutMs
+  private val maxInFlightRequests = config.controllerMaxInFlightRequestsPerBroker
+
+  /* requests taken from the queue which were not sent yet, or need to be sent again, in order */
+  private val requestsToSend = new util.ArrayDeque[ControllerRequest]()
+  /* requests sent on the current connection whose response was not received yet, in order */
+  private val inFlightRequests = new util.ArrayDeque[ControllerRequest]()
 
   override def doWork(): Unit = {
 
     def backoff(): Unit = pause(100, TimeUnit.MILLISECONDS)
 
-    val QueueItem(apiKey, requestBuilder, callback, enqueueTimeMs) = queue.take()
-    requestRateAndQueueTimeMetrics.update(time.milliseconds() - enqueueTimeMs, TimeUnit.MILLISECONDS)
+    if (requestsToSend.isEmpty && inFlightRequests.isEmpty)
+      requestsToSend.add(dequeueRequest(queue.take()))
+    while (requestsToSend.size + inFlightRequests.size < maxInFlightRequests && !queue.isEmpty)
+      requestsToSend.add(dequeueRequest(queue.poll()))
 
-    var clientResponse: ClientResponse = null
     try {
-      var isSendSuccessful = false
-      while (isRunning && !isSendSuccessful) {
-        // if a broker goes down for a long time, then at some point the controller's zookeeper listener will trigger a
-        // removeBroker which will invoke shutdown() on this thread. At that point, we will stop retrying.
-        try {
-          if (!brokerReady()) {
-            isSendSuccessful = false
-            backoff()
-          }
-          else {
-            val clientRequest = networkClient.newClientRequest(brokerNode.idString, requestBuilder,
-              time.milliseconds(), true)
-            clientResponse = NetworkClientUtils.sendAndReceive(networkClient, clientRequest, time)
-            isSendSuccessful = true
-          }
-        } catch {
-          case e: Throwable => // if the send was not successful, reconnect to broker and resend the message
-            warn(s"Controller $controllerId epoch ${controllerContext.epoch} fails to send request $requestBuilder " +
-              s"to broker $brokerNode. Reconnecting to broker.", e)
-            networkClient.close(brokerNode.idString)
-            isSendSuccessful = false
-            backoff()
-        }
+      // if a broker goes down for a long time, then at some point the controller's zookeeper listener will trigger a
+      // removeBroker which will invoke shutdown() on this thread. At that point, we will stop retrying.
+      // The readiness of the broker is only awaited without requests in flight, since awaiting it polls the client
+      // and would drop their responses.
+      if (inFlightRequests.isEmpty && !brokerReady())
+        backoff()
+      else {
+        sendRequests()
+        networkClient.poll(Long.MaxValue, time.milliseconds()).forEach(completeRequest(_))
       }
-      if (clientResponse != null) {
-        val requestHeader = clientResponse.requestHeader
-        val api = requestHeader.apiKey
-        if (api != ApiKeys.LEADER_AND_ISR && api != ApiKeys.STOP_REPLICA && api != ApiKeys.UPDATE_METADATA)
-          throw new KafkaException(s"Unexpected apiKey received: $apiKey")
+    } catch {
+      case e: Throwable => // if the send was not successful, reconnect to broker and resend the requests in flight
+        warn(s"Controller $controllerId epoch ${controllerContext.epoch} fails to send requests to broker " +
+          s"$brokerNode. Reconnecting to broker.", e)
+        closeConnection()
+        backoff()
+    }
+  }
 
-        val response = clientResponse.responseBody
+  private def dequeueRequest(queueItem: QueueItem): ControllerRequest = {
+    val queueItems = mutable.ArrayBuffer(queueItem)
+    if (queueItem.apiKey == ApiKeys.UPDATE_METADATA) {
+      // this thread is the only consumer of the queue, so the polled item is the one peeked at
+      while (canMerge(queueItem, queue.peek))
+        queueItems += queue.poll()
+    }
+
+    val now = time.milliseconds()
+    queueItems.foreach { item =>
+      requestRateAndQueueTimeMetrics.update(now - item.enqueueTimeMs, TimeUnit.MILLISECONDS)
+    }
 
-        stateChangeLogger.withControllerEpoch(controllerContext.epoch).trace(s"Received response " +
-          s"${response.toString(requestHeader.apiVersion)} for request $api with correlation id " +
-          s"${requestHeader.correlationId} sent to broker $brokerNode")
+    if (queueItems.size == 1)
+      new ControllerRequest(queueItem.request, queueItems)
+    else {
+      mergedUpdateMetadataRequestsMeter.mark(queueItems.size - 1)
+      val requestBuilder = mergeUpdateMetadataRequests(queueItems.map(_.request.asInstanceOf[UpdateMetadataRequest.Builder]))
+      debug(s"Merged ${queueItems.size} UpdateMetadata requests to broker $brokerNode into $requestBuilder")
+      new ControllerRequest(requestBuilder, queueItems)
+    }
+  }
 
-        if (callback != null) {
-          callback(response)
+  private def sendRequests(): Unit = {
+    while (!requestsToSend.isEmpty && networkClient.isReady(brokerNode, time.milliseconds())) {
+      val request = requestsToSend.peek
+      val clientRequest = networkClient.newClientRequest(brokerNode.idString, request.requestBuilder,
+        time.milliseconds(), true)
+      networkClient.send(clientRequest, time.milliseconds())
+      request.correlationId = clientRequest.correlationId
+      inFlightRequests.add(requestsToSend.poll())
+    }
+  }
+
+  private def completeRequest(clientResponse: ClientResponse): Unit = {
+    val requestHeader = clientResponse.requestHeader
+    val request = inFlightRequests.peek
+    if (request == null || request.correlationId != requestHeader.correlationId)
+      throw new IllegalStateException(s"Received response with correlation id ${requestHeader.correlationId} from " +
+        s"broker $brokerNode, which is not the response of the oldest request in flight")
+    if (clientResponse.wasDisconnected)
+      throw new IOException(s"Connection to $brokerNode was disconnected before the response was read")
+    if (clientResponse.versionMismatch != null)
+      throw clientResponse.versionMismatch
+    inFlightRequests.poll()
+
+    val api = requestHeader.apiKey
+    if (api != ApiKeys.LEADER_AND_ISR && api != ApiKeys.STOP_REPLICA && api != ApiKeys.UPDATE_METADATA)
+      throw new KafkaException(s"Unexpected apiKey received: $api")
+
+    val response = clientResponse.responseBody
+
+    stateChangeLogger.withControllerEpoch(controllerContext.epoch).trace(s"Received response " +
+      s"${response.toString(requestHeader.apiVersion)} for request $api with correlation id " +
+      s"${requestHeader.correlationId} sent to broker $brokerNode")
+
+    request.queueItems.foreach { queueItem =>
+      if (queueItem.callback != null) {
+        try {
+          queueItem.callback(response)
+        } catch {
+          case e: Throwable =>
+            error(s"Controller $controllerId fails to handle the response to request $api sent to broker $brokerNode", e)
         }
       }
-    } catch {
-      case e: Throwable =>
-        error(s"Controller $controllerId fails to send a request to broker $brokerNode", e)
-        // If there is any socket error (eg, socket timeout), the connection is no longer usable and needs to be recreated.
-        networkClient.close(brokerNode.idString)
     }
   }
 
+  // If there is any socket error (eg, socket timeout), the connection is no longer usable and needs to be recreated.
+  private def closeConnection(): Unit = {
+    networkClient.close(brokerNode.idString)
+    while (!inFlightRequests.isEmpty)
+      requestsToSend.addFirst(inFlightRequests.pollLast())
+  }
+
   private def brokerReady(): Boolean = {
     try {
       if (!NetworkClientUtils.isReady(networkClient, brokerNode, time.milliseconds())) {
@@ -296,7 +413,7 @@ class RequestSendThread(val controllerId: Int,
     } catch {
       case e: Throwable =>
         warn(s"Controller $controllerId's connection to broker $brokerNode was unsuccessful", e)
-        networkClient.close(brokerNode.idString)
+        closeConnection()
         false
     }
   }
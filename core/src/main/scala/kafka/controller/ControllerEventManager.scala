@@ -18,9 +18,10 @@
 package kafka.controller
 
 import java.util.concurrent.atomic.AtomicBoolean
-import java.util.concurrent.{CountDownLatch, LinkedBlockingQueue}
+import java.util.concurrent.{CountDownLatch, LinkedBlockingQueue, TimeUnit}
 import java.util.concurrent.locks.ReentrantLock
 
+import com.yammer.metrics.core.Histogram
 import kafka.metrics.{KafkaMetricsGroup, KafkaTimer}
 import kafka.utils.CoreUtils.inLock
 import kafka.utils.ShutdownableThread
@@ -32,11 +33,20 @@ object ControllerEventManager {
   val ControllerEventThreadName = "controller-event-thread"
   val EventQueueTimeMetricName = "EventQueueTimeMs"
   val EventQueueSizeMetricName = "EventQueueSize"
+  val EventBatchSizeMetricName = "EventBatchSize"
+  val CoalescedEventsMetricName = "CoalescedEventsPerSec"
+  val EventTypeTag = "event"
+  val MaxEventBatchSize = 1000
 }
 
 trait ControllerEventProcessor {
   def process(event: ControllerEvent): Unit
   def preempt(event: ControllerEvent): Unit
+
+  /**
+   * Processes events of the same type, which were queued one after the other, in a single pass.
+   */
+  def processBatch(events: Seq[ControllerEvent]): Unit = events.foreach(process)
 }
 
 class QueuedEvent(val event: ControllerEvent,
@@ -45,10 +55,18 @@ class QueuedEvent(val event: ControllerEvent,
   val spent = new AtomicBoolean(false)
 
   def process(processor: ControllerEventProcessor): Unit = {
+    if (startProcessing())
+      processor.process(event)
+  }
+
+  /**
+   * Marks the event as processed, returning false if it was already processed or preempted.
+   */
+  def startProcessing(): Boolean = {
     if (spent.getAndSet(true))
-      return
+      return false
     processingStarted.countDown()
-    processor.process(event)
+    true
   }
 
   def preempt(processor: ControllerEventProcessor): Unit = {
@@ -75,10 +93,15 @@ class ControllerEventManager(controllerId: Int,
   @volatile private var _state: ControllerState = ControllerState.Idle
   private val putLock = new ReentrantLock()
   private val queue = new LinkedBlockingQueue[QueuedEvent]
+  /* the idempotent events which are queued and have not been dequeued yet, guarded by the put lock */
+  private val queuedIdempotentEvents = mutable.HashMap[ControllerEvent, QueuedEvent]()
   // Visible for test
   private[controller] val thread = new ControllerEventThread(ControllerEventThreadName)
 
   private val eventQueueTimeHist = newHistogram(EventQueueTimeMetricName)
+  private val coalescedEventsMeter = newMeter(CoalescedEventsMetricName, "events", TimeUnit.SECONDS)
+  /* the queue time and batch size histograms of each event type, only accessed by the event thread */
+  private val eventTypeHistograms = mutable.HashMap[String, (Histogram, Histogram)]()
 
   newGauge(EventQueueSizeMetricName, () => queue.size)
 
@@ -94,10 +117,36 @@ class ControllerEventManager(controllerId: Int,
     } finally {
       removeMetric(EventQueueTimeMetricName)
       removeMetric(EventQueueSizeMetricName)
+      removeMetric(CoalescedEventsMetricName)
+      eventTypeHistograms.keys.foreach { eventType =>
+        removeMetric(EventQueueTimeMetricName, Map(EventTypeTag -> eventType))
+        removeMetric(EventBatchSizeMetricName, Map(EventTypeTag -> eventType))
+      }
     }
   }
 
+  /**
+   * Queues the event, unless it is idempotent and an equal event is queued and has not been processed yet, in which
+   * case the queued event is returned instead.
+   */
   def put(event: ControllerEvent): QueuedEvent = inLock(putLock) {
+    event match {
+      case _: IdempotentControllerEvent =>
+        queuedIdempotentEvents.get(event) match {
+          case Some(queuedEvent) =>
+            coalescedEventsMeter.mark()
+            queuedEvent
+          case None =>
+            val queuedEvent = enqueue(event)
+            queuedIdempotentEvents.put(event, queuedEvent)
+            queuedEvent
+        }
+      case _ =>
+        enqueue(event)
+    }
+  }
+
+  private def enqueue(event: ControllerEvent): QueuedEvent = {
     val queuedEvent = new QueuedEvent(event, time.milliseconds())
     queue.put(queuedEvent)
     queuedEvent
@@ -106,32 +155,77 @@ class ControllerEventManager(controllerId: Int,
   def clearAndPut(event: ControllerEvent): QueuedEvent = inLock(putLock) {
     queue.forEach(_.preempt(processor))
     queue.clear()
+    queuedIdempotentEvents.clear()
     put(event)
   }
 
+  /**
+   * Dequeues the next event, along with the events of the same type queued right after it if it is batchable.
+   */
+  private def dequeueBatch(): Seq[QueuedEvent] = {
+    val first = queue.take()
+    inLock(putLock) {
+      val batch = mutable.ArrayBuffer(first)
+      first.event match {
+        case _: BatchableControllerEvent =>
+          while (batch.size < MaxEventBatchSize && queue.peek() != null &&
+            queue.peek().event.getClass == first.event.getClass)
+            batch += queue.poll()
+        case _ =>
+      }
+      // equal idempotent events put from now on must be processed again
+      batch.foreach { queuedEvent =>
+        if (queuedIdempotentEvents.get(queuedEvent.event).contains(queuedEvent))
+          queuedIdempotentEvents.remove(queuedEvent.event)
+      }
+      batch
+    }
+  }
+
+  private def eventTypeHistogramsOf(event: ControllerEvent): (Histogram, Histogram) = {
+    eventTypeHistograms.getOrElseUpdate(event.eventType, {
+      val tags = Map(EventTypeTag -> event.eventType)
+      (newHistogram(EventQueueTimeMetricName, tags = tags), newHistogram(EventBatchSizeMetricName, tags = tags))
+    })
+  }
+
   def isEmpty: Boolean = queue.isEmpty
 
   class ControllerEventThread(name: String) extends ShutdownableThread(name = name, isInterruptible = false) {
     logIdent = s"[ControllerEventThread controllerId=$controllerId] "
 
     override def doWork(): Unit = {
-      val dequeued = queue.take()
-      dequeued.event match {
+      val dequeued = dequeueBatch()
+      dequeued.head.event match {
         case ShutdownEventThread => // The shutting down of the thread has been initiated at this point. Ignore this event.
         case controllerEvent =>
           _state = controllerEvent.state
 
-          eventQueueTimeHist.update(time.milliseconds() - dequeued.enqueueTimeMs)
+          val now = time.milliseconds()
+          val (eventTypeQueueTimeHist, eventTypeBatchSizeHist) = eventTypeHistogramsOf(controllerEvent)
+          dequeued.foreach { queuedEvent =>
+            eventQueueTimeHist.update(now - queuedEvent.enqueueTimeMs)
+            eventTypeQueueTimeHist.update(now - queuedEvent.enqueueTimeMs)
+          }
+          eventTypeBatchSizeHist.update(dequeued.size)
 
           try {
-            def process(): Unit = dequeued.process(processor)
+            def process(): Unit = {
+              if (dequeued.size == 1)
+                dequeued.head.process(processor)
+              else {
+                val events = dequeued.filter(_.startProcessing()).map(_.event)
+                if (events.nonEmpty)
+                  processor.processBatch(events)
+              }
+            }
 
             rateAndTimeMetrics.get(state) match {
               case Some(timer) => timer.time { process() }
               case None => process()
             }
           } catch {
-            case e: Throwable => error(s"Uncaught error processing event $controllerEvent", e)
+            case e: Throwable => error(s"Uncaught error processing events ${dequeued.map(_.event).mkString(",")}", e)
           }
 
           _state = ControllerState.Idle
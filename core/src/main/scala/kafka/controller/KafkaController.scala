@@ -221,7 +221,7 @@ class KafkaController(val config: KafkaConfig,
       isrChangeNotificationHandler)
     childChangeHandlers.foreach(zkClient.registerZNodeChildChangeHandler)
     val nodeChangeHandlers = Seq(preferredReplicaElectionHandler, partitionReassignmentHandler)
-    nodeChangeHandlers.foreach(zkClient.registerZNodeChangeHandlerAndCheckExistence)
+    zkClient.registerZNodeChangeHandlersAndCheckExistence(nodeChangeHandlers)
 
     info("Deleting log dir event notifications")
     zkClient.deleteLogDirEventNotifications(controllerContext.epochZkVersion)
@@ -388,11 +388,12 @@ class KafkaController(val config: KafkaConfig,
 
   private def registerBrokerModificationsHandler(brokerIds: Iterable[Int]): Unit = {
     debug(s"Register BrokerModifications handler for $brokerIds")
-    brokerIds.foreach { brokerId =>
+    val handlers = brokerIds.map { brokerId =>
       val brokerModificationsHandler = new BrokerModificationsHandler(eventManager, brokerId)
-      zkClient.registerZNodeChangeHandlerAndCheckExistence(brokerModificationsHandler)
       brokerModificationsHandlers.put(brokerId, brokerModificationsHandler)
+      brokerModificationsHandler
     }
+    zkClient.registerZNodeChangeHandlersAndCheckExistence(handlers.toSeq)
   }
 
   private def unregisterBrokerModificationsHandler(brokerIds: Iterable[Int]): Unit = {
@@ -419,8 +420,8 @@ class KafkaController(val config: KafkaConfig,
     unregisterBrokerModificationsHandler(deadBrokers)
   }
 
-  private def onBrokerUpdate(updatedBrokerId: Int): Unit = {
-    info(s"Broker info update callback for $updatedBrokerId")
+  private def onBrokerUpdate(updatedBrokerIds: Seq[Int]): Unit = {
+    info(s"Broker info update callback for ${updatedBrokerIds.mkString(",")}")
     sendUpdateMetadataRequest(controllerContext.liveOrShuttingDownBrokerIds.toSeq, Set.empty)
   }
 
@@ -1100,10 +1101,10 @@ class KafkaController(val config: KafkaConfig,
     partitionStateMachine.triggerOnlinePartitionStateChange()
   }
 
-  private def processTopicUncleanLeaderElectionEnable(topic: String): Unit = {
+  private def processTopicUncleanLeaderElectionEnable(topics: Seq[String]): Unit = {
     if (!isActive) return
-    info(s"Unclean leader election has been enabled for topic $topic")
-    partitionStateMachine.triggerOnlinePartitionStateChange(topic)
+    info(s"Unclean leader election has been enabled for topics ${topics.mkString(",")}")
+    partitionStateMachine.triggerOnlinePartitionStateChange(topics.toSet)
   }
 
   private def preemptControlledShutdown(id: Int, brokerEpoch: Long, controlledShutdownCallback: Try[Set[TopicPartition]] => Unit): Unit = {
@@ -1414,19 +1415,23 @@ class KafkaController(val config: KafkaConfig,
     }
   }
 
-  private def processBrokerModification(brokerId: Int): Unit = {
+  private def processBrokerModifications(brokerIds: Seq[Int]): Unit = {
     if (!isActive) return
-    val newMetadataOpt = zkClient.getBroker(brokerId)
-    val oldMetadataOpt = controllerContext.liveOrShuttingDownBroker(brokerId)
-    if (newMetadataOpt.nonEmpty && oldMetadataOpt.nonEmpty) {
-      val oldMetadata = oldMetadataOpt.get
-      val newMetadata = newMetadataOpt.get
-      if (newMetadata.endPoints != oldMetadata.endPoints) {
-        info(s"Updated broker metadata: $oldMetadata -> $newMetadata")
-        controllerContext.updateBrokerMetadata(oldMetadata, newMetadata)
-        onBrokerUpdate(brokerId)
-      }
-    }
+    val updatedBrokerIds = brokerIds.distinct.filter { brokerId =>
+      val newMetadataOpt = zkClient.getBroker(brokerId)
+      val oldMetadataOpt = controllerContext.liveOrShuttingDownBroker(brokerId)
+      if (newMetadataOpt.nonEmpty && oldMetadataOpt.nonEmpty) {
+        val oldMetadata = oldMetadataOpt.get
+        val newMetadata = newMetadataOpt.get
+        if (newMetadata.endPoints != oldMetadata.endPoints) {
+          info(s"Updated broker metadata: $oldMetadata -> $newMetadata")
+          controllerContext.updateBrokerMetadata(oldMetadata, newMetadata)
+          true
+        } else false
+      } else false
+    }
+    if (updatedBrokerIds.nonEmpty)
+      onBrokerUpdate(updatedBrokerIds)
   }
 
   private def processTopicChange(): Unit = {
@@ -1460,7 +1465,7 @@ class KafkaController(val config: KafkaConfig,
     }
   }
 
-  private def processPartitionModifications(topic: String): Unit = {
+  private def processPartitionModifications(topics: Seq[String]): Unit = {
     def restorePartitionReplicaAssignment(
       topic: String,
       newPartitionReplicaAssignment: Map[TopicPartition, ReplicaAssignment]
@@ -1480,28 +1485,36 @@ class KafkaController(val config: KafkaConfig,
     }
 
     if (!isActive) return
-    val partitionReplicaAssignment = zkClient.getFullReplicaAssignmentForTopics(immutable.Set(topic))
-    val partitionsToBeAdded = partitionReplicaAssignment.filter { case (topicPartition, _) =>
-      controllerContext.partitionReplicaAssignment(topicPartition).isEmpty
-    }
+    val replicaAssignmentByTopic = zkClient.getFullReplicaAssignmentForTopics(topics.toSet).groupBy(_._1.topic)
+    val newPartitions = mutable.Set.empty[TopicPartition]
+    topics.distinct.foreach { topic =>
+      val partitionReplicaAssignment = replicaAssignmentByTopic.getOrElse(topic, Map.empty[TopicPartition, ReplicaAssignment])
+      val partitionsToBeAdded = partitionReplicaAssignment.filter { case (topicPartition, _) =>
+        controllerContext.partitionReplicaAssignment(topicPartition).isEmpty
+      }
 
-    if (topicDeletionManager.isTopicQueuedUpForDeletion(topic)) {
-      if (partitionsToBeAdded.nonEmpty) {
-        warn("Skipping adding partitions %s for topic %s since it is currently being deleted"
-          .format(partitionsToBeAdded.map(_._1.partition).mkString(","), topic))
+      if (topicDeletionManager.isTopicQueuedUpForDeletion(topic)) {
+        if (partitionsToBeAdded.nonEmpty) {
+          warn("Skipping adding partitions %s for topic %s since it is currently being deleted"
+            .format(partitionsToBeAdded.map(_._1.partition).mkString(","), topic))
 
-        restorePartitionReplicaAssignment(topic, partitionReplicaAssignment)
-      } else {
-        // This can happen if existing partition replica assignment are restored to prevent increasing partition count during topic deletion
-        info("Ignoring partition change during topic deletion as no new partitions are added")
-      }
-    } else if (partitionsToBeAdded.nonEmpty) {
-      info(s"New partitions to be added $partitionsToBeAdded")
-      partitionsToBeAdded.foreach { case (topicPartition, assignedReplicas) =>
-        controllerContext.updatePartitionFullReplicaAssignment(topicPartition, assignedReplicas)
+          restorePartitionReplicaAssignment(topic, partitionReplicaAssignment)
+        } else {
+          // This can happen if existing partition replica assignment are restored to prevent increasing partition count during topic deletion
+          info("Ignoring partition change during topic deletion as no new partitions are added")
+        }
+      } else if (partitionsToBeAdded.nonEmpty) {
+        info(s"New partitions to be added $partitionsToBeAdded")
+        partitionsToBeAdded.foreach { case (topicPartition, assignedReplicas) =>
+          controllerContext.updatePartitionFullReplicaAssignment(topicPartition, assignedReplicas)
+        }
+        newPartitions ++= partitionsToBeAdded.keySet
       }
-      onNewPartitionCreation(partitionsToBeAdded.keySet)
     }
+
+    // the new partitions of all the topics are moved to the online state in one pass through the state machines
+    if (newPartitions.nonEmpty)
+      onNewPartitionCreation(newPartitions)
   }
 
   private def processTopicDeletion(): Unit = {
@@ -1818,7 +1831,7 @@ class KafkaController(val config: KafkaConfig,
 
 
   override def process(event: ControllerEvent): Unit = {
-    try {
+    handleProcessingErrors(event.toString) {
       event match {
         case event: MockEvent =>
           // Used only in test cases
@@ -1832,7 +1845,7 @@ class KafkaController(val config: KafkaConfig,
         case UncleanLeaderElectionEnable =>
           processUncleanLeaderElectionEnable()
         case TopicUncleanLeaderElectionEnable(topic) =>
-          processTopicUncleanLeaderElectionEnable(topic)
+          processTopicUncleanLeaderElectionEnable(Seq(topic))
         case ControlledShutdown(id, brokerEpoch, callback) =>
           processControlledShutdown(id, brokerEpoch, callback)
         case LeaderAndIsrResponseReceived(response, brokerId) =>
@@ -1844,7 +1857,7 @@ class KafkaController(val config: KafkaConfig,
         case BrokerChange =>
           processBrokerChange()
         case BrokerModifications(brokerId) =>
-          processBrokerModification(brokerId)
+          processBrokerModifications(Seq(brokerId))
         case ControllerChange =>
           processControllerChange()
         case Reelect =>
@@ -1858,7 +1871,7 @@ class KafkaController(val config: KafkaConfig,
         case LogDirEventNotification =>
           processLogDirEventNotification()
         case PartitionModifications(topic) =>
-          processPartitionModifications(topic)
+          processPartitionModifications(Seq(topic))
         case TopicDeletion =>
           processTopicDeletion()
         case ApiPartitionReassignment(reassignments, callback) =>
@@ -1874,12 +1887,37 @@ class KafkaController(val config: KafkaConfig,
         case Startup =>
           processStartup()
       }
+    }
+  }
+
+  override def processBatch(events: Seq[ControllerEvent]): Unit = {
+    if (events.size == 1)
+      process(events.head)
+    else {
+      handleProcessingErrors(s"batch of ${events.size} events ${events.mkString(",")}") {
+        events.head match {
+          case _: BrokerModifications =>
+            processBrokerModifications(events.collect { case BrokerModifications(brokerId) => brokerId })
+          case _: PartitionModifications =>
+            processPartitionModifications(events.collect { case PartitionModifications(topic) => topic })
+          case _: TopicUncleanLeaderElectionEnable =>
+            processTopicUncleanLeaderElectionEnable(events.collect { case TopicUncleanLeaderElectionEnable(topic) => topic })
+          case _ =>
+            events.foreach(process)
+        }
+      }
+    }
+  }
+
+  private def handleProcessingErrors(description: => String)(fun: => Unit): Unit = {
+    try {
+      fun
     } catch {
       case e: ControllerMovedException =>
-        info(s"Controller moved to another broker when processing $event.", e)
+        info(s"Controller moved to another broker when processing $description.", e)
         maybeResign()
       case e: Throwable =>
-        error(s"Error processing event $event", e)
+        error(s"Error processing event $description", e)
     } finally {
       updateMetrics()
     }
@@ -2012,8 +2050,22 @@ private[controller] class ControllerStats extends KafkaMetricsGroup {
 
 sealed trait ControllerEvent {
   def state: ControllerState
+  // the type of the event, which tags the metrics of the event manager
+  def eventType: String = getClass.getSimpleName.stripSuffix("$")
 }
 
+/**
+ * An event which reads the state it acts on from ZooKeeper or the controller context when it is processed, so that
+ * it does not need to be queued again while an equal event is queued and has not been processed yet.
+ */
+sealed trait IdempotentControllerEvent extends ControllerEvent
+
+/**
+ * An idempotent event which is processed in a batch with the events of the same type queued right after it, so that
+ * the state changes of the batch are made in one pass through the state machines.
+ */
+sealed trait BatchableControllerEvent extends IdempotentControllerEvent
+
 case object ControllerChange extends ControllerEvent {
   override def state = ControllerState.ControllerChange
 }
@@ -2038,11 +2090,11 @@ case object AutoPreferredReplicaLeaderElection extends ControllerEvent {
   def state = ControllerState.AutoLeaderBalance
 }
 
-case object UncleanLeaderElectionEnable extends ControllerEvent {
+case object UncleanLeaderElectionEnable extends IdempotentControllerEvent {
   def state = ControllerState.UncleanLeaderElectionEnable
 }
 
-case class TopicUncleanLeaderElectionEnable(topic: String) extends ControllerEvent {
+case class TopicUncleanLeaderElectionEnable(topic: String) extends BatchableControllerEvent {
   def state = ControllerState.TopicUncleanLeaderElectionEnable
 }
 
@@ -2068,31 +2120,31 @@ case object Startup extends ControllerEvent {
   def state = ControllerState.ControllerChange
 }
 
-case object BrokerChange extends ControllerEvent {
+case object BrokerChange extends IdempotentControllerEvent {
   override def state: ControllerState = ControllerState.BrokerChange
 }
 
-case class BrokerModifications(brokerId: Int) extends ControllerEvent {
+case class BrokerModifications(brokerId: Int) extends BatchableControllerEvent {
   override def state: ControllerState = ControllerState.BrokerChange
 }
 
-case object TopicChange extends ControllerEvent {
+case object TopicChange extends IdempotentControllerEvent {
   override def state: ControllerState = ControllerState.TopicChange
 }
 
-case object LogDirEventNotification extends ControllerEvent {
+case object LogDirEventNotification extends IdempotentControllerEvent {
   override def state: ControllerState = ControllerState.LogDirChange
 }
 
-case class PartitionModifications(topic: String) extends ControllerEvent {
+case class PartitionModifications(topic: String) extends BatchableControllerEvent {
   override def state: ControllerState = ControllerState.TopicChange
 }
 
-case object TopicDeletion extends ControllerEvent {
+case object TopicDeletion extends IdempotentControllerEvent {
   override def state: ControllerState = ControllerState.TopicDeletion
 }
 
-case object ZkPartitionReassignment extends ControllerEvent {
+case object ZkPartitionReassignment extends IdempotentControllerEvent {
   override def state: ControllerState = ControllerState.AlterPartitionReassignment
 }
 
@@ -2101,11 +2153,11 @@ case class ApiPartitionReassignment(reassignments: Map[TopicPartition, Option[Se
   override def state: ControllerState = ControllerState.AlterPartitionReassignment
 }
 
-case class PartitionReassignmentIsrChange(partition: TopicPartition) extends ControllerEvent {
+case class PartitionReassignmentIsrChange(partition: TopicPartition) extends IdempotentControllerEvent {
   override def state: ControllerState = ControllerState.AlterPartitionReassignment
 }
 
-case object IsrChangeNotification extends ControllerEvent {
+case object IsrChangeNotification extends IdempotentControllerEvent {
   override def state: ControllerState = ControllerState.IsrChange
 }
 
@@ -2130,4 +2182,5 @@ case class ListPartitionReassignments(partitionsOpt: Option[Set[TopicPartition]]
 // Used only in test cases
 abstract class MockEvent(val state: ControllerState) extends ControllerEvent {
   def process(): Unit
+  override def eventType: String = "MockEvent"
 }
@@ -63,6 +63,11 @@ abstract class PartitionStateMachine(controllerContext: ControllerContext) exten
     triggerOnlineStateChangeForPartitions(partitions)
   }
 
+  def triggerOnlinePartitionStateChange(topics: collection.Set[String]): Unit = {
+    val partitions = topics.flatMap(controllerContext.partitionsInStates(_, Set(OfflinePartition, NewPartition)))
+    triggerOnlineStateChangeForPartitions(partitions)
+  }
+
   private def triggerOnlineStateChangeForPartitions(partitions: collection.Set[TopicPartition]): Unit = {
     // try to move all partitions in NewPartition or OfflinePartition state to OnlinePartition state except partitions
     // that belong to topics to be deleted
@@ -858,9 +858,9 @@ class GroupCoordinator(val brokerId: Int,
       Some(Errors.INVALID_GROUP_ID)
     else if (!isActive.get)
       Some(Errors.COORDINATOR_NOT_AVAILABLE)
-    else if (isCoordinatorLoadInProgress(groupId))
+    else if (isCoordinatorLoadInProgress(groupId, api))
       Some(Errors.COORDINATOR_LOAD_IN_PROGRESS)
-    else if (!isCoordinatorForGroup(groupId))
+    else if (!isCoordinatorForGroup(groupId, api))
       Some(Errors.NOT_COORDINATOR)
     else
       None
@@ -1300,9 +1300,20 @@ class GroupCoordinator(val brokerId: Int,
     group.size > groupConfig.groupMaxSize
   }
 
-  private def isCoordinatorForGroup(groupId: String) = groupManager.isGroupLocal(groupId)
+  // the offsets of a group can be fetched once it is loaded, before the rest of its partition
+  private def isCoordinatorForGroup(groupId: String, api: ApiKeys) = {
+    if (api == ApiKeys.OFFSET_FETCH)
+      groupManager.isGroupOffsetsLocal(groupId)
+    else
+      groupManager.isGroupLocal(groupId)
+  }
 
-  private def isCoordinatorLoadInProgress(groupId: String) = groupManager.isGroupLoading(groupId)
+  private def isCoordinatorLoadInProgress(groupId: String, api: ApiKeys) = {
+    if (api == ApiKeys.OFFSET_FETCH)
+      groupManager.isGroupOffsetsLoading(groupId)
+    else
+      groupManager.isGroupLoading(groupId)
+  }
 }
 
 object GroupCoordinator {
@@ -1337,7 +1348,9 @@ object GroupCoordinator {
     offsetsTopicReplicationFactor = config.offsetsTopicReplicationFactor,
     offsetsTopicCompressionCodec = config.offsetsTopicCompressionCodec,
     offsetCommitTimeoutMs = config.offsetCommitTimeoutMs,
-    offsetCommitRequiredAcks = config.offsetCommitRequiredAcks
+    offsetCommitRequiredAcks = config.offsetCommitRequiredAcks,
+    loadThreads = config.offsetsLoadThreads,
+    offsetCommitLingerMs = config.offsetCommitLingerMs
   )
 
   def apply(config: KafkaConfig,
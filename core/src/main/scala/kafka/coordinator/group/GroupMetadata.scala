@@ -212,7 +212,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
   private val pendingMembers = new mutable.HashSet[String]
   private var numMembersAwaitingJoin = 0
   private val supportedProtocols = new mutable.HashMap[String, Integer]().withDefaultValue(0)
-  private val offsets = new mutable.HashMap[TopicPartition, CommitRecordMetadataAndOffset]
+  private val offsets = new GroupOffsetStore
   private val pendingOffsetCommits = new mutable.HashMap[TopicPartition, OffsetAndMetadata]
   private val pendingTransactionalOffsetCommits = new mutable.HashMap[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]()
   private var receivedTransactionalOffsetCommits = false
@@ -568,7 +568,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
 
   def initializeOffsets(offsets: collection.Map[TopicPartition, CommitRecordMetadataAndOffset],
                         pendingTxnOffsets: Map[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]): Unit = {
-    this.offsets ++= offsets
+    offsets.foreach { case (topicPartition, offset) => this.offsets.put(topicPartition, offset) }
     this.pendingTransactionalOffsetCommits ++= pendingTxnOffsets
   }
 
@@ -577,7 +577,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
       if (offsetWithCommitRecordMetadata.appendedBatchOffset.isEmpty)
         throw new IllegalStateException("Cannot complete offset commit write without providing the metadata of the record " +
           "in the log.")
-      if (!offsets.contains(topicPartition) || offsets(topicPartition).olderThan(offsetWithCommitRecordMetadata))
+      if (offsets.get(topicPartition).forall(_.olderThan(offsetWithCommitRecordMetadata)))
         offsets.put(topicPartition, offsetWithCommitRecordMetadata)
     }
 
@@ -685,7 +685,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
       )
   }
 
-  def removeAllOffsets(): immutable.Map[TopicPartition, OffsetAndMetadata] = removeOffsets(offsets.keySet.toSeq)
+  def removeAllOffsets(): immutable.Map[TopicPartition, OffsetAndMetadata] = removeOffsets(offsets.keys)
 
   def removeOffsets(topicPartitions: Seq[TopicPartition]): immutable.Map[TopicPartition, OffsetAndMetadata] = {
     topicPartitions.flatMap { topicPartition =>
@@ -702,9 +702,9 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
 
     def getExpiredOffsets(baseTimestamp: CommitRecordMetadataAndOffset => Long,
                           subscribedTopics: Set[String] = Set.empty): Map[TopicPartition, OffsetAndMetadata] = {
-      offsets.filter {
-        case (topicPartition, commitRecordMetadataAndOffset) =>
-          !subscribedTopics.contains(topicPartition.topic()) &&
+      val expiredOffsets = Map.newBuilder[TopicPartition, OffsetAndMetadata]
+      offsets.foreach { (topicPartition, commitRecordMetadataAndOffset) =>
+        val isExpired = !subscribedTopics.contains(topicPartition.topic()) &&
           !pendingOffsetCommits.contains(topicPartition) && {
             commitRecordMetadataAndOffset.offsetAndMetadata.expireTimestamp match {
               case None =>
@@ -715,10 +715,10 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
                 currentTimestamp >= expireTimestamp
             }
           }
-      }.map {
-        case (topicPartition, commitRecordOffsetAndMetadata) =>
-          (topicPartition, commitRecordOffsetAndMetadata.offsetAndMetadata)
-      }.toMap
+        if (isExpired)
+          expiredOffsets += topicPartition -> commitRecordMetadataAndOffset.offsetAndMetadata
+      }
+      expiredOffsets.result()
     }
 
     val expiredOffsets: Map[TopicPartition, OffsetAndMetadata] = protocolType match {
@@ -755,13 +755,17 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
     if (expiredOffsets.nonEmpty)
       debug(s"Expired offsets from group '$groupId': ${expiredOffsets.keySet}")
 
-    offsets --= expiredOffsets.keySet
+    expiredOffsets.keys.foreach(offsets.remove)
     expiredOffsets
   }
 
-  def allOffsets = offsets.map { case (topicPartition, commitRecordMetadataAndOffset) =>
-    (topicPartition, commitRecordMetadataAndOffset.offsetAndMetadata)
-  }.toMap
+  def allOffsets: immutable.Map[TopicPartition, OffsetAndMetadata] = {
+    val allOffsets = immutable.Map.newBuilder[TopicPartition, OffsetAndMetadata]
+    offsets.foreach { (topicPartition, commitRecordMetadataAndOffset) =>
+      allOffsets += topicPartition -> commitRecordMetadataAndOffset.offsetAndMetadata
+    }
+    allOffsets.result()
+  }
 
   def offset(topicPartition: TopicPartition): Option[OffsetAndMetadata] = offsets.get(topicPartition).map(_.offsetAndMetadata)
 
@@ -21,14 +21,14 @@ import java.io.PrintStream
 import java.nio.ByteBuffer
 import java.nio.charset.StandardCharsets
 import java.util.Optional
-import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.{ExecutionException, ExecutorService, Executors, ThreadFactory, TimeUnit}
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger}
 import java.util.concurrent.locks.ReentrantLock
 
 import com.yammer.metrics.core.Gauge
 import kafka.api.{ApiVersion, KAFKA_0_10_1_IV0, KAFKA_2_1_IV0, KAFKA_2_1_IV1, KAFKA_2_3_IV0}
 import kafka.common.{MessageFormatter, OffsetAndMetadata}
-import kafka.log.AppendOrigin
+import kafka.log.{AppendOrigin, Log}
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.{FetchLogEnd, ReplicaManager}
 import kafka.utils.CoreUtils.inLock
@@ -46,12 +46,13 @@ import org.apache.kafka.common.record._
 import org.apache.kafka.common.requests.OffsetFetchResponse.PartitionData
 import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
 import org.apache.kafka.common.requests.{OffsetCommitRequest, OffsetFetchResponse}
-import org.apache.kafka.common.utils.{Time, Utils}
+import org.apache.kafka.common.utils.{KafkaThread, Time, Utils}
 import org.apache.kafka.common.{KafkaException, TopicPartition}
 
 import scala.collection._
 import scala.collection.mutable.ArrayBuffer
 import scala.jdk.CollectionConverters._
+import scala.reflect.ClassTag
 
 class GroupMetadataManager(brokerId: Int,
                            interBrokerProtocolVersion: ApiVersion,
@@ -74,6 +75,9 @@ class GroupMetadataManager(brokerId: Int,
   /* partitions of consumer groups that are assigned, using the same loading partition lock */
   private val ownedPartitions: mutable.Set[Int] = mutable.Set()
 
+  /* groups of the loading partitions which are loaded before the rest of their partition, using the same loading partition lock */
+  private val loadedGroupsOfLoadingPartitions: mutable.Map[Int, mutable.Set[String]] = mutable.Map()
+
   /* shutting down flag */
   private val shuttingDown = new AtomicBoolean(false)
 
@@ -83,11 +87,27 @@ class GroupMetadataManager(brokerId: Int,
   /* single-thread scheduler to handle offset/group metadata cache loading and unloading */
   private val scheduler = new KafkaScheduler(threads = 1, threadNamePrefix = "group-metadata-manager-")
 
+  /* threads decoding the batches of the partition being loaded, together with the scheduler thread loading it */
+  private val loadDecodeExecutor: Option[ExecutorService] =
+    if (config.loadThreads <= 1) None
+    else {
+      val threadIds = new AtomicInteger(0)
+      Some(Executors.newFixedThreadPool(config.loadThreads - 1, new ThreadFactory {
+        override def newThread(r: Runnable): Thread =
+          KafkaThread.daemon(s"group-metadata-manager-load-decoder-${threadIds.getAndIncrement()}", r)
+      }))
+    }
+
   /* The groups with open transactional offsets commits per producer. We need this because when the commit or abort
    * marker comes in for a transaction, it is for a particular partition on the offsets topic and a particular producerId.
    * We use this structure to quickly find the groups which need to be updated by the commit/abort marker. */
   private val openGroupsForProducer = mutable.HashMap[Long, mutable.Set[String]]()
 
+  /* appends the non-transactional offset commits of the groups of a partition in batches, unless batching is disabled */
+  private val offsetCommitAccumulator: Option[OffsetCommitAccumulator] =
+    if (config.offsetCommitLingerMs < 0) None
+    else Some(new OffsetCommitAccumulator(brokerId, config.offsetCommitLingerMs, compressionType, time, appendOffsetCommits))
+
   /* setup metrics*/
   private val partitionLoadSensor = metrics.sensor(GroupMetadataManager.LoadTimeSensor)
 
@@ -172,6 +192,7 @@ class GroupMetadataManager(brokerId: Int,
 
   def startup(enableMetadataExpiration: Boolean): Unit = {
     scheduler.startup()
+    offsetCommitAccumulator.foreach(_.start())
     if (enableMetadataExpiration) {
       scheduler.schedule(name = "delete-expired-group-metadata",
         fun = () => cleanupGroupMetadata,
@@ -192,6 +213,24 @@ class GroupMetadataManager(brokerId: Int,
 
   def isGroupLoading(groupId: String): Boolean = isPartitionLoading(partitionFor(groupId))
 
+  /**
+   * Returns true if the offsets of the group cannot be fetched yet, since its partition is loading and the group
+   * has not been loaded before the rest of the partition.
+   */
+  def isGroupOffsetsLoading(groupId: String): Boolean = inLock(partitionLock) {
+    val partition = partitionFor(groupId)
+    loadingPartitions.contains(partition) && !loadedGroupsOfLoadingPartitions.get(partition).exists(_.contains(groupId))
+  }
+
+  /**
+   * Returns true if the offsets of the group can be fetched from this coordinator, since its partition is owned, or
+   * is loading and the group has been loaded before the rest of the partition.
+   */
+  def isGroupOffsetsLocal(groupId: String): Boolean = inLock(partitionLock) {
+    val partition = partitionFor(groupId)
+    ownedPartitions.contains(partition) || loadedGroupsOfLoadingPartitions.get(partition).exists(_.contains(groupId))
+  }
+
   def isLoading: Boolean = inLock(partitionLock) { loadingPartitions.nonEmpty }
 
   // return true iff group is owned and the group doesn't exist
@@ -333,6 +372,20 @@ class GroupMetadataManager(brokerId: Int,
       responseCallback = callback)
   }
 
+  private def appendOffsetCommits(partition: TopicPartition,
+                                  records: MemoryRecords,
+                                  callback: PartitionResponse => Unit): Unit = {
+    // the batch holds the commits of several groups, whose callbacks are invoked by the accumulator thread, so it
+    // is not appended under the lock of a group
+    replicaManager.appendRecords(
+      timeout = config.offsetCommitTimeoutMs.toLong,
+      requiredAcks = config.offsetCommitRequiredAcks,
+      internalTopicsAllowed = true,
+      origin = AppendOrigin.Coordinator,
+      entriesPerPartition = Map(partition -> records),
+      responseCallback = responseStatus => callback(responseStatus(partition)))
+  }
+
   /**
    * Store offsets by appending it to the replicated log and then inserting to cache
    */
@@ -374,17 +427,11 @@ class GroupMetadataManager(brokerId: Int,
             new SimpleRecord(timestamp, key, value)
           }
           val offsetTopicPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, partitionFor(group.groupId))
-          val buffer = ByteBuffer.allocate(AbstractRecords.estimateSizeInBytes(magicValue, compressionType, records.asJava))
+          val sizeInBytes = AbstractRecords.estimateSizeInBytes(magicValue, compressionType, records.asJava)
 
           if (isTxnOffsetCommit && magicValue < RecordBatch.MAGIC_VALUE_V2)
             throw Errors.UNSUPPORTED_FOR_MESSAGE_FORMAT.exception("Attempting to make a transaction offset commit with an invalid magic: " + magicValue)
 
-          val builder = MemoryRecords.builder(buffer, magicValue, compressionType, timestampType, 0L, time.milliseconds(),
-            producerId, producerEpoch, 0, isTxnOffsetCommit, RecordBatch.NO_PARTITION_LEADER_EPOCH)
-
-          records.foreach(builder.append)
-          val entries = Map(offsetTopicPartition -> builder.build())
-
           // set the callback function to insert offsets into cache after log append completed
           def putCacheCallback(responseStatus: Map[TopicPartition, PartitionResponse]): Unit = {
             // the append response should only contain the topics partition
@@ -469,7 +516,18 @@ class GroupMetadataManager(brokerId: Int,
             }
           }
 
-          appendForGroup(group, entries, putCacheCallback)
+          offsetCommitAccumulator match {
+            case Some(accumulator) if !isTxnOffsetCommit =>
+              accumulator.add(new PendingOffsetCommit(offsetTopicPartition, magicValue, records.toSeq, sizeInBytes,
+                status => putCacheCallback(Map(offsetTopicPartition -> status)), time.milliseconds()))
+
+            case _ =>
+              val builder = MemoryRecords.builder(ByteBuffer.allocate(sizeInBytes), magicValue, compressionType,
+                timestampType, 0L, time.milliseconds(), producerId, producerEpoch, 0, isTxnOffsetCommit,
+                RecordBatch.NO_PARTITION_LEADER_EPOCH)
+              records.foreach(builder.append)
+              appendForGroup(group, Map(offsetTopicPartition -> builder.build()), putCacheCallback)
+          }
 
         case None =>
           val commitStatus = offsetMetadata.map { case (topicPartition, _) =>
@@ -556,40 +614,74 @@ class GroupMetadataManager(brokerId: Int,
       inLock(partitionLock) {
         ownedPartitions.add(topicPartition.partition)
         loadingPartitions.remove(topicPartition.partition)
+        loadedGroupsOfLoadingPartitions.remove(topicPartition.partition)
       }
     }
   }
 
   private def doLoadGroupsAndOffsets(topicPartition: TopicPartition, onGroupLoaded: GroupMetadata => Unit): Unit = {
-    def logEndOffset: Long = replicaManager.getLogEndOffset(topicPartition).getOrElse(-1L)
-
     replicaManager.getLog(topicPartition) match {
       case None =>
         warn(s"Attempted to load offsets and group metadata from $topicPartition, but found no log")
 
       case Some(log) =>
-        val loadedOffsets = mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]()
-        val pendingOffsets = mutable.Map[Long, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]]()
-        val loadedGroups = mutable.Map[String, GroupMetadata]()
-        val removedGroups = mutable.Set[String]()
-
-        // buffer may not be needed if records are read from memory
-        var buffer = ByteBuffer.allocate(0)
-
-        // loop breaks if leader changes at any time during the load, since logEndOffset is -1
-        var currOffset = log.logStartOffset
-
-        // loop breaks if no records have been read, since the end of the log has been reached
-        var readAtLeastOneRecord = true
+        // Only transaction markers may be appended while the partition is loading, which are also completed by
+        // `handleTxnCompletion` once the partition is loaded, so the load ends at the current log end offset
+        val reader = new LoadChunkReader(log, topicPartition, logEndOffset(topicPartition))
+        val load = new PartitionLoad(topicPartition, onGroupLoaded)
+
+        reader.read(log.logStartOffset).map(decodeBatches(_, loadDecodeExecutor)(decodeLoadedBatch)) match {
+          case Some(firstChunk) if firstChunk.nonEmpty =>
+            // A partition which is read in a single chunk is loaded as it is read. The other partitions are
+            // scanned first for the last batch of each group, so that each group can be loaded as soon as its
+            // last batch is applied, and its offsets can be fetched before the rest of the partition is loaded
+            if (reader.hasMoreChunks(firstChunk.last.nextOffset))
+              load.setGroupEndOffsets(scanGroupEndOffsets(reader, firstChunk, loadDecodeExecutor))
+
+            var chunk = firstChunk
+            while (chunk.nonEmpty) {
+              load.applyChunk(chunk)
+              chunk = reader.read(chunk.last.nextOffset)
+                .map(decodeBatches(_, loadDecodeExecutor)(decodeLoadedBatch))
+                .getOrElse(Array.empty)
+            }
+          case _ =>
+        }
+        load.complete()
+    }
+  }
 
-        while (currOffset < logEndOffset && readAtLeastOneRecord && !shuttingDown.get()) {
-          val fetchDataInfo = log.read(currOffset,
-            maxLength = config.loadBufferSize,
-            isolation = FetchLogEnd,
-            minOneMessage = true)
+  private def logEndOffset(topicPartition: TopicPartition): Long =
+    replicaManager.getLogEndOffset(topicPartition).getOrElse(-1L)
 
-          readAtLeastOneRecord = fetchDataInfo.records.sizeInBytes > 0
+  /**
+   * Reads the batches of an offsets topic partition in chunks of about `config.loadBufferSize` bytes, up to the given
+   * end offset. The batches of a chunk may only be used until the next chunk is read.
+   */
+  private class LoadChunkReader(log: Log, topicPartition: TopicPartition, endOffset: Long) {
+    // buffer may not be needed if records are read from memory
+    private var buffer = ByteBuffer.allocate(0)
+
+    // the log end offset is -1 if the leader changes at any time during the load
+    def hasMoreChunks(offset: Long): Boolean =
+      offset < endOffset && offset < logEndOffset(topicPartition) && !shuttingDown.get()
+
+    /**
+     * Returns the batches from `offset`, or None if there are no more batches to load.
+     */
+    def read(offset: Long): Option[Array[MutableRecordBatch]] = {
+      if (!hasMoreChunks(offset)) {
+        None
+      } else {
+        val fetchDataInfo = log.read(offset,
+          maxLength = config.loadBufferSize,
+          isolation = FetchLogEnd,
+          minOneMessage = true)
 
+        // no records are read once the end of the log has been reached
+        if (fetchDataInfo.records.sizeInBytes == 0) {
+          None
+        } else {
           val memRecords = fetchDataInfo.records match {
             case records: MemoryRecords => records
             case fileRecords: FileRecords =>
@@ -610,123 +702,283 @@ class GroupMetadataManager(brokerId: Int,
               fileRecords.readInto(buffer, 0)
               MemoryRecords.readableRecords(buffer)
           }
+          Some(memRecords.batches.asScala.toArray)
+        }
+      }
+    }
+  }
 
-          memRecords.batches.forEach { batch =>
-            val isTxnOffsetCommit = batch.isTransactional
-            if (batch.isControlBatch) {
-              val recordIterator = batch.iterator
-              if (recordIterator.hasNext) {
-                val record = recordIterator.next()
-                val controlRecord = ControlRecordType.parse(record.key)
-                if (controlRecord == ControlRecordType.COMMIT) {
-                  pendingOffsets.getOrElse(batch.producerId, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]())
-                    .foreach {
-                      case (groupTopicPartition, commitRecordMetadataAndOffset) =>
-                        if (!loadedOffsets.contains(groupTopicPartition) || loadedOffsets(groupTopicPartition).olderThan(commitRecordMetadataAndOffset))
-                          loadedOffsets.put(groupTopicPartition, commitRecordMetadataAndOffset)
-                    }
-                }
-                pendingOffsets.remove(batch.producerId)
-              }
-            } else {
-              var batchBaseOffset: Option[Long] = None
-              for (record <- batch.asScala) {
-                require(record.hasKey, "Group metadata/offset entry key should not be null")
-                if (batchBaseOffset.isEmpty)
-                  batchBaseOffset = Some(record.offset)
-                GroupMetadataManager.readMessageKey(record.key) match {
-
-                  case offsetKey: OffsetKey =>
-                    if (isTxnOffsetCommit && !pendingOffsets.contains(batch.producerId))
-                      pendingOffsets.put(batch.producerId, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]())
-
-                    // load offset
-                    val groupTopicPartition = offsetKey.key
-                    if (!record.hasValue) {
-                      if (isTxnOffsetCommit)
-                        pendingOffsets(batch.producerId).remove(groupTopicPartition)
-                      else
-                        loadedOffsets.remove(groupTopicPartition)
-                    } else {
-                      val offsetAndMetadata = GroupMetadataManager.readOffsetMessageValue(record.value)
-                      if (isTxnOffsetCommit)
-                        pendingOffsets(batch.producerId).put(groupTopicPartition, CommitRecordMetadataAndOffset(batchBaseOffset, offsetAndMetadata))
-                      else
-                        loadedOffsets.put(groupTopicPartition, CommitRecordMetadataAndOffset(batchBaseOffset, offsetAndMetadata))
-                    }
-
-                  case groupMetadataKey: GroupMetadataKey =>
-                    // load group metadata
-                    val groupId = groupMetadataKey.key
-                    val groupMetadata = GroupMetadataManager.readGroupMessageValue(groupId, record.value, time)
-                    if (groupMetadata != null) {
-                      removedGroups.remove(groupId)
-                      loadedGroups.put(groupId, groupMetadata)
-                    } else {
-                      loadedGroups.remove(groupId)
-                      removedGroups.add(groupId)
-                    }
-
-                  case unknownKey =>
-                    throw new IllegalStateException(s"Unexpected message key $unknownKey while loading offsets and group metadata")
-                }
-              }
-            }
-            currOffset = batch.nextOffset
-          }
+  /**
+   * Decodes the batches of a chunk, split into contiguous slices which are decoded by the executor threads and
+   * the calling thread. The decoded batches are returned in log order.
+   */
+  private def decodeBatches[T: ClassTag](batches: Array[MutableRecordBatch],
+                                         executor: Option[ExecutorService])
+                                        (decode: RecordBatch => T): Array[T] = {
+    val decoded = new Array[T](batches.length)
+    def decodeSlice(from: Int, until: Int): Unit = {
+      for (i <- from until until)
+        decoded(i) = decode(batches(i))
+    }
+
+    executor match {
+      case Some(pool) if batches.length > 1 =>
+        val numSlices = math.min(config.loadThreads, batches.length)
+        val sliceSize = (batches.length + numSlices - 1) / numSlices
+        val futures = (sliceSize until batches.length by sliceSize).map { from =>
+          pool.submit(new Runnable {
+            override def run(): Unit = decodeSlice(from, math.min(from + sliceSize, batches.length))
+          })
+        }
+        decodeSlice(0, sliceSize)
+        try {
+          futures.foreach(_.get())
+        } catch {
+          case e: ExecutionException => throw e.getCause
         }
+      case _ =>
+        decodeSlice(0, batches.length)
+    }
+    decoded
+  }
 
-        val (groupOffsets, emptyGroupOffsets) = loadedOffsets
-          .groupBy(_._1.group)
-          .map { case (k, v) =>
-            k -> v.map { case (groupTopicPartition, offset) => (groupTopicPartition.topicPartition, offset) }
-          }.partition { case (group, _) => loadedGroups.contains(group) }
-
-        val pendingOffsetsByGroup = mutable.Map[String, mutable.Map[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]]()
-        pendingOffsets.foreach { case (producerId, producerOffsets) =>
-          producerOffsets.keySet.map(_.group).foreach(addProducerGroup(producerId, _))
-          producerOffsets
-            .groupBy(_._1.group)
-            .foreach { case (group, offsets) =>
-              val groupPendingOffsets = pendingOffsetsByGroup.getOrElseUpdate(group, mutable.Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
-              val groupProducerOffsets = groupPendingOffsets.getOrElseUpdate(producerId, mutable.Map.empty[TopicPartition, CommitRecordMetadataAndOffset])
-              groupProducerOffsets ++= offsets.map { case (groupTopicPartition, offset) =>
-                (groupTopicPartition.topicPartition, offset)
-              }
-            }
+  private def decodeLoadedBatch(batch: RecordBatch): LoadedBatch = {
+    val isTransactional = batch.isTransactional
+    if (batch.isControlBatch) {
+      val recordIterator = batch.iterator
+      if (recordIterator.hasNext) {
+        val record = recordIterator.next()
+        LoadedControlBatch(batch.nextOffset, batch.producerId, Some(ControlRecordType.parse(record.key)))
+      } else {
+        LoadedControlBatch(batch.nextOffset, RecordBatch.NO_PRODUCER_ID, None)
+      }
+    } else {
+      var batchBaseOffset: Option[Long] = None
+      val records = new ArrayBuffer[LoadedRecord]
+      for (record <- batch.asScala) {
+        require(record.hasKey, "Group metadata/offset entry key should not be null")
+        if (batchBaseOffset.isEmpty)
+          batchBaseOffset = Some(record.offset)
+        records += (GroupMetadataManager.readMessageKey(record.key) match {
+          case offsetKey: OffsetKey =>
+            val offsetAndMetadata =
+              if (record.hasValue) Some(GroupMetadataManager.readOffsetMessageValue(record.value))
+              else None
+            LoadedOffsetRecord(offsetKey.key, offsetAndMetadata)
+
+          case groupMetadataKey: GroupMetadataKey =>
+            val groupId = groupMetadataKey.key
+            LoadedGroupRecord(groupId, Option(GroupMetadataManager.readGroupMessageValue(groupId, record.value, time)))
+
+          case unknownKey =>
+            throw new IllegalStateException(s"Unexpected message key $unknownKey while loading offsets and group metadata")
+        })
+      }
+      val producerId = if (isTransactional) batch.producerId else RecordBatch.NO_PRODUCER_ID
+      LoadedDataBatch(batch.nextOffset, isTransactional, producerId, batchBaseOffset, records)
+    }
+  }
+
+  /**
+   * Returns the end offset of the last batch with a record of each group, or `Long.MaxValue` for the groups with
+   * transactional offset commits, which may be completed by any later transaction marker. The first chunk is
+   * passed decoded, the following chunks are read and only the keys of their records are decoded.
+   */
+  private def scanGroupEndOffsets(reader: LoadChunkReader,
+                                  firstChunk: Array[LoadedBatch],
+                                  decodeExecutor: Option[ExecutorService]): mutable.Map[String, Long] = {
+    val groupEndOffsets = mutable.HashMap[String, Long]()
+    def update(groupId: String, endOffset: Long): Unit = {
+      if (groupEndOffsets.getOrElse(groupId, -1L) < endOffset)
+        groupEndOffsets.put(groupId, endOffset)
+    }
+
+    firstChunk.foreach {
+      case batch: LoadedDataBatch =>
+        val endOffset = if (batch.isTransactional) Long.MaxValue else batch.nextOffset
+        batch.records.foreach(record => update(record.groupId, endOffset))
+      case _: LoadedControlBatch =>
+    }
+
+    var nextOffset = firstChunk.last.nextOffset
+    var chunk = reader.read(nextOffset).map(decodeBatches(_, decodeExecutor)(scanBatch)).getOrElse(Array.empty)
+    while (chunk.nonEmpty) {
+      chunk.foreach { batch =>
+        val endOffset = if (batch.isTransactional) Long.MaxValue else batch.nextOffset
+        batch.groupIds.foreach(update(_, endOffset))
+      }
+      nextOffset = chunk.last.nextOffset
+      chunk = reader.read(nextOffset).map(decodeBatches(_, decodeExecutor)(scanBatch)).getOrElse(Array.empty)
+    }
+    groupEndOffsets
+  }
+
+  private def scanBatch(batch: RecordBatch): ScannedBatch = {
+    val groupIds = mutable.HashSet[String]()
+    if (!batch.isControlBatch) {
+      for (record <- batch.asScala) {
+        require(record.hasKey, "Group metadata/offset entry key should not be null")
+        GroupMetadataManager.readMessageKey(record.key) match {
+          case offsetKey: OffsetKey => groupIds += offsetKey.key.group
+          case groupMetadataKey: GroupMetadataKey => groupIds += groupMetadataKey.key
+          case unknownKey =>
+            throw new IllegalStateException(s"Unexpected message key $unknownKey while loading offsets and group metadata")
         }
+      }
+    }
+    ScannedBatch(batch.nextOffset, batch.isTransactional, groupIds)
+  }
 
-        val (pendingGroupOffsets, pendingEmptyGroupOffsets) = pendingOffsetsByGroup
-          .partition { case (group, _) => loadedGroups.contains(group)}
+  /**
+   * The groups and offsets of an offsets topic partition being loaded, which are updated by applying its batches in
+   * log order. If the end offset of the last batch of each group is known, a group is loaded into the cache as soon
+   * as that batch is applied; the remaining groups are loaded once the partition has been read.
+   */
+  private class PartitionLoad(topicPartition: TopicPartition, onGroupLoaded: GroupMetadata => Unit) {
+    private val loadedOffsets = mutable.Map[String, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]()
+    private val pendingOffsets = mutable.Map[Long, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]]()
+    private val loadedGroups = mutable.Map[String, GroupMetadata]()
+    private val removedGroups = mutable.Set[String]()
+
+    // the groups sorted by the end offset of their last batch, and the index of the next group to resolve
+    private var groupsByEndOffset = Array.empty[(Long, String)]
+    private var nextGroupIndex = 0
+    private val resolvedGroups = mutable.ArrayBuffer[String]()
+
+    def setGroupEndOffsets(groupEndOffsets: Map[String, Long]): Unit = {
+      groupsByEndOffset = groupEndOffsets.iterator.map { case (groupId, endOffset) => (endOffset, groupId) }
+        .toArray.sortBy(_._1)
+    }
 
-        loadedGroups.values.foreach { group =>
-          val offsets = groupOffsets.getOrElse(group.groupId, Map.empty[TopicPartition, CommitRecordMetadataAndOffset])
-          val pendingOffsets = pendingGroupOffsets.getOrElse(group.groupId, Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
-          debug(s"Loaded group metadata $group with offsets $offsets and pending offsets $pendingOffsets")
-          loadGroup(group, offsets, pendingOffsets)
-          onGroupLoaded(group)
+    def applyChunk(batches: Array[LoadedBatch]): Unit = {
+      batches.foreach { batch =>
+        applyBatch(batch)
+        while (nextGroupIndex < groupsByEndOffset.length && groupsByEndOffset(nextGroupIndex)._1 <= batch.nextOffset) {
+          resolveGroup(groupsByEndOffset(nextGroupIndex)._2)
+          nextGroupIndex += 1
         }
+      }
 
-        // load groups which store offsets in kafka, but which have no active members and thus no group
-        // metadata stored in the log
-        (emptyGroupOffsets.keySet ++ pendingEmptyGroupOffsets.keySet).foreach { groupId =>
-          val group = new GroupMetadata(groupId, Empty, time)
-          val offsets = emptyGroupOffsets.getOrElse(groupId, Map.empty[TopicPartition, CommitRecordMetadataAndOffset])
-          val pendingOffsets = pendingEmptyGroupOffsets.getOrElse(groupId, Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
-          debug(s"Loaded group metadata $group with offsets $offsets and pending offsets $pendingOffsets")
-          loadGroup(group, offsets, pendingOffsets)
-          onGroupLoaded(group)
+      if (resolvedGroups.nonEmpty) {
+        // the offsets of the resolved groups can be fetched before the rest of the partition is loaded
+        inLock(partitionLock) {
+          loadedGroupsOfLoadingPartitions.getOrElseUpdate(topicPartition.partition, mutable.Set[String]()) ++= resolvedGroups
         }
+        resolvedGroups.clear()
+      }
+    }
 
-        removedGroups.foreach { groupId =>
-          // if the cache already contains a group which should be removed, raise an error. Note that it
-          // is possible (however unlikely) for a consumer group to be removed, and then to be used only for
-          // offset storage (i.e. by "simple" consumers)
-          if (groupMetadataCache.contains(groupId) && !emptyGroupOffsets.contains(groupId))
-            throw new IllegalStateException(s"Unexpected unload of active group $groupId while " +
-              s"loading partition $topicPartition")
+    private def applyBatch(batch: LoadedBatch): Unit = batch match {
+      case LoadedControlBatch(_, producerId, controlRecordType) =>
+        controlRecordType.foreach { controlRecord =>
+          if (controlRecord == ControlRecordType.COMMIT) {
+            pendingOffsets.getOrElse(producerId, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]())
+              .foreach {
+                case (groupTopicPartition, commitRecordMetadataAndOffset) =>
+                  val groupOffsets = loadedOffsets.getOrElseUpdate(groupTopicPartition.group, mutable.Map())
+                  if (!groupOffsets.get(groupTopicPartition.topicPartition).exists(!_.olderThan(commitRecordMetadataAndOffset)))
+                    groupOffsets.put(groupTopicPartition.topicPartition, commitRecordMetadataAndOffset)
+              }
+          }
+          pendingOffsets.remove(producerId)
+        }
+
+      case LoadedDataBatch(_, isTxnOffsetCommit, producerId, batchBaseOffset, records) =>
+        records.foreach {
+          case LoadedOffsetRecord(groupTopicPartition, offsetAndMetadataOpt) =>
+            if (isTxnOffsetCommit && !pendingOffsets.contains(producerId))
+              pendingOffsets.put(producerId, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]())
+
+            // load offset
+            offsetAndMetadataOpt match {
+              case None =>
+                if (isTxnOffsetCommit)
+                  pendingOffsets(producerId).remove(groupTopicPartition)
+                else
+                  loadedOffsets.get(groupTopicPartition.group).foreach { groupOffsets =>
+                    groupOffsets.remove(groupTopicPartition.topicPartition)
+                    if (groupOffsets.isEmpty)
+                      loadedOffsets.remove(groupTopicPartition.group)
+                  }
+              case Some(offsetAndMetadata) =>
+                val commitRecordMetadataAndOffset = CommitRecordMetadataAndOffset(batchBaseOffset, offsetAndMetadata)
+                if (isTxnOffsetCommit)
+                  pendingOffsets(producerId).put(groupTopicPartition, commitRecordMetadataAndOffset)
+                else
+                  loadedOffsets.getOrElseUpdate(groupTopicPartition.group, mutable.Map())
+                    .put(groupTopicPartition.topicPartition, commitRecordMetadataAndOffset)
+            }
+
+          case LoadedGroupRecord(groupId, groupMetadataOpt) =>
+            // load group metadata
+            groupMetadataOpt match {
+              case Some(groupMetadata) =>
+                removedGroups.remove(groupId)
+                loadedGroups.put(groupId, groupMetadata)
+              case None =>
+                loadedGroups.remove(groupId)
+                removedGroups.add(groupId)
+            }
         }
     }
+
+    // loads a group whose last batch has been applied, the groups with transactional offset commits are never resolved
+    private def resolveGroup(groupId: String): Unit = {
+      val offsets = loadedOffsets.remove(groupId)
+      loadedGroups.remove(groupId).orElse(offsets.map(_ => new GroupMetadata(groupId, Empty, time))).foreach { group =>
+        install(group, offsets.getOrElse(Map.empty[TopicPartition, CommitRecordMetadataAndOffset]), Map.empty)
+      }
+      resolvedGroups += groupId
+    }
+
+    private def install(group: GroupMetadata,
+                        offsets: Map[TopicPartition, CommitRecordMetadataAndOffset],
+                        pendingOffsets: Map[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]): Unit = {
+      debug(s"Loaded group metadata $group with offsets $offsets and pending offsets $pendingOffsets")
+      removedGroups.remove(group.groupId)
+      loadGroup(group, offsets, pendingOffsets)
+      onGroupLoaded(group)
+    }
+
+    def complete(): Unit = {
+      val pendingOffsetsByGroup = mutable.Map[String, mutable.Map[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]]()
+      pendingOffsets.foreach { case (producerId, producerOffsets) =>
+        producerOffsets.keySet.map(_.group).foreach(addProducerGroup(producerId, _))
+        producerOffsets
+          .groupBy(_._1.group)
+          .foreach { case (group, offsets) =>
+            val groupPendingOffsets = pendingOffsetsByGroup.getOrElseUpdate(group, mutable.Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
+            val groupProducerOffsets = groupPendingOffsets.getOrElseUpdate(producerId, mutable.Map.empty[TopicPartition, CommitRecordMetadataAndOffset])
+            groupProducerOffsets ++= offsets.map { case (groupTopicPartition, offset) =>
+              (groupTopicPartition.topicPartition, offset)
+            }
+          }
+      }
+
+      loadedGroups.values.foreach { group =>
+        val offsets = loadedOffsets.getOrElse(group.groupId, Map.empty[TopicPartition, CommitRecordMetadataAndOffset])
+        val pendingOffsets = pendingOffsetsByGroup.getOrElse(group.groupId, Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
+        install(group, offsets, pendingOffsets)
+      }
+
+      // load groups which store offsets in kafka, but which have no active members and thus no group
+      // metadata stored in the log
+      (loadedOffsets.keySet ++ pendingOffsetsByGroup.keySet).filterNot(loadedGroups.contains).foreach { groupId =>
+        val group = new GroupMetadata(groupId, Empty, time)
+        val offsets = loadedOffsets.getOrElse(groupId, Map.empty[TopicPartition, CommitRecordMetadataAndOffset])
+        val pendingOffsets = pendingOffsetsByGroup.getOrElse(groupId, Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
+        install(group, offsets, pendingOffsets)
+      }
+
+      removedGroups.foreach { groupId =>
+        // if the cache already contains a group which should be removed, raise an error. Note that it
+        // is possible (however unlikely) for a consumer group to be removed, and then to be used only for
+        // offset storage (i.e. by "simple" consumers)
+        if (groupMetadataCache.contains(groupId))
+          throw new IllegalStateException(s"Unexpected unload of active group $groupId while " +
+            s"loading partition $topicPartition")
+      }
+    }
   }
 
   private def loadGroup(group: GroupMetadata, offsets: Map[TopicPartition, CommitRecordMetadataAndOffset],
@@ -840,6 +1092,8 @@ class GroupMetadataManager(brokerId: Int,
 
             if (tombstones.nonEmpty) {
               try {
+                // append the commits queued for the partition first, so that they do not follow their tombstones
+                offsetCommitAccumulator.foreach(_.flush(appendPartition))
                 // do not need to require acks since even if the tombstone is lost,
                 // it will be appended again in the next purge cycle
                 val records = MemoryRecords.withRecords(magicValue, 0L, compressionType, timestampType, tombstones.toArray: _*)
@@ -929,6 +1183,8 @@ class GroupMetadataManager(brokerId: Int,
     shuttingDown.set(true)
     if (scheduler.isStarted)
       scheduler.shutdown()
+    loadDecodeExecutor.foreach(_.shutdownNow())
+    offsetCommitAccumulator.foreach(_.shutdown())
 
     // TODO: clear the caches
   }
@@ -1563,6 +1819,39 @@ object GroupMetadataManager {
 
 }
 
+/**
+ * A batch of the offsets topic decoded while loading a partition.
+ */
+private[group] sealed trait LoadedBatch {
+  def nextOffset: Long
+}
+
+private[group] case class LoadedControlBatch(nextOffset: Long,
+                                             producerId: Long,
+                                             controlRecordType: Option[ControlRecordType]) extends LoadedBatch
+
+private[group] case class LoadedDataBatch(nextOffset: Long,
+                                          isTransactional: Boolean,
+                                          producerId: Long,
+                                          baseOffset: Option[Long],
+                                          records: Seq[LoadedRecord]) extends LoadedBatch
+
+private[group] sealed trait LoadedRecord {
+  def groupId: String
+}
+
+private[group] case class LoadedOffsetRecord(groupTopicPartition: GroupTopicPartition,
+                                             offsetAndMetadata: Option[OffsetAndMetadata]) extends LoadedRecord {
+  override def groupId: String = groupTopicPartition.group
+}
+
+private[group] case class LoadedGroupRecord(groupId: String, groupMetadata: Option[GroupMetadata]) extends LoadedRecord
+
+/**
+ * The groups with a record in a batch of the offsets topic, scanned before loading a partition.
+ */
+private[group] case class ScannedBatch(nextOffset: Long, isTransactional: Boolean, groupIds: Iterable[String])
+
 case class GroupTopicPartition(group: String, topicPartition: TopicPartition) {
 
   def this(group: String, topic: String, partition: Int) =
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.util
+import java.util.Optional
+
+import kafka.common.OffsetAndMetadata
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.RecordBatch
+
+import scala.collection.{Seq, mutable}
+
+private[group] object GroupOffsetStore {
+  private val InitialCapacity = 4
+  private val NoBatchOffset = -1L
+  private val NoExpireTimestamp = -1L
+}
+
+/**
+ * The committed offsets of a group, stored in primitive arrays rather than as a map of boxed offsets, since a
+ * coordinator may hold the offsets of millions of partitions.
+ *
+ * The offsets of each topic are held in arrays sorted by partition, so that the offsets of the partitions of a topic
+ * cost a few dozen bytes each whether the group commits all of its partitions or only a few of them. Topic names are
+ * interned, so that the groups consuming a topic share its name, and metadata equal to the metadata of the previous
+ * committed offset of the group, usually committed in the same request, is shared with it.
+ *
+ * The offsets are materialized as `CommitRecordMetadataAndOffset` when they are read. Like the rest of the state of
+ * a group, the store is not thread safe and is accessed under the group lock.
+ */
+private[group] class GroupOffsetStore {
+  import GroupOffsetStore._
+
+  private val topics = new mutable.HashMap[String, TopicOffsets]
+  private var numOffsets = 0
+  private var lastMetadata = OffsetAndMetadata.NoMetadata
+
+  def size: Int = numOffsets
+
+  def isEmpty: Boolean = numOffsets == 0
+
+  def nonEmpty: Boolean = numOffsets != 0
+
+  def contains(topicPartition: TopicPartition): Boolean = topics.get(topicPartition.topic) match {
+    case Some(topicOffsets) => topicOffsets.indexOf(topicPartition.partition) >= 0
+    case None => false
+  }
+
+  def get(topicPartition: TopicPartition): Option[CommitRecordMetadataAndOffset] = topics.get(topicPartition.topic) match {
+    case Some(topicOffsets) =>
+      val index = topicOffsets.indexOf(topicPartition.partition)
+      if (index >= 0) Some(topicOffsets.get(index)) else None
+    case None => None
+  }
+
+  def put(topicPartition: TopicPartition, offset: CommitRecordMetadataAndOffset): Unit = {
+    val topicOffsets = topics.getOrElseUpdate(topicPartition.topic, new TopicOffsets(topicPartition.topic.intern()))
+    var index = topicOffsets.indexOf(topicPartition.partition)
+    if (index < 0) {
+      index = -(index + 1)
+      topicOffsets.insert(index, topicPartition.partition)
+      numOffsets += 1
+    }
+    topicOffsets.set(index, offset, dedupMetadata(offset.offsetAndMetadata.metadata))
+  }
+
+  def remove(topicPartition: TopicPartition): Option[CommitRecordMetadataAndOffset] = {
+    topics.get(topicPartition.topic).flatMap { topicOffsets =>
+      val index = topicOffsets.indexOf(topicPartition.partition)
+      if (index < 0)
+        None
+      else {
+        val removed = topicOffsets.get(index)
+        topicOffsets.delete(index)
+        numOffsets -= 1
+        if (topicOffsets.size == 0)
+          topics.remove(topicPartition.topic)
+        Some(removed)
+      }
+    }
+  }
+
+  def keys: Seq[TopicPartition] = {
+    val keys = new mutable.ArrayBuffer[TopicPartition](numOffsets)
+    topics.values.foreach { topicOffsets =>
+      for (index <- 0 until topicOffsets.size)
+        keys += new TopicPartition(topicOffsets.topic, topicOffsets.partitions(index))
+    }
+    keys
+  }
+
+  def foreach(f: (TopicPartition, CommitRecordMetadataAndOffset) => Unit): Unit = {
+    topics.values.foreach { topicOffsets =>
+      for (index <- 0 until topicOffsets.size)
+        f(new TopicPartition(topicOffsets.topic, topicOffsets.partitions(index)), topicOffsets.get(index))
+    }
+  }
+
+  private def dedupMetadata(metadata: String): String = {
+    if (metadata == null || metadata.isEmpty)
+      metadata
+    else if (metadata == lastMetadata)
+      lastMetadata
+    else {
+      lastMetadata = metadata
+      metadata
+    }
+  }
+
+  private class TopicOffsets(val topic: String) {
+    var size = 0
+    var partitions = new Array[Int](InitialCapacity)
+    private var offsets = new Array[Long](InitialCapacity)
+    private var batchOffsets = new Array[Long](InitialCapacity)
+    private var leaderEpochs = new Array[Int](InitialCapacity)
+    private var commitTimestamps = new Array[Long](InitialCapacity)
+    // only allocated once an offset with an expire timestamp, which was removed in version 3 of the value, is stored
+    private var expireTimestamps: Array[Long] = null
+    private var metadata = new Array[String](InitialCapacity)
+
+    def indexOf(partition: Int): Int = util.Arrays.binarySearch(partitions, 0, size, partition)
+
+    def get(index: Int): CommitRecordMetadataAndOffset = {
+      val batchOffset = batchOffsets(index)
+      val leaderEpoch = leaderEpochs(index)
+      val expireTimestamp = if (expireTimestamps == null) NoExpireTimestamp else expireTimestamps(index)
+      CommitRecordMetadataAndOffset(
+        if (batchOffset == NoBatchOffset) None else Some(batchOffset),
+        OffsetAndMetadata(
+          offset = offsets(index),
+          leaderEpoch = if (leaderEpoch == RecordBatch.NO_PARTITION_LEADER_EPOCH) Optional.empty() else Optional.of(leaderEpoch),
+          metadata = metadata(index),
+          commitTimestamp = commitTimestamps(index),
+          expireTimestamp = if (expireTimestamp == NoExpireTimestamp) None else Some(expireTimestamp)))
+    }
+
+    def set(index: Int, offset: CommitRecordMetadataAndOffset, offsetMetadata: String): Unit = {
+      val offsetAndMetadata = offset.offsetAndMetadata
+      offsets(index) = offsetAndMetadata.offset
+      batchOffsets(index) = offset.appendedBatchOffset.getOrElse(NoBatchOffset)
+      leaderEpochs(index) = offsetAndMetadata.leaderEpoch.orElse(RecordBatch.NO_PARTITION_LEADER_EPOCH)
+      commitTimestamps(index) = offsetAndMetadata.commitTimestamp
+      metadata(index) = offsetMetadata
+      offsetAndMetadata.expireTimestamp match {
+        case Some(expireTimestamp) =>
+          if (expireTimestamps == null) {
+            expireTimestamps = new Array[Long](partitions.length)
+            util.Arrays.fill(expireTimestamps, NoExpireTimestamp)
+          }
+          expireTimestamps(index) = expireTimestamp
+        case None =>
+          if (expireTimestamps != null)
+            expireTimestamps(index) = NoExpireTimestamp
+      }
+    }
+
+    def insert(index: Int, partition: Int): Unit = {
+      if (size == partitions.length) {
+        val capacity = size * 2
+        partitions = util.Arrays.copyOf(partitions, capacity)
+        offsets = util.Arrays.copyOf(offsets, capacity)
+        batchOffsets = util.Arrays.copyOf(batchOffsets, capacity)
+        leaderEpochs = util.Arrays.copyOf(leaderEpochs, capacity)
+        commitTimestamps = util.Arrays.copyOf(commitTimestamps, capacity)
+        metadata = util.Arrays.copyOf(metadata, capacity)
+        if (expireTimestamps != null)
+          expireTimestamps = util.Arrays.copyOf(expireTimestamps, capacity)
+      }
+      shift(index, index + 1, size - index)
+      partitions(index) = partition
+      size += 1
+    }
+
+    def delete(index: Int): Unit = {
+      shift(index + 1, index, size - index - 1)
+      size -= 1
+      metadata(size) = null
+    }
+
+    private def shift(from: Int, to: Int, length: Int): Unit = {
+      if (length > 0) {
+        System.arraycopy(partitions, from, partitions, to, length)
+        System.arraycopy(offsets, from, offsets, to, length)
+        System.arraycopy(batchOffsets, from, batchOffsets, to, length)
+        System.arraycopy(leaderEpochs, from, leaderEpochs, to, length)
+        System.arraycopy(commitTimestamps, from, commitTimestamps, to, length)
+        System.arraycopy(metadata, from, metadata, to, length)
+        if (expireTimestamps != null)
+          System.arraycopy(expireTimestamps, from, expireTimestamps, to, length)
+      }
+    }
+  }
+}
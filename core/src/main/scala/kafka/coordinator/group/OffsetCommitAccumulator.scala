@@ -0,0 +1,269 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.nio.ByteBuffer
+import java.util
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.CoreUtils.inLock
+import kafka.utils.{Logging, ShutdownableThread}
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record.{AbstractRecords, CompressionType, MemoryRecords, SimpleRecord, TimestampType}
+import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
+import org.apache.kafka.common.utils.Time
+
+import scala.collection.{Seq, mutable}
+import scala.jdk.CollectionConverters._
+
+object OffsetCommitAccumulator {
+  val OffsetCommitAccumulatorThreadName = "offset-commit-accumulator-thread"
+  val OffsetCommitBatchSizeMetricName = "OffsetCommitBatchSize"
+  val OffsetCommitQueueSizeMetricName = "OffsetCommitQueueSize"
+  val MaxBatchBytes = 512 * 1024
+}
+
+/**
+ * The records of a non-transactional offset commit of a group, whose callback is invoked with the append status of
+ * the batch the records are appended in.
+ */
+private[group] class PendingOffsetCommit(val partition: TopicPartition,
+                                         val magic: Byte,
+                                         val records: Seq[SimpleRecord],
+                                         val sizeInBytes: Int,
+                                         val callback: PartitionResponse => Unit,
+                                         val enqueueTimeMs: Long) {
+  override def toString: String = {
+    s"PendingOffsetCommit(partition=$partition, magic=$magic, records=${records.size}, sizeInBytes=$sizeInBytes, " +
+      s"enqueueTimeMs=$enqueueTimeMs)"
+  }
+}
+
+/**
+ * Appends the non-transactional offset commits of the groups of an offsets topic partition in batches, rather than
+ * appending each commit on its own.
+ *
+ * Commits are queued by the request handler threads and appended by a single thread, which appends the commits queued
+ * for each partition, up to `maxBatchBytes`, in one record batch once the oldest commit was queued for `lingerMs`.
+ * Commits queued while the previous batches are appended are batched even if `lingerMs` is 0, so that the batches grow
+ * with the rate of commits while a single commit is not delayed.
+ *
+ * A batch contains the offsets of several groups, so it cannot be appended under the lock of a group like other
+ * appends of the coordinator, and its delayed produce may be completed by a thread which holds the lock of another
+ * group. The callbacks of the commits, which acquire the locks of their groups, are therefore invoked by the
+ * accumulator thread once the append of their batch is completed.
+ *
+ * The commits of a partition are appended in the order they were queued, and `flush` appends the commits queued for a
+ * partition before the coordinator appends tombstones to it, so that a deleted offset is not appended again.
+ */
+class OffsetCommitAccumulator(brokerId: Int,
+                              lingerMs: Int,
+                              compressionType: CompressionType,
+                              time: Time,
+                              appendRecords: (TopicPartition, MemoryRecords, PartitionResponse => Unit) => Unit,
+                              maxBatchBytes: Int = OffsetCommitAccumulator.MaxBatchBytes)
+  extends Logging with KafkaMetricsGroup {
+  import OffsetCommitAccumulator._
+
+  this.logIdent = s"[OffsetCommitAccumulator brokerId=$brokerId] "
+
+  /* lock protecting the queued commits and the completed batches */
+  private val lock = new ReentrantLock()
+  private val workAvailable = lock.newCondition()
+
+  /* lock held while queued commits are appended, so that the commits of a partition are appended in order */
+  private val appendLock = new ReentrantLock()
+
+  private val queuedCommits = new util.ArrayDeque[PendingOffsetCommit]()
+  private var queuedBytes = 0L
+  private val completedBatches = new util.ArrayDeque[(Seq[PendingOffsetCommit], PartitionResponse)]()
+  /* set once shutdown starts, after which commits are failed rather than queued */
+  private var shuttingDown = false
+  /* set once the thread has stopped, after which batches are completed by the thread completing their append */
+  private var closed = false
+
+  // Visible for test
+  private[group] val thread = new OffsetCommitAccumulatorThread(OffsetCommitAccumulatorThreadName)
+
+  private val batchSizeHist = newHistogram(OffsetCommitBatchSizeMetricName)
+
+  newGauge(OffsetCommitQueueSizeMetricName, () => inLock(lock) { queuedCommits.size })
+
+  def start(): Unit = thread.start()
+
+  def shutdown(): Unit = {
+    inLock(lock) {
+      shuttingDown = true
+    }
+    try {
+      if (thread.getState != Thread.State.NEW)
+        thread.shutdown()
+
+      val (unappendedCommits, batches) = inLock(lock) {
+        closed = true
+        val commits = queuedCommits.asScala.toBuffer
+        queuedCommits.clear()
+        queuedBytes = 0
+        (commits, drainCompletedBatches())
+      }
+      unappendedCommits.foreach(complete(_, new PartitionResponse(Errors.NOT_LEADER_OR_FOLLOWER)))
+      batches.foreach { case (batch, status) => batch.foreach(complete(_, status)) }
+    } finally {
+      removeMetric(OffsetCommitBatchSizeMetricName)
+      removeMetric(OffsetCommitQueueSizeMetricName)
+    }
+  }
+
+  def add(commit: PendingOffsetCommit): Unit = {
+    val queued = inLock(lock) {
+      if (!shuttingDown) {
+        queuedCommits.add(commit)
+        queuedBytes += commit.sizeInBytes
+        workAvailable.signal()
+      }
+      !shuttingDown
+    }
+    if (!queued)
+      complete(commit, new PartitionResponse(Errors.NOT_LEADER_OR_FOLLOWER))
+  }
+
+  /**
+   * Appends the commits queued for `partition`. Their callbacks are still invoked by the accumulator thread.
+   */
+  def flush(partition: TopicPartition): Unit = appendQueuedCommits(_ == partition)
+
+  // Visible for test
+  private[group] def appendQueuedCommits(partitionFilter: TopicPartition => Boolean): Unit = inLock(appendLock) {
+    val commitsByPartition = mutable.LinkedHashMap[TopicPartition, mutable.ArrayBuffer[PendingOffsetCommit]]()
+    inLock(lock) {
+      val iterator = queuedCommits.iterator()
+      while (iterator.hasNext) {
+        val commit = iterator.next()
+        if (partitionFilter(commit.partition)) {
+          iterator.remove()
+          queuedBytes -= commit.sizeInBytes
+          commitsByPartition.getOrElseUpdate(commit.partition, mutable.ArrayBuffer()) += commit
+        }
+      }
+    }
+
+    commitsByPartition.foreach { case (partition, commits) =>
+      var batch = mutable.ArrayBuffer[PendingOffsetCommit]()
+      var batchBytes = 0
+      commits.foreach { commit =>
+        if (batch.nonEmpty && (commit.magic != batch.head.magic || batchBytes + commit.sizeInBytes > maxBatchBytes)) {
+          appendBatch(partition, batch)
+          batch = mutable.ArrayBuffer[PendingOffsetCommit]()
+          batchBytes = 0
+        }
+        batch += commit
+        batchBytes += commit.sizeInBytes
+      }
+      appendBatch(partition, batch)
+    }
+  }
+
+  private def appendBatch(partition: TopicPartition, batch: Seq[PendingOffsetCommit]): Unit = {
+    batchSizeHist.update(batch.size)
+    try {
+      val magic = batch.head.magic
+      val records = batch.flatMap(_.records)
+      val buffer = ByteBuffer.allocate(AbstractRecords.estimateSizeInBytes(magic, compressionType, records.asJava))
+      // We always use CREATE_TIME, like the producer. The conversion to LOG_APPEND_TIME (if necessary) happens automatically.
+      val builder = MemoryRecords.builder(buffer, magic, compressionType, TimestampType.CREATE_TIME, 0L)
+      records.foreach(builder.append)
+      appendRecords(partition, builder.build(), status => onBatchAppended(batch, status))
+    } catch {
+      case e: Throwable =>
+        error(s"Failed to append a batch of ${batch.size} offset commits to $partition", e)
+        onBatchAppended(batch, new PartitionResponse(Errors.forException(e)))
+    }
+  }
+
+  private def onBatchAppended(batch: Seq[PendingOffsetCommit], status: PartitionResponse): Unit = {
+    val queued = inLock(lock) {
+      if (!closed) {
+        completedBatches.add((batch, status))
+        workAvailable.signal()
+      }
+      !closed
+    }
+    if (!queued)
+      batch.foreach(complete(_, status))
+  }
+
+  // Visible for test
+  private[group] def completeAppendedBatches(): Unit = {
+    val batches = inLock(lock)(drainCompletedBatches())
+    batches.foreach { case (batch, status) =>
+      batch.foreach(complete(_, status))
+    }
+  }
+
+  private def drainCompletedBatches(): Seq[(Seq[PendingOffsetCommit], PartitionResponse)] = {
+    val batches = completedBatches.asScala.toBuffer
+    completedBatches.clear()
+    batches
+  }
+
+  private def complete(commit: PendingOffsetCommit, status: PartitionResponse): Unit = {
+    try {
+      commit.callback(status)
+    } catch {
+      case e: Throwable => error(s"Uncaught error completing $commit", e)
+    }
+  }
+
+  /**
+   * Returns the time until the queued commits should be appended, or Long.MaxValue if no commit is queued.
+   */
+  private def appendDelayMs(now: Long): Long = {
+    if (queuedCommits.isEmpty)
+      Long.MaxValue
+    else if (queuedBytes >= maxBatchBytes)
+      0L
+    else
+      math.max(0L, queuedCommits.peek.enqueueTimeMs + lingerMs - now)
+  }
+
+  class OffsetCommitAccumulatorThread(name: String) extends ShutdownableThread(name = name) {
+    logIdent = s"[OffsetCommitAccumulatorThread brokerId=$brokerId] "
+
+    override def doWork(): Unit = {
+      val appendReady = inLock(lock) {
+        var delayMs = appendDelayMs(time.milliseconds)
+        while (completedBatches.isEmpty && delayMs > 0) {
+          if (delayMs == Long.MaxValue)
+            workAvailable.await()
+          else
+            workAvailable.await(delayMs, TimeUnit.MILLISECONDS)
+          delayMs = appendDelayMs(time.milliseconds)
+        }
+        delayMs == 0
+      }
+
+      completeAppendedBatches()
+      if (appendReady)
+        appendQueuedCommits(_ => true)
+    }
+  }
+
+}
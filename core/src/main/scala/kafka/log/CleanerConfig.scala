@@ -28,6 +28,7 @@ package kafka.log
  * @param backOffMs The amount of time to wait before rechecking if no logs are eligible for cleaning
  * @param enableCleaner Allows completely disabling the log cleaner
  * @param hashAlgorithm The hash algorithm to use in key comparison.
+ * @param threadsPerLog The number of workers each cleaner thread uses to clean a single log
  */
 case class CleanerConfig(numThreads: Int = 1,
                          dedupeBufferSize: Long = 4*1024*1024L,
@@ -37,5 +38,22 @@ case class CleanerConfig(numThreads: Int = 1,
                          maxIoBytesPerSecond: Double = Double.MaxValue,
                          backOffMs: Long = 15 * 1000,
                          enableCleaner: Boolean = true,
-                         hashAlgorithm: String = "MD5") {
+                         hashAlgorithm: String = "MD5",
+                         threadsPerLog: Int = 1) {
+
+  // Java callers cannot use the default arguments
+  def this(numThreads: Int, dedupeBufferSize: Long, dedupeBufferLoadFactor: Double, ioBufferSize: Int,
+           maxMessageSize: Int, maxIoBytesPerSecond: Double, backOffMs: Long, enableCleaner: Boolean,
+           hashAlgorithm: String) =
+    this(numThreads, dedupeBufferSize, dedupeBufferLoadFactor, ioBufferSize, maxMessageSize, maxIoBytesPerSecond,
+      backOffMs, enableCleaner, hashAlgorithm, 1)
+}
+
+object CleanerConfig {
+  // Java callers cannot use the default arguments
+  def apply(numThreads: Int, dedupeBufferSize: Long, dedupeBufferLoadFactor: Double, ioBufferSize: Int,
+            maxMessageSize: Int, maxIoBytesPerSecond: Double, backOffMs: Long, enableCleaner: Boolean,
+            hashAlgorithm: String): CleanerConfig =
+    new CleanerConfig(numThreads, dedupeBufferSize, dedupeBufferLoadFactor, ioBufferSize, maxMessageSize,
+      maxIoBytesPerSecond, backOffMs, enableCleaner, hashAlgorithm)
 }
@@ -180,6 +180,27 @@ object RollParams {
   }
 }
 
+/**
+ * Time spent in each phase of loading a log, reported by the log manager at startup.
+ *
+ * @param segmentLoadMs Time spent opening the segment files and checking their indexes
+ * @param swapCompletionMs Time spent completing swap operations interrupted by the previous shutdown
+ * @param recoveryMs Time spent recovering the segments above the recovery point
+ * @param producerStateLoadMs Time spent rebuilding the producer state
+ * @param numRecoveredSegments The number of segments which were recovered
+ * @param numDeferredIndexRebuilds The number of segments whose missing indexes will be rebuilt on first access
+ */
+case class LogLoadTimes(segmentLoadMs: Long,
+                        swapCompletionMs: Long,
+                        recoveryMs: Long,
+                        producerStateLoadMs: Long,
+                        numRecoveredSegments: Int,
+                        numDeferredIndexRebuilds: Int) {
+  override def toString: String = s"segment load: ${segmentLoadMs}ms, swap completion: ${swapCompletionMs}ms, " +
+    s"recovery of $numRecoveredSegments segments: ${recoveryMs}ms, producer state load: ${producerStateLoadMs}ms, " +
+    s"deferred index rebuilds: $numDeferredIndexRebuilds"
+}
+
 sealed trait LogStartOffsetIncrementReason
 case object ClientRecordDeletion extends LogStartOffsetIncrementReason {
   override def toString: String = "client delete records request"
@@ -218,6 +239,8 @@ case object SegmentDeletion extends LogStartOffsetIncrementReason {
  * @param time The time instance used for checking the clock
  * @param maxProducerIdExpirationMs The maximum amount of time to wait before a producer id is considered expired
  * @param producerIdExpirationCheckIntervalMs How often to check for producer ids which need to be expired
+ * @param lazyIndexRebuild Whether missing indexes of segments below the recovery point with a transaction index are
+ *                         rebuilt on first access instead of while loading the log
  */
 @threadsafe
 class Log(@volatile private var _dir: File,
@@ -231,7 +254,8 @@ class Log(@volatile private var _dir: File,
           val producerIdExpirationCheckIntervalMs: Int,
           val topicPartition: TopicPartition,
           val producerStateManager: ProducerStateManager,
-          logDirFailureChannel: LogDirFailureChannel) extends Logging with KafkaMetricsGroup {
+          logDirFailureChannel: LogDirFailureChannel,
+          lazyIndexRebuild: Boolean = false) extends Logging with KafkaMetricsGroup {
 
   import kafka.log.Log._
 
@@ -278,6 +302,14 @@ class Log(@volatile private var _dir: File,
   // Visible for testing
   @volatile var leaderEpochCache: Option[LeaderEpochFileCache] = None
 
+  // Phase timings of loading this log, only updated during initialization
+  private var segmentLoadMs = 0L
+  private var swapCompletionMs = 0L
+  private var recoveryMs = 0L
+  private var numRecoveredSegments = 0
+  private var numDeferredIndexRebuilds = 0
+  private var _loadTimes: LogLoadTimes = _
+
   locally {
     // create the log directory if it doesn't exist
     Files.createDirectories(dir.toPath)
@@ -285,6 +317,7 @@ class Log(@volatile private var _dir: File,
     initializeLeaderEpochCache()
 
     val nextOffset = loadSegments()
+    val producerStateLoadStartMs = time.hiResClockMs()
 
     /* Calculate the offset of the next message */
     nextOffsetMetadata = LogOffsetMetadata(nextOffset, activeSegment.baseOffset, activeSegment.size)
@@ -295,16 +328,26 @@ class Log(@volatile private var _dir: File,
 
     // The earliest leader epoch may not be flushed during a hard failure. Recover it here.
     leaderEpochCache.foreach(_.truncateFromStart(logStartOffset))
+    // The recovery point is past the epochs assigned during recovery, so they must be written
+    leaderEpochCache.foreach(_.flush())
 
     // Any segment loading or recovery code must not use producerStateManager, so that we can build the full state here
     // from scratch.
     if (!producerStateManager.isEmpty)
       throw new IllegalStateException("Producer state must be empty during log initialization")
     loadProducerState(logEndOffset, reloadFromCleanShutdown = hasCleanShutdownFile)
+
+    _loadTimes = LogLoadTimes(segmentLoadMs, swapCompletionMs, recoveryMs, time.hiResClockMs() - producerStateLoadStartMs,
+      numRecoveredSegments, numDeferredIndexRebuilds)
   }
 
   def dir: File = _dir
 
+  /**
+   * The time spent in each phase of loading this log when it was created.
+   */
+  def loadTimes: LogLoadTimes = _loadTimes
+
   def parentDir: String = _parentDir
 
   def parentDirFile: File = new File(_parentDir)
@@ -620,10 +663,23 @@ class Log(@volatile private var _dir: File,
 
         try segment.sanityCheck(timeIndexFileNewlyCreated)
         catch {
+          case _: NoSuchFileException if willRecoverSegment(segment) =>
+            error(s"Could not find offset index file corresponding to log file ${segment.log.file.getAbsolutePath}, " +
+              "index files will be rebuilt while recovering unflushed segments...")
+          // The transaction index can only be rebuilt by recovering the segment. It only exists for segments with
+          // aborted transactions, so if it is missing as well, it may have been deleted along with the other indexes.
+          case _: NoSuchFileException if lazyIndexRebuild && segment.txnIndex.file.exists =>
+            warn(s"Could not find offset index file corresponding to log file ${segment.log.file.getAbsolutePath}, " +
+              "index files will be rebuilt on first access...")
+            segment.deferIndexRebuild()
+            numDeferredIndexRebuilds += 1
           case _: NoSuchFileException =>
             error(s"Could not find offset index file corresponding to log file ${segment.log.file.getAbsolutePath}, " +
               "recovering segment and rebuilding index files...")
             recoverSegment(segment)
+          case e: CorruptIndexException if willRecoverSegment(segment) =>
+            warn(s"Found a corrupted index file corresponding to log file ${segment.log.file.getAbsolutePath} due " +
+              s"to ${e.getMessage}}, index files will be rebuilt while recovering unflushed segments...")
           case e: CorruptIndexException =>
             warn(s"Found a corrupted index file corresponding to log file ${segment.log.file.getAbsolutePath} due " +
               s"to ${e.getMessage}}, recovering segment and rebuilding index files...")
@@ -634,6 +690,13 @@ class Log(@volatile private var _dir: File,
     }
   }
 
+  /**
+   * Check if the given segment lies entirely above the recovery point and will therefore be recovered by
+   * `recoverLog()` anyway, in which case there is no need to recover it while loading the segment files.
+   */
+  private def willRecoverSegment(segment: LogSegment): Boolean =
+    !hasCleanShutdownFile && !dir.getAbsolutePath.endsWith(Log.DeleteDirSuffix) && segment.baseOffset >= recoveryPoint
+
   /**
    * Recover the given segment.
    * @param segment Segment to recover
@@ -704,24 +767,32 @@ class Log(@volatile private var _dir: File,
     // Now do a second pass and load all the log and index files.
     // We might encounter legacy log segments with offset overflow (KAFKA-6264). We need to split such segments. When
     // this happens, restart loading segment files from scratch.
+    val segmentLoadStartMs = time.hiResClockMs()
     retryOnOffsetOverflow {
       // In case we encounter a segment with offset overflow, the retry logic will split it after which we need to retry
       // loading of segments. In that case, we also need to close all segments that could have been left open in previous
       // call to loadSegmentFiles().
       logSegments.foreach(_.close())
       segments.clear()
+      numDeferredIndexRebuilds = 0
       loadSegmentFiles()
     }
+    segmentLoadMs = time.hiResClockMs() - segmentLoadStartMs
 
     // Finally, complete any interrupted swap operations. To be crash-safe,
     // log files that are replaced by the swap segment should be renamed to .deleted
     // before the swap file is restored as the new segment file.
+    val swapCompletionStartMs = time.hiResClockMs()
     completeSwapOperations(swapFiles)
+    swapCompletionMs = time.hiResClockMs() - swapCompletionStartMs
 
     if (!dir.getAbsolutePath.endsWith(Log.DeleteDirSuffix)) {
+      val recoveryStartMs = time.hiResClockMs()
       val nextOffset = retryOnOffsetOverflow {
+        numRecoveredSegments = 0
         recoverLog()
       }
+      recoveryMs = time.hiResClockMs() - recoveryStartMs
 
       // reset the index size of the currently active log segment to allow more entries
       activeSegment.resizeIndexes(config.maxIndexSize)
@@ -782,6 +853,7 @@ class Log(@volatile private var _dir: File,
       while (unflushed.hasNext && !truncated) {
         val segment = unflushed.next
         info(s"Recovering unflushed segment ${segment.baseOffset}")
+        numRecoveredSegments += 1
         val truncatedBytes =
           try {
             recoverSegment(segment, leaderEpochCache)
@@ -964,6 +1036,7 @@ class Log(@volatile private var _dir: File,
         // after restarting and to ensure that we cannot inadvertently hit the upgrade optimization
         // (the clean shutdown file is written after the logs are all closed).
         producerStateManager.takeSnapshot()
+        leaderEpochCache.foreach(_.flush())
         logSegments.foreach(_.close())
       }
     }
@@ -977,6 +1050,8 @@ class Log(@volatile private var _dir: File,
   def renameDir(name: String): Unit = {
     lock synchronized {
       maybeHandleIOException(s"Error while renaming dir for $topicPartition in log dir ${dir.getParent}") {
+        // the leader epoch cache is read again from the checkpoint in the renamed directory
+        leaderEpochCache.foreach(_.flush())
         val renamedDir = new File(dir.getParent, name)
         Utils.atomicMoveWithFallback(dir.toPath, renamedDir.toPath)
         if (renamedDir != dir) {
@@ -1060,7 +1135,8 @@ class Log(@volatile private var _dir: File,
                      leaderEpoch: Int,
                      ignoreRecordSize: Boolean): LogAppendInfo = {
     maybeHandleIOException(s"Error while appending records to $topicPartition in dir ${dir.getParent}") {
-      val appendInfo = analyzeAndValidateRecords(records, origin, ignoreRecordSize)
+      val batches = new ArrayBuffer[RecordBatch]
+      val appendInfo = analyzeAndValidateRecords(records, origin, ignoreRecordSize, batches)
 
       // return if we have no valid messages or if this is a duplicate of the last appended entry
       if (appendInfo.shallowCount == 0)
@@ -1068,6 +1144,8 @@ class Log(@volatile private var _dir: File,
 
       // trim any invalid bytes or partial messages before appending it to the on-disk log
       var validRecords = trimInvalidBytes(records, appendInfo)
+      // the batches of the valid records, which are only iterated again if offsets are assigned
+      var validBatches: Iterable[RecordBatch] = batches
 
       // they are valid, insert them in the log
       lock synchronized {
@@ -1098,6 +1176,7 @@ class Log(@volatile private var _dir: File,
               throw new KafkaException(s"Error validating messages while appending to log $name", e)
           }
           validRecords = validateAndOffsetAssignResult.validatedRecords
+          validBatches = validRecords.batches.asScala
           appendInfo.maxTimestamp = validateAndOffsetAssignResult.maxTimestamp
           appendInfo.offsetOfMaxTimestamp = validateAndOffsetAssignResult.shallowOffsetOfMaxTimestamp
           appendInfo.lastOffset = offset.value - 1
@@ -1145,7 +1224,7 @@ class Log(@volatile private var _dir: File,
         }
 
         // update the epoch cache with the epoch stamped onto the message by the leader
-        validRecords.batches.forEach { batch =>
+        validBatches.foreach { batch =>
           if (batch.magic >= RecordBatch.MAGIC_VALUE_V2) {
             maybeAssignEpochStartOffset(batch.partitionLeaderEpoch, batch.baseOffset)
           } else {
@@ -1176,7 +1255,7 @@ class Log(@volatile private var _dir: File,
         // now that we have valid records, offsets assigned, and timestamps updated, we need to
         // validate the idempotent/transactional state of the producers and collect some metadata
         val (updatedProducers, completedTxns, maybeDuplicate) = analyzeAndValidateProducerState(
-          logOffsetMetadata, validRecords, origin)
+          logOffsetMetadata, validBatches, origin)
 
         maybeDuplicate.foreach { duplicate =>
           appendInfo.firstOffset = Some(duplicate.firstOffset)
@@ -1292,14 +1371,14 @@ class Log(@volatile private var _dir: File,
   }
 
   private def analyzeAndValidateProducerState(appendOffsetMetadata: LogOffsetMetadata,
-                                              records: MemoryRecords,
+                                              batches: Iterable[RecordBatch],
                                               origin: AppendOrigin):
   (mutable.Map[Long, ProducerAppendInfo], List[CompletedTxn], Option[BatchMetadata]) = {
     val updatedProducers = mutable.Map.empty[Long, ProducerAppendInfo]
     val completedTxns = ListBuffer.empty[CompletedTxn]
     var relativePositionInSegment = appendOffsetMetadata.relativePositionInSegment
 
-    for (batch <- records.batches.asScala) {
+    for (batch <- batches) {
       if (batch.hasProducerId) {
         val maybeLastEntry = producerStateManager.lastEntry(batch.producerId)
 
@@ -1344,10 +1423,14 @@ class Log(@volatile private var _dir: File,
    * <li> Whether the offsets are monotonically increasing
    * <li> Whether any compression codec is used (if many are used, then the last one is given)
    * </ol>
+   *
+   * Only the batch headers are read, apart from the CRC check. The valid batches are added to `validBatches`, so that
+   * they do not have to be iterated again when the offsets are not assigned by this log.
    */
   private def analyzeAndValidateRecords(records: MemoryRecords,
                                         origin: AppendOrigin,
-                                        ignoreRecordSize: Boolean): LogAppendInfo = {
+                                        ignoreRecordSize: Boolean,
+                                        validBatches: ArrayBuffer[RecordBatch]): LogAppendInfo = {
     var shallowMessageCount = 0
     var validBytesCount = 0
     var firstOffset: Option[Long] = None
@@ -1407,6 +1490,7 @@ class Log(@volatile private var _dir: File,
 
       shallowMessageCount += 1
       validBytesCount += batchSize
+      validBatches += batch
 
       val messageCodec = CompressionCodec.getCompressionCodec(batch.compressionType.id)
       if (messageCodec != NoCompressionCodec)
@@ -1970,6 +2054,8 @@ class Log(@volatile private var _dir: File,
         s"unflushed: $unflushedMessages")
       for (segment <- logSegments(this.recoveryPoint, offset))
         segment.flush()
+      // the epochs starting before the new recovery point are not assigned again by recovery, so they must be written
+      leaderEpochCache.foreach(_.flush())
 
       lock synchronized {
         checkIfMemoryMappedBufferClosed()
@@ -2487,11 +2573,12 @@ object Log {
             time: Time = Time.SYSTEM,
             maxProducerIdExpirationMs: Int,
             producerIdExpirationCheckIntervalMs: Int,
-            logDirFailureChannel: LogDirFailureChannel): Log = {
+            logDirFailureChannel: LogDirFailureChannel,
+            lazyIndexRebuild: Boolean = false): Log = {
     val topicPartition = Log.parseTopicPartitionName(dir)
     val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs)
     new Log(dir, config, logStartOffset, recoveryPoint, scheduler, brokerTopicStats, time, maxProducerIdExpirationMs,
-      producerIdExpirationCheckIntervalMs, topicPartition, producerStateManager, logDirFailureChannel)
+      producerIdExpirationCheckIntervalMs, topicPartition, producerStateManager, logDirFailureChannel, lazyIndexRebuild)
   }
 
   /**
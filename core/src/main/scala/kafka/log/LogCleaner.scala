@@ -20,7 +20,8 @@ package kafka.log
 import java.io.{File, IOException}
 import java.nio._
 import java.util.Date
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{ExecutionException, ExecutorService, Executors, ThreadFactory, TimeUnit}
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger}
 
 import kafka.common._
 import kafka.metrics.KafkaMetricsGroup
@@ -32,7 +33,7 @@ import org.apache.kafka.common.errors.{CorruptRecordException, KafkaStorageExcep
 import org.apache.kafka.common.record.MemoryRecords.RecordFilter
 import org.apache.kafka.common.record.MemoryRecords.RecordFilter.BatchRetention
 import org.apache.kafka.common.record._
-import org.apache.kafka.common.utils.Time
+import org.apache.kafka.common.utils.{KafkaThread, Time}
 
 import scala.jdk.CollectionConverters._
 import scala.collection.mutable.ListBuffer
@@ -62,6 +63,9 @@ import scala.util.control.ControlThrowable
  *
  * Cleaned segments are swapped into the log as they become available.
  *
+ * A single large log can be cleaned by several workers of the same cleaner thread (see log.cleaner.threads.per.log). The offset map is then
+ * partitioned by key hash and each worker builds one partition, after which the workers recopy independent groups of segments concurrently.
+ *
  * One nuance that the cleaner must handle is log truncation. If a log is truncated while it is being cleaned the cleaning of that log is aborted.
  *
  * Messages with null payload are treated as deletes for the purpose of log compaction. This means that they receive special treatment by the cleaner.
@@ -132,6 +136,17 @@ class LogCleaner(initialConfig: CleanerConfig,
     (100 * recopyRate).toInt
   })
 
+  /* a metric to track the rate at which the threads built their offset maps in their last cleaning */
+  newGauge("offset-map-build-rate-bytes-per-sec", () => {
+    val stats = cleaners.map(_.lastStats)
+    val indexSecs = stats.iterator.map(_.elapsedIndexSecs).filter(_ > 0).sum
+    if (indexSecs > 0) (stats.iterator.map(_.mapBytesRead).sum / indexSecs).toLong else 0L
+  })
+
+  /* a metric to track the maximum number of workers used to clean a single log in the last cleaning from each thread */
+  newGauge("max-log-cleaning-parallelism",
+    () => maxOverCleanerThreads(_.lastStats.parallelism))
+
   /* a metric to track the maximum cleaning time for the last cleaning from each thread */
   newGauge("max-clean-time-secs",
     () => maxOverCleanerThreads(_.lastStats.elapsedSecs))
@@ -288,9 +303,10 @@ class LogCleaner(initialConfig: CleanerConfig,
       warn("Cannot use more than 2G of cleaner buffer space per cleaner thread, ignoring excess buffer space...")
 
     val cleaner = new Cleaner(id = threadId,
-                              offsetMap = new SkimpyOffsetMap(memory = math.min(config.dedupeBufferSize / config.numThreads, Int.MaxValue).toInt,
-                                                              hashAlgorithm = config.hashAlgorithm),
-                              ioBufferSize = config.ioBufferSize / config.numThreads / 2,
+                              offsetMap = OffsetMap(memory = math.min(config.dedupeBufferSize / config.numThreads, Int.MaxValue).toInt,
+                                                    hashAlgorithm = config.hashAlgorithm,
+                                                    partitions = config.threadsPerLog),
+                              ioBufferSize = config.ioBufferSize / config.numThreads / config.threadsPerLog / 2,
                               maxIoBufferSize = config.maxMessageSize,
                               dupBufferLoadFactor = config.dedupeBufferLoadFactor,
                               throttler = throttler,
@@ -300,6 +316,11 @@ class LogCleaner(initialConfig: CleanerConfig,
     @volatile var lastStats: CleanerStats = new CleanerStats()
     @volatile var lastPreCleanStats: PreCleanStats = new PreCleanStats()
 
+    override def shutdown(): Unit = {
+      super.shutdown()
+      cleaner.shutdown()
+    }
+
     private def checkDone(topicPartition: TopicPartition): Unit = {
       if (!isRunning)
         throw new ThreadShutdownException
@@ -396,11 +417,15 @@ class LogCleaner(initialConfig: CleanerConfig,
         "\t%,.1f MB of log processed in %,.1f seconds (%,.1f MB/sec).%n".format(mb(stats.bytesRead.toDouble),
                                                                                 stats.elapsedSecs,
                                                                                 mb(stats.bytesRead.toDouble / stats.elapsedSecs)) +
-        "\tIndexed %,.1f MB in %.1f seconds (%,.1f Mb/sec, %.1f%% of total time)%n".format(mb(stats.mapBytesRead.toDouble),
+        "\tIndexed %,.1f MB in %.1f seconds (%,.1f Mb/sec, %.1f%% of total time, hash algorithm %s)%n".format(mb(stats.mapBytesRead.toDouble),
                                                                                            stats.elapsedIndexSecs,
                                                                                            mb(stats.mapBytesRead.toDouble) / stats.elapsedIndexSecs,
-                                                                                           100 * stats.elapsedIndexSecs / stats.elapsedSecs) +
+                                                                                           100 * stats.elapsedIndexSecs / stats.elapsedSecs,
+                                                                                           config.hashAlgorithm) +
         "\tBuffer utilization: %.1f%%%n".format(100 * stats.bufferUtilization) +
+        "\tParallelism: %d worker(s)%n".format(stats.parallelism) +
+        "\tCopied %,.1f MB without rewriting, left %d segment(s) in place%n".format(mb(stats.bytesCopiedUnchanged.toDouble),
+                                                                              stats.segmentsLeftInPlace) +
         "\tCleaned %,.1f MB in %.1f seconds (%,.1f Mb/sec, %.1f%% of total time)%n".format(mb(stats.bytesRead.toDouble),
                                                                                            stats.elapsedSecs - stats.elapsedIndexSecs,
                                                                                            mb(stats.bytesRead.toDouble) / (stats.elapsedSecs - stats.elapsedIndexSecs), 100 * (stats.elapsedSecs - stats.elapsedIndexSecs) / stats.elapsedSecs) +
@@ -423,8 +448,10 @@ class LogCleaner(initialConfig: CleanerConfig,
 object LogCleaner {
   val ReconfigurableConfigs = Set(
     KafkaConfig.LogCleanerThreadsProp,
+    KafkaConfig.LogCleanerThreadsPerLogProp,
     KafkaConfig.LogCleanerDedupeBufferSizeProp,
     KafkaConfig.LogCleanerDedupeBufferLoadFactorProp,
+    KafkaConfig.LogCleanerHashAlgorithmProp,
     KafkaConfig.LogCleanerIoBufferSizeProp,
     KafkaConfig.MessageMaxBytesProp,
     KafkaConfig.LogCleanerIoMaxBytesPerSecondProp,
@@ -433,13 +460,15 @@ object LogCleaner {
 
   def cleanerConfig(config: KafkaConfig): CleanerConfig = {
     CleanerConfig(numThreads = config.logCleanerThreads,
+      threadsPerLog = config.logCleanerThreadsPerLog,
       dedupeBufferSize = config.logCleanerDedupeBufferSize,
       dedupeBufferLoadFactor = config.logCleanerDedupeBufferLoadFactor,
       ioBufferSize = config.logCleanerIoBufferSize,
       maxMessageSize = config.messageMaxBytes,
       maxIoBytesPerSecond = config.logCleanerIoMaxBytesPerSecond,
       backOffMs = config.logCleanerBackoffMs,
-      enableCleaner = config.logCleanerEnable)
+      enableCleaner = config.logCleanerEnable,
+      hashAlgorithm = config.logCleanerHashAlgorithm)
 
   }
 
@@ -485,6 +514,31 @@ private[log] class Cleaner(val id: Int,
 
   require(offsetMap.slots * dupBufferLoadFactor > 1, "offset map is too small to fit in even a single message, so log cleaning will never make progress. You can increase log.cleaner.dedupe.buffer.size or decrease log.cleaner.threads")
 
+  /* the cleaners used to clean a single log in parallel when the offset map is partitioned: one per partition of the
+   * map, each with its own I/O buffers. This cleaner is the first worker. */
+  private val workers: IndexedSeq[Cleaner] = offsetMap match {
+    case partitioned: PartitionedOffsetMap if partitioned.partitions.size > 1 =>
+      this +: partitioned.partitions.tail.map { partition =>
+        new Cleaner(id, partition, ioBufferSize, maxIoBufferSize, dupBufferLoadFactor, throttler, time, checkDone)
+      }
+    case _ => IndexedSeq.empty
+  }
+
+  private val workerExecutor: Option[ExecutorService] =
+    if (workers.isEmpty) None
+    else {
+      val workerIds = new AtomicInteger(0)
+      Some(Executors.newFixedThreadPool(workers.size, new ThreadFactory {
+        override def newThread(r: Runnable): Thread =
+          KafkaThread.daemon(s"kafka-log-cleaner-thread-$id-worker-${workerIds.getAndIncrement()}", r)
+      }))
+    }
+
+  /**
+   * Stop the worker threads used to clean a single log in parallel
+   */
+  def shutdown(): Unit = workerExecutor.foreach(_.shutdownNow())
+
   /**
    * Clean the given log
    *
@@ -513,7 +567,12 @@ private[log] class Cleaner(val id: Int,
     // build the offset map
     info("Building offset map for %s...".format(cleanable.log.name))
     val upperBoundOffset = cleanable.firstUncleanableOffset
-    buildOffsetMap(log, cleanable.firstDirtyOffset, upperBoundOffset, offsetMap, stats)
+    if (workers.isEmpty) {
+      buildOffsetMap(log, cleanable.firstDirtyOffset, upperBoundOffset, offsetMap, stats)
+    } else {
+      stats.parallelism = workers.size
+      buildPartitionedOffsetMap(log, cleanable.firstDirtyOffset, upperBoundOffset, stats)
+    }
     val endOffset = offsetMap.latestOffset + 1
     stats.indexDone()
 
@@ -523,12 +582,15 @@ private[log] class Cleaner(val id: Int,
 
     // group the segments and clean the groups
     info("Cleaning log %s (cleaning prior to %s, discarding tombstones prior to %s)...".format(log.name, new Date(cleanableHorizonMs), new Date(deleteHorizonMs)))
-    val transactionMetadata = new CleanedTransactionMetadata
-
     val groupedSegments = groupSegmentsBySize(log.logSegments(0, endOffset), log.config.segmentSize,
       log.config.maxIndexSize, cleanable.firstUncleanableOffset)
-    for (group <- groupedSegments)
-      cleanSegments(log, group, offsetMap, deleteHorizonMs, stats, transactionMetadata)
+    if (workers.isEmpty) {
+      val transactionMetadata = new CleanedTransactionMetadata
+      for (group <- groupedSegments)
+        cleanSegments(log, group, offsetMap, deleteHorizonMs, stats, transactionMetadata)
+    } else {
+      cleanSegmentGroupsInParallel(log, groupedSegments.toIndexedSeq, deleteHorizonMs, stats)
+    }
 
     // record buffer utilization
     stats.bufferUtilization = offsetMap.utilization
@@ -539,7 +601,104 @@ private[log] class Cleaner(val id: Int,
   }
 
   /**
-   * Clean a group of segments into a single replacement segment
+   * Build the partitioned offset map with one worker per partition. Every worker scans the whole dirty section, which
+   * the others are reading at about the same time, but only hashes and inserts the keys owned by its partition.
+   */
+  private def buildPartitionedOffsetMap(log: Log, start: Long, end: Long, stats: CleanerStats): Unit = {
+    val map = offsetMap.asInstanceOf[PartitionedOffsetMap]
+    val workerStats = runOnWorkers(workers.size) { (worker, workerIndex, workerStats) =>
+      worker.buildOffsetMap(log, start, end, map.partitions(workerIndex), workerStats,
+        key => map.partitionFor(key) == workerIndex)
+    }
+    workerStats.foreach(stats.addIndexStats)
+  }
+
+  /**
+   * Clean the groups of segments concurrently. The transactional state at the start of each group is computed up
+   * front from the batch headers, so every group is cleaned exactly as it would have been by a sequential pass.
+   */
+  private def cleanSegmentGroupsInParallel(log: Log,
+                                           groupedSegments: IndexedSeq[Seq[LogSegment]],
+                                           deleteHorizonMs: Long,
+                                           stats: CleanerStats): Unit = {
+    val transactionMetadata = transactionMetadataAtGroupStarts(log, groupedSegments, offsetMap.latestOffset + 1)
+    val nextGroup = new AtomicInteger(0)
+    val failed = new AtomicBoolean(false)
+    val numWorkers = math.max(1, math.min(workers.size, groupedSegments.size))
+    val workerStats = runOnWorkers(numWorkers) { (worker, _, workerStats) =>
+      try {
+        var groupIndex = nextGroup.getAndIncrement()
+        while (groupIndex < groupedSegments.size && !failed.get) {
+          worker.cleanSegments(log, groupedSegments(groupIndex), offsetMap, deleteHorizonMs, workerStats,
+            transactionMetadata(groupIndex))
+          groupIndex = nextGroup.getAndIncrement()
+        }
+      } catch {
+        case e: Throwable =>
+          failed.set(true)
+          throw e
+      }
+    }
+    workerStats.foreach(stats.addCleaningStats)
+  }
+
+  /**
+   * Replay the transaction state changes of the given segment groups, returning the state at the start of each
+   * group. This mirrors the per-segment collection of aborted transactions done by `cleanSegments`.
+   */
+  private def transactionMetadataAtGroupStarts(log: Log,
+                                               groupedSegments: IndexedSeq[Seq[LogSegment]],
+                                               endOffset: Long): IndexedSeq[CleanedTransactionMetadata] = {
+    val transactionMetadata = new CleanedTransactionMetadata
+    groupedSegments.indices.map { groupIndex =>
+      val atGroupStart = transactionMetadata.copy()
+      if (groupIndex < groupedSegments.size - 1) {
+        val segments = groupedSegments(groupIndex)
+        for ((segment, segmentIndex) <- segments.zipWithIndex) {
+          checkDone(log.topicPartition)
+          val upperBoundOffset = if (segmentIndex < segments.size - 1) segments(segmentIndex + 1).baseOffset else endOffset
+          transactionMetadata.addAbortedTransactions(log.collectAbortedTransactions(segment.baseOffset, upperBoundOffset))
+          for (batch <- segment.log.batches.asScala) {
+            if (batch.isControlBatch)
+              transactionMetadata.onControlBatchRead(batch)
+            else
+              transactionMetadata.onBatchRead(batch)
+          }
+        }
+      }
+      atGroupStart
+    }
+  }
+
+  /**
+   * Run a task on each of the first `numWorkers` workers and wait for all of them to complete. Each task gets its own
+   * stats, which are returned. If any task fails, its exception is rethrown once the other tasks have finished.
+   */
+  private def runOnWorkers(numWorkers: Int)(task: (Cleaner, Int, CleanerStats) => Unit): Seq[CleanerStats] = {
+    val executor = workerExecutor.getOrElse(throw new IllegalStateException("This cleaner has no workers"))
+    val tasks = (0 until numWorkers).map { workerIndex =>
+      val workerStats = new CleanerStats(time)
+      val future = executor.submit(new Runnable {
+        override def run(): Unit = task(workers(workerIndex), workerIndex, workerStats)
+      })
+      (workerStats, future)
+    }
+    var failure: Throwable = null
+    tasks.foreach { case (_, future) =>
+      try future.get()
+      catch {
+        case e: ExecutionException if failure == null => failure = e.getCause
+        case _: ExecutionException =>
+      }
+    }
+    if (failure != null)
+      throw failure
+    tasks.map(_._1)
+  }
+
+  /**
+   * Clean a group of segments into a single replacement segment. A group made of a single segment from which
+   * nothing would be removed is left in place instead of being rewritten.
    *
    * @param log The log being cleaned
    * @param segments The group of segments being cleaned
@@ -558,12 +717,14 @@ private[log] class Cleaner(val id: Int,
     // create a new segment with a suffix appended to the name of the log and indexes
     val cleaned = LogCleaner.createNewCleanedSegment(log, segments.head.baseOffset)
     transactionMetadata.cleanedIndex = Some(cleaned.txnIndex)
+    val deferUnchanged = segments.size == 1
 
     try {
       // clean segments into the new destination segment
       val iter = segments.iterator
       var currentSegmentOpt: Option[LogSegment] = Some(iter.next())
       val lastOffsetOfActiveProducers = log.lastRecordsOfActiveProducers
+      var unchanged = true
 
       while (currentSegmentOpt.isDefined) {
         val currentSegment = currentSegmentOpt.get
@@ -580,8 +741,8 @@ private[log] class Cleaner(val id: Int,
           s"${if(retainDeletesAndTxnMarkers) "retaining" else "discarding"} deletes.")
 
         try {
-          cleanInto(log.topicPartition, currentSegment.log, cleaned, map, retainDeletesAndTxnMarkers, log.config.maxMessageSize,
-            transactionMetadata, lastOffsetOfActiveProducers, stats)
+          unchanged &= cleanInto(log.topicPartition, currentSegment.log, cleaned, map, retainDeletesAndTxnMarkers,
+            log.config.maxMessageSize, transactionMetadata, lastOffsetOfActiveProducers, stats, deferUnchanged)
         } catch {
           case e: LogSegmentOffsetOverflowException =>
             // Split the current segment. It's also safest to abort the current cleaning process, so that we retry from
@@ -593,17 +754,23 @@ private[log] class Cleaner(val id: Int,
         currentSegmentOpt = nextSegmentOpt
       }
 
-      cleaned.onBecomeInactiveSegment()
-      // flush new segment to disk before swap
-      cleaned.flush()
-
-      // update the modification date to retain the last modified date of the original files
-      val modified = segments.last.lastModified
-      cleaned.lastModified = modified
-
-      // swap in new segment
-      info(s"Swapping in cleaned segment $cleaned for segment(s) $segments in log $log")
-      log.replaceSegments(List(cleaned), segments)
+      if (deferUnchanged && unchanged) {
+        info(s"Nothing to remove from ${segments.head} in log ${log.name}, leaving it in place")
+        cleaned.deleteIfExists()
+        stats.segmentLeftInPlace()
+      } else {
+        cleaned.onBecomeInactiveSegment()
+        // flush new segment to disk before swap
+        cleaned.flush()
+
+        // update the modification date to retain the last modified date of the original files
+        val modified = segments.last.lastModified
+        cleaned.lastModified = modified
+
+        // swap in new segment
+        info(s"Swapping in cleaned segment $cleaned for segment(s) $segments in log $log")
+        log.replaceSegments(List(cleaned), segments)
+      }
     } catch {
       case e: LogCleaningAbortedException =>
         try cleaned.deleteIfExists()
@@ -625,6 +792,10 @@ private[log] class Cleaner(val id: Int,
    * @param retainDeletesAndTxnMarkers Should tombstones and markers be retained while cleaning this segment
    * @param maxLogMessageSize The maximum message size of the corresponding topic
    * @param stats Collector for cleaning statistics
+   * @param deferUnchanged Hold back the chunks from which nothing is removed until some later chunk changes, so that
+   *                       nothing is written to the destination if the whole source is retained unchanged
+   *
+   * @return Whether every batch of the source was retained unchanged
    */
   private[log] def cleanInto(topicPartition: TopicPartition,
                              sourceRecords: FileRecords,
@@ -634,7 +805,8 @@ private[log] class Cleaner(val id: Int,
                              maxLogMessageSize: Int,
                              transactionMetadata: CleanedTransactionMetadata,
                              lastRecordsOfActiveProducers: Map[Long, LastRecord],
-                             stats: CleanerStats): Unit = {
+                             stats: CleanerStats,
+                             deferUnchanged: Boolean = false): Boolean = {
     val logCleanerFilter: RecordFilter = new RecordFilter {
       var discardBatchRecords: Boolean = _
 
@@ -675,6 +847,8 @@ private[log] class Cleaner(val id: Int,
       }
     }
 
+    val deferredChunks = mutable.ArrayBuffer.empty[UnchangedChunk]
+    var unchanged = true
     var position = 0
     while (position < sourceRecords.sizeInBytes) {
       checkDone(topicPartition)
@@ -689,11 +863,30 @@ private[log] class Cleaner(val id: Int,
       stats.readMessages(result.messagesRead, result.bytesRead)
       stats.recopyMessages(result.messagesRetained, result.bytesRetained)
 
+      // filterTo writes out the batches whose records are all retained as they are, so if no record or batch was
+      // removed, the output is identical to the bytes read and can be copied from the source file directly
+      val chunkUnchanged = result.bytesRead > 0 && result.messagesRetained == result.messagesRead &&
+        result.bytesRetained == result.bytesRead
+      val outputBuffer = result.outputBuffer
+      if (chunkUnchanged) {
+        val chunk = UnchangedChunk(position, result.bytesRead, result.maxOffset, result.maxTimestamp,
+          result.shallowOffsetOfMaxTimestamp)
+        if (deferUnchanged && unchanged)
+          deferredChunks += chunk
+        else
+          copyUnchangedChunk(sourceRecords, dest, chunk, stats)
+      } else if (result.bytesRead > 0) {
+        if (unchanged) {
+          deferredChunks.foreach(copyUnchangedChunk(sourceRecords, dest, _, stats))
+          deferredChunks.clear()
+          unchanged = false
+        }
+      }
+
       position += result.bytesRead
 
-      // if any messages are to be retained, write them out
-      val outputBuffer = result.outputBuffer
-      if (outputBuffer.position() > 0) {
+      // if any messages are to be retained and were changed, write them out
+      if (!chunkUnchanged && outputBuffer.position() > 0) {
         outputBuffer.flip()
         val retained = MemoryRecords.readableRecords(outputBuffer)
         // it's OK not to hold the Log's lock in this case, because this segment is only accessed by other threads
@@ -711,6 +904,19 @@ private[log] class Cleaner(val id: Int,
         growBuffersOrFail(sourceRecords, position, maxLogMessageSize, records)
     }
     restoreBuffers()
+    unchanged
+  }
+
+  private def copyUnchangedChunk(source: FileRecords, dest: LogSegment, chunk: UnchangedChunk, stats: CleanerStats): Unit = {
+    // it's OK not to hold the Log's lock for the same reason as for the appends in cleanInto
+    dest.copyFromFile(largestOffset = chunk.maxOffset,
+      largestTimestamp = chunk.maxTimestamp,
+      shallowOffsetOfMaxTimestamp = chunk.shallowOffsetOfMaxTimestamp,
+      records = source,
+      position = chunk.position,
+      size = chunk.size)
+    throttler.maybeThrottle(chunk.size)
+    stats.copiedUnchanged(chunk.size)
   }
 
 
@@ -872,12 +1078,14 @@ private[log] class Cleaner(val id: Int,
    * @param end The ending offset for the map that is being built
    * @param map The map in which to store the mappings
    * @param stats Collector for cleaning statistics
+   * @param includeKey Whether a key belongs in this map, used when the map is one partition of a larger map
    */
   private[log] def buildOffsetMap(log: Log,
                                   start: Long,
                                   end: Long,
                                   map: OffsetMap,
-                                  stats: CleanerStats): Unit = {
+                                  stats: CleanerStats,
+                                  includeKey: ByteBuffer => Boolean = _ => true): Unit = {
     map.clear()
     val dirty = log.logSegments(start, end).toBuffer
     val nextSegmentStartOffsets = new ListBuffer[Long]
@@ -898,7 +1106,7 @@ private[log] class Cleaner(val id: Int,
       checkDone(log.topicPartition)
 
       full = buildOffsetMapForSegment(log.topicPartition, segment, map, start, nextSegmentStartOffset, log.config.maxMessageSize,
-        transactionMetadata, stats)
+        transactionMetadata, stats, includeKey)
       if (full)
         debug("Offset map is full, %d segments fully mapped, segment with base offset %d is partially mapped".format(dirty.indexOf(segment), segment.baseOffset))
     }
@@ -911,6 +1119,7 @@ private[log] class Cleaner(val id: Int,
    * @param segment The segment to index
    * @param map The map in which to store the key=>offset mapping
    * @param stats Collector for cleaning statistics
+   * @param includeKey Whether a key belongs in this map
    *
    * @return If the map was filled whilst loading from this segment
    */
@@ -921,7 +1130,8 @@ private[log] class Cleaner(val id: Int,
                                        nextSegmentStartOffset: Long,
                                        maxLogMessageSize: Int,
                                        transactionMetadata: CleanedTransactionMetadata,
-                                       stats: CleanerStats): Boolean = {
+                                       stats: CleanerStats,
+                                       includeKey: ByteBuffer => Boolean): Boolean = {
     var position = segment.offsetIndex.lookup(startOffset).position
     val maxDesiredMapSize = (map.slots * this.dupBufferLoadFactor).toInt
     while (position < segment.log.sizeInBytes) {
@@ -953,10 +1163,13 @@ private[log] class Cleaner(val id: Int,
             try {
               for (record <- recordsIterator.asScala) {
                 if (record.hasKey && record.offset >= startOffset) {
-                  if (map.size < maxDesiredMapSize)
-                    map.put(record.key, record.offset)
-                  else
-                    return true
+                  val key = record.key
+                  if (includeKey(key)) {
+                    if (map.size < maxDesiredMapSize)
+                      map.put(key, record.offset)
+                    else
+                      return true
+                  }
                 }
                 stats.indexMessagesRead(1)
               }
@@ -1018,6 +1231,9 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
   var invalidMessagesRead = 0L
   var messagesWritten = 0L
   var bufferUtilization = 0.0d
+  var parallelism = 1
+  var bytesCopiedUnchanged = 0L
+  var segmentsLeftInPlace = 0
 
   def readMessages(messagesRead: Int, bytesRead: Int): Unit = {
     this.messagesRead += messagesRead
@@ -1033,6 +1249,14 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
     this.bytesWritten += bytesWritten
   }
 
+  def copiedUnchanged(size: Int): Unit = {
+    bytesCopiedUnchanged += size
+  }
+
+  def segmentLeftInPlace(): Unit = {
+    segmentsLeftInPlace += 1
+  }
+
   def indexMessagesRead(size: Int): Unit = {
     mapMessagesRead += size
   }
@@ -1049,12 +1273,43 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
     endTime = time.milliseconds
   }
 
+  /**
+   * Add the offset map stats of a worker that built one partition of the map. Every worker scans the same dirty
+   * section, so the amount of data indexed is the largest amount scanned by any worker.
+   */
+  def addIndexStats(workerStats: CleanerStats): Unit = {
+    mapBytesRead = math.max(mapBytesRead, workerStats.mapBytesRead)
+    mapMessagesRead = math.max(mapMessagesRead, workerStats.mapMessagesRead)
+  }
+
+  /**
+   * Add the cleaning stats of a worker that recopied some of the segment groups of the log
+   */
+  def addCleaningStats(workerStats: CleanerStats): Unit = {
+    bytesRead += workerStats.bytesRead
+    bytesWritten += workerStats.bytesWritten
+    messagesRead += workerStats.messagesRead
+    invalidMessagesRead += workerStats.invalidMessagesRead
+    messagesWritten += workerStats.messagesWritten
+    bytesCopiedUnchanged += workerStats.bytesCopiedUnchanged
+    segmentsLeftInPlace += workerStats.segmentsLeftInPlace
+  }
+
   def elapsedSecs: Double = (endTime - startTime) / 1000.0
 
   def elapsedIndexSecs: Double = (mapCompleteTime - startTime) / 1000.0
 
 }
 
+/**
+ * A range of complete batches in a source segment from which the cleaner removed nothing
+ */
+private case class UnchangedChunk(position: Int,
+                                  size: Int,
+                                  maxOffset: Long,
+                                  maxTimestamp: Long,
+                                  shallowOffsetOfMaxTimestamp: Long)
+
 /**
   * Helper class for a log, its topic/partition, the first cleanable position, the first uncleanable dirty position,
   * and whether it needs compaction immediately.
@@ -1092,6 +1347,22 @@ private[log] class CleanedTransactionMetadata {
     this.abortedTransactions ++= abortedTransactions
   }
 
+  /**
+   * Copy the transaction state so that cleaning can continue from this point independently. The copy does not
+   * share the cleaned index.
+   */
+  def copy(): CleanedTransactionMetadata = {
+    val copied = new CleanedTransactionMetadata
+    copied.ongoingCommittedTxns ++= ongoingCommittedTxns
+    ongoingAbortedTxns.foreach { case (producerId, abortedTxnMetadata) =>
+      val copiedMetadata = new AbortedTransactionMetadata(abortedTxnMetadata.abortedTxn)
+      copiedMetadata.lastObservedBatchOffset = abortedTxnMetadata.lastObservedBatchOffset
+      copied.ongoingAbortedTxns.put(producerId, copiedMetadata)
+    }
+    copied.abortedTransactions ++= abortedTransactions
+    copied
+  }
+
   /**
    * Update the cleaned transaction state with a control batch that has just been traversed by the cleaner.
    * Return true if the control batch can be discarded.
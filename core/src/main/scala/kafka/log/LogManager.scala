@@ -20,7 +20,7 @@ package kafka.log
 import java.io._
 import java.nio.file.Files
 import java.util.concurrent._
-import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.checkpoints.OffsetCheckpointFile
@@ -53,6 +53,7 @@ class LogManager(logDirs: Seq[File],
                  val initialDefaultConfig: LogConfig,
                  val cleanerConfig: CleanerConfig,
                  recoveryThreadsPerDataDir: Int,
+                 lazyIndexRebuild: Boolean,
                  val flushCheckMs: Long,
                  val flushRecoveryOffsetCheckpointMs: Long,
                  val flushStartOffsetCheckpointMs: Long,
@@ -271,7 +272,8 @@ class LogManager(logDirs: Seq[File],
       scheduler = scheduler,
       time = time,
       brokerTopicStats = brokerTopicStats,
-      logDirFailureChannel = logDirFailureChannel)
+      logDirFailureChannel = logDirFailureChannel,
+      lazyIndexRebuild = lazyIndexRebuild)
 
     if (logDir.getName.endsWith(Log.DeleteDirSuffix)) {
       addLogToBeDeleted(log)
@@ -305,11 +307,13 @@ class LogManager(logDirs: Seq[File],
     val threadPools = ArrayBuffer.empty[ExecutorService]
     val offlineDirs = mutable.Set.empty[(String, IOException)]
     val jobs = mutable.Map.empty[File, Seq[Future[_]]]
+    val loadTimesByDir = mutable.Map.empty[File, LogDirLoadTimes]
     var numTotalLogs = 0
 
     for (dir <- liveLogDirs) {
       val logDirAbsolutePath = dir.getAbsolutePath
       try {
+        val checkpointReadStartMs = time.hiResClockMs()
         val pool = Executors.newFixedThreadPool(numRecoveryThreadsPerDataDir)
         threadPools.append(pool)
 
@@ -343,6 +347,8 @@ class LogManager(logDirs: Seq[File],
         val logsToLoad = Option(dir.listFiles).getOrElse(Array.empty).filter(_.isDirectory)
         val numLogsLoaded = new AtomicInteger(0)
         numTotalLogs += logsToLoad.length
+        val dirLoadTimes = new LogDirLoadTimes(time.hiResClockMs() - checkpointReadStartMs)
+        loadTimesByDir(cleanShutdownFile) = dirLoadTimes
 
         val jobsForDir = logsToLoad.map { logDir =>
           val runnable: Runnable = () => {
@@ -353,9 +359,10 @@ class LogManager(logDirs: Seq[File],
               val log = loadLog(logDir, recoveryPoints, logStartOffsets)
               val logLoadDurationMs = time.hiResClockMs() - logLoadStartMs
               val currentNumLoaded = numLogsLoaded.incrementAndGet()
+              dirLoadTimes.add(log.loadTimes)
 
               info(s"Completed load of $log with ${log.numberOfSegments} segments in ${logLoadDurationMs}ms " +
-                s"($currentNumLoaded/${logsToLoad.length} loaded in $logDirAbsolutePath)")
+                s"(${log.loadTimes}) ($currentNumLoaded/${logsToLoad.length} loaded in $logDirAbsolutePath)")
             } catch {
               case e: IOException =>
                 offlineDirs.add((logDirAbsolutePath, e))
@@ -376,6 +383,10 @@ class LogManager(logDirs: Seq[File],
     try {
       for ((cleanShutdownFile, dirJobs) <- jobs) {
         dirJobs.foreach(_.get)
+        loadTimesByDir.get(cleanShutdownFile).foreach { dirLoadTimes =>
+          info(s"Loaded ${dirJobs.size} logs in ${cleanShutdownFile.getParent} in " +
+            s"${time.hiResClockMs() - startMs}ms ($dirLoadTimes)")
+        }
         try {
           cleanShutdownFile.delete()
         } catch {
@@ -1065,6 +1076,32 @@ class LogManager(logDirs: Seq[File],
   }
 }
 
+/**
+ * Accumulates the time spent in each phase of loading the logs of a log directory. The per-log phase times are
+ * summed across all recovery threads, so their total can exceed the wall-clock time of loading the directory.
+ */
+private class LogDirLoadTimes(checkpointReadMs: Long) {
+  private val segmentLoadMs = new AtomicLong()
+  private val swapCompletionMs = new AtomicLong()
+  private val recoveryMs = new AtomicLong()
+  private val producerStateLoadMs = new AtomicLong()
+  private val numRecoveredSegments = new AtomicLong()
+  private val numDeferredIndexRebuilds = new AtomicLong()
+
+  def add(loadTimes: LogLoadTimes): Unit = {
+    segmentLoadMs.addAndGet(loadTimes.segmentLoadMs)
+    swapCompletionMs.addAndGet(loadTimes.swapCompletionMs)
+    recoveryMs.addAndGet(loadTimes.recoveryMs)
+    producerStateLoadMs.addAndGet(loadTimes.producerStateLoadMs)
+    numRecoveredSegments.addAndGet(loadTimes.numRecoveredSegments)
+    numDeferredIndexRebuilds.addAndGet(loadTimes.numDeferredIndexRebuilds)
+  }
+
+  override def toString: String = s"checkpoint read: ${checkpointReadMs}ms, segment load: ${segmentLoadMs}ms, " +
+    s"swap completion: ${swapCompletionMs}ms, recovery of $numRecoveredSegments segments: ${recoveryMs}ms, " +
+    s"producer state load: ${producerStateLoadMs}ms, deferred index rebuilds: $numDeferredIndexRebuilds"
+}
+
 object LogManager {
 
   val RecoveryPointCheckpointFile = "recovery-point-offset-checkpoint"
@@ -1099,6 +1136,7 @@ object LogManager {
       initialDefaultConfig = defaultLogConfig,
       cleanerConfig = cleanerConfig,
       recoveryThreadsPerDataDir = config.numRecoveryThreadsPerDataDir,
+      lazyIndexRebuild = config.logRecoveryLazyIndexRebuildEnable,
       flushCheckMs = config.logFlushSchedulerIntervalMs,
       flushRecoveryOffsetCheckpointMs = config.logFlushOffsetCheckpointIntervalMs,
       flushStartOffsetCheckpointMs = config.logFlushStartOffsetCheckpointIntervalMs,
@@ -62,9 +62,21 @@ class LogSegment private[log] (val log: FileRecords,
                                val rollJitterMs: Long,
                                val time: Time) extends Logging {
 
-  def offsetIndex: OffsetIndex = lazyOffsetIndex.get
+  // Set when the offset and time indexes of this segment were found missing while loading the log and rebuilding
+  // them was deferred until they are first accessed. See `deferIndexRebuild()`.
+  @volatile private var indexRebuildPending = false
 
-  def timeIndex: TimeIndex = lazyTimeIndex.get
+  def offsetIndex: OffsetIndex = {
+    if (indexRebuildPending)
+      maybeRebuildIndexes()
+    lazyOffsetIndex.get
+  }
+
+  def timeIndex: TimeIndex = {
+    if (indexRebuildPending)
+      maybeRebuildIndexes()
+    lazyTimeIndex.get
+  }
 
   def shouldRoll(rollParams: RollParams): Boolean = {
     val reachedRollMs = timeWaitedForRoll(rollParams.now, rollParams.maxTimestampInMessages) > rollParams.maxSegmentMs - rollJitterMs
@@ -91,6 +103,49 @@ class LogSegment private[log] (val log: FileRecords,
     else throw new NoSuchFileException(s"Offset index file ${lazyOffsetIndex.file.getAbsolutePath} does not exist")
   }
 
+  /**
+   * Defer rebuilding the offset and time indexes of this segment until either of them is first accessed. This must
+   * only be used for segments below the recovery point, whose data has already been flushed and validated, so the
+   * indexes can be rebuilt from the batch headers alone. The transaction index is left untouched, so it must be
+   * present.
+   */
+  def deferIndexRebuild(): Unit = {
+    indexRebuildPending = true
+  }
+
+  def isIndexRebuildPending: Boolean = indexRebuildPending
+
+  private def maybeRebuildIndexes(): Unit = this synchronized {
+    if (indexRebuildPending) {
+      val start = time.hiResClockMs()
+      val offsetIdx = lazyOffsetIndex.get
+      val timeIdx = lazyTimeIndex.get
+      offsetIdx.reset()
+      timeIdx.reset()
+      var validBytes = 0
+      var lastIndexEntry = 0
+      var maxTimestamp = RecordBatch.NO_TIMESTAMP
+      var offsetOfMaxTimestamp = baseOffset
+      for (batch <- log.batches.asScala) {
+        if (batch.maxTimestamp > maxTimestamp) {
+          maxTimestamp = batch.maxTimestamp
+          offsetOfMaxTimestamp = batch.lastOffset
+        }
+        if (validBytes - lastIndexEntry > indexIntervalBytes) {
+          offsetIdx.append(batch.lastOffset, validBytes)
+          timeIdx.maybeAppend(maxTimestamp, offsetOfMaxTimestamp)
+          lastIndexEntry = validBytes
+        }
+        validBytes += batch.sizeInBytes
+      }
+      offsetIdx.trimToValidSize()
+      timeIdx.maybeAppend(maxTimestamp, offsetOfMaxTimestamp, skipFullCheck = true)
+      timeIdx.trimToValidSize()
+      indexRebuildPending = false
+      info(s"Rebuilt deferred indexes of segment ${log.file.getAbsolutePath} in ${time.hiResClockMs() - start}ms")
+    }
+  }
+
   private var created = time.milliseconds
 
   /* the number of bytes since we last added an entry in the offset index */
@@ -145,8 +200,40 @@ class LogSegment private[log] (val log: FileRecords,
              largestTimestamp: Long,
              shallowOffsetOfMaxTimestamp: Long,
              records: MemoryRecords): Unit = {
-    if (records.sizeInBytes > 0) {
-      trace(s"Inserting ${records.sizeInBytes} bytes at end offset $largestOffset at position ${log.sizeInBytes} " +
+    appendBytes(largestOffset, largestTimestamp, shallowOffsetOfMaxTimestamp, records.sizeInBytes, log.append(records))
+  }
+
+  /**
+   * Append a range of complete batches from another file as they are, letting the file system copy them without
+   * going through the heap. Add an entry to the index if needed.
+   *
+   * It is assumed this method is being called from within a lock.
+   *
+   * @param largestOffset The last offset in the range
+   * @param largestTimestamp The largest timestamp in the range
+   * @param shallowOffsetOfMaxTimestamp The offset of the batch that has the largest timestamp in the range
+   * @param records The file holding the batches
+   * @param position The position of the first batch in the file
+   * @param size The size in bytes of the range
+   * @throws LogSegmentOffsetOverflowException if the largest offset causes index offset overflow
+   */
+  @nonthreadsafe
+  def copyFromFile(largestOffset: Long,
+                   largestTimestamp: Long,
+                   shallowOffsetOfMaxTimestamp: Long,
+                   records: FileRecords,
+                   position: Int,
+                   size: Int): Unit = {
+    appendBytes(largestOffset, largestTimestamp, shallowOffsetOfMaxTimestamp, size, log.appendFrom(records, position, size))
+  }
+
+  private def appendBytes(largestOffset: Long,
+                          largestTimestamp: Long,
+                          shallowOffsetOfMaxTimestamp: Long,
+                          sizeInBytes: Int,
+                          write: => Int): Unit = {
+    if (sizeInBytes > 0) {
+      trace(s"Inserting $sizeInBytes bytes at end offset $largestOffset at position ${log.sizeInBytes} " +
             s"with largest timestamp $largestTimestamp at shallow offset $shallowOffsetOfMaxTimestamp")
       val physicalPosition = log.sizeInBytes()
       if (physicalPosition == 0)
@@ -155,7 +242,7 @@ class LogSegment private[log] (val log: FileRecords,
       ensureOffsetInRange(largestOffset)
 
       // append the messages
-      val appendedBytes = log.append(records)
+      val appendedBytes = write
       trace(s"Appended $appendedBytes to ${log.file} at end offset $largestOffset")
       // Update the in memory max timestamp and corresponding offset.
       if (largestTimestamp > maxTimestampSoFar) {
@@ -168,7 +255,7 @@ class LogSegment private[log] (val log: FileRecords,
         timeIndex.maybeAppend(maxTimestampSoFar, offsetOfMaxTimestampSoFar)
         bytesSinceLastIndexEntry = 0
       }
-      bytesSinceLastIndexEntry += records.sizeInBytes
+      bytesSinceLastIndexEntry += sizeInBytes
     }
   }
 
@@ -334,6 +421,8 @@ class LogSegment private[log] (val log: FileRecords,
    */
   @nonthreadsafe
   def recover(producerStateManager: ProducerStateManager, leaderEpochCache: Option[LeaderEpochFileCache] = None): Int = {
+    // the indexes are rebuilt below, so there is no need to rebuild them separately first
+    indexRebuildPending = false
     offsetIndex.reset()
     timeIndex.reset()
     txnIndex.reset()
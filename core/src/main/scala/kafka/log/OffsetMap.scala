@@ -19,7 +19,7 @@ package kafka.log
 
 import java.util.Arrays
 import java.security.MessageDigest
-import java.nio.ByteBuffer
+import java.nio.{ByteBuffer, ByteOrder}
 import kafka.utils._
 import org.apache.kafka.common.utils.Utils
 
@@ -34,6 +34,78 @@ trait OffsetMap {
   def latestOffset: Long
 }
 
+object OffsetMap {
+  val Murmur3HashAlgorithm = "MURMUR3"
+
+  /**
+   * Create the offset map used by a cleaner thread for the given hash algorithm. If more than one partition is
+   * requested, the memory is split evenly into a [[PartitionedOffsetMap]] so that the partitions can be built
+   * concurrently.
+   */
+  def apply(memory: Int, hashAlgorithm: String, partitions: Int): OffsetMap = {
+    if (partitions > 1)
+      new PartitionedOffsetMap((0 until partitions).map(_ => apply(memory / partitions, hashAlgorithm)))
+    else
+      apply(memory, hashAlgorithm)
+  }
+
+  /**
+   * Create the offset map used by a cleaner thread for the given hash algorithm. MURMUR3 selects the
+   * off-heap [[Murmur3OffsetMap]]; any other value is treated as a message digest algorithm for [[SkimpyOffsetMap]].
+   */
+  def apply(memory: Int, hashAlgorithm: String): OffsetMap = {
+    if (hashAlgorithm == Murmur3HashAlgorithm)
+      new Murmur3OffsetMap(memory)
+    else
+      new SkimpyOffsetMap(memory, hashAlgorithm)
+  }
+}
+
+/**
+ * An offset map made of several independent maps, each owning the keys in one range of key hashes. This allows
+ * one cleaner worker per partition to build its part of the map concurrently with the others. The partitions are
+ * filled directly by their workers; lookups and updates through this map are routed to the owning partition and
+ * are synchronized on it so that several workers can share the map while rewriting segments.
+ * @param partitions The maps holding each range of key hashes
+ */
+@threadsafe
+class PartitionedOffsetMap(val partitions: IndexedSeq[OffsetMap]) extends OffsetMap {
+  require(partitions.nonEmpty, "A partitioned offset map needs at least one partition")
+
+  override def slots: Int = partitions.iterator.map(_.slots).sum
+
+  /**
+   * The index of the partition owning the given key
+   */
+  def partitionFor(key: ByteBuffer): Int = Utils.toPositive(key.hashCode) % partitions.size
+
+  override def put(key: ByteBuffer, offset: Long): Unit = {
+    val partition = partitions(partitionFor(key))
+    partition.synchronized {
+      partition.put(key, offset)
+    }
+  }
+
+  override def get(key: ByteBuffer): Long = {
+    val partition = partitions(partitionFor(key))
+    partition.synchronized {
+      partition.get(key)
+    }
+  }
+
+  override def updateLatestOffset(offset: Long): Unit = partitions.foreach(_.updateLatestOffset(offset))
+
+  override def clear(): Unit = partitions.foreach(_.clear())
+
+  override def size: Int = partitions.iterator.map(_.size).sum
+
+  /**
+   * The latest offset up to which every partition has been built. Partitions may fill up at different points in
+   * the log, so only the records up to the smallest of their latest offsets are covered by every partition.
+   */
+  override def latestOffset: Long = partitions.iterator.map(_.latestOffset).min
+}
+
 /**
  * An hash table used for deduplicating the log. This hash table uses a cryptographicly secure hash of the key as a proxy for the key
  * for comparisons and to save space on object overhead. Collisions are resolved by probing. This hash table does not support deletes.
@@ -199,3 +271,239 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
   }
   
 }
+
+/**
+ * An off-heap hash table used for deduplicating the log. Keys are identified by their 128-bit Murmur3 (x64 variant)
+ * hash rather than by a cryptographic digest, so hashing neither allocates nor goes through `MessageDigest`.
+ * Each entry is the two 64-bit halves of the hash followed by the 8 byte offset, and collisions on the slot are
+ * resolved by linear probing. As with [[SkimpyOffsetMap]], two keys are considered equal when their full hashes
+ * are equal, and this hash table does not support deletes.
+ * @param memory The amount of direct memory this map can use
+ */
+@nonthreadsafe
+class Murmur3OffsetMap(val memory: Int) extends OffsetMap {
+  import Murmur3OffsetMap._
+
+  private val bytes = ByteBuffer.allocateDirect(memory)
+
+  /* the two halves of the hash of the last key passed to hashKey */
+  private var hashHigh = 0L
+  private var hashLow = 0L
+
+  /* number of entries put into the map */
+  private var entries = 0
+
+  /* number of lookups on the map */
+  private var lookups = 0L
+
+  /* the number of probes for all lookups */
+  private var probes = 0L
+
+  /* the latest offset written into the map */
+  private var lastOffset = -1L
+
+  /**
+   * The number of bytes of space each entry uses (16 bytes of hash plus an 8 byte offset)
+   */
+  val bytesPerEntry = 24
+
+  /**
+   * The maximum number of entries this map can contain
+   */
+  val slots: Int = memory / bytesPerEntry
+
+  /**
+   * Associate this offset to the given key.
+   * @param key The key
+   * @param offset The offset
+   */
+  override def put(key: ByteBuffer, offset: Long): Unit = {
+    require(entries < slots, "Attempt to add a new entry to a full offset map.")
+    lookups += 1
+    hashKey(key)
+    // the map is not full, so probing always reaches either the existing entry or an empty slot
+    var slot = firstSlot
+    var pos = slot * bytesPerEntry
+    probes += 1
+    while (!isEmpty(pos)) {
+      if (hashMatches(pos)) {
+        // we found an existing entry, overwrite it and return (size does not change)
+        bytes.putLong(pos + 16, offset)
+        lastOffset = offset
+        return
+      }
+      slot = nextSlot(slot)
+      pos = slot * bytesPerEntry
+      probes += 1
+    }
+    // found an empty slot, update it--size grows by 1
+    bytes.putLong(pos, hashHigh)
+    bytes.putLong(pos + 8, hashLow)
+    bytes.putLong(pos + 16, offset)
+    lastOffset = offset
+    entries += 1
+  }
+
+  /**
+   * Get the offset associated with this key.
+   * @param key The key
+   * @return The offset associated with this key or -1 if the key is not found
+   */
+  override def get(key: ByteBuffer): Long = {
+    lookups += 1
+    hashKey(key)
+    var slot = firstSlot
+    // bound the search by the number of slots in case the map is full
+    var attempt = 0
+    while (attempt < slots) {
+      val pos = slot * bytesPerEntry
+      probes += 1
+      if (isEmpty(pos))
+        return -1L
+      if (hashMatches(pos))
+        return bytes.getLong(pos + 16)
+      slot = nextSlot(slot)
+      attempt += 1
+    }
+    -1L
+  }
+
+  /**
+   * Remove all entries from the map by zeroing the used part of the buffer.
+   */
+  override def clear(): Unit = {
+    this.entries = 0
+    this.lookups = 0L
+    this.probes = 0L
+    this.lastOffset = -1L
+    val zeros = new Array[Byte](math.min(slots * bytesPerEntry, ClearChunkSize))
+    bytes.clear()
+    bytes.limit(slots * bytesPerEntry)
+    while (bytes.hasRemaining)
+      bytes.put(zeros, 0, math.min(zeros.length, bytes.remaining))
+    bytes.clear()
+  }
+
+  /**
+   * The number of entries put into the map (note that not all may remain)
+   */
+  override def size: Int = entries
+
+  /**
+   * The rate of collisions in the lookups
+   */
+  def collisionRate: Double =
+    (this.probes - this.lookups) / this.lookups.toDouble
+
+  /**
+   * The latest offset put into the map
+   */
+  override def latestOffset: Long = lastOffset
+
+  override def updateLatestOffset(offset: Long): Unit = {
+    lastOffset = offset
+  }
+
+  /**
+   * Check that there is no entry at the given position. A zero hash is never stored (see hashKey), so an entry
+   * is empty exactly when both halves of its hash are zero.
+   */
+  private def isEmpty(position: Int): Boolean =
+    bytes.getLong(position) == 0 && bytes.getLong(position + 8) == 0
+
+  private def hashMatches(position: Int): Boolean =
+    bytes.getLong(position) == hashHigh && bytes.getLong(position + 8) == hashLow
+
+  private def firstSlot: Int = java.lang.Long.remainderUnsigned(hashHigh, slots).toInt
+
+  private def nextSlot(slot: Int): Int = if (slot + 1 == slots) 0 else slot + 1
+
+  /**
+   * Compute the 128-bit Murmur3 hash of the remaining bytes of the key into hashHigh and hashLow without
+   * changing the key's position.
+   */
+  private def hashKey(key: ByteBuffer): Unit = {
+    val start = key.position()
+    val length = key.remaining
+    val littleEndian = key.order == ByteOrder.LITTLE_ENDIAN
+    var h1 = 0L
+    var h2 = 0L
+
+    val blocksEnd = start + (length & ~15)
+    var i = start
+    while (i < blocksEnd) {
+      val k1 = readLongLE(key, i, littleEndian)
+      val k2 = readLongLE(key, i + 8, littleEndian)
+      h1 ^= mixK1(k1)
+      h1 = java.lang.Long.rotateLeft(h1, 27) + h2
+      h1 = h1 * 5 + 0x52dce729
+      h2 ^= mixK2(k2)
+      h2 = java.lang.Long.rotateLeft(h2, 31) + h1
+      h2 = h2 * 5 + 0x38495ab5
+      i += 16
+    }
+
+    val tail = length & 15
+    if (tail > 8) {
+      var k2 = 0L
+      var j = tail - 1
+      while (j >= 8) {
+        k2 ^= (key.get(blocksEnd + j) & 0xffL) << ((j - 8) * 8)
+        j -= 1
+      }
+      h2 ^= mixK2(k2)
+    }
+    if (tail > 0) {
+      var k1 = 0L
+      var j = math.min(tail, 8) - 1
+      while (j >= 0) {
+        k1 ^= (key.get(blocksEnd + j) & 0xffL) << (j * 8)
+        j -= 1
+      }
+      h1 ^= mixK1(k1)
+    }
+
+    h1 ^= length
+    h2 ^= length
+    h1 += h2
+    h2 += h1
+    h1 = fmix(h1)
+    h2 = fmix(h2)
+    h1 += h2
+    h2 += h1
+
+    // an all-zero hash would be indistinguishable from an empty slot, so move it to a fixed non-zero value
+    if (h1 == 0 && h2 == 0)
+      h2 = 1L
+    hashHigh = h1
+    hashLow = h2
+  }
+
+}
+
+private object Murmur3OffsetMap {
+  private val C1 = 0x87c37b91114253d5L
+  private val C2 = 0x4cf5ad432745937fL
+
+  /* the size of the zero chunk copied into the buffer when clearing the map */
+  private val ClearChunkSize = 64 * 1024
+
+  private def readLongLE(buffer: ByteBuffer, index: Int, littleEndian: Boolean): Long = {
+    val value = buffer.getLong(index)
+    if (littleEndian) value else java.lang.Long.reverseBytes(value)
+  }
+
+  private def mixK1(k: Long): Long = java.lang.Long.rotateLeft(k * C1, 31) * C2
+
+  private def mixK2(k: Long): Long = java.lang.Long.rotateLeft(k * C2, 33) * C1
+
+  private def fmix(value: Long): Long = {
+    var k = value
+    k ^= k >>> 33
+    k *= 0xff51afd7ed558ccdL
+    k ^= k >>> 33
+    k *= 0xc4ceb9fe1a85ec53L
+    k ^= k >>> 33
+    k
+  }
+}
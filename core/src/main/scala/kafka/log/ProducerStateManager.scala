@@ -31,7 +31,7 @@ import org.apache.kafka.common.record.{ControlRecordType, DefaultRecordBatch, En
 import org.apache.kafka.common.utils.{ByteUtils, Crc32C}
 
 import scala.jdk.CollectionConverters._
-import scala.collection.mutable.ListBuffer
+import scala.collection.mutable.{ArrayBuffer, ListBuffer}
 import scala.collection.{immutable, mutable}
 
 class CorruptSnapshotException(msg: String) extends KafkaException(msg)
@@ -336,6 +336,74 @@ private[log] class ProducerAppendInfo(val topicPartition: TopicPartition,
   }
 }
 
+/**
+ * Groups producer entries into buckets by their last timestamp. Expired producers can then be found by only visiting
+ * the buckets old enough to contain them rather than every producer of the partition.
+ *
+ * @param maxProducerIdExpirationMs The maximum amount of time to wait before a producer id is considered expired
+ */
+@nonthreadsafe
+private[log] class ProducerExpirationIndex(maxProducerIdExpirationMs: Int) {
+  private val bucketMs = math.max(1L, maxProducerIdExpirationMs.toLong / ProducerExpirationIndex.NumBuckets)
+  private val buckets = new java.util.TreeMap[Long, mutable.LongMap[ProducerStateEntry]]
+
+  private def bucket(timestamp: Long): Long = Math.floorDiv(timestamp, bucketMs)
+
+  def add(entry: ProducerStateEntry): Unit = {
+    buckets.computeIfAbsent(bucket(entry.lastTimestamp), _ => mutable.LongMap.empty[ProducerStateEntry])
+      .update(entry.producerId, entry)
+  }
+
+  def remove(entry: ProducerStateEntry): Unit = remove(entry.producerId, entry.lastTimestamp)
+
+  private def remove(producerId: Long, lastTimestamp: Long): Unit = {
+    val key = bucket(lastTimestamp)
+    val entries = buckets.get(key)
+    if (entries != null) {
+      entries.remove(producerId)
+      if (entries.isEmpty)
+        buckets.remove(key)
+    }
+  }
+
+  /**
+   * Move the entry to the right bucket after its last timestamp was updated from `previousTimestamp`.
+   */
+  def updated(entry: ProducerStateEntry, previousTimestamp: Long): Unit = {
+    if (bucket(previousTimestamp) != bucket(entry.lastTimestamp)) {
+      remove(entry.producerId, previousTimestamp)
+      add(entry)
+    }
+  }
+
+  /**
+   * Remove and return the entries for which `isExpired` holds. Only the entries whose last timestamp may be at least
+   * `maxProducerIdExpirationMs` before `currentTimeMs` are checked.
+   */
+  def removeExpired(currentTimeMs: Long, isExpired: ProducerStateEntry => Boolean): Iterable[ProducerStateEntry] = {
+    val expired = ListBuffer.empty[ProducerStateEntry]
+    val candidates = buckets.headMap(bucket(currentTimeMs - maxProducerIdExpirationMs), true).values.iterator
+    while (candidates.hasNext) {
+      val entries = candidates.next()
+      entries.filterInPlace { case (_, entry) =>
+        if (isExpired(entry)) {
+          expired += entry
+          false
+        } else true
+      }
+      if (entries.isEmpty)
+        candidates.remove()
+    }
+    expired
+  }
+
+  def clear(): Unit = buckets.clear()
+}
+
+private[log] object ProducerExpirationIndex {
+  private val NumBuckets = 100
+}
+
 object ProducerStateManager {
   private val ProducerSnapshotVersion: Short = 1
   private val VersionField = "version"
@@ -368,66 +436,68 @@ object ProducerStateManager {
     new Field(CrcField, Type.UNSIGNED_INT32, "CRC of the snapshot data"),
     new Field(ProducerEntriesField, new ArrayOf(ProducerSnapshotEntrySchema), "The entries in the producer table"))
 
+  // The size in bytes of an entry of `ProducerSnapshotEntrySchema`. Snapshots are read and written directly rather
+  // than through `Struct`s, which would allocate several objects per producer.
+  private val ProducerSnapshotEntrySize = 46
+  private val ProducerEntriesArrayOffset = ProducerEntriesOffset + 4
+
   def readSnapshot(file: File): Iterable[ProducerStateEntry] = {
-    try {
-      val buffer = Files.readAllBytes(file.toPath)
-      val struct = PidSnapshotMapSchema.read(ByteBuffer.wrap(buffer))
-
-      val version = struct.getShort(VersionField)
-      if (version != ProducerSnapshotVersion)
-        throw new CorruptSnapshotException(s"Snapshot contained an unknown file version $version")
-
-      val crc = struct.getUnsignedInt(CrcField)
-      val computedCrc =  Crc32C.compute(buffer, ProducerEntriesOffset, buffer.length - ProducerEntriesOffset)
-      if (crc != computedCrc)
-        throw new CorruptSnapshotException(s"Snapshot is corrupt (CRC is no longer valid). " +
-          s"Stored crc: $crc. Computed crc: $computedCrc")
-
-      struct.getArray(ProducerEntriesField).map { producerEntryObj =>
-        val producerEntryStruct = producerEntryObj.asInstanceOf[Struct]
-        val producerId = producerEntryStruct.getLong(ProducerIdField)
-        val producerEpoch = producerEntryStruct.getShort(ProducerEpochField)
-        val seq = producerEntryStruct.getInt(LastSequenceField)
-        val offset = producerEntryStruct.getLong(LastOffsetField)
-        val timestamp = producerEntryStruct.getLong(TimestampField)
-        val offsetDelta = producerEntryStruct.getInt(OffsetDeltaField)
-        val coordinatorEpoch = producerEntryStruct.getInt(CoordinatorEpochField)
-        val currentTxnFirstOffset = producerEntryStruct.getLong(CurrentTxnFirstOffsetField)
-        val lastAppendedDataBatches = mutable.Queue.empty[BatchMetadata]
-        if (offset >= 0)
-          lastAppendedDataBatches += BatchMetadata(seq, offset, offsetDelta, timestamp)
-
-        val newEntry = new ProducerStateEntry(producerId, lastAppendedDataBatches, producerEpoch,
-          coordinatorEpoch, timestamp, if (currentTxnFirstOffset >= 0) Some(currentTxnFirstOffset) else None)
-        newEntry
-      }
-    } catch {
-      case e: SchemaException =>
-        throw new CorruptSnapshotException(s"Snapshot failed schema validation: ${e.getMessage}")
+    val bytes = Files.readAllBytes(file.toPath)
+    if (bytes.length < ProducerEntriesArrayOffset)
+      throw new CorruptSnapshotException(s"Snapshot is too small (${bytes.length} bytes) to contain a header")
+
+    val buffer = ByteBuffer.wrap(bytes)
+    val version = buffer.getShort(VersionOffset)
+    if (version != ProducerSnapshotVersion)
+      throw new CorruptSnapshotException(s"Snapshot contained an unknown file version $version")
+
+    val crc = ByteUtils.readUnsignedInt(buffer, CrcOffset)
+    val computedCrc =  Crc32C.compute(bytes, ProducerEntriesOffset, bytes.length - ProducerEntriesOffset)
+    if (crc != computedCrc)
+      throw new CorruptSnapshotException(s"Snapshot is corrupt (CRC is no longer valid). " +
+        s"Stored crc: $crc. Computed crc: $computedCrc")
+
+    val numEntries = buffer.getInt(ProducerEntriesOffset)
+    if (numEntries < 0 || numEntries.toLong * ProducerSnapshotEntrySize != bytes.length - ProducerEntriesArrayOffset)
+      throw new CorruptSnapshotException(s"Snapshot failed schema validation: $numEntries entries do not match " +
+        s"the snapshot size of ${bytes.length} bytes")
+
+    buffer.position(ProducerEntriesArrayOffset)
+    val entries = new ArrayBuffer[ProducerStateEntry](numEntries)
+    for (_ <- 0 until numEntries) {
+      val producerId = buffer.getLong()
+      val producerEpoch = buffer.getShort()
+      val seq = buffer.getInt()
+      val offset = buffer.getLong()
+      val offsetDelta = buffer.getInt()
+      val timestamp = buffer.getLong()
+      val coordinatorEpoch = buffer.getInt()
+      val currentTxnFirstOffset = buffer.getLong()
+      val lastAppendedDataBatches = mutable.Queue.empty[BatchMetadata]
+      if (offset >= 0)
+        lastAppendedDataBatches += BatchMetadata(seq, offset, offsetDelta, timestamp)
+
+      entries += new ProducerStateEntry(producerId, lastAppendedDataBatches, producerEpoch,
+        coordinatorEpoch, timestamp, if (currentTxnFirstOffset >= 0) Some(currentTxnFirstOffset) else None)
     }
+    entries
   }
 
   private def writeSnapshot(file: File, entries: mutable.Map[Long, ProducerStateEntry]): Unit = {
-    val struct = new Struct(PidSnapshotMapSchema)
-    struct.set(VersionField, ProducerSnapshotVersion)
-    struct.set(CrcField, 0L) // we'll fill this after writing the entries
-    val entriesArray = entries.map {
-      case (producerId, entry) =>
-        val producerEntryStruct = struct.instance(ProducerEntriesField)
-        producerEntryStruct.set(ProducerIdField, producerId)
-          .set(ProducerEpochField, entry.producerEpoch)
-          .set(LastSequenceField, entry.lastSeq)
-          .set(LastOffsetField, entry.lastDataOffset)
-          .set(OffsetDeltaField, entry.lastOffsetDelta)
-          .set(TimestampField, entry.lastTimestamp)
-          .set(CoordinatorEpochField, entry.coordinatorEpoch)
-          .set(CurrentTxnFirstOffsetField, entry.currentTxnFirstOffset.getOrElse(-1L))
-        producerEntryStruct
-    }.toArray
-    struct.set(ProducerEntriesField, entriesArray)
-
-    val buffer = ByteBuffer.allocate(struct.sizeOf)
-    struct.writeTo(buffer)
+    val buffer = ByteBuffer.allocate(ProducerEntriesArrayOffset + entries.size * ProducerSnapshotEntrySize)
+    buffer.putShort(ProducerSnapshotVersion)
+    buffer.putInt(0) // we'll fill the CRC after writing the entries
+    buffer.putInt(entries.size)
+    entries.foreach { case (producerId, entry) =>
+      buffer.putLong(producerId)
+        .putShort(entry.producerEpoch)
+        .putInt(entry.lastSeq)
+        .putLong(entry.lastDataOffset)
+        .putInt(entry.lastOffsetDelta)
+        .putLong(entry.lastTimestamp)
+        .putInt(entry.coordinatorEpoch)
+        .putLong(entry.currentTxnFirstOffset.getOrElse(-1L))
+    }
     buffer.flip()
 
     // now fill in the CRC
@@ -486,7 +556,9 @@ class ProducerStateManager(val topicPartition: TopicPartition,
 
   this.logIdent = s"[ProducerStateManager partition=$topicPartition] "
 
-  private val producers = mutable.Map.empty[Long, ProducerStateEntry]
+  private val producers = mutable.LongMap.empty[ProducerStateEntry]
+  // the producers grouped by last timestamp, so that expiration does not need to visit every producer
+  private val producersByLastTimestamp = new ProducerExpirationIndex(maxProducerIdExpirationMs)
   private var lastMapOffset = 0L
   private var lastSnapOffset = 0L
 
@@ -567,7 +639,8 @@ class ProducerStateManager(val topicPartition: TopicPartition,
   // visible for testing
   private[log] def loadProducerEntry(entry: ProducerStateEntry): Unit = {
     val producerId = entry.producerId
-    producers.put(producerId, entry)
+    producers.put(producerId, entry).foreach(producersByLastTimestamp.remove)
+    producersByLastTimestamp.add(entry)
     entry.currentTxnFirstOffset.foreach { offset =>
       ongoingTxns.put(offset, new TxnMetadata(producerId, offset))
     }
@@ -580,7 +653,9 @@ class ProducerStateManager(val topicPartition: TopicPartition,
    * Expire any producer ids which have been idle longer than the configured maximum expiration timeout.
    */
   def removeExpiredProducers(currentTimeMs: Long): Unit = {
-    producers --= producers.filter { case (_, lastEntry) => isProducerExpired(currentTimeMs, lastEntry) }.keySet
+    producersByLastTimestamp.removeExpired(currentTimeMs, isProducerExpired(currentTimeMs, _)).foreach { entry =>
+      producers.remove(entry.producerId)
+    }
   }
 
   /**
@@ -599,6 +674,7 @@ class ProducerStateManager(val topicPartition: TopicPartition,
 
     if (logEndOffset != mapEndOffset) {
       producers.clear()
+      producersByLastTimestamp.clear()
       ongoingTxns.clear()
 
       // since we assume that the offset is less than or equal to the high watermark, it is
@@ -627,10 +703,13 @@ class ProducerStateManager(val topicPartition: TopicPartition,
     val updatedEntry = appendInfo.toEntry
     producers.get(appendInfo.producerId) match {
       case Some(currentEntry) =>
+        val previousTimestamp = currentEntry.lastTimestamp
         currentEntry.update(updatedEntry)
+        producersByLastTimestamp.updated(currentEntry, previousTimestamp)
 
       case None =>
         producers.put(appendInfo.producerId, updatedEntry)
+        producersByLastTimestamp.add(updatedEntry)
     }
 
     appendInfo.startedTransactions.foreach { txn =>
@@ -701,6 +780,7 @@ class ProducerStateManager(val topicPartition: TopicPartition,
    */
   def truncate(): Unit = {
     producers.clear()
+    producersByLastTimestamp.clear()
     ongoingTxns.clear()
     unreplicatedTxns.clear()
     deleteSnapshotFiles(logDir)
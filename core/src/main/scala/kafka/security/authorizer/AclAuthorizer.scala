@@ -21,7 +21,7 @@ import java.util.concurrent.{CompletableFuture, CompletionStage}
 
 import com.typesafe.scalalogging.Logger
 import kafka.api.KAFKA_2_0_IV1
-import kafka.security.authorizer.AclAuthorizer.{AclSeqs, ResourceOrdering, VersionedAcls}
+import kafka.security.authorizer.AclAuthorizer.{ResourceOrdering, VersionedAcls}
 import kafka.security.authorizer.AclEntry.ResourceSeparator
 import kafka.server.{KafkaConfig, KafkaServer}
 import kafka.utils._
@@ -40,7 +40,6 @@ import org.apache.kafka.server.authorizer._
 import org.apache.zookeeper.client.ZKClientConfig
 
 import scala.annotation.nowarn
-import scala.collection.mutable.ArrayBuffer
 import scala.collection.{Seq, mutable}
 import scala.jdk.CollectionConverters._
 import scala.util.{Failure, Random, Success, Try}
@@ -59,22 +58,14 @@ object AclAuthorizer {
   val SuperUsersProp = "super.users"
   // If set to true when no acls are found for a resource, authorizer allows access to everyone. Defaults to false.
   val AllowEveryoneIfNoAclIsFoundProp = "allow.everyone.if.no.acl.found"
+  // The maximum number of authorization decisions cached until the ACLs change, 0 disables the cache.
+  val DecisionCacheSizeProp = s"${configPrefix}decision.cache.size"
+  val DefaultDecisionCacheSize = 10000
 
   case class VersionedAcls(acls: Set[AclEntry], zkVersion: Int) {
     def exists: Boolean = zkVersion != ZkVersion.UnknownVersion
   }
 
-  class AclSeqs(seqs: Seq[AclEntry]*) {
-    def find(p: AclEntry => Boolean): Option[AclEntry] = {
-      // Lazily iterate through the inner `Seq` elements and stop as soon as we find a match
-      val it = seqs.iterator.flatMap(_.find(p))
-      if (it.hasNext) Some(it.next)
-      else None
-    }
-
-    def isEmpty: Boolean = !seqs.exists(_.nonEmpty)
-  }
-
   val NoAcls = VersionedAcls(Set.empty, ZkVersion.UnknownVersion)
   val WildcardHost = "*"
 
@@ -129,6 +120,9 @@ class AclAuthorizer extends Authorizer with Logging {
 
   @volatile
   private var aclCache = new scala.collection.immutable.TreeMap[ResourcePattern, VersionedAcls]()(new ResourceOrdering)
+  // The ACLs of `aclCache` indexed for authorization, updated together with `aclCache`
+  @volatile
+  private var aclIndex = AclIndex.empty(AclAuthorizer.DefaultDecisionCacheSize)
   private val lock = new Object()
 
   // The maximum number of times we should try to update the resource acls in zookeeper before failing;
@@ -151,6 +145,9 @@ class AclAuthorizer extends Authorizer with Logging {
     }.getOrElse(Set.empty[KafkaPrincipal])
 
     shouldAllowEveryoneIfNoAclIsFound = configs.get(AclAuthorizer.AllowEveryoneIfNoAclIsFoundProp).exists(_.toString.toBoolean)
+    val decisionCacheSize = configs.get(AclAuthorizer.DecisionCacheSizeProp).map(_.toString.toInt)
+      .getOrElse(AclAuthorizer.DefaultDecisionCacheSize)
+    aclIndex = aclIndex.withDecisionCacheSize(decisionCacheSize)
 
     // Use `KafkaConfig` in order to get the default ZK config values if not present in `javaConfigs`. Note that this
     // means that `KafkaConfig.zkConnect` must always be set by the user (even if `AclAuthorizer.ZkUrlProp` is also
@@ -321,7 +318,7 @@ class AclAuthorizer extends Authorizer with Logging {
     val host = requestContext.clientAddress.getHostAddress
     val operation = action.operation
 
-    def isEmptyAclAndAuthorized(acls: AclSeqs): Boolean = {
+    def isEmptyAclAndAuthorized(acls: Seq[ResourceAcls]): Boolean = {
       if (acls.isEmpty) {
         // No ACLs found for this resource, permission is determined by value of config allow.everyone.if.no.acl.found
         authorizerLogger.debug(s"No acl found for resource $resource, authorized = $shouldAllowEveryoneIfNoAclIsFound")
@@ -329,12 +326,12 @@ class AclAuthorizer extends Authorizer with Logging {
       } else false
     }
 
-    def denyAclExists(acls: AclSeqs): Boolean = {
+    def denyAclExists(acls: Seq[ResourceAcls]): Boolean = {
       // Check if there are any Deny ACLs which would forbid this operation.
       matchingAclExists(operation, resource, principal, host, DENY, acls)
     }
 
-    def allowAclExists(acls: AclSeqs): Boolean = {
+    def allowAclExists(acls: Seq[ResourceAcls]): Boolean = {
       // Check if there are any Allow ACLs which would allow this operation.
       // Allowing read, write, delete, or alter implies allowing describe.
       // See #{org.apache.kafka.common.acl.AclOperation} for more details about ACL inheritance.
@@ -347,10 +344,16 @@ class AclAuthorizer extends Authorizer with Logging {
     }
 
     def aclsAllowAccess = {
-      //we allow an operation if no acls are found and user has configured to allow all users
-      //when no acls are found or if no deny acls are found and at least one allow acls matches.
-      val acls = matchingAcls(resource.resourceType, resource.name)
-      isEmptyAclAndAuthorized(acls) || (!denyAclExists(acls) && allowAclExists(acls))
+      // this code is performance sensitive, make sure to run AclAuthorizerBenchmark after any changes
+
+      // save aclIndex reference to a local val to get a consistent view of the ACLs during acl updates.
+      val aclIndexSnapshot = aclIndex
+      aclIndexSnapshot.cachedDecision(AuthorizationDecisionKey(principal, host, operation, resource.resourceType, resource.name)) {
+        //we allow an operation if no acls are found and user has configured to allow all users
+        //when no acls are found or if no deny acls are found and at least one allow acls matches.
+        val acls = aclIndexSnapshot.matchingAcls(resource.resourceType, resource.name)
+        isEmptyAclAndAuthorized(acls) || (!denyAclExists(acls) && allowAclExists(acls))
+      }
     }
 
     // Evaluate if operation is allowed
@@ -367,43 +370,19 @@ class AclAuthorizer extends Authorizer with Logging {
     } else false
   }
 
-  @nowarn("cat=deprecation&cat=optimizer")
-  private def matchingAcls(resourceType: ResourceType, resourceName: String): AclSeqs = {
-    // this code is performance sensitive, make sure to run AclAuthorizerBenchmark after any changes
-
-    // save aclCache reference to a local val to get a consistent view of the cache during acl updates.
-    val aclCacheSnapshot = aclCache
-    val wildcard = aclCacheSnapshot.get(new ResourcePattern(resourceType, ResourcePattern.WILDCARD_RESOURCE, PatternType.LITERAL))
-      .map(_.acls.toBuffer)
-      .getOrElse(mutable.Buffer.empty)
-
-    val literal = aclCacheSnapshot.get(new ResourcePattern(resourceType, resourceName, PatternType.LITERAL))
-      .map(_.acls.toBuffer)
-      .getOrElse(mutable.Buffer.empty)
-
-    val prefixed = new ArrayBuffer[AclEntry]
-    aclCacheSnapshot
-      .from(new ResourcePattern(resourceType, resourceName, PatternType.PREFIXED))
-      .to(new ResourcePattern(resourceType, resourceName.take(1), PatternType.PREFIXED))
-      .foreach { case (resource, acls) =>
-        if (resourceName.startsWith(resource.name)) prefixed ++= acls.acls
-      }
-
-    new AclSeqs(prefixed, wildcard, literal)
-  }
-
   private def matchingAclExists(operation: AclOperation,
                                 resource: ResourcePattern,
                                 principal: KafkaPrincipal,
                                 host: String,
                                 permissionType: AclPermissionType,
-                                acls: AclSeqs): Boolean = {
-    acls.find { acl =>
-      acl.permissionType == permissionType &&
-        (acl.kafkaPrincipal == principal || acl.kafkaPrincipal == AclEntry.WildcardPrincipal) &&
-        (operation == acl.operation || acl.operation == AclOperation.ALL) &&
-        (acl.host == host || acl.host == AclEntry.WildcardHost)
-    }.exists { acl =>
+                                acls: Seq[ResourceAcls]): Boolean = {
+    // the ACLs are bucketed by principal and host, so only the permission type and operation are left to match
+    acls.iterator.map { resourceAcls =>
+      resourceAcls.find(principal, host) { acl =>
+        acl.permissionType == permissionType &&
+          (operation == acl.operation || acl.operation == AclOperation.ALL)
+      }
+    }.collectFirst { case Some(acl) => acl }.exists { acl =>
       authorizerLogger.debug(s"operation = $operation on resource = $resource from host = $host is $permissionType based on acl = $acl")
       true
     }
@@ -546,14 +525,20 @@ class AclAuthorizer extends Authorizer with Logging {
     zkClient.getVersionedAclsForResource(resource)
   }
 
-  private def updateCache(resource: ResourcePattern, versionedAcls: VersionedAcls): Unit = {
+  // Visible for benchmark
+  private[authorizer] def updateCache(resource: ResourcePattern, versionedAcls: VersionedAcls): Unit = {
     if (versionedAcls.acls.nonEmpty) {
       aclCache = aclCache + (resource -> versionedAcls)
     } else {
       aclCache = aclCache - resource
     }
+    // the updated index starts with an empty decision cache, so that decisions made with the previous ACLs are dropped
+    aclIndex = aclIndex.updated(resource, versionedAcls.acls)
   }
 
+  // Visible for testing
+  private[authorizer] def cachedDecisionCount: Int = aclIndex.cachedDecisionCount
+
   private def updateAclChangedFlag(resource: ResourcePattern): Unit = {
       zkClient.createAclChangeNotification(resource)
   }
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.security.authorizer
+
+import java.util.concurrent.ConcurrentHashMap
+
+import org.apache.kafka.common.acl.AclOperation
+import org.apache.kafka.common.resource.{PatternType, ResourcePattern, ResourceType}
+import org.apache.kafka.common.security.auth.KafkaPrincipal
+
+import scala.collection.Seq
+import scala.collection.mutable.ArrayBuffer
+
+/**
+ * The ACLs of a resource pattern, bucketed by principal and then by host, so that the ACLs which may apply to
+ * a request are found with a few hash lookups rather than by iterating over all the ACLs of the resource.
+ */
+private[authorizer] class ResourceAcls(acls: Set[AclEntry]) {
+  private val buckets: Map[KafkaPrincipal, Map[String, Array[AclEntry]]] =
+    acls.groupBy(_.kafkaPrincipal).map { case (principal, principalAcls) =>
+      principal -> principalAcls.groupBy(_.host).map { case (host, hostAcls) => host -> hostAcls.toArray }
+    }
+
+  /**
+   * Finds an ACL of `principal` or of the wildcard principal, from `host` or from the wildcard host, that
+   * satisfies `p`.
+   */
+  def find(principal: KafkaPrincipal, host: String)(p: AclEntry => Boolean): Option[AclEntry] = {
+    findInBuckets(principal, host, p).orElse(findInBuckets(AclEntry.WildcardPrincipal, host, p))
+  }
+
+  private def findInBuckets(principal: KafkaPrincipal, host: String, p: AclEntry => Boolean): Option[AclEntry] = {
+    buckets.get(principal) match {
+      case Some(hostBuckets) =>
+        hostBuckets.get(host).flatMap(_.find(p)).orElse(hostBuckets.get(AclEntry.WildcardHost).flatMap(_.find(p)))
+      case None => None
+    }
+  }
+}
+
+private[authorizer] object AclTrie {
+  val Empty = new AclTrie(None, Map.empty)
+}
+
+/**
+ * An immutable trie of the ACLs of prefixed resource patterns, keyed by the characters of the prefixes. Updates
+ * copy the path to the updated prefix only, and the ACLs of all the prefixes of a resource name are found by
+ * walking down the trie along the name.
+ */
+private[authorizer] class AclTrie private(private val acls: Option[ResourceAcls],
+                                          private val children: Map[Char, AclTrie]) {
+
+  def isEmpty: Boolean = acls.isEmpty && children.isEmpty
+
+  def updated(prefix: String, newAcls: Option[ResourceAcls]): AclTrie = updated(prefix, 0, newAcls)
+
+  private def updated(prefix: String, depth: Int, newAcls: Option[ResourceAcls]): AclTrie = {
+    if (depth == prefix.length)
+      new AclTrie(newAcls, children)
+    else {
+      val c = prefix.charAt(depth)
+      val child = children.getOrElse(c, AclTrie.Empty).updated(prefix, depth + 1, newAcls)
+      new AclTrie(acls, if (child.isEmpty) children - c else children.updated(c, child))
+    }
+  }
+
+  def foreachPrefixOf(name: String)(f: ResourceAcls => Unit): Unit = {
+    var node = this
+    var depth = 0
+    while (node != null) {
+      node.acls.foreach(f)
+      if (depth < name.length) {
+        node = node.children.getOrElse(name.charAt(depth), null)
+        depth += 1
+      } else
+        node = null
+    }
+  }
+}
+
+private[authorizer] case class ResourceTypeAcls(literal: Map[String, ResourceAcls], prefixed: AclTrie)
+
+private[authorizer] case class AuthorizationDecisionKey(principal: KafkaPrincipal,
+                                                        host: String,
+                                                        operation: AclOperation,
+                                                        resourceType: ResourceType,
+                                                        resourceName: String)
+
+private[authorizer] object AclIndex {
+  def empty(decisionCacheSize: Int): AclIndex = new AclIndex(Map.empty, decisionCacheSize)
+}
+
+/**
+ * An immutable index of the ACLs of all resource patterns, used to authorize requests. The index of each resource
+ * type holds the ACLs of literal resources by name and the ACLs of prefixed resources in a trie.
+ *
+ * Each index also holds a cache of up to `decisionCacheSize` authorization decisions, which is not carried over to
+ * updated indexes, so that a decision made with the ACLs of an index is never used once the ACLs have changed. The
+ * cache is cleared once it is full, since the decisions made by a broker are usually for a much smaller set of
+ * principals and resources.
+ */
+private[authorizer] class AclIndex private(resourceTypes: Map[ResourceType, ResourceTypeAcls],
+                                           val decisionCacheSize: Int) {
+  private val decisions = new ConcurrentHashMap[AuthorizationDecisionKey, java.lang.Boolean]()
+
+  def updated(resource: ResourcePattern, acls: Set[AclEntry]): AclIndex = {
+    val resourceAcls = if (acls.isEmpty) None else Some(new ResourceAcls(acls))
+    val typeAcls = resourceTypes.getOrElse(resource.resourceType, ResourceTypeAcls(Map.empty, AclTrie.Empty))
+    val newTypeAcls = resource.patternType match {
+      case PatternType.LITERAL =>
+        val literal = resourceAcls match {
+          case Some(newAcls) => typeAcls.literal.updated(resource.name, newAcls)
+          case None => typeAcls.literal - resource.name
+        }
+        typeAcls.copy(literal = literal)
+      case PatternType.PREFIXED =>
+        typeAcls.copy(prefixed = typeAcls.prefixed.updated(resource.name, resourceAcls))
+      case _ =>
+        throw new IllegalArgumentException(s"Unsupported pattern type ${resource.patternType} for resource $resource")
+    }
+    new AclIndex(resourceTypes.updated(resource.resourceType, newTypeAcls), decisionCacheSize)
+  }
+
+  def withDecisionCacheSize(newDecisionCacheSize: Int): AclIndex = new AclIndex(resourceTypes, newDecisionCacheSize)
+
+  /**
+   * Returns the ACLs of the wildcard resource, of the literal resource and of all the prefixed resources that
+   * match `resourceName`.
+   */
+  def matchingAcls(resourceType: ResourceType, resourceName: String): Seq[ResourceAcls] = {
+    val matching = new ArrayBuffer[ResourceAcls](4)
+    resourceTypes.get(resourceType).foreach { typeAcls =>
+      typeAcls.literal.get(AclEntry.WildcardResource).foreach(matching += _)
+      typeAcls.literal.get(resourceName).foreach(matching += _)
+      typeAcls.prefixed.foreachPrefixOf(resourceName)(matching += _)
+    }
+    matching
+  }
+
+  def cachedDecision(key: AuthorizationDecisionKey)(authorize: => Boolean): Boolean = {
+    if (decisionCacheSize <= 0)
+      authorize
+    else {
+      val cached = decisions.get(key)
+      if (cached != null)
+        cached
+      else {
+        val authorized = authorize
+        if (decisions.size >= decisionCacheSize)
+          decisions.clear()
+        decisions.put(key, authorized)
+        authorized
+      }
+    }
+  }
+
+  // Visible for testing
+  def cachedDecisionCount: Int = decisions.size
+}
@@ -17,22 +17,55 @@
 
 package kafka.server
 
+import java.util.concurrent.TimeUnit
+
 import kafka.utils.Logging
 import kafka.cluster.BrokerEndPoint
 import kafka.metrics.KafkaMetricsGroup
 import org.apache.kafka.common.TopicPartition
-import org.apache.kafka.common.utils.Utils
+import org.apache.kafka.common.utils.Time
 
 import scala.collection.mutable
 import scala.collection.{Map, Set}
 
-abstract class AbstractFetcherManager[T <: AbstractFetcherThread](val name: String, clientId: String, numFetchers: Int)
+/**
+ * Assigns partitions to fetcher threads, which are identified by their source broker and a fetcher id from 0 until
+ * the number of fetchers per source broker.
+ *
+ * New partitions are assigned to the least loaded fetcher of their source broker. The load of a fetcher is the sum
+ * of the weights of its partitions, where the weight of a partition is its bytes-in rate plus the average rate of
+ * the partitions of the source broker (and at least 1), so that partitions are balanced by count when there is
+ * little traffic and by rate otherwise. The rates are measured by `rebalance`, which also moves partitions between
+ * the fetchers of a broker when they are imbalanced and scales the number of fetchers of each broker up to
+ * `maxNumFetchers` by its bytes-in rate.
+ *
+ * @param numFetchers                 The number of fetchers per source broker
+ * @param maxNumFetchers              The maximum number of fetchers per source broker when scaling them by rate,
+ *                                    scaling is disabled if this is not larger than `numFetchers`
+ * @param targetBytesPerSecPerFetcher The bytes-in rate per fetcher used to compute the number of fetchers of a
+ *                                    source broker when scaling them
+ */
+abstract class AbstractFetcherManager[T <: AbstractFetcherThread](val name: String,
+                                                                 clientId: String,
+                                                                 numFetchers: Int,
+                                                                 maxNumFetchers: Int = 0,
+                                                                 targetBytesPerSecPerFetcher: Long = Long.MaxValue,
+                                                                 time: Time = Time.SYSTEM)
   extends Logging with KafkaMetricsGroup {
+  import AbstractFetcherManager._
+
   // map of (source broker_id, fetcher_id per source broker) => fetcher.
   // package private for test
   private[server] val fetcherThreadMap = new mutable.HashMap[BrokerIdAndFetcherId, T]
   private val lock = new Object
   private var numFetchersPerBroker = numFetchers
+  // the number of fetchers of each source broker as scaled by its bytes-in rate
+  private val scaledNumFetchers = new mutable.HashMap[Int, Int]
+  // the fetcher of each partition, the bytes it had fetched when the rates were last measured, and its rate
+  private val partitionFetchers = new mutable.HashMap[TopicPartition, BrokerIdAndFetcherId]
+  private val partitionFetchedBytes = new mutable.HashMap[TopicPartition, Long]
+  private val partitionBytesRates = new mutable.HashMap[TopicPartition, Double]
+  private var lastRateUpdateMs = -1L
   val failedPartitions = new FailedPartitions
   this.logIdent = "[" + name + "] "
 
@@ -58,32 +91,164 @@ abstract class AbstractFetcherManager[T <: AbstractFetcherThread](val name: Stri
 
   newGauge("DeadThreadCount", () => deadThreadCount, tags)
 
+  newGauge("FetcherCount", () => lock synchronized { fetcherThreadMap.size }, tags)
+
+  private val partitionMigrationRate = newMeter("PartitionMigrationsPerSec", "migrations", TimeUnit.SECONDS, tags)
+
   private[server] def deadThreadCount: Int = lock synchronized { fetcherThreadMap.values.count(_.isThreadFailed) }
 
   def resizeThreadPool(newSize: Int): Unit = {
-    def migratePartitions(newSize: Int): Unit = {
-      fetcherThreadMap.foreach { case (id, thread) =>
-        val removedPartitions = thread.partitionsAndOffsets
-        removeFetcherForPartitions(removedPartitions.keySet)
-        if (id.fetcherId >= newSize)
-          thread.shutdown()
-        addFetcherForPartitions(removedPartitions)
-      }
-    }
     lock synchronized {
       val currentSize = numFetchersPerBroker
       info(s"Resizing fetcher thread pool size from $currentSize to $newSize")
       numFetchersPerBroker = newSize
       if (newSize != currentSize) {
-        // We could just migrate some partitions explicitly to new threads. But this is currently
-        // reassigning all partitions using the new thread size so that hash-based allocation
-        // works with partition add/delete as it did before.
-        migratePartitions(newSize)
+        // Move the partitions of the removed fetchers with their fetch state, and spread the partitions
+        // across the new number of fetchers.
+        updatePartitionFetchers()
+        balanceFetchers()
+      }
+      shutdownIdleFetcherThreads()
+    }
+  }
+
+  /**
+   * Measure the bytes-in rate of the partitions since the last rebalance, scale the number of fetchers of each
+   * source broker if enabled, and move partitions with their fetch state from the most loaded to the least loaded
+   * fetchers of each source broker until the most loaded fetcher is within `MaxLoadImbalance` of the average.
+   */
+  def rebalance(): Unit = {
+    lock synchronized {
+      updatePartitionFetchers()
+      if (maxNumFetchers > numFetchersPerBroker) {
+        partitionsByBroker.foreach { case (brokerId, partitions) =>
+          val brokerBytesRate = partitions.iterator.map(bytesRate).sum
+          val numFetchers = math.ceil(brokerBytesRate / targetBytesPerSecPerFetcher).toInt
+            .max(numFetchersPerBroker).min(maxNumFetchers)
+          if (numFetchers != numFetchersForBroker(brokerId))
+            info(s"Scaling the number of fetchers for broker $brokerId to $numFetchers for a bytes-in rate of $brokerBytesRate")
+          scaledNumFetchers.put(brokerId, numFetchers)
+        }
       }
+      balanceFetchers()
       shutdownIdleFetcherThreads()
     }
   }
 
+  private def numFetchersForBroker(brokerId: Int): Int = {
+    if (maxNumFetchers > numFetchersPerBroker)
+      scaledNumFetchers.getOrElse(brokerId, numFetchersPerBroker).max(numFetchersPerBroker).min(maxNumFetchers)
+    else
+      numFetchersPerBroker
+  }
+
+  private def bytesRate(topicPartition: TopicPartition): Double = partitionBytesRates.getOrElse(topicPartition, 0.0)
+
+  private def partitionsByBroker: Map[Int, Iterable[TopicPartition]] =
+    partitionFetchers.groupMap(_._2.brokerId)(_._1)
+
+  /**
+   * Update the fetcher of each partition from the fetchers, and the bytes-in rates of the partitions if at least
+   * `MinRateIntervalMs` passed since they were last updated. Each rate is averaged with its previous value.
+   */
+  private def updatePartitionFetchers(): Unit = {
+    val now = time.milliseconds
+    val elapsedMs = now - lastRateUpdateMs
+    val updateRates = lastRateUpdateMs < 0 || elapsedMs >= MinRateIntervalMs
+    partitionFetchers.clear()
+    for ((brokerIdAndFetcherId, fetcherThread) <- fetcherThreadMap;
+         (topicPartition, fetchedBytes) <- fetcherThread.partitionFetchedBytes) {
+      partitionFetchers.put(topicPartition, brokerIdAndFetcherId)
+      if (updateRates) {
+        if (lastRateUpdateMs >= 0) {
+          val previousBytes = partitionFetchedBytes.getOrElse(topicPartition, 0L)
+          val bytes = if (fetchedBytes >= previousBytes) fetchedBytes - previousBytes else fetchedBytes
+          val rate = bytes * 1000.0 / elapsedMs
+          partitionBytesRates.put(topicPartition, partitionBytesRates.get(topicPartition).map(r => (r + rate) / 2).getOrElse(rate))
+        }
+        partitionFetchedBytes.put(topicPartition, fetchedBytes)
+      }
+    }
+    partitionFetchedBytes.filterInPlace((topicPartition, _) => partitionFetchers.contains(topicPartition))
+    partitionBytesRates.filterInPlace((topicPartition, _) => partitionFetchers.contains(topicPartition))
+    if (updateRates)
+      lastRateUpdateMs = now
+  }
+
+  private def fetcherLoads(brokerId: Int, partitions: Iterable[TopicPartition]): FetcherLoads = {
+    val loads = new FetcherLoads(numFetchersForBroker(brokerId), partitions.iterator.map(bytesRate).sum / partitions.size)
+    partitions.foreach { topicPartition =>
+      partitionFetchers.get(topicPartition).foreach { brokerIdAndFetcherId =>
+        loads.add(topicPartition, brokerIdAndFetcherId.fetcherId)
+      }
+    }
+    loads
+  }
+
+  private def balanceFetchers(): Unit = {
+    partitionsByBroker.foreach { case (brokerId, partitions) =>
+      val loads = fetcherLoads(brokerId, partitions)
+      val targetFetcherIds = new mutable.HashMap[TopicPartition, Int]
+
+      // partitions of the fetchers which were removed move to the least loaded fetchers, largest first
+      partitions.filter(partitionFetchers(_).fetcherId >= loads.numFetchers).toSeq.sortBy(-loads.weight(_)).foreach { topicPartition =>
+        val fetcherId = loads.leastLoaded
+        loads.add(topicPartition, fetcherId)
+        targetFetcherIds.put(topicPartition, fetcherId)
+      }
+
+      // move the partition which brings the most and the least loaded fetchers closest until they are balanced
+      var balanced = false
+      var moves = 0
+      while (!balanced && moves < partitions.size) {
+        val mostLoaded = loads.mostLoaded
+        val leastLoaded = loads.leastLoaded
+        val difference = loads.load(mostLoaded) - loads.load(leastLoaded)
+        val candidates = loads.partitions(mostLoaded).filter(loads.weight(_) < difference)
+        if (loads.load(mostLoaded) <= loads.averageLoad * (1 + MaxLoadImbalance) || candidates.isEmpty) {
+          balanced = true
+        } else {
+          val topicPartition = candidates.minBy(tp => math.abs(difference - 2 * loads.weight(tp)))
+          loads.remove(topicPartition, mostLoaded)
+          loads.add(topicPartition, leastLoaded)
+          targetFetcherIds.put(topicPartition, leastLoaded)
+          moves += 1
+        }
+      }
+
+      targetFetcherIds.groupBy { case (topicPartition, fetcherId) =>
+        (partitionFetchers(topicPartition).fetcherId, fetcherId)
+      }.foreach { case ((sourceFetcherId, targetFetcherId), movedPartitions) =>
+        if (sourceFetcherId != targetFetcherId)
+          migratePartitions(brokerId, sourceFetcherId, targetFetcherId, movedPartitions.keySet)
+      }
+    }
+  }
+
+  private def migratePartitions(brokerId: Int, sourceFetcherId: Int, targetFetcherId: Int,
+                                partitions: Set[TopicPartition]): Unit = {
+    fetcherThreadMap.get(BrokerIdAndFetcherId(brokerId, sourceFetcherId)).foreach { sourceFetcher =>
+      val states = sourceFetcher.removePartitionStates(partitions)
+      if (states.nonEmpty) {
+        val targetBrokerIdAndFetcherId = BrokerIdAndFetcherId(brokerId, targetFetcherId)
+        val targetFetcher = fetcherThreadMap.get(targetBrokerIdAndFetcherId) match {
+          case Some(fetcherThread) if fetcherThread.sourceBroker == sourceFetcher.sourceBroker => fetcherThread
+          case fetcherThreadOpt =>
+            fetcherThreadOpt.foreach(_.shutdown())
+            addAndStartFetcherThread(BrokerAndFetcherId(sourceFetcher.sourceBroker, targetFetcherId),
+              targetBrokerIdAndFetcherId)
+        }
+        targetFetcher.addPartitionStates(states)
+        states.keys.foreach { topicPartition =>
+          partitionFetchers.put(topicPartition, targetBrokerIdAndFetcherId)
+          partitionFetchedBytes.put(topicPartition, 0L)
+        }
+        partitionMigrationRate.mark(states.size)
+        info(s"Moved partitions ${states.keySet} of broker $brokerId from fetcher $sourceFetcherId to fetcher $targetFetcherId")
+      }
+    }
+  }
+
   // Visible for testing
   private[server] def getFetcher(topicPartition: TopicPartition): Option[T] = {
     lock synchronized {
@@ -94,18 +259,16 @@ abstract class AbstractFetcherManager[T <: AbstractFetcherThread](val name: Stri
   }
 
   // Visibility for testing
-  private[server] def getFetcherId(topicPartition: TopicPartition): Int = {
+  private[server] def getFetcherId(topicPartition: TopicPartition): Option[Int] = {
     lock synchronized {
-      Utils.abs(31 * topicPartition.topic.hashCode() + topicPartition.partition) % numFetchersPerBroker
+      partitionFetchers.get(topicPartition).map(_.fetcherId)
     }
   }
 
   // This method is only needed by ReplicaAlterDirManager
   def markPartitionsForTruncation(brokerId: Int, topicPartition: TopicPartition, truncationOffset: Long): Unit = {
     lock synchronized {
-      val fetcherId = getFetcherId(topicPartition)
-      val brokerIdAndFetcherId = BrokerIdAndFetcherId(brokerId, fetcherId)
-      fetcherThreadMap.get(brokerIdAndFetcherId).foreach { thread =>
+      partitionFetchers.get(topicPartition).filter(_.brokerId == brokerId).flatMap(fetcherThreadMap.get).foreach { thread =>
         thread.markPartitionsForTruncation(topicPartition, truncationOffset)
       }
     }
@@ -114,18 +277,35 @@ abstract class AbstractFetcherManager[T <: AbstractFetcherThread](val name: Stri
   // to be defined in subclass to create a specific fetcher
   def createFetcherThread(fetcherId: Int, sourceBroker: BrokerEndPoint): T
 
+  private def addAndStartFetcherThread(brokerAndFetcherId: BrokerAndFetcherId,
+                                       brokerIdAndFetcherId: BrokerIdAndFetcherId): T = {
+    val fetcherThread = createFetcherThread(brokerAndFetcherId.fetcherId, brokerAndFetcherId.broker)
+    fetcherThreadMap.put(brokerIdAndFetcherId, fetcherThread)
+    fetcherThread.start()
+    fetcherThread
+  }
+
   def addFetcherForPartitions(partitionAndOffsets: Map[TopicPartition, InitialFetchState]): Unit = {
     lock synchronized {
-      val partitionsPerFetcher = partitionAndOffsets.groupBy { case (topicPartition, brokerAndInitialFetchOffset) =>
-        BrokerAndFetcherId(brokerAndInitialFetchOffset.leader, getFetcherId(topicPartition))
+      val brokerIds = partitionAndOffsets.values.map(_.leader.id).toSet
+      val loadsByBroker = mutable.HashMap[Int, FetcherLoads]()
+      partitionsByBroker.foreach { case (brokerId, partitions) =>
+        if (brokerIds.contains(brokerId))
+          loadsByBroker.put(brokerId, fetcherLoads(brokerId, partitions))
       }
-
-      def addAndStartFetcherThread(brokerAndFetcherId: BrokerAndFetcherId,
-                                   brokerIdAndFetcherId: BrokerIdAndFetcherId): T = {
-        val fetcherThread = createFetcherThread(brokerAndFetcherId.fetcherId, brokerAndFetcherId.broker)
-        fetcherThreadMap.put(brokerIdAndFetcherId, fetcherThread)
-        fetcherThread.start()
-        fetcherThread
+      val partitionsPerFetcher = partitionAndOffsets.groupBy { case (topicPartition, brokerAndInitialFetchOffset) =>
+        val brokerId = brokerAndInitialFetchOffset.leader.id
+        val fetcherId = partitionFetchers.get(topicPartition) match {
+          // keep the partition in its current fetcher
+          case Some(BrokerIdAndFetcherId(`brokerId`, fetcherId)) if fetcherId < numFetchersForBroker(brokerId) => fetcherId
+          case _ =>
+            val loads = loadsByBroker.getOrElseUpdate(brokerId, new FetcherLoads(numFetchersForBroker(brokerId), 0.0))
+            val fetcherId = loads.leastLoaded
+            loads.add(topicPartition, fetcherId)
+            partitionFetchers.put(topicPartition, BrokerIdAndFetcherId(brokerId, fetcherId))
+            fetcherId
+        }
+        BrokerAndFetcherId(brokerAndInitialFetchOffset.leader, fetcherId)
       }
 
       for ((brokerAndFetcherId, initialFetchOffsets) <- partitionsPerFetcher) {
@@ -161,6 +341,9 @@ abstract class AbstractFetcherManager[T <: AbstractFetcherThread](val name: Stri
       for (fetcher <- fetcherThreadMap.values)
         fetcher.removePartitions(partitions)
       failedPartitions.removeAll(partitions)
+      partitionFetchers --= partitions
+      partitionFetchedBytes --= partitions
+      partitionBytesRates --= partitions
     }
     if (partitions.nonEmpty)
       info(s"Removed fetcher for partitions $partitions")
@@ -191,6 +374,47 @@ abstract class AbstractFetcherManager[T <: AbstractFetcherThread](val name: Stri
       fetcherThreadMap.clear()
     }
   }
+
+  /**
+   * The loads of the fetchers of a source broker and their partitions.
+   *
+   * @param numFetchers     The number of fetchers of the source broker
+   * @param averageBytesRate The average bytes-in rate of the partitions of the source broker
+   */
+  private class FetcherLoads(val numFetchers: Int, averageBytesRate: Double) {
+    private val baseWeight = math.max(averageBytesRate, 1.0)
+    private val loads = new Array[Double](numFetchers)
+    private val fetcherPartitions = Array.fill(numFetchers)(new mutable.HashSet[TopicPartition])
+
+    def weight(topicPartition: TopicPartition): Double = bytesRate(topicPartition) + baseWeight
+
+    def load(fetcherId: Int): Double = loads(fetcherId)
+
+    def partitions(fetcherId: Int): Set[TopicPartition] = fetcherPartitions(fetcherId)
+
+    def averageLoad: Double = loads.sum / numFetchers
+
+    def leastLoaded: Int = loads.indices.minBy(loads(_))
+
+    def mostLoaded: Int = loads.indices.maxBy(loads(_))
+
+    def add(topicPartition: TopicPartition, fetcherId: Int): Unit = {
+      if (fetcherId < numFetchers && fetcherPartitions(fetcherId).add(topicPartition))
+        loads(fetcherId) += weight(topicPartition)
+    }
+
+    def remove(topicPartition: TopicPartition, fetcherId: Int): Unit = {
+      if (fetcherId < numFetchers && fetcherPartitions(fetcherId).remove(topicPartition))
+        loads(fetcherId) -= weight(topicPartition)
+    }
+  }
+}
+
+object AbstractFetcherManager {
+  // how much the load of the most loaded fetcher of a source broker may exceed the average before rebalancing
+  val MaxLoadImbalance = 0.1
+  // the minimum interval over which the bytes-in rates of the partitions are measured
+  val MinRateIntervalMs = 1000L
 }
 
 /**
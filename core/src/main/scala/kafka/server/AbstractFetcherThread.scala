@@ -62,6 +62,8 @@ abstract class AbstractFetcherThread(name: String,
   type EpochData = OffsetsForLeaderEpochRequest.PartitionData
 
   private val partitionStates = new PartitionStates[PartitionFetchState]
+  // bytes appended to each partition since it was added, used to balance partitions across fetchers
+  private val fetchedBytes = new mutable.HashMap[TopicPartition, Long]
   protected val partitionMapLock = new ReentrantLock
   private val partitionMapCond = partitionMapLock.newCondition()
 
@@ -342,6 +344,7 @@ abstract class AbstractFetcherThread(name: String,
                         // Update partitionStates only if there is no exception during processPartitionData
                         val newFetchState = PartitionFetchState(nextOffset, Some(lag), currentFetchState.currentLeaderEpoch, state = Fetching)
                         partitionStates.updateAndMoveToEnd(topicPartition, newFetchState)
+                        fetchedBytes(topicPartition) = fetchedBytes.getOrElse(topicPartition, 0L) + validBytes
                         fetcherStats.byteRate.mark(validBytes)
                       }
                     }
@@ -646,11 +649,37 @@ abstract class AbstractFetcherThread(name: String,
     try {
       topicPartitions.foreach { topicPartition =>
         partitionStates.remove(topicPartition)
+        fetchedBytes.remove(topicPartition)
         fetcherLagStats.unregister(topicPartition)
       }
     } finally partitionMapLock.unlock()
   }
 
+  /**
+   * Remove the partitions and return their fetch states, so that they can be added to another fetcher thread
+   * of the same source broker with addPartitionStates without truncating or resetting their fetch offsets again.
+   */
+  private[server] def removePartitionStates(topicPartitions: Set[TopicPartition]): Map[TopicPartition, PartitionFetchState] = {
+    partitionMapLock.lockInterruptibly()
+    try {
+      val states = topicPartitions.flatMap { topicPartition =>
+        Option(partitionStates.stateValue(topicPartition)).map(topicPartition -> _)
+      }.toMap
+      removePartitions(states.keySet)
+      states
+    } finally partitionMapLock.unlock()
+  }
+
+  private[server] def addPartitionStates(states: Map[TopicPartition, PartitionFetchState]): Unit = {
+    partitionMapLock.lockInterruptibly()
+    try {
+      states.foreach { case (topicPartition, state) =>
+        partitionStates.updateAndMoveToEnd(topicPartition, state)
+      }
+      partitionMapCond.signalAll()
+    } finally partitionMapLock.unlock()
+  }
+
   def partitionCount(): Int = {
     partitionMapLock.lockInterruptibly()
     try partitionStates.size
@@ -662,13 +691,11 @@ abstract class AbstractFetcherThread(name: String,
     Option(partitionStates.stateValue(topicPartition))
   }
 
-  private[server] def partitionsAndOffsets: Map[TopicPartition, InitialFetchState] = inLock(partitionMapLock) {
-    partitionStates.partitionStateMap.asScala.map { case (topicPartition, currentFetchState) =>
-      val initialFetchState = InitialFetchState(sourceBroker,
-        currentLeaderEpoch = currentFetchState.currentLeaderEpoch,
-        initOffset = currentFetchState.fetchOffset)
-      topicPartition -> initialFetchState
-    }
+  // The partitions of this fetcher with the number of bytes appended to them since they were added
+  private[server] def partitionFetchedBytes: Map[TopicPartition, Long] = inLock(partitionMapLock) {
+    partitionStates.partitionSet.asScala.map { topicPartition =>
+      topicPartition -> fetchedBytes.getOrElse(topicPartition, 0L)
+    }.toMap
   }
 
   protected def toMemoryRecords(records: Records): MemoryRecords = {
@@ -677,6 +704,7 @@ abstract class AbstractFetcherThread(name: String,
       case r: FileRecords =>
         val buffer = ByteBuffer.allocate(r.sizeInBytes)
         r.readInto(buffer, 0)
+        fetcherStats.bytesCopiedRate.mark(r.sizeInBytes)
         MemoryRecords.readableRecords(buffer)
     }
   }
@@ -694,6 +722,7 @@ object FetcherMetrics {
   val ConsumerLag = "ConsumerLag"
   val RequestsPerSec = "RequestsPerSec"
   val BytesPerSec = "BytesPerSec"
+  val BytesCopiedPerSec = "BytesCopiedPerSec"
 }
 
 class FetcherLagMetrics(metricId: ClientIdTopicPartition) extends KafkaMetricsGroup {
@@ -746,9 +775,13 @@ class FetcherStats(metricId: ClientIdAndBroker) extends KafkaMetricsGroup {
 
   val byteRate = newMeter(FetcherMetrics.BytesPerSec, "bytes", TimeUnit.SECONDS, tags)
 
+  // bytes copied between buffers before they are written to the log, which is avoided for records in direct buffers
+  val bytesCopiedRate = newMeter(FetcherMetrics.BytesCopiedPerSec, "bytes", TimeUnit.SECONDS, tags)
+
   def unregister(): Unit = {
     removeMetric(FetcherMetrics.RequestsPerSec, tags)
     removeMetric(FetcherMetrics.BytesPerSec, tags)
+    removeMetric(FetcherMetrics.BytesCopiedPerSec, tags)
   }
 
 }
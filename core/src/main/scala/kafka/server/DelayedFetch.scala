@@ -17,8 +17,11 @@
 
 package kafka.server
 
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{ConcurrentLinkedQueue, TimeUnit}
+import java.util.concurrent.atomic.AtomicIntegerArray
 
+import com.yammer.metrics.core.Histogram
+import kafka.cluster.Partition
 import kafka.metrics.KafkaMetricsGroup
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors._
@@ -67,6 +70,31 @@ class DelayedFetch(delayMs: Long,
                    responseCallback: Seq[(TopicPartition, FetchPartitionData)] => Unit)
   extends DelayedOperation(delayMs) {
 
+  private val partitionStatuses = fetchMetadata.fetchPartitionStatus.toIndexedSeq
+  private val partitionIndexes: Map[Any, Int] = partitionStatuses.iterator.zipWithIndex.map {
+    case ((topicPartition, _), index) => TopicPartitionOperationKey(topicPartition) -> index
+  }.toMap
+
+  // The outcome of the last check of each partition, only accessed by the thread holding the operation lock. A
+  // partition is a candidate if it had bytes available or was fetching older segments the last time it was checked,
+  // the throttling of candidates is checked again on every call to tryComplete() since it does not depend on the log
+  private val partitions = new Array[Partition](partitionStatuses.size)
+  private val bytesAvailable = new Array[Int](partitionStatuses.size)
+  private val fetchingOlderSegment = new Array[Boolean](partitionStatuses.size)
+  private val candidates = new java.util.BitSet(partitionStatuses.size)
+  private var checkedAllPartitions = false
+
+  // Partitions whose watch key changed since they were last checked
+  private val changedFlags = new AtomicIntegerArray(partitionStatuses.size)
+  private val changedPartitions = new ConcurrentLinkedQueue[Integer]()
+
+  override def onKeyChanged(key: Any): Unit = {
+    partitionIndexes.get(key).foreach { index =>
+      if (changedFlags.compareAndSet(index, 0, 1))
+        changedPartitions.add(index)
+    }
+  }
+
   /**
    * The operation can be completed if:
    *
@@ -78,62 +106,48 @@ class DelayedFetch(delayMs: Long,
    * Case F: The fetch offset locates not on the last segment of the log
    * Case G: The accumulated bytes from all the fetching partitions exceeds the minimum bytes
    * Upon completion, should return whatever data is available for each valid partition
+   *
+   * All partitions are checked the first time, after which only the partitions whose watch key changed are checked
+   * again, so the cost of a check is proportional to the number of partitions that changed rather than the number of
+   * partitions in the fetch.
    */
   override def tryComplete(): Boolean = {
+    var partitionsChecked = 0
+    if (!checkedAllPartitions) {
+      checkedAllPartitions = true
+      partitionsChecked = partitionStatuses.size
+      var index = 0
+      while (index < partitionStatuses.size) {
+        if (checkPartition(index))
+          return completeAfterCheck(partitionsChecked)
+        index += 1
+      }
+    } else {
+      var index = changedPartitions.poll()
+      while (index != null) {
+        changedFlags.set(index, 0)
+        partitionsChecked += 1
+        if (checkPartition(index))
+          return completeAfterCheck(partitionsChecked)
+        index = changedPartitions.poll()
+      }
+    }
+    checkedPartitionsHistogram.update(partitionsChecked)
+
     var accumulatedSize = 0
-    fetchMetadata.fetchPartitionStatus.foreach {
-      case (topicPartition, fetchStatus) =>
-        val fetchOffset = fetchStatus.startOffsetMetadata
-        val fetchLeaderEpoch = fetchStatus.fetchInfo.currentLeaderEpoch
-        try {
-          if (fetchOffset != LogOffsetMetadata.UnknownOffsetMetadata) {
-            val partition = replicaManager.getPartitionOrException(topicPartition)
-            val offsetSnapshot = partition.fetchOffsetSnapshot(fetchLeaderEpoch, fetchMetadata.fetchOnlyLeader)
-
-            val endOffset = fetchMetadata.fetchIsolation match {
-              case FetchLogEnd => offsetSnapshot.logEndOffset
-              case FetchHighWatermark => offsetSnapshot.highWatermark
-              case FetchTxnCommitted => offsetSnapshot.lastStableOffset
-            }
-
-            // Go directly to the check for Case G if the message offsets are the same. If the log segment
-            // has just rolled, then the high watermark offset will remain the same but be on the old segment,
-            // which would incorrectly be seen as an instance of Case F.
-            if (endOffset.messageOffset != fetchOffset.messageOffset) {
-              if (endOffset.onOlderSegment(fetchOffset)) {
-                // Case F, this can happen when the new fetch operation is on a truncated leader
-                debug(s"Satisfying fetch $fetchMetadata since it is fetching later segments of partition $topicPartition.")
-                return forceComplete()
-              } else if (fetchOffset.onOlderSegment(endOffset)) {
-                // Case F, this can happen when the fetch operation is falling behind the current segment
-                // or the partition has just rolled a new segment
-                debug(s"Satisfying fetch $fetchMetadata immediately since it is fetching older segments.")
-                // We will not force complete the fetch request if a replica should be throttled.
-                if (!replicaManager.shouldLeaderThrottle(quota, partition, fetchMetadata.replicaId))
-                  return forceComplete()
-              } else if (fetchOffset.messageOffset < endOffset.messageOffset) {
-                // we take the partition fetch size as upper bound when accumulating the bytes (skip if a throttled partition)
-                val bytesAvailable = math.min(endOffset.positionDiff(fetchOffset), fetchStatus.fetchInfo.maxBytes)
-                if (!replicaManager.shouldLeaderThrottle(quota, partition, fetchMetadata.replicaId))
-                  accumulatedSize += bytesAvailable
-              }
-            }
-          }
-        } catch {
-          case _: NotLeaderOrFollowerException =>  // Case A or Case B
-            debug(s"Broker is no longer the leader or follower of $topicPartition, satisfy $fetchMetadata immediately")
-            return forceComplete()
-          case _: UnknownTopicOrPartitionException => // Case C
-            debug(s"Broker no longer knows of partition $topicPartition, satisfy $fetchMetadata immediately")
-            return forceComplete()
-          case _: KafkaStorageException => // Case D
-            debug(s"Partition $topicPartition is in an offline log directory, satisfy $fetchMetadata immediately")
-            return forceComplete()
-          case _: FencedLeaderEpochException => // Case E
-            debug(s"Broker is the leader of partition $topicPartition, but the requested epoch " +
-              s"$fetchLeaderEpoch is fenced by the latest leader epoch, satisfy $fetchMetadata immediately")
-            return forceComplete()
+    var index = candidates.nextSetBit(0)
+    while (index >= 0) {
+      // We will not force complete the fetch request or count its bytes if a replica should be throttled.
+      if (!replicaManager.shouldLeaderThrottle(quota, partitions(index), fetchMetadata.replicaId)) {
+        if (fetchingOlderSegment(index)) {
+          // Case F, this can happen when the fetch operation is falling behind the current segment
+          // or the partition has just rolled a new segment
+          debug(s"Satisfying fetch $fetchMetadata immediately since it is fetching older segments.")
+          return forceComplete()
         }
+        accumulatedSize += bytesAvailable(index)
+      }
+      index = candidates.nextSetBit(index + 1)
     }
 
     // Case G
@@ -143,6 +157,76 @@ class DelayedFetch(delayMs: Long,
       false
   }
 
+  private def checkedPartitionsHistogram: Histogram =
+    if (fetchMetadata.isFromFollower) DelayedFetchMetrics.followerCheckedPartitionsHistogram
+    else DelayedFetchMetrics.consumerCheckedPartitionsHistogram
+
+  private def completeAfterCheck(partitionsChecked: Int): Boolean = {
+    checkedPartitionsHistogram.update(partitionsChecked)
+    forceComplete()
+  }
+
+  /**
+   * Check the partition at the given index and update its bytes available and candidacy.
+   *
+   * @return true if the fetch must be completed immediately because of this partition
+   */
+  private def checkPartition(index: Int): Boolean = {
+    val (topicPartition, fetchStatus) = partitionStatuses(index)
+    val fetchOffset = fetchStatus.startOffsetMetadata
+    val fetchLeaderEpoch = fetchStatus.fetchInfo.currentLeaderEpoch
+    bytesAvailable(index) = 0
+    fetchingOlderSegment(index) = false
+    candidates.clear(index)
+    try {
+      if (fetchOffset != LogOffsetMetadata.UnknownOffsetMetadata) {
+        val partition = replicaManager.getPartitionOrException(topicPartition)
+        val offsetSnapshot = partition.fetchOffsetSnapshot(fetchLeaderEpoch, fetchMetadata.fetchOnlyLeader)
+        partitions(index) = partition
+
+        val endOffset = fetchMetadata.fetchIsolation match {
+          case FetchLogEnd => offsetSnapshot.logEndOffset
+          case FetchHighWatermark => offsetSnapshot.highWatermark
+          case FetchTxnCommitted => offsetSnapshot.lastStableOffset
+        }
+
+        // Go directly to the check for Case G if the message offsets are the same. If the log segment
+        // has just rolled, then the high watermark offset will remain the same but be on the old segment,
+        // which would incorrectly be seen as an instance of Case F.
+        if (endOffset.messageOffset != fetchOffset.messageOffset) {
+          if (endOffset.onOlderSegment(fetchOffset)) {
+            // Case F, this can happen when the new fetch operation is on a truncated leader
+            debug(s"Satisfying fetch $fetchMetadata since it is fetching later segments of partition $topicPartition.")
+            return true
+          } else if (fetchOffset.onOlderSegment(endOffset)) {
+            // Case F, completed by tryComplete() unless the replica should be throttled
+            fetchingOlderSegment(index) = true
+            candidates.set(index)
+          } else if (fetchOffset.messageOffset < endOffset.messageOffset) {
+            // we take the partition fetch size as upper bound when accumulating the bytes
+            bytesAvailable(index) = math.min(endOffset.positionDiff(fetchOffset), fetchStatus.fetchInfo.maxBytes)
+            candidates.set(index)
+          }
+        }
+      }
+      false
+    } catch {
+      case _: NotLeaderOrFollowerException =>  // Case A or Case B
+        debug(s"Broker is no longer the leader or follower of $topicPartition, satisfy $fetchMetadata immediately")
+        true
+      case _: UnknownTopicOrPartitionException => // Case C
+        debug(s"Broker no longer knows of partition $topicPartition, satisfy $fetchMetadata immediately")
+        true
+      case _: KafkaStorageException => // Case D
+        debug(s"Partition $topicPartition is in an offline log directory, satisfy $fetchMetadata immediately")
+        true
+      case _: FencedLeaderEpochException => // Case E
+        debug(s"Broker is the leader of partition $topicPartition, but the requested epoch " +
+          s"$fetchLeaderEpoch is fenced by the latest leader epoch, satisfy $fetchMetadata immediately")
+        true
+    }
+  }
+
   override def onExpiration(): Unit = {
     if (fetchMetadata.isFromFollower)
       DelayedFetchMetrics.followerExpiredRequestMeter.mark()
@@ -178,5 +262,8 @@ object DelayedFetchMetrics extends KafkaMetricsGroup {
   private val FetcherTypeKey = "fetcherType"
   val followerExpiredRequestMeter = newMeter("ExpiresPerSec", "requests", TimeUnit.SECONDS, tags = Map(FetcherTypeKey -> "follower"))
   val consumerExpiredRequestMeter = newMeter("ExpiresPerSec", "requests", TimeUnit.SECONDS, tags = Map(FetcherTypeKey -> "consumer"))
+  // number of partitions checked by each completion check of a delayed fetch
+  val followerCheckedPartitionsHistogram = newHistogram("CheckedPartitionsPerCompletionCheck", tags = Map(FetcherTypeKey -> "follower"))
+  val consumerCheckedPartitionsHistogram = newHistogram("CheckedPartitionsPerCompletionCheck", tags = Map(FetcherTypeKey -> "consumer"))
 }
 
@@ -99,6 +99,14 @@ abstract class DelayedOperation(override val delayMs: Long,
    */
   def tryComplete(): Boolean
 
+  /**
+   * Notify the operation that the state associated with one of its watch keys may have changed since its last
+   * completion check. The purgatory calls this before trying to complete the operation because of the key, and
+   * after the operation starts being watched on the key. Operations whose completion check can be updated
+   * key by key may use this to only re-evaluate the keys that changed in the next tryComplete().
+   */
+  def onKeyChanged(key: Any): Unit = {}
+
   /**
    * Thread-safe variant of tryComplete() that attempts completion only if the lock can be acquired
    * without blocking.
@@ -149,13 +157,17 @@ object DelayedOperationPurgatory {
 
   private val Shards = 512 // Shard the watcher list to reduce lock contention
 
+  // Number of clock advances a purge of all the shards is spread over
+  private val PurgeRounds = 8
+
   def apply[T <: DelayedOperation](purgatoryName: String,
                                    brokerId: Int = 0,
                                    purgeInterval: Int = 1000,
                                    reaperEnabled: Boolean = true,
-                                   timerEnabled: Boolean = true): DelayedOperationPurgatory[T] = {
+                                   timerEnabled: Boolean = true,
+                                   numShards: Int = Shards): DelayedOperationPurgatory[T] = {
     val timer = new SystemTimer(purgatoryName)
-    new DelayedOperationPurgatory[T](purgatoryName, timer, brokerId, purgeInterval, reaperEnabled, timerEnabled)
+    new DelayedOperationPurgatory[T](purgatoryName, timer, brokerId, purgeInterval, reaperEnabled, timerEnabled, numShards)
   }
 
 }
@@ -168,7 +180,8 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
                                                              brokerId: Int = 0,
                                                              purgeInterval: Int = 1000,
                                                              reaperEnabled: Boolean = true,
-                                                             timerEnabled: Boolean = true)
+                                                             timerEnabled: Boolean = true,
+                                                             numShards: Int = DelayedOperationPurgatory.Shards)
         extends Logging with KafkaMetricsGroup {
   /* a list of operation watching keys */
   private class WatcherList {
@@ -185,7 +198,9 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
     }
   }
 
-  private val watcherLists = Array.fill[WatcherList](DelayedOperationPurgatory.Shards)(new WatcherList)
+  require(numShards > 0, s"The number of shards must be positive, but was $numShards")
+
+  private val watcherLists = Array.fill[WatcherList](numShards)(new WatcherList)
   private def watcherList(key: Any): WatcherList = {
     watcherLists(Math.abs(key.hashCode() % watcherLists.length))
   }
@@ -193,6 +208,13 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
   // the number of estimated total operations in the purgatory
   private[this] val estimatedTotalOperations = new AtomicInteger(0)
 
+  // a purge of the watcher lists is spread over several clock advances, so that purging a large purgatory does
+  // not hold up the expiration of operations. The purge state is guarded by `purgeLock`.
+  private[this] val purgeLock = new ReentrantLock()
+  private[this] val shardsPurgedPerAdvance = math.max(1, numShards / DelayedOperationPurgatory.PurgeRounds)
+  private[this] var nextShardToPurge = 0
+  private[this] var shardsLeftToPurge = 0
+
   /* background thread expiring operations that have timed out */
   private val expirationReaper = new ExpiredOperationReaper()
 
@@ -241,6 +263,8 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
       if (operation.isCompleted)
         return false
       watchForOperation(key, operation)
+      // the key may have changed between the first completion check and the operation being watched
+      operation.onKeyChanged(key)
 
       if (!watchCreated) {
         watchCreated = true
@@ -272,8 +296,8 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
    * @return the number of completed operations during this process
    */
   def checkAndComplete(key: Any): Int = {
-    val wl = watcherList(key)
-    val watchers = inLock(wl.watchersLock) { wl.watchersByKey.get(key) }
+    // the lookup does not need the shard lock: watchers removed concurrently are at worst traversed once more
+    val watchers = watcherList(key).watchersByKey.get(key)
     val numCompleted = if (watchers == null)
       0
     else
@@ -375,7 +399,7 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
         if (curr.isCompleted) {
           // another thread has completed this operation, just remove it
           iter.remove()
-        } else if (curr.maybeTryComplete()) {
+        } else if ({ curr.onKeyChanged(key); curr.maybeTryComplete() }) {
           iter.remove()
           completed += 1
         }
@@ -422,22 +446,37 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
   def advanceClock(timeoutMs: Long): Unit = {
     timeoutTimer.advanceClock(timeoutMs)
 
-    // Trigger a purge if the number of completed but still being watched operations is larger than
-    // the purge threshold. That number is computed by the difference btw the estimated total number of
-    // operations and the number of pending delayed operations.
-    if (estimatedTotalOperations.get - numDelayed > purgeInterval) {
-      // now set estimatedTotalOperations to delayed (the number of pending operations) since we are going to
-      // clean up watchers. Note that, if more operations are completed during the clean up, we may end up with
-      // a little overestimated total number of operations.
-      estimatedTotalOperations.getAndSet(numDelayed)
-      debug("Begin purging watch lists")
-      val purged = watcherLists.foldLeft(0) {
-        case (sum, watcherList) => sum + watcherList.allWatchers.map(_.purgeCompleted()).sum
+    if (purgeLock.tryLock()) {
+      try {
+        // Trigger a purge if the number of completed but still being watched operations is larger than
+        // the purge threshold. That number is computed by the difference btw the estimated total number of
+        // operations and the number of pending delayed operations.
+        if (shardsLeftToPurge == 0 && estimatedTotalOperations.get - numDelayed > purgeInterval) {
+          // now set estimatedTotalOperations to delayed (the number of pending operations) since we are going to
+          // clean up watchers. Note that, if more operations are completed during the clean up, we may end up with
+          // a little overestimated total number of operations.
+          estimatedTotalOperations.getAndSet(numDelayed)
+          debug("Begin purging watch lists")
+          shardsLeftToPurge = watcherLists.length
+        }
+        if (shardsLeftToPurge > 0)
+          purgeShards(math.min(shardsLeftToPurge, shardsPurgedPerAdvance))
+      } finally {
+        purgeLock.unlock()
       }
-      debug("Purged %d elements from watch lists.".format(purged))
     }
   }
 
+  private def purgeShards(numShardsToPurge: Int): Unit = {
+    var purged = 0
+    for (_ <- 0 until numShardsToPurge) {
+      purged += watcherLists(nextShardToPurge).allWatchers.map(_.purgeCompleted()).sum
+      nextShardToPurge = (nextShardToPurge + 1) % watcherLists.length
+    }
+    shardsLeftToPurge -= numShardsToPurge
+    debug(s"Purged $purged elements from the watch lists of $numShardsToPurge shards, $shardsLeftToPurge shards left to purge.")
+  }
+
   /**
    * A background reaper to expire delayed operations that have timed out
    */
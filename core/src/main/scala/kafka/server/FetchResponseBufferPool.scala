@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.nio.ByteBuffer
+
+import org.apache.kafka.common.memory.MemoryPool
+
+/**
+ * A memory pool for the responses received by a replica fetcher, which reads the first response of at least
+ * `minDirectBytes` into a direct buffer that is reused once `releaseAll` is called. The records of fetch responses
+ * are slices of the response buffer, so that they can be written to log segments without being copied into a
+ * temporary direct buffer by the JDK first.
+ *
+ * Other responses are allocated on the heap, as are responses larger than `maxDirectBytes`. The direct buffer grows
+ * to the size of the largest response read into it, so it holds at most one response of `maxDirectBytes`. It is
+ * only freed when the pool is garbage collected.
+ *
+ * The records of a response must not be used after `releaseAll` is called, which the fetcher does once they are
+ * appended to the log.
+ */
+class FetchResponseBufferPool(minDirectBytes: Int, maxDirectBytes: Int) extends MemoryPool {
+  private var directBuffer: ByteBuffer = null
+  private var directBufferInUse = false
+
+  override def tryAllocate(sizeBytes: Int): ByteBuffer = synchronized {
+    if (directBufferInUse || sizeBytes < minDirectBytes || sizeBytes > maxDirectBytes) {
+      ByteBuffer.allocate(sizeBytes)
+    } else {
+      if (directBuffer == null || directBuffer.capacity < sizeBytes) {
+        directBuffer = ByteBuffer.allocateDirect(sizeBytes)
+      }
+      directBufferInUse = true
+      directBuffer.clear()
+      directBuffer.limit(sizeBytes)
+      directBuffer.slice()
+    }
+  }
+
+  /**
+   * Buffers are released by `releaseAll`, since the buffers of responses are not returned by the network client.
+   */
+  override def release(previouslyAllocated: ByteBuffer): Unit = {}
+
+  def releaseAll(): Unit = synchronized {
+    directBufferInUse = false
+  }
+
+  def directBufferCapacity: Int = synchronized {
+    if (directBuffer == null) 0 else directBuffer.capacity
+  }
+
+  override def size: Long = Long.MaxValue
+
+  override def availableMemory: Long = Long.MaxValue
+
+  override def isOutOfMemory: Boolean = false
+
+  override def toString: String = s"FetchResponseBufferPool(minDirectBytes=$minDirectBytes, maxDirectBytes=$maxDirectBytes)"
+}
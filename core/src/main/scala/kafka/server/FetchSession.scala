@@ -21,14 +21,15 @@ import java.util
 import java.util.Optional
 import java.util.concurrent.{ThreadLocalRandom, TimeUnit}
 
+import com.yammer.metrics.core.Meter
 import kafka.metrics.KafkaMetricsGroup
 import kafka.utils.Logging
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.protocol.Errors
-import org.apache.kafka.common.record.Records
+import org.apache.kafka.common.record.{RecordBatch, Records}
 import org.apache.kafka.common.requests.FetchMetadata.{FINAL_EPOCH, INITIAL_EPOCH, INVALID_SESSION_ID}
 import org.apache.kafka.common.requests.{FetchRequest, FetchResponse, FetchMetadata => JFetchMetadata}
-import org.apache.kafka.common.utils.{ImplicitLinkedHashCollection, Time, Utils}
+import org.apache.kafka.common.utils.{Time, Utils}
 
 import scala.math.Ordered.orderingToOrdered
 import scala.collection.{mutable, _}
@@ -36,13 +37,26 @@ import scala.collection.{mutable, _}
 object FetchSession {
   type REQ_MAP = util.Map[TopicPartition, FetchRequest.PartitionData]
   type RESP_MAP = util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData[Records]]
-  type CACHE_MAP = ImplicitLinkedHashCollection[CachedPartition]
+  type CACHE_MAP = CachedPartitionMap
   type RESP_MAP_ITER = util.Iterator[util.Map.Entry[TopicPartition, FetchResponse.PartitionData[Records]]]
 
   val NUM_INCREMENTAL_FETCH_SESSISONS = "NumIncrementalFetchSessions"
   val NUM_INCREMENTAL_FETCH_PARTITIONS_CACHED = "NumIncrementalFetchPartitionsCached"
   val INCREMENTAL_FETCH_SESSIONS_EVICTIONS_PER_SEC = "IncrementalFetchSessionEvictionsPerSec"
+  val INCREMENTAL_FETCH_SESSION_HITS_PER_SEC = "IncrementalFetchSessionHitsPerSec"
+  val INCREMENTAL_FETCH_SESSION_MISSES_PER_SEC = "IncrementalFetchSessionMissesPerSec"
   val EVICTIONS = "evictions"
+  val HITS = "hits"
+  val MISSES = "misses"
+
+  // Tag of the eviction and miss meters, and its values
+  val REASON = "reason"
+  val STALE = "stale"
+  val LESS_VALUABLE = "lessValuable"
+  val MAX_PARTITIONS_EXCEEDED = "maxPartitionsExceeded"
+  val SESSION_NOT_FOUND = "sessionNotFound"
+  val INVALID_EPOCH = "invalidEpoch"
+  val CACHE_FULL = "cacheFull"
 
   def partitionsToLogString(partitions: util.Collection[TopicPartition], traceEnabled: Boolean): String = {
     if (traceEnabled) {
@@ -56,37 +70,26 @@ object FetchSession {
 /**
   * A cached partition.
   *
-  * The broker maintains a set of these objects for each incremental fetch session.
+  * The broker maintains the state of these partitions for each incremental fetch session.
   * When an incremental fetch request is made, any partitions which are not explicitly
   * enumerated in the fetch request are loaded from the cache.  Similarly, when an
   * incremental fetch response is being prepared, any partitions that have not changed
   * are left out of the response.
   *
-  * We store many of these objects, so it is important for them to be memory-efficient.
-  * That is why we store topic and partition separately rather than storing a TopicPartition
-  * object.  The TP object takes up more memory because it is a separate JVM object, and
-  * because it stores the cached hash code in memory.
+  * The sessions store the state of their partitions in a CachedPartitionMap rather than in
+  * these objects, which are only used to add partitions to and read partitions from the map.
   *
   * Note that fetcherLogStartOffset is the LSO of the follower performing the fetch, whereas
   * localLogStartOffset is the log start offset of the partition on this broker.
   */
 class CachedPartition(val topic: String,
                       val partition: Int,
-                      var maxBytes: Int,
-                      var fetchOffset: Long,
-                      var highWatermark: Long,
-                      var leaderEpoch: Optional[Integer],
-                      var fetcherLogStartOffset: Long,
-                      var localLogStartOffset: Long)
-    extends ImplicitLinkedHashCollection.Element {
-
-  var cachedNext: Int = ImplicitLinkedHashCollection.INVALID_INDEX
-  var cachedPrev: Int = ImplicitLinkedHashCollection.INVALID_INDEX
-
-  override def next: Int = cachedNext
-  override def setNext(next: Int): Unit = this.cachedNext = next
-  override def prev: Int = cachedPrev
-  override def setPrev(prev: Int): Unit = this.cachedPrev = prev
+                      val maxBytes: Int,
+                      val fetchOffset: Long,
+                      val highWatermark: Long,
+                      val leaderEpoch: Optional[Integer],
+                      val fetcherLogStartOffset: Long,
+                      val localLogStartOffset: Long) {
 
   def this(topic: String, partition: Int) =
     this(topic, partition, -1, -1, -1, Optional.empty(), -1, -1)
@@ -105,40 +108,254 @@ class CachedPartition(val topic: String,
 
   def reqData = new FetchRequest.PartitionData(fetchOffset, fetcherLogStartOffset, maxBytes, leaderEpoch)
 
-  def updateRequestParams(reqData: FetchRequest.PartitionData): Unit = {
-    // Update our cached request parameters.
-    maxBytes = reqData.maxBytes
-    fetchOffset = reqData.fetchOffset
-    fetcherLogStartOffset = reqData.logStartOffset
-    leaderEpoch = reqData.currentLeaderEpoch
+  override def hashCode: Int = (31 * partition) + topic.hashCode
+
+  def canEqual(that: Any) = that.isInstanceOf[CachedPartition]
+
+  override def equals(that: Any): Boolean =
+    that match {
+      case that: CachedPartition =>
+        this.eq(that) ||
+          (that.canEqual(this) &&
+            this.partition.equals(that.partition) &&
+            this.topic.equals(that.topic))
+      case _ => false
+    }
+
+  override def toString: String = {
+    "CachedPartition(topic=" + topic +
+      ", partition=" + partition +
+      ", maxBytes=" + maxBytes +
+      ", fetchOffset=" + fetchOffset +
+      ", highWatermark=" + highWatermark +
+      ", fetcherLogStartOffset=" + fetcherLogStartOffset +
+      ", localLogStartOffset=" + localLogStartOffset  +
+        ")"
+  }
+}
+
+object CachedPartitionMap {
+  private val NoSlot = -1
+  private val MinCapacity = 4
+}
+
+/**
+  * The partitions cached by an incremental fetch session.
+  *
+  * We store many partitions, so it is important for them to be memory-efficient. Rather than one
+  * object per partition, the state of each partition is stored at its slot in primitive arrays. The
+  * topic names are stored once per session and the partitions refer to them by index. The slots
+  * are kept in insertion order with a doubly linked list, and they are looked up by topic and
+  * partition with an open addressing hash table.
+  *
+  * This class is not thread-safe, it must be accessed while holding the lock of its session.
+  */
+class CachedPartitionMap(expectedSize: Int) {
+  import CachedPartitionMap._
+
+  def this() = this(0)
+
+  // Topic names by topic index, with the number of partitions referring to each topic
+  private var topicNames = new Array[String](MinCapacity)
+  private var topicRefCounts = new Array[Int](MinCapacity)
+  private var numTopicIndexes = 0
+  private val topicIndexes = new util.HashMap[String, Integer]()
+
+  // The partition state, by slot
+  private var capacity = math.max(expectedSize, MinCapacity)
+  private var topicIndex = new Array[Int](capacity)
+  private var partitions = new Array[Int](capacity)
+  private var maxBytes = new Array[Int](capacity)
+  private var leaderEpochs = new Array[Int](capacity)
+  private var fetchOffsets = new Array[Long](capacity)
+  private var highWatermarks = new Array[Long](capacity)
+  private var fetcherLogStartOffsets = new Array[Long](capacity)
+  private var localLogStartOffsets = new Array[Long](capacity)
+
+  // Insertion order of the used slots, the free slots are chained by nextSlot
+  private var nextSlot = new Array[Int](capacity)
+  private var prevSlot = new Array[Int](capacity)
+  private var head = NoSlot
+  private var tail = NoSlot
+  private var freeHead = NoSlot
+  private var numSlotsAllocated = 0
+  private var count = 0
+
+  // Open addressing hash table of slot + 1, 0 marks an empty bucket
+  private var table = new Array[Int](tableSizeFor(capacity))
+
+  private def tableSizeFor(numSlots: Int): Int = {
+    var size = MinCapacity * 2
+    while (size < numSlots * 2) size *= 2
+    size
+  }
+
+  private def hash(topicIdx: Int, partition: Int): Int = {
+    val h = topicIdx * 0x9E3779B9 + partition
+    h ^ (h >>> 16)
+  }
+
+  def size: Int = count
+
+  def isEmpty: Boolean = count == 0
+
+  /**
+    * @return the slot of the partition, or -1 if the partition is not cached
+    */
+  def find(topic: String, partition: Int): Int = {
+    val topicIdx = topicIndexes.get(topic)
+    if (topicIdx == null) NoSlot
+    else {
+      val bucket = findBucket(topicIdx, partition)
+      table(bucket) - 1
+    }
+  }
+
+  def find(topicPartition: TopicPartition): Int = find(topicPartition.topic, topicPartition.partition)
+
+  // Returns the bucket of the partition if it is cached, or the empty bucket where it would be inserted.
+  private def findBucket(topicIdx: Int, partition: Int): Int = {
+    val mask = table.length - 1
+    var bucket = hash(topicIdx, partition) & mask
+    while (table(bucket) != 0) {
+      val slot = table(bucket) - 1
+      if (topicIndex(slot) == topicIdx && partitions(slot) == partition)
+        return bucket
+      bucket = (bucket + 1) & mask
+    }
+    bucket
+  }
+
+  def topic(slot: Int): String = topicNames(topicIndex(slot))
+  def partition(slot: Int): Int = partitions(slot)
+  def fetchOffset(slot: Int): Long = fetchOffsets(slot)
+
+  def reqData(slot: Int): FetchRequest.PartitionData = {
+    val leaderEpoch = leaderEpochs(slot)
+    new FetchRequest.PartitionData(fetchOffsets(slot), fetcherLogStartOffsets(slot), maxBytes(slot),
+      if (leaderEpoch == RecordBatch.NO_PARTITION_LEADER_EPOCH) Optional.empty() else Optional.of(leaderEpoch))
+  }
+
+  def get(slot: Int): CachedPartition = {
+    val leaderEpoch = leaderEpochs(slot)
+    new CachedPartition(topic(slot), partitions(slot), maxBytes(slot), fetchOffsets(slot), highWatermarks(slot),
+      if (leaderEpoch == RecordBatch.NO_PARTITION_LEADER_EPOCH) Optional.empty() else Optional.of(leaderEpoch),
+      fetcherLogStartOffsets(slot), localLogStartOffsets(slot))
+  }
+
+  /**
+    * Add the partition if it is not cached yet.
+    *
+    * @return true if the partition was added, false if it was already cached
+    */
+  def add(cachedPartition: CachedPartition): Boolean = {
+    val topicIdx = topicIndexFor(cachedPartition.topic)
+    val bucket = findBucket(topicIdx, cachedPartition.partition)
+    if (table(bucket) != 0) {
+      false
+    } else {
+      val slot = allocateSlot(topicIdx, cachedPartition.partition)
+      setState(slot, cachedPartition.maxBytes, cachedPartition.fetchOffset, cachedPartition.leaderEpoch,
+        cachedPartition.fetcherLogStartOffset)
+      highWatermarks(slot) = cachedPartition.highWatermark
+      localLogStartOffsets(slot) = cachedPartition.localLogStartOffset
+      insert(bucket, slot)
+      true
+    }
+  }
+
+  def mustAdd(cachedPartition: CachedPartition): Unit = {
+    if (!add(cachedPartition))
+      throw new IllegalStateException(s"Partition ${cachedPartition.topic}-${cachedPartition.partition} is already cached")
+  }
+
+  /**
+    * Add the partition with the given request parameters, or update the request parameters of the partition
+    * if it is already cached.
+    *
+    * @return true if the partition was added, false if it was updated
+    */
+  def addOrUpdate(topicPartition: TopicPartition, reqData: FetchRequest.PartitionData): Boolean = {
+    val topicIdx = topicIndexFor(topicPartition.topic)
+    val bucket = findBucket(topicIdx, topicPartition.partition)
+    if (table(bucket) != 0) {
+      setState(table(bucket) - 1, reqData.maxBytes, reqData.fetchOffset, reqData.currentLeaderEpoch,
+        reqData.logStartOffset)
+      false
+    } else {
+      val slot = allocateSlot(topicIdx, topicPartition.partition)
+      setState(slot, reqData.maxBytes, reqData.fetchOffset, reqData.currentLeaderEpoch, reqData.logStartOffset)
+      highWatermarks(slot) = -1
+      localLogStartOffsets(slot) = -1
+      insert(bucket, slot)
+      true
+    }
+  }
+
+  private def setState(slot: Int, maxBytes: Int, fetchOffset: Long, leaderEpoch: Optional[Integer],
+                       fetcherLogStartOffset: Long): Unit = {
+    this.maxBytes(slot) = maxBytes
+    fetchOffsets(slot) = fetchOffset
+    leaderEpochs(slot) = leaderEpoch.orElse(RecordBatch.NO_PARTITION_LEADER_EPOCH)
+    fetcherLogStartOffsets(slot) = fetcherLogStartOffset
+  }
+
+  def remove(topic: String, partition: Int): Boolean = {
+    val topicIdx = topicIndexes.get(topic)
+    if (topicIdx == null) {
+      false
+    } else {
+      val bucket = findBucket(topicIdx, partition)
+      if (table(bucket) == 0) {
+        false
+      } else {
+        val slot = table(bucket) - 1
+        removeBucket(bucket)
+        unlink(slot)
+        nextSlot(slot) = freeHead
+        freeHead = slot
+        count -= 1
+        releaseTopicIndex(topicIdx)
+        true
+      }
+    }
+  }
+
+  /**
+    * Move the partition at the given slot to the end of the iteration order.
+    */
+  def moveToEnd(slot: Int): Unit = {
+    if (slot != tail) {
+      unlink(slot)
+      link(slot)
+    }
   }
 
   /**
     * Determine whether or not the specified cached partition should be included in the FetchResponse we send back to
     * the fetcher and update it if requested.
     *
-    * This function should be called while holding the appropriate session lock.
-    *
+    * @param slot the slot of the cached partition
     * @param respData partition data
-    * @param updateResponseData if set to true, update this CachedPartition with new request and response data.
+    * @param updateResponseData if set to true, update the cached partition with new request and response data.
     * @return True if this partition should be included in the response; false if it can be omitted.
     */
-  def maybeUpdateResponseData(respData: FetchResponse.PartitionData[Records], updateResponseData: Boolean): Boolean = {
+  def maybeUpdateResponseData(slot: Int, respData: FetchResponse.PartitionData[Records], updateResponseData: Boolean): Boolean = {
     // Check the response data.
     var mustRespond = false
     if ((respData.records != null) && (respData.records.sizeInBytes > 0)) {
       // Partitions with new data are always included in the response.
       mustRespond = true
     }
-    if (highWatermark != respData.highWatermark) {
+    if (highWatermarks(slot) != respData.highWatermark) {
       mustRespond = true
       if (updateResponseData)
-        highWatermark = respData.highWatermark
+        highWatermarks(slot) = respData.highWatermark
     }
-    if (localLogStartOffset != respData.logStartOffset) {
+    if (localLogStartOffsets(slot) != respData.logStartOffset) {
       mustRespond = true
       if (updateResponseData)
-        localLogStartOffset = respData.logStartOffset
+        localLogStartOffsets(slot) = respData.logStartOffset
     }
     if (respData.preferredReadReplica.isPresent) {
       // If the broker computed a preferred read replica, we need to include it in the response
@@ -149,35 +366,159 @@ class CachedPartition(val topic: String,
       // We also set the cached highWatermark to an invalid offset, -1.
       // This ensures that when the error goes away, we re-send the partition.
       if (updateResponseData)
-        highWatermark = -1
+        highWatermarks(slot) = -1
       mustRespond = true
     }
     mustRespond
   }
 
-  override def hashCode: Int = (31 * partition) + topic.hashCode
+  /**
+    * Apply a function to each cached partition, in iteration order.
+    */
+  def forEach(fun: (TopicPartition, FetchRequest.PartitionData) => Unit): Unit = {
+    var slot = head
+    while (slot != NoSlot) {
+      fun(new TopicPartition(topic(slot), partitions(slot)), reqData(slot))
+      slot = nextSlot(slot)
+    }
+  }
 
-  def canEqual(that: Any) = that.isInstanceOf[CachedPartition]
+  /**
+    * An iterator over copies of the cached partitions, in iteration order. Removing a partition through
+    * the iterator removes it from the map.
+    */
+  def iterator: util.Iterator[CachedPartition] = new util.Iterator[CachedPartition] {
+    private var nextToReturn = head
+    private var lastReturned = NoSlot
 
-  override def equals(that: Any): Boolean =
-    that match {
-      case that: CachedPartition =>
-        this.eq(that) ||
-          (that.canEqual(this) &&
-            this.partition.equals(that.partition) &&
-            this.topic.equals(that.topic))
-      case _ => false
+    override def hasNext: Boolean = nextToReturn != NoSlot
+
+    override def next(): CachedPartition = {
+      if (nextToReturn == NoSlot) throw new NoSuchElementException
+      lastReturned = nextToReturn
+      nextToReturn = nextSlot(nextToReturn)
+      get(lastReturned)
     }
 
-  override def toString: String = synchronized {
-    "CachedPartition(topic=" + topic +
-      ", partition=" + partition +
-      ", maxBytes=" + maxBytes +
-      ", fetchOffset=" + fetchOffset +
-      ", highWatermark=" + highWatermark +
-      ", fetcherLogStartOffset=" + fetcherLogStartOffset +
-      ", localLogStartOffset=" + localLogStartOffset  +
-        ")"
+    override def remove(): Unit = {
+      if (lastReturned == NoSlot) throw new IllegalStateException
+      CachedPartitionMap.this.remove(topic(lastReturned), partitions(lastReturned))
+      lastReturned = NoSlot
+    }
+  }
+
+  private def topicIndexFor(topic: String): Int = {
+    val existing = topicIndexes.get(topic)
+    if (existing != null) {
+      existing
+    } else {
+      // Reuse the index of a topic which no longer has any partition, the sessions usually have few topics
+      var topicIdx = 0
+      while (topicIdx < numTopicIndexes && topicNames(topicIdx) != null) topicIdx += 1
+      if (topicIdx == numTopicIndexes) {
+        if (numTopicIndexes == topicNames.length) {
+          topicNames = util.Arrays.copyOf(topicNames, topicNames.length * 2)
+          topicRefCounts = util.Arrays.copyOf(topicRefCounts, topicRefCounts.length * 2)
+        }
+        numTopicIndexes += 1
+      }
+      topicNames(topicIdx) = topic
+      topicIndexes.put(topic, topicIdx)
+      topicIdx
+    }
+  }
+
+  private def releaseTopicIndex(topicIdx: Int): Unit = {
+    topicRefCounts(topicIdx) -= 1
+    if (topicRefCounts(topicIdx) == 0) {
+      topicIndexes.remove(topicNames(topicIdx))
+      topicNames(topicIdx) = null
+    }
+  }
+
+  private def allocateSlot(topicIdx: Int, partition: Int): Int = {
+    val slot = if (freeHead != NoSlot) {
+      val free = freeHead
+      freeHead = nextSlot(free)
+      free
+    } else {
+      if (numSlotsAllocated == capacity)
+        grow()
+      numSlotsAllocated += 1
+      numSlotsAllocated - 1
+    }
+    topicIndex(slot) = topicIdx
+    partitions(slot) = partition
+    topicRefCounts(topicIdx) += 1
+    slot
+  }
+
+  private def insert(bucket: Int, slot: Int): Unit = {
+    table(bucket) = slot + 1
+    link(slot)
+    count += 1
+    if (count * 2 > table.length)
+      rehash(table.length * 2)
+  }
+
+  private def link(slot: Int): Unit = {
+    prevSlot(slot) = tail
+    nextSlot(slot) = NoSlot
+    if (tail == NoSlot) head = slot else nextSlot(tail) = slot
+    tail = slot
+  }
+
+  private def unlink(slot: Int): Unit = {
+    val prev = prevSlot(slot)
+    val next = nextSlot(slot)
+    if (prev == NoSlot) head = next else nextSlot(prev) = next
+    if (next == NoSlot) tail = prev else prevSlot(next) = prev
+  }
+
+  // Remove the bucket with backward shift deletion, so that lookups never need tombstones
+  private def removeBucket(bucket: Int): Unit = {
+    val mask = table.length - 1
+    var hole = bucket
+    var current = (bucket + 1) & mask
+    table(hole) = 0
+    while (table(current) != 0) {
+      val slot = table(current) - 1
+      val home = hash(topicIndex(slot), partitions(slot)) & mask
+      // Move the entry to the hole unless its home bucket lies cyclically in (hole, current]
+      val stays = if (hole <= current) hole < home && home <= current else hole < home || home <= current
+      if (!stays) {
+        table(hole) = table(current)
+        table(current) = 0
+        hole = current
+      }
+      current = (current + 1) & mask
+    }
+  }
+
+  private def grow(): Unit = {
+    capacity *= 2
+    topicIndex = util.Arrays.copyOf(topicIndex, capacity)
+    partitions = util.Arrays.copyOf(partitions, capacity)
+    maxBytes = util.Arrays.copyOf(maxBytes, capacity)
+    leaderEpochs = util.Arrays.copyOf(leaderEpochs, capacity)
+    fetchOffsets = util.Arrays.copyOf(fetchOffsets, capacity)
+    highWatermarks = util.Arrays.copyOf(highWatermarks, capacity)
+    fetcherLogStartOffsets = util.Arrays.copyOf(fetcherLogStartOffsets, capacity)
+    localLogStartOffsets = util.Arrays.copyOf(localLogStartOffsets, capacity)
+    nextSlot = util.Arrays.copyOf(nextSlot, capacity)
+    prevSlot = util.Arrays.copyOf(prevSlot, capacity)
+  }
+
+  private def rehash(newSize: Int): Unit = {
+    table = new Array[Int](newSize)
+    val mask = newSize - 1
+    var slot = head
+    while (slot != NoSlot) {
+      var bucket = hash(topicIndex(slot), partitions(slot)) & mask
+      while (table(bucket) != 0) bucket = (bucket + 1) & mask
+      table(bucket) = slot + 1
+      slot = nextSlot(slot)
+    }
   }
 }
 
@@ -206,6 +547,11 @@ class FetchSession(val id: Int,
   // If this is -1, the Session is not in the cache.
   var cachedSize = -1
 
+  // The number of times this session was used, including its creation, and its value as last
+  // computed from its size and fetch rate. These should only be updated by FetchSessionCache#touch.
+  var numFetches = 0L
+  var cachedValue = 0.0
+
   def size: Int = synchronized {
     partitionMap.size
   }
@@ -219,13 +565,14 @@ class FetchSession(val id: Int,
   }
 
   def evictableKey: EvictableKey = synchronized {
-    EvictableKey(privileged, cachedSize, id)
+    EvictableKey(privileged, cachedValue, id)
   }
 
   def metadata: JFetchMetadata = synchronized { new JFetchMetadata(id, epoch) }
 
   def getFetchOffset(topicPartition: TopicPartition): Option[Long] = synchronized {
-    Option(partitionMap.find(new CachedPartition(topicPartition))).map(_.fetchOffset)
+    val slot = partitionMap.find(topicPartition)
+    if (slot < 0) None else Some(partitionMap.fetchOffset(slot))
   }
 
   type TL = util.ArrayList[TopicPartition]
@@ -238,18 +585,13 @@ class FetchSession(val id: Int,
     val updated = new TL
     val removed = new TL
     fetchData.forEach { (topicPart, reqData) =>
-      val newCachedPart = new CachedPartition(topicPart, reqData)
-      val cachedPart = partitionMap.find(newCachedPart)
-      if (cachedPart == null) {
-        partitionMap.mustAdd(newCachedPart)
+      if (partitionMap.addOrUpdate(topicPart, reqData))
         added.add(topicPart)
-      } else {
-        cachedPart.updateRequestParams(reqData)
+      else
         updated.add(topicPart)
-      }
     }
     toForget.forEach { p =>
-      if (partitionMap.remove(new CachedPartition(p.topic, p.partition)))
+      if (partitionMap.remove(p.topic, p.partition))
         removed.add(p)
     }
     (added, updated, removed)
@@ -399,9 +741,7 @@ class IncrementalFetchContext(private val time: Time,
   override def foreachPartition(fun: (TopicPartition, FetchRequest.PartitionData) => Unit): Unit = {
     // Take the session lock and iterate over all the cached partitions.
     session.synchronized {
-      session.partitionMap.forEach { part =>
-        fun(new TopicPartition(part.topic, part.partition), part.reqData)
-      }
+      session.partitionMap.forEach(fun)
     }
   }
 
@@ -418,13 +758,13 @@ class IncrementalFetchContext(private val time: Time,
         val element = iter.next()
         val topicPart = element.getKey
         val respData = element.getValue
-        val cachedPart = session.partitionMap.find(new CachedPartition(topicPart))
-        val mustRespond = cachedPart.maybeUpdateResponseData(respData, updateFetchContextAndRemoveUnselected)
+        val cachedSlot = session.partitionMap.find(topicPart)
+        val mustRespond = session.partitionMap.maybeUpdateResponseData(cachedSlot, respData,
+          updateFetchContextAndRemoveUnselected)
         if (mustRespond) {
           nextElement = element
           if (updateFetchContextAndRemoveUnselected) {
-            session.partitionMap.remove(cachedPart)
-            session.partitionMap.mustAdd(cachedPart)
+            session.partitionMap.moveToEnd(cachedSlot)
           }
         } else {
           if (updateFetchContextAndRemoveUnselected) {
@@ -500,9 +840,15 @@ case class LastUsedKey(lastUsedMs: Long, id: Int) extends Comparable[LastUsedKey
     (lastUsedMs, id) compare (other.lastUsedMs, other.id)
 }
 
-case class EvictableKey(privileged: Boolean, size: Int, id: Int) extends Comparable[EvictableKey] {
-  override def compareTo(other: EvictableKey): Int =
-    (privileged, size, id) compare (other.privileged, other.size, other.id)
+case class EvictableKey(privileged: Boolean, value: Double, id: Int) extends Comparable[EvictableKey] {
+  override def compareTo(other: EvictableKey): Int = {
+    var result = java.lang.Boolean.compare(privileged, other.privileged)
+    if (result == 0)
+      result = java.lang.Double.compare(value, other.value)
+    if (result == 0)
+      result = Integer.compare(id, other.id)
+    result
+  }
 }
 
 /**
@@ -515,11 +861,13 @@ case class EvictableKey(privileged: Boolean, size: Int, id: Int) extends Compara
   * FetchSessionCache lock.  In order to avoid deadlock, the FetchSessionCache lock
   * must never be acquired while an individual FetchSession lock is already held.
   *
-  * @param maxEntries The maximum number of entries that can be in the cache.
-  * @param evictionMs The minimum time that an entry must be unused in order to be evictable.
+  * @param maxEntries    The maximum number of entries that can be in the cache.
+  * @param evictionMs    The minimum time that an entry must be unused in order to be evictable.
+  * @param maxPartitions The maximum total number of partitions that can be cached by the entries.
   */
 class FetchSessionCache(private val maxEntries: Int,
-                        private val evictionMs: Long) extends Logging with KafkaMetricsGroup {
+                        private val evictionMs: Long,
+                        private val maxPartitions: Int = Int.MaxValue) extends Logging with KafkaMetricsGroup {
   private var numPartitions: Long = 0
 
   // A map of session ID to FetchSession.
@@ -543,6 +891,27 @@ class FetchSessionCache(private val maxEntries: Int,
   removeMetric(FetchSession.INCREMENTAL_FETCH_SESSIONS_EVICTIONS_PER_SEC)
   private[server] val evictionsMeter = newMeter(FetchSession.INCREMENTAL_FETCH_SESSIONS_EVICTIONS_PER_SEC,
     FetchSession.EVICTIONS, TimeUnit.SECONDS, Map.empty)
+  private[server] val staleEvictionsMeter = newReasonMeter(FetchSession.INCREMENTAL_FETCH_SESSIONS_EVICTIONS_PER_SEC,
+    FetchSession.EVICTIONS, FetchSession.STALE)
+  private[server] val lessValuableEvictionsMeter = newReasonMeter(FetchSession.INCREMENTAL_FETCH_SESSIONS_EVICTIONS_PER_SEC,
+    FetchSession.EVICTIONS, FetchSession.LESS_VALUABLE)
+  private[server] val maxPartitionsExceededEvictionsMeter = newReasonMeter(
+    FetchSession.INCREMENTAL_FETCH_SESSIONS_EVICTIONS_PER_SEC, FetchSession.EVICTIONS, FetchSession.MAX_PARTITIONS_EXCEEDED)
+  removeMetric(FetchSession.INCREMENTAL_FETCH_SESSION_HITS_PER_SEC)
+  private[server] val hitsMeter = newMeter(FetchSession.INCREMENTAL_FETCH_SESSION_HITS_PER_SEC,
+    FetchSession.HITS, TimeUnit.SECONDS, Map.empty)
+  private[server] val sessionNotFoundMissesMeter = newReasonMeter(FetchSession.INCREMENTAL_FETCH_SESSION_MISSES_PER_SEC,
+    FetchSession.MISSES, FetchSession.SESSION_NOT_FOUND)
+  private[server] val invalidEpochMissesMeter = newReasonMeter(FetchSession.INCREMENTAL_FETCH_SESSION_MISSES_PER_SEC,
+    FetchSession.MISSES, FetchSession.INVALID_EPOCH)
+  private[server] val cacheFullMissesMeter = newReasonMeter(FetchSession.INCREMENTAL_FETCH_SESSION_MISSES_PER_SEC,
+    FetchSession.MISSES, FetchSession.CACHE_FULL)
+
+  private def newReasonMeter(name: String, eventType: String, reason: String): Meter = {
+    val tags = Map(FetchSession.REASON -> reason)
+    removeMetric(name, tags)
+    newMeter(name, eventType, TimeUnit.SECONDS, tags)
+  }
 
   /**
     * Get a session by session ID.
@@ -595,9 +964,12 @@ class FetchSessionCache(private val maxEntries: Int,
                          size: Int,
                          createPartitions: () => FetchSession.CACHE_MAP): Int =
   synchronized {
-    // If there is room, create a new session entry.
-    if ((sessions.size < maxEntries) ||
-        tryEvict(privileged, EvictableKey(privileged, size, 0), now)) {
+    // Make room for the new session entry if needed, then create it if there is room.
+    val key = EvictableKey(privileged, value(size, 1, 0), 0)
+    var hasRoom = size <= maxPartitions
+    while (hasRoom && (sessions.size >= maxEntries || numPartitions + size > maxPartitions))
+      hasRoom = tryEvict(privileged, key, now)
+    if (hasRoom) {
       val partitionMap = createPartitions()
       val session = new FetchSession(newSessionId(), privileged, partitionMap,
           now, now, JFetchMetadata.nextEpoch(INITIAL_EPOCH))
@@ -607,17 +979,27 @@ class FetchSessionCache(private val maxEntries: Int,
       session.id
     } else {
       debug(s"No fetch session created for privileged=$privileged, size=$size.")
+      cacheFullMissesMeter.mark()
       INVALID_SESSION_ID
     }
   }
 
+  /**
+    * The value of a session, which is the number of partitions it saves from being sent per unit of time: its number
+    * of partitions times its fetch rate. The rate is averaged over the lifetime of the session, and over at least
+    * evictionMs so that the value of new sessions can be compared with the value of the sessions they may evict.
+    */
+  private def value(size: Int, numFetches: Long, ageMs: Long): Double =
+    size.toDouble * numFetches / math.max(math.max(ageMs, evictionMs), 1L)
+
   /**
     * Try to evict an entry from the session cache.
     *
     * A proposed new element A may evict an existing element B if:
     * 1. A is privileged and B is not, or
     * 2. B is considered "stale" because it has been inactive for a long time, or
-    * 3. A contains more partitions than B, and B is not recently created.
+    * 3. A is more valuable than B, and B is not recently created. Since the fetch rate of A is not
+    *    known yet, A is valued as if it had been fetched once in evictionMs.
     *
     * @param privileged True if the new entry we would like to add is privileged.
     * @param key        The EvictableKey for the new entry we would like to add.
@@ -635,6 +1017,7 @@ class FetchSessionCache(private val maxEntries: Int,
       trace(s"Evicting stale FetchSession ${session.id}.")
       remove(session)
       evictionsMeter.mark()
+      staleEvictionsMeter.mark()
       true
     } else {
       // If there are no stale entries, check the first evictable entry.
@@ -651,6 +1034,7 @@ class FetchSessionCache(private val maxEntries: Int,
         trace(s"Evicting ${evictableEntry.getKey} with ${key.toString}.")
         remove(evictableEntry.getValue)
         evictionsMeter.mark()
+        lessValuableEvictionsMeter.mark()
         true
       }
     }
@@ -687,11 +1071,17 @@ class FetchSessionCache(private val maxEntries: Int,
   /**
     * Update a session's position in the lastUsed and evictable trees.
     *
+    * If the session grew and the cache now holds more than maxPartitions partitions, the session itself is evicted.
+    * Other sessions cannot be evicted to make room for it, since the caller may hold the lock of this session, and
+    * the lock of another session must not be acquired while it is held. The client of an evicted session gets
+    * FETCH_SESSION_ID_NOT_FOUND on its next fetch, and its full fetch then creates a new session, which may evict
+    * less valuable ones.
+    *
     * @param session  The session.
     * @param now      The current time in milliseconds.
     */
   def touch(session: FetchSession, now: Long): Unit = synchronized {
-    session.synchronized {
+    val grew = session.synchronized {
       // Update the lastUsed map.
       lastUsed.remove(session.lastUsedKey)
       session.lastUsedMs = now
@@ -705,6 +1095,8 @@ class FetchSessionCache(private val maxEntries: Int,
         numPartitions = numPartitions - oldSize
       }
       session.cachedSize = session.size
+      session.numFetches += 1
+      session.cachedValue = value(session.cachedSize, session.numFetches, now - session.creationMs)
       val newEvictableKey = session.evictableKey
       if ((!session.privileged) || (now - session.creationMs > evictionMs)) {
         evictableByPrivileged.put(newEvictableKey, session)
@@ -713,6 +1105,14 @@ class FetchSessionCache(private val maxEntries: Int,
         evictableByAll.put(newEvictableKey, session)
       }
       numPartitions = numPartitions + session.cachedSize
+      oldSize != -1 && session.cachedSize > oldSize
+    }
+    if (grew && numPartitions > maxPartitions) {
+      debug(s"Evicting session ${session.id}, which grew to ${session.cachedSize} partitions while the cache holds " +
+        s"$numPartitions partitions, more than the maximum of $maxPartitions.")
+      remove(session)
+      evictionsMeter.mark()
+      maxPartitionsExceededEvictionsMeter.mark()
     }
   }
 }
@@ -747,14 +1147,17 @@ class FetchManager(private val time: Time,
         cache.get(reqMetadata.sessionId) match {
           case None => {
             debug(s"Session error for ${reqMetadata.sessionId}: no such session ID found.")
+            cache.sessionNotFoundMissesMeter.mark()
             new SessionErrorContext(Errors.FETCH_SESSION_ID_NOT_FOUND, reqMetadata)
           }
           case Some(session) => session.synchronized {
             if (session.epoch != reqMetadata.epoch) {
               debug(s"Session error for ${reqMetadata.sessionId}: expected epoch " +
                 s"${session.epoch}, but got ${reqMetadata.epoch} instead.");
+              cache.invalidEpochMissesMeter.mark()
               new SessionErrorContext(Errors.INVALID_FETCH_SESSION_EPOCH, reqMetadata)
             } else {
+              cache.hitsMeter.mark()
               val (added, updated, removed) = session.update(fetchData, toForget, reqMetadata)
               if (session.isEmpty) {
                 debug(s"Created a new sessionless FetchContext and closing session id ${session.id}, " +
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util
+import java.util.concurrent.LinkedBlockingQueue
+
+import kafka.controller.LeaderIsrAndControllerEpoch
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.{ReplicationUtils, ShutdownableThread}
+import kafka.zk.KafkaZkClient
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.utils.Time
+
+import scala.collection.{Map, Seq, mutable}
+import scala.jdk.CollectionConverters._
+
+object IsrUpdateManager {
+  val IsrUpdateThreadName = "isr-update-thread"
+  val IsrUpdateBatchSizeMetricName = "IsrUpdateBatchSize"
+  val IsrUpdateTimeMetricName = "IsrUpdateTimeMs"
+  val IsrUpdateQueueSizeMetricName = "IsrUpdateQueueSize"
+  val MaxBatchSize = 1000
+}
+
+/**
+ * An ISR change of a partition, whose callback is invoked with the new zkVersion of the partition state once it
+ * is written, or with None if the update failed.
+ */
+class IsrUpdate(val topicPartition: TopicPartition,
+                val leaderIsrAndControllerEpoch: LeaderIsrAndControllerEpoch,
+                val callback: Option[Int] => Unit,
+                val enqueueTimeMs: Long) {
+  override def toString: String = {
+    s"IsrUpdate(topicPartition=$topicPartition, leaderIsrAndControllerEpoch=$leaderIsrAndControllerEpoch, " +
+      s"enqueueTimeMs=$enqueueTimeMs)"
+  }
+}
+
+/**
+ * Writes the ISR changes of the partitions led by this broker to ZooKeeper in batches.
+ *
+ * Changes are queued by the partitions and written by a single thread, which sends all the changes queued while
+ * the previous batch was being written as pipelined conditional updates. The batches therefore grow with the rate
+ * of ISR changes, e.g. when a broker fails and the ISRs of all the partitions it follows are shrunk, while a single
+ * change is written without any delay. Each update is conditional on the zkVersion of its partition, so they are
+ * not written in a multi-op transaction, which would fail as a whole if a single partition state were stale.
+ */
+class IsrUpdateManager(brokerId: Int,
+                       zkClient: KafkaZkClient,
+                       time: Time,
+                       maxBatchSize: Int = IsrUpdateManager.MaxBatchSize) extends KafkaMetricsGroup {
+  import IsrUpdateManager._
+
+  private val queue = new LinkedBlockingQueue[IsrUpdate]
+  // Visible for test
+  private[server] val thread = new IsrUpdateThread(IsrUpdateThreadName)
+
+  private val batchSizeHist = newHistogram(IsrUpdateBatchSizeMetricName)
+  private val updateTimeHist = newHistogram(IsrUpdateTimeMetricName)
+
+  newGauge(IsrUpdateQueueSizeMetricName, () => queue.size)
+
+  def start(): Unit = thread.start()
+
+  def shutdown(): Unit = {
+    try {
+      // the thread is not started if the replica manager was never started up
+      if (thread.getState != Thread.State.NEW)
+        thread.shutdown()
+    } finally {
+      removeMetric(IsrUpdateBatchSizeMetricName)
+      removeMetric(IsrUpdateTimeMetricName)
+      removeMetric(IsrUpdateQueueSizeMetricName)
+    }
+  }
+
+  def submit(topicPartition: TopicPartition,
+             leaderIsrAndControllerEpoch: LeaderIsrAndControllerEpoch,
+             callback: Option[Int] => Unit): Unit = {
+    queue.put(new IsrUpdate(topicPartition, leaderIsrAndControllerEpoch, callback, time.milliseconds))
+  }
+
+  // Visible for test
+  private[server] def writeBatch(updates: Seq[IsrUpdate]): Unit = {
+    // a partition is only queued again if its previous change was superseded by a leader change
+    val latestUpdates = mutable.LinkedHashMap[TopicPartition, IsrUpdate]()
+    val supersededUpdates = mutable.ArrayBuffer[IsrUpdate]()
+    updates.foreach { update =>
+      latestUpdates.put(update.topicPartition, update).foreach(supersededUpdates += _)
+    }
+    batchSizeHist.update(latestUpdates.size)
+
+    val newVersions: Map[TopicPartition, Option[Int]] = try {
+      ReplicationUtils.updateLeaderAndIsrs(zkClient, latestUpdates.map { case (partition, update) =>
+        partition -> update.leaderIsrAndControllerEpoch
+      })
+    } catch {
+      case e: Throwable =>
+        error(s"Failed to update ISR of partitions ${latestUpdates.keys.mkString(",")}", e)
+        Map.empty
+    }
+
+    val now = time.milliseconds
+    supersededUpdates.foreach(complete(_, None))
+    latestUpdates.values.foreach { update =>
+      updateTimeHist.update(now - update.enqueueTimeMs)
+      complete(update, newVersions.getOrElse(update.topicPartition, None))
+    }
+  }
+
+  private def complete(update: IsrUpdate, newVersionOpt: Option[Int]): Unit = {
+    try {
+      update.callback(newVersionOpt)
+    } catch {
+      case e: Throwable => error(s"Uncaught error completing $update", e)
+    }
+  }
+
+  class IsrUpdateThread(name: String) extends ShutdownableThread(name = name) {
+    logIdent = s"[IsrUpdateThread brokerId=$brokerId] "
+
+    override def doWork(): Unit = {
+      val updates = new util.ArrayList[IsrUpdate]()
+      updates.add(queue.take())
+      queue.drainTo(updates, maxBatchSize - 1)
+      writeBatch(updates.asScala)
+    }
+  }
+
+}
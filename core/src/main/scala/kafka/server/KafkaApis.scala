@@ -1162,12 +1162,27 @@ class KafkaApis(val requestChannel: RequestChannel,
     // In versions 5 and below, we returned LEADER_NOT_AVAILABLE if a matching listener was not found on the leader.
     // From version 6 onwards, we return LISTENER_NOT_FOUND to enable diagnosis of configuration errors.
     val errorUnavailableListeners = requestVersion >= 6
-    val topicMetadata =
+    val includeTopicAuthorizedOperations = requestVersion >= 8 && metadataRequest.data.includeTopicAuthorizedOperations
+    // Topics that exist are taken from the cache of serialized topics unless they need per-request authorized
+    // operations, the remaining ones are built (and possibly created) as usual
+    val (serializedTopicMetadata, topicMetadata) =
       if (authorizedTopics.isEmpty)
-        Seq.empty[MetadataResponseTopic]
-      else
-        getTopicMetadata(metadataRequest.allowAutoTopicCreation, authorizedTopics, request.context.listenerName,
-          errorUnavailableEndpoints, errorUnavailableListeners)
+        (Seq.empty[ByteBuffer], Seq.empty[MetadataResponseTopic])
+      else if (includeTopicAuthorizedOperations)
+        (Seq.empty[ByteBuffer], getTopicMetadata(metadataRequest.allowAutoTopicCreation, authorizedTopics,
+          request.context.listenerName, errorUnavailableEndpoints, errorUnavailableListeners))
+      else {
+        val serializedTopics = metadataCache.getSerializedTopicMetadata(authorizedTopics, request.context.listenerName,
+          requestVersion, errorUnavailableEndpoints, errorUnavailableListeners)
+        val nonExistingTopics = authorizedTopics.diff(serializedTopics.keySet)
+        val nonExistingTopicMetadata =
+          if (nonExistingTopics.isEmpty)
+            Seq.empty[MetadataResponseTopic]
+          else
+            getTopicMetadata(metadataRequest.allowAutoTopicCreation, nonExistingTopics, request.context.listenerName,
+              errorUnavailableEndpoints, errorUnavailableListeners)
+        (serializedTopics.values.toBuffer, nonExistingTopicMetadata)
+      }
 
     var clusterAuthorizedOperations = Int.MinValue
     if (request.header.apiVersion >= 8) {
@@ -1180,7 +1195,7 @@ class KafkaApis(val requestChannel: RequestChannel,
       }
 
       // get topic authorized operations
-      if (metadataRequest.data.includeTopicAuthorizedOperations) {
+      if (includeTopicAuthorizedOperations) {
         topicMetadata.foreach { topicData =>
           topicData.setTopicAuthorizedOperations(authorizedOperations(request, new Resource(ResourceType.TOPIC, topicData.name)))
         }
@@ -1191,17 +1206,20 @@ class KafkaApis(val requestChannel: RequestChannel,
 
     val brokers = metadataCache.getAliveBrokers
 
-    trace("Sending topic metadata %s and brokers %s for correlation id %d to client %s".format(completeTopicMetadata.mkString(","),
-      brokers.mkString(","), request.header.correlationId, request.header.clientId))
+    trace("Sending topic metadata %s, %d serialized topics and brokers %s for correlation id %d to client %s".format(
+      completeTopicMetadata.mkString(","), serializedTopicMetadata.size, brokers.mkString(","),
+      request.header.correlationId, request.header.clientId))
 
     sendResponseMaybeThrottle(request, requestThrottleMs =>
        MetadataResponse.prepareResponse(
          requestThrottleMs,
+         serializedTopicMetadata.asJava,
          completeTopicMetadata.asJava,
          brokers.flatMap(_.getNode(request.context.listenerName)).asJava,
          clusterId,
          metadataCache.getControllerId.getOrElse(MetadataResponse.NO_CONTROLLER_ID),
-         clusterAuthorizedOperations
+         clusterAuthorizedOperations,
+         requestVersion
       ))
   }
 
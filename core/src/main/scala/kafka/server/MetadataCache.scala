@@ -17,11 +17,13 @@
 
 package kafka.server
 
+import java.nio.ByteBuffer
 import java.util
 import java.util.{Collections}
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.locks.ReentrantReadWriteLock
 
-import scala.collection.{mutable, Seq, Set}
+import scala.collection.{immutable, mutable, Seq, Set}
 import scala.jdk.CollectionConverters._
 import kafka.cluster.{Broker, EndPoint}
 import kafka.api._
@@ -50,8 +52,9 @@ class MetadataCache(brokerId: Int) extends Logging {
   //replace the value with a completely new one. this means reads (which are not under any lock) need to grab
   //the value of this var (into a val) ONCE and retain that read copy for the duration of their operation.
   //multiple reads of this value risk getting different snapshots.
-  @volatile private var metadataSnapshot: MetadataSnapshot = MetadataSnapshot(partitionStates = mutable.AnyRefMap.empty,
-    controllerId = None, aliveBrokers = mutable.LongMap.empty, aliveNodes = mutable.LongMap.empty)
+  @volatile private var metadataSnapshot: MetadataSnapshot = MetadataSnapshot(partitionStates = immutable.HashMap.empty,
+    controllerId = None, aliveBrokers = mutable.LongMap.empty, aliveNodes = mutable.LongMap.empty,
+    serializedTopics = new SerializedTopicMetadata)
 
   this.logIdent = s"[MetadataCache brokerId=$brokerId] "
   private val stateChangeLogger = new StateChangeLogger(brokerId, inControllerContext = false, None)
@@ -168,14 +171,56 @@ class MetadataCache(brokerId: Int) extends Logging {
                        errorUnavailableListeners: Boolean = false): Seq[MetadataResponseTopic] = {
     val snapshot = metadataSnapshot
     topics.toSeq.flatMap { topic =>
-      getPartitionMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners).map { partitionMetadata =>
-        new MetadataResponseTopic()
-          .setErrorCode(Errors.NONE.code)
-          .setName(topic)
-          .setIsInternal(Topic.isInternal(topic))
-          .setPartitions(partitionMetadata.toBuffer.asJava)
+      getTopicMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
+    }
+  }
+
+  /**
+   * Get the metadata of the existing topics among `topics`, serialized in the format of the given Metadata response
+   * version by [[MetadataResponse.serializeTopic]]. Serialized topics are cached per listener and version until an
+   * UpdateMetadataRequest changes the topic or the live brokers, so repeated metadata requests for large clusters
+   * mostly copy bytes instead of building and serializing the response structures again. A cached topic is only
+   * used if it was built from the partition states of the topic in the current snapshot, which are replaced rather
+   * than modified when the topic changes.
+   */
+  def getSerializedTopicMetadata(topics: Set[String],
+                                 listenerName: ListenerName,
+                                 version: Short,
+                                 errorUnavailableEndpoints: Boolean = false,
+                                 errorUnavailableListeners: Boolean = false): collection.Map[String, ByteBuffer] = {
+    val snapshot = metadataSnapshot
+    val serializedTopics = snapshot.serializedTopics.topicsFor(
+      SerializedTopicMetadataKey(listenerName, version, errorUnavailableEndpoints, errorUnavailableListeners))
+    val result = new mutable.AnyRefMap[String, ByteBuffer](topics.size)
+    topics.foreach { topic =>
+      snapshot.partitionStates.get(topic).foreach { partitionStates =>
+        val cached = serializedTopics.get(topic)
+        if (cached != null && (cached.partitionStates eq partitionStates)) {
+          result(topic) = cached.serialized
+        } else {
+          getTopicMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners).foreach { topicMetadata =>
+            val serialized = MetadataResponse.serializeTopic(topicMetadata, version)
+            serializedTopics.put(topic, SerializedTopic(partitionStates, serialized))
+            result(topic) = serialized
+          }
+        }
       }
     }
+    result
+  }
+
+  private def getTopicMetadata(snapshot: MetadataSnapshot,
+                               topic: String,
+                               listenerName: ListenerName,
+                               errorUnavailableEndpoints: Boolean,
+                               errorUnavailableListeners: Boolean): Option[MetadataResponseTopic] = {
+    getPartitionMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners).map { partitionMetadata =>
+      new MetadataResponseTopic()
+        .setErrorCode(Errors.NONE.code)
+        .setName(topic)
+        .setIsInternal(Topic.isInternal(topic))
+        .setPartitions(partitionMetadata.toBuffer.asJava)
+    }
   }
 
   def getAllTopics(): Set[String] = {
@@ -210,14 +255,6 @@ class MetadataCache(brokerId: Int) extends Logging {
     metadataSnapshot.aliveBrokers.values.toBuffer
   }
 
-  private def addOrUpdatePartitionInfo(partitionStates: mutable.AnyRefMap[String, mutable.LongMap[UpdateMetadataPartitionState]],
-                                       topic: String,
-                                       partitionId: Int,
-                                       stateInfo: UpdateMetadataPartitionState): Unit = {
-    val infos = partitionStates.getOrElseUpdate(topic, mutable.LongMap.empty)
-    infos(partitionId) = stateInfo
-  }
-
   def getPartitionInfo(topic: String, partitionId: Int): Option[UpdateMetadataPartitionState] = {
     metadataSnapshot.partitionStates.get(topic).flatMap(_.get(partitionId))
   }
@@ -310,17 +347,31 @@ class MetadataCache(brokerId: Int) extends Logging {
           error(s"Listeners are not identical across brokers: $aliveNodes")
       }
 
+      // serialized topics depend on the live brokers and their endpoints, so they can only be carried over if those
+      // are unchanged
+      val aliveNodesChanged = aliveNodes != metadataSnapshot.aliveNodes
+
       val deletedPartitions = new mutable.ArrayBuffer[TopicPartition]
       if (!updateMetadataRequest.partitionStates.iterator.hasNext) {
-        metadataSnapshot = MetadataSnapshot(metadataSnapshot.partitionStates, controllerIdOpt, aliveBrokers, aliveNodes)
+        val serializedTopics =
+          if (aliveNodesChanged) new SerializedTopicMetadata
+          else metadataSnapshot.serializedTopics
+        metadataSnapshot = MetadataSnapshot(metadataSnapshot.partitionStates, controllerIdOpt, aliveBrokers, aliveNodes,
+          serializedTopics)
       } else {
-        //since kafka may do partial metadata updates, we start by copying the previous state
-        val partitionStates = new mutable.AnyRefMap[String, mutable.LongMap[UpdateMetadataPartitionState]](metadataSnapshot.partitionStates.size)
-        metadataSnapshot.partitionStates.foreach { case (topic, oldPartitionStates) =>
-          val copy = new mutable.LongMap[UpdateMetadataPartitionState](oldPartitionStates.size)
-          copy ++= oldPartitionStates
-          partitionStates(topic) = copy
-        }
+        //since kafka may do partial metadata updates, the new state shares every topic not in the request with the
+        //previous one. the partition states of the topics in the request are copied once and updated in the copy, so
+        //the cost of an update is proportional to the size of the updated topics rather than to the whole cluster.
+        val updatedTopics = new mutable.AnyRefMap[String, mutable.LongMap[UpdateMetadataPartitionState]]
+        def updatedPartitionStates(topic: String): mutable.LongMap[UpdateMetadataPartitionState] =
+          updatedTopics.getOrElseUpdate(topic, metadataSnapshot.partitionStates.get(topic) match {
+            case Some(oldPartitionStates) =>
+              val copy = new mutable.LongMap[UpdateMetadataPartitionState](oldPartitionStates.size)
+              copy ++= oldPartitionStates
+              copy
+            case None =>
+              mutable.LongMap.empty[UpdateMetadataPartitionState]
+          })
 
         val traceEnabled = stateChangeLogger.isTraceEnabled
         val controllerId = updateMetadataRequest.controllerId
@@ -330,13 +381,13 @@ class MetadataCache(brokerId: Int) extends Logging {
           // per-partition logging here can be very expensive due going through all partitions in the cluster
           val tp = new TopicPartition(state.topicName, state.partitionIndex)
           if (state.leader == LeaderAndIsr.LeaderDuringDelete) {
-            removePartitionInfo(partitionStates, tp.topic, tp.partition)
+            updatedPartitionStates(tp.topic).remove(tp.partition)
             if (traceEnabled)
               stateChangeLogger.trace(s"Deleted partition $tp from metadata cache in response to UpdateMetadata " +
                 s"request sent by controller $controllerId epoch $controllerEpoch with correlation id $correlationId")
             deletedPartitions += tp
           } else {
-            addOrUpdatePartitionInfo(partitionStates, tp.topic, tp.partition, state)
+            updatedPartitionStates(tp.topic)(tp.partition) = state
             if (traceEnabled)
               stateChangeLogger.trace(s"Cached leader info $state for partition $tp in response to " +
                 s"UpdateMetadata request sent by controller $controllerId epoch $controllerEpoch with correlation id $correlationId")
@@ -346,7 +397,17 @@ class MetadataCache(brokerId: Int) extends Logging {
         stateChangeLogger.info(s"Add $cachedPartitionsCount partitions and deleted ${deletedPartitions.size} partitions from metadata cache " +
           s"in response to UpdateMetadata request sent by controller $controllerId epoch $controllerEpoch with correlation id $correlationId")
 
-        metadataSnapshot = MetadataSnapshot(partitionStates, controllerIdOpt, aliveBrokers, aliveNodes)
+        val (deletedTopics, remainingTopics) = updatedTopics.partition { case (_, partitionStates) => partitionStates.isEmpty }
+        val partitionStates = metadataSnapshot.partitionStates.concat(remainingTopics).removedAll(deletedTopics.keys)
+
+        val serializedTopics =
+          if (aliveNodesChanged) {
+            new SerializedTopicMetadata
+          } else {
+            metadataSnapshot.serializedTopics.remove(updatedTopics.keys)
+            metadataSnapshot.serializedTopics
+          }
+        metadataSnapshot = MetadataSnapshot(partitionStates, controllerIdOpt, aliveBrokers, aliveNodes, serializedTopics)
       }
       deletedPartitions
     }
@@ -358,18 +419,38 @@ class MetadataCache(brokerId: Int) extends Logging {
 
   def contains(tp: TopicPartition): Boolean = getPartitionInfo(tp.topic, tp.partition).isDefined
 
-  private def removePartitionInfo(partitionStates: mutable.AnyRefMap[String, mutable.LongMap[UpdateMetadataPartitionState]],
-                                  topic: String, partitionId: Int): Boolean = {
-    partitionStates.get(topic).exists { infos =>
-      infos.remove(partitionId)
-      if (infos.isEmpty) partitionStates.remove(topic)
-      true
-    }
-  }
-
-  case class MetadataSnapshot(partitionStates: mutable.AnyRefMap[String, mutable.LongMap[UpdateMetadataPartitionState]],
+  // the partition states of a topic are never modified once they are part of a snapshot, see `updateMetadata`
+  case class MetadataSnapshot(partitionStates: immutable.HashMap[String, mutable.LongMap[UpdateMetadataPartitionState]],
                               controllerId: Option[Int],
                               aliveBrokers: mutable.LongMap[Broker],
-                              aliveNodes: mutable.LongMap[collection.Map[ListenerName, Node]])
+                              aliveNodes: mutable.LongMap[collection.Map[ListenerName, Node]],
+                              serializedTopics: SerializedTopicMetadata)
+
+  case class SerializedTopicMetadataKey(listenerName: ListenerName,
+                                        version: Short,
+                                        errorUnavailableEndpoints: Boolean,
+                                        errorUnavailableListeners: Boolean)
+
+  case class SerializedTopic(partitionStates: mutable.LongMap[UpdateMetadataPartitionState], serialized: ByteBuffer)
+
+  /**
+   * Serialized topics shared by the snapshots with the same live brokers, filled in lazily by metadata requests. Each
+   * entry records the partition states it was built from, so readers can tell whether it matches their snapshot.
+   */
+  class SerializedTopicMetadata {
+    private val topics = new ConcurrentHashMap[SerializedTopicMetadataKey, ConcurrentHashMap[String, SerializedTopic]]
+
+    def topicsFor(key: SerializedTopicMetadataKey): ConcurrentHashMap[String, SerializedTopic] =
+      topics.computeIfAbsent(key, _ => new ConcurrentHashMap[String, SerializedTopic])
+
+    /**
+     * Drop the serialized topics which are outdated, so that they do not retain the previous partition states.
+     */
+    def remove(removedTopics: Iterable[String]): Unit = {
+      topics.values.forEach { serializedTopics =>
+        removedTopics.foreach(serializedTopics.remove)
+      }
+    }
+  }
 
 }
@@ -120,6 +120,8 @@ class ReplicaAlterLogDirsThread(name: String,
       partition.appendRecordsToFollowerOrFutureReplica(records, isFuture = true)
     else
       None
+    if (!records.buffer.isDirect)
+      fetcherStats.bytesCopiedRate.mark(records.sizeInBytes)
 
     futureLog.updateHighWatermark(partitionData.highWatermark)
     futureLog.maybeIncrementLogStartOffset(partitionData.logStartOffset, LeaderOffsetIncremented)
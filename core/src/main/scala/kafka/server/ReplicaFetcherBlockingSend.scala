@@ -20,6 +20,7 @@ import java.net.SocketTimeoutException
 
 import kafka.cluster.BrokerEndPoint
 import org.apache.kafka.clients._
+import org.apache.kafka.common.memory.MemoryPool
 import org.apache.kafka.common.metrics.Metrics
 import org.apache.kafka.common.network._
 import org.apache.kafka.common.requests.AbstractRequest
@@ -35,6 +36,11 @@ trait BlockingSend {
 
   def sendRequest(requestBuilder: AbstractRequest.Builder[_ <: AbstractRequest]): ClientResponse
 
+  /**
+   * Allow the buffers of the responses received so far to be reused, once their records are no longer used.
+   */
+  def releaseResponseBuffers(): Unit = {}
+
   def initiateClose(): Unit
 
   def close(): Unit
@@ -50,6 +56,12 @@ class ReplicaFetcherBlockingSend(sourceBroker: BrokerEndPoint,
 
   private val sourceNode = new Node(sourceBroker.id, sourceBroker.host, sourceBroker.port)
   private val socketTimeout: Int = brokerConfig.replicaSocketTimeoutMs
+  private val responseBufferPool =
+    if (brokerConfig.replicaFetchResponseDirectBufferBytes > 0)
+      Some(new FetchResponseBufferPool(ReplicaFetcherBlockingSend.MinDirectResponseBytes,
+        brokerConfig.replicaFetchResponseDirectBufferBytes))
+    else
+      None
 
   private val (networkClient, reconfigurableChannelBuilder) = {
     val channelBuilder = ChannelBuilders.clientChannelBuilder(
@@ -76,7 +88,9 @@ class ReplicaFetcherBlockingSend(sourceBroker: BrokerEndPoint,
       "replica-fetcher",
       Map("broker-id" -> sourceBroker.id.toString, "fetcher-id" -> fetcherId.toString).asJava,
       false,
+      false,
       channelBuilder,
+      responseBufferPool.getOrElse(MemoryPool.NONE),
       logContext
     )
     val networkClient = new NetworkClient(
@@ -115,6 +129,10 @@ class ReplicaFetcherBlockingSend(sourceBroker: BrokerEndPoint,
     }
   }
 
+  override def releaseResponseBuffers(): Unit = {
+    responseBufferPool.foreach(_.releaseAll())
+  }
+
   override def initiateClose(): Unit = {
     reconfigurableChannelBuilder.foreach(brokerConfig.removeReconfigurable)
     networkClient.initiateClose()
@@ -124,3 +142,8 @@ class ReplicaFetcherBlockingSend(sourceBroker: BrokerEndPoint,
     networkClient.close()
   }
 }
+
+object ReplicaFetcherBlockingSend {
+  // smaller responses, which do not hold many records, are read into heap buffers
+  val MinDirectResponseBytes = 8 * 1024
+}
@@ -30,7 +30,10 @@ class ReplicaFetcherManager(brokerConfig: KafkaConfig,
       extends AbstractFetcherManager[ReplicaFetcherThread](
         name = "ReplicaFetcherManager on broker " + brokerConfig.brokerId,
         clientId = "Replica",
-        numFetchers = brokerConfig.numReplicaFetchers) {
+        numFetchers = brokerConfig.numReplicaFetchers,
+        maxNumFetchers = brokerConfig.numReplicaFetchersMax,
+        targetBytesPerSecPerFetcher = brokerConfig.replicaFetcherTargetBytesPerSec,
+        time = time) {
 
   override def createFetcherThread(fetcherId: Int, sourceBroker: BrokerEndPoint): ReplicaFetcherThread = {
     val prefix = threadNamePrefix.map(tp => s"$tp:").getOrElse("")
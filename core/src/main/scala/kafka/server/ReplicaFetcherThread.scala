@@ -166,6 +166,9 @@ class ReplicaFetcherThread(name: String,
 
     // Append the leader's messages to the log
     val logAppendInfo = partition.appendRecordsToFollowerOrFutureReplica(records, isFuture = false)
+    // records in heap buffers are copied into a temporary direct buffer when they are written to the log
+    if (!records.buffer.isDirect)
+      fetcherStats.bytesCopiedRate.mark(records.sizeInBytes)
 
     if (logTrace)
       trace("Follower has replica log end offset %d after appending %d bytes of messages for partition %s"
@@ -203,6 +206,8 @@ class ReplicaFetcherThread(name: String,
 
 
   override protected def fetchFromLeader(fetchRequest: FetchRequest.Builder): Map[TopicPartition, FetchData] = {
+    // the records of the previous responses have been appended, so their buffers can be reused
+    leaderEndpoint.releaseResponseBuffers()
     try {
       val clientResponse = leaderEndpoint.sendRequest(fetchRequest)
       val fetchResponse = clientResponse.responseBody.asInstanceOf[FetchResponse[Records]]
@@ -32,7 +32,7 @@ import kafka.metrics.KafkaMetricsGroup
 import kafka.server.{FetchMetadata => SFetchMetadata}
 import kafka.server.HostedPartition.Online
 import kafka.server.QuotaFactory.QuotaManagers
-import kafka.server.checkpoints.{LazyOffsetCheckpoints, OffsetCheckpointFile, OffsetCheckpoints}
+import kafka.server.checkpoints.{LazyOffsetCheckpoints, OffsetCheckpointFile, OffsetCheckpointWriter, OffsetCheckpoints}
 import kafka.utils._
 import kafka.zk.KafkaZkClient
 import org.apache.kafka.common.{ElectionType, IsolationLevel, Node, TopicPartition}
@@ -160,6 +160,7 @@ object HostedPartition {
 
 object ReplicaManager {
   val HighWatermarkFilename = "replication-offset-checkpoint"
+  val HighWatermarkCheckpointWriterThreadName = "highwatermark-checkpoint-writer"
   val IsrChangePropagationBlackOut = 5000L
   val IsrChangePropagationInterval = 60000L
 }
@@ -218,9 +219,12 @@ class ReplicaManager(val config: KafkaConfig,
   private val replicaStateChangeLock = new Object
   val replicaFetcherManager = createReplicaFetcherManager(metrics, time, threadNamePrefix, quotaManagers.follower)
   val replicaAlterLogDirsManager = createReplicaAlterLogDirsManager(quotaManagers.alterLogDirs, brokerTopicStats)
+  val isrUpdateManager = new IsrUpdateManager(localBrokerId, zkClient, time)
   private val highWatermarkCheckPointThreadStarted = new AtomicBoolean(false)
   @volatile var highWatermarkCheckpoints: Map[String, OffsetCheckpointFile] = logManager.liveLogDirs.map(dir =>
     (dir.getAbsolutePath, new OffsetCheckpointFile(new File(dir, ReplicaManager.HighWatermarkFilename), logDirFailureChannel))).toMap
+  // writes the periodic high watermark checkpoints, so that the scheduler thread does not wait for them
+  private val highWatermarkCheckpointWriter = new OffsetCheckpointWriter(ReplicaManager.HighWatermarkCheckpointWriterThreadName)
 
   this.logIdent = s"[ReplicaManager broker=$localBrokerId] "
   private val stateChangeLogger = new StateChangeLogger(localBrokerId, inControllerContext = false, None)
@@ -263,8 +267,10 @@ class ReplicaManager(val config: KafkaConfig,
   def underReplicatedPartitionCount: Int = leaderPartitionsIterator.count(_.isUnderReplicated)
 
   def startHighWatermarkCheckPointThread(): Unit = {
-    if (highWatermarkCheckPointThreadStarted.compareAndSet(false, true))
-      scheduler.schedule("highwatermark-checkpoint", checkpointHighWatermarks _, period = config.replicaHighWatermarkCheckpointIntervalMs, unit = TimeUnit.MILLISECONDS)
+    if (highWatermarkCheckPointThreadStarted.compareAndSet(false, true)) {
+      highWatermarkCheckpointWriter.start()
+      scheduler.schedule("highwatermark-checkpoint", submitHighWatermarkCheckpoints _, period = config.replicaHighWatermarkCheckpointIntervalMs, unit = TimeUnit.MILLISECONDS)
+    }
   }
 
   def recordIsrChange(topicPartition: TopicPartition): Unit = {
@@ -311,11 +317,15 @@ class ReplicaManager(val config: KafkaConfig,
   }
 
   def startup(): Unit = {
+    isrUpdateManager.start()
     // start ISR expiration thread
     // A follower can lag behind leader for up to config.replicaLagTimeMaxMs x 1.5 before it is removed from ISR
     scheduler.schedule("isr-expiration", maybeShrinkIsr _, period = config.replicaLagTimeMaxMs / 2, unit = TimeUnit.MILLISECONDS)
     scheduler.schedule("isr-change-propagation", maybePropagateIsrChanges _, period = 2500L, unit = TimeUnit.MILLISECONDS)
     scheduler.schedule("shutdown-idle-replica-alter-log-dirs-thread", shutdownIdleReplicaAlterLogDirsThread _, period = 10000L, unit = TimeUnit.MILLISECONDS)
+    if (config.replicaFetcherRebalanceIntervalMs > 0)
+      scheduler.schedule("replica-fetcher-rebalance", () => replicaFetcherManager.rebalance(),
+        period = config.replicaFetcherRebalanceIntervalMs, unit = TimeUnit.MILLISECONDS)
 
     // If inter-broker protocol (IBP) < 1.0, the controller will send LeaderAndIsrRequest V0 which does not include isNew field.
     // In this case, the broker receiving the request cannot determine whether it is safe to create a partition if a log directory has failed.
@@ -1655,6 +1665,22 @@ class ReplicaManager(val config: KafkaConfig,
 
   // Flushes the highwatermark value for all partitions to the highwatermark file
   def checkpointHighWatermarks(): Unit = {
+    for ((logDir, hws) <- highWatermarksByLogDir) {
+      try highWatermarkCheckpoints.get(logDir).foreach(_.write(hws))
+      catch {
+        case e: KafkaStorageException =>
+          error(s"Error while writing to highwatermark file in directory $logDir", e)
+      }
+    }
+  }
+
+  // Submits the highwatermark value for all partitions to be written to the highwatermark file in the background
+  private def submitHighWatermarkCheckpoints(): Unit = {
+    for ((logDir, hws) <- highWatermarksByLogDir)
+      highWatermarkCheckpoints.get(logDir).foreach(highWatermarkCheckpointWriter.submit(_, hws))
+  }
+
+  private def highWatermarksByLogDir: Map[String, Map[TopicPartition, Long]] = {
     def putHw(logDirToCheckpoints: mutable.AnyRefMap[String, mutable.AnyRefMap[TopicPartition, Long]],
               log: Log): Unit = {
       val checkpoints = logDirToCheckpoints.getOrElseUpdate(log.parentDir,
@@ -1668,14 +1694,7 @@ class ReplicaManager(val config: KafkaConfig,
       partition.log.foreach(putHw(logDirToHws, _))
       partition.futureLog.foreach(putHw(logDirToHws, _))
     }
-
-    for ((logDir, hws) <- logDirToHws) {
-      try highWatermarkCheckpoints.get(logDir).foreach(_.write(hws))
-      catch {
-        case e: KafkaStorageException =>
-          error(s"Error while writing to highwatermark file in directory $logDir", e)
-      }
-    }
+    logDirToHws
   }
 
   // Used only by test
@@ -1705,6 +1724,8 @@ class ReplicaManager(val config: KafkaConfig,
       partitionsWithOfflineFutureReplica.foreach(partition => partition.removeFutureLocalReplica(deleteFromLogDir = false))
       newOfflinePartitions.foreach { topicPartition =>
         markPartitionOffline(topicPartition)
+        // delayed operations only check this partition again when its key fires, so complete them now
+        completeDelayedFetchOrProduceRequests(topicPartition)
       }
       newOfflinePartitions.map(_.topic).foreach { topic: String =>
         maybeRemoveTopicMetrics(topic)
@@ -1739,10 +1760,13 @@ class ReplicaManager(val config: KafkaConfig,
       logDirFailureHandler.shutdown()
     replicaFetcherManager.shutdown()
     replicaAlterLogDirsManager.shutdown()
+    isrUpdateManager.shutdown()
     delayedFetchPurgatory.shutdown()
     delayedProducePurgatory.shutdown()
     delayedDeleteRecordsPurgatory.shutdown()
     delayedElectLeaderPurgatory.shutdown()
+    // the last checkpoint is written once no background checkpoint can overwrite it
+    highWatermarkCheckpointWriter.shutdown()
     if (checkpointHW)
       checkpointHighWatermarks()
     replicaSelectorOpt.foreach(_.close)
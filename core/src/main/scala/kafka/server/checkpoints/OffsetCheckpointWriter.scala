@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.server.checkpoints
+
+import java.util
+import java.util.concurrent.locks.ReentrantLock
+
+import kafka.utils.CoreUtils.inLock
+import kafka.utils.ShutdownableThread
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.errors.KafkaStorageException
+
+import scala.collection.Map
+
+/**
+ * Writes offset checkpoint files on a background thread, so that the thread which collects the offsets does not
+ * wait for them to be serialized and synced to disk.
+ *
+ * The offsets of each file are double buffered: the offsets submitted while the file is written are pending until
+ * the write completes, and offsets submitted while offsets are pending replace them. A file is therefore written
+ * at most once at a time, always with the latest offsets submitted for it, however slow its disk is.
+ */
+class OffsetCheckpointWriter(name: String) {
+  private val lock = new ReentrantLock()
+  private val pendingAvailable = lock.newCondition()
+  private val pendingOffsets = new util.LinkedHashMap[OffsetCheckpointFile, Map[TopicPartition, Long]]()
+
+  // Visible for test
+  private[checkpoints] val thread = new OffsetCheckpointWriterThread(name)
+
+  def start(): Unit = thread.start()
+
+  /**
+   * Stops the thread once the write in progress completes. The pending offsets are not written.
+   */
+  def shutdown(): Unit = {
+    if (thread.getState != Thread.State.NEW) {
+      thread.initiateShutdown()
+      inLock(lock) {
+        pendingAvailable.signal()
+      }
+      thread.awaitShutdown()
+    }
+  }
+
+  def submit(checkpoint: OffsetCheckpointFile, offsets: Map[TopicPartition, Long]): Unit = inLock(lock) {
+    pendingOffsets.put(checkpoint, offsets)
+    pendingAvailable.signal()
+  }
+
+  // Visible for test
+  private[checkpoints] def hasPendingOffsets: Boolean = inLock(lock) {
+    !pendingOffsets.isEmpty
+  }
+
+  // Not interruptible, since an interrupted write would be mistaken for a failure of the log directory
+  class OffsetCheckpointWriterThread(name: String) extends ShutdownableThread(name = name, isInterruptible = false) {
+    override def doWork(): Unit = {
+      val pending = inLock(lock) {
+        while (pendingOffsets.isEmpty && isRunning)
+          pendingAvailable.await()
+        val iterator = pendingOffsets.entrySet.iterator
+        if (isRunning && iterator.hasNext) {
+          val entry = iterator.next()
+          iterator.remove()
+          Some(entry.getKey -> entry.getValue)
+        } else
+          None
+      }
+
+      pending.foreach { case (checkpoint, offsets) =>
+        try checkpoint.write(offsets)
+        catch {
+          case e: KafkaStorageException =>
+            error(s"Error while writing to checkpoint file ${checkpoint.file.getAbsolutePath}", e)
+        }
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@
   */
 package kafka.server.epoch
 
+import java.util
 import java.util.concurrent.locks.ReentrantReadWriteLock
 
 import kafka.server.checkpoints.LeaderEpochCheckpoint
@@ -27,12 +28,25 @@ import org.apache.kafka.common.TopicPartition
 import scala.collection.Seq
 import scala.collection.mutable.ArrayBuffer
 
+object LeaderEpochFileCache {
+  private val InitialCapacity = 4
+}
+
 /**
  * Represents a cache of (LeaderEpoch => Offset) mappings for a particular replica.
  *
  * Leader Epoch = epoch assigned to each leader by the controller.
  * Offset = offset of the first message in each epoch.
  *
+ * Both the epochs and their start offsets strictly increase, so the entries are held in sorted primitive arrays and
+ * looked up with binary searches.
+ *
+ * Appending an epoch does not write the checkpoint: the appended entries are written by `flush`, which the log calls
+ * before it moves its recovery point past them. An epoch missing from the checkpoint after a hard failure thus starts
+ * at or after the recovery point, and is assigned again when the log is recovered. Removing epochs still writes the
+ * checkpoint, since recovery only assigns epochs larger than the latest cached epoch, unless the removed epoch is a
+ * smaller epoch with no data, which is replaced by a new leader epoch starting at the same offset.
+ *
  * @param topicPartition the associated topic partition
  * @param checkpoint the checkpoint file
  * @param logEndOffset function to fetch the current log end offset
@@ -40,12 +54,22 @@ import scala.collection.mutable.ArrayBuffer
 class LeaderEpochFileCache(topicPartition: TopicPartition,
                            logEndOffset: () => Long,
                            checkpoint: LeaderEpochCheckpoint) extends Logging {
+  import LeaderEpochFileCache._
+
   this.logIdent = s"[LeaderEpochCache $topicPartition] "
 
   private val lock = new ReentrantReadWriteLock()
-  private var epochs: ArrayBuffer[EpochEntry] = inWriteLock(lock) {
-    val read = checkpoint.read()
-    new ArrayBuffer(read.size) ++= read
+  private var epochs = new Array[Int](InitialCapacity)
+  private var startOffsets = new Array[Long](InitialCapacity)
+  private var size = 0
+  // set when entries are appended without writing the checkpoint
+  private var dirty = false
+
+  inWriteLock(lock) {
+    checkpoint.read().foreach { entry =>
+      size = retainedSize(entry)
+      append(entry)
+    }
   }
 
   /**
@@ -54,45 +78,86 @@ class LeaderEpochFileCache(topicPartition: TopicPartition,
     */
   def assign(epoch: Int, startOffset: Long): Unit = {
     inWriteLock(lock) {
-      val updateNeeded = if (epochs.isEmpty) {
+      val updateNeeded = if (size == 0) {
         true
       } else {
-        val lastEntry = epochs.last
+        val lastEntry = entry(size - 1)
         lastEntry.epoch != epoch || startOffset < lastEntry.startOffset
       }
 
       if (updateNeeded) {
-        truncateAndAppend(EpochEntry(epoch, startOffset))
-        flush()
+        val checkpointNeeded = truncateAndAppend(EpochEntry(epoch, startOffset))
+        if (checkpointNeeded)
+          writeCheckpoint()
+        else
+          dirty = true
       }
     }
   }
 
   /**
    * Remove any entries which violate monotonicity following the insertion of an assigned epoch.
+   *
+   * @return whether the checkpoint must be written, which is when an entry other than a smaller epoch with no data was
+   *         removed, since such an entry may not be removed again by recovery
    */
-  private def truncateAndAppend(entryToAppend: EpochEntry): Unit = {
+  private def truncateAndAppend(entryToAppend: EpochEntry): Boolean = {
     validateAndMaybeWarn(entryToAppend)
 
-    val (retainedEpochs, removedEpochs) = epochs.partition { entry =>
-      entry.epoch < entryToAppend.epoch && entry.startOffset < entryToAppend.startOffset
-    }
-
-    epochs = retainedEpochs :+ entryToAppend
+    val newSize = retainedSize(entryToAppend)
+    val removedEpochs = entries(newSize, size)
+    size = newSize
+    append(entryToAppend)
 
     if (removedEpochs.isEmpty) {
-      debug(s"Appended new epoch entry $entryToAppend. Cache now contains ${epochs.size} entries.")
+      debug(s"Appended new epoch entry $entryToAppend. Cache now contains $size entries.")
     } else if (removedEpochs.size > 1 || removedEpochs.head.startOffset != entryToAppend.startOffset) {
       // Only log a warning if there were non-trivial removals. If the start offset of the new entry
       // matches the start offset of the removed epoch, then no data has been written and the truncation
       // is expected.
       warn(s"New epoch entry $entryToAppend caused truncation of conflicting entries $removedEpochs. " +
-        s"Cache now contains ${epochs.size} entries.")
+        s"Cache now contains $size entries.")
     }
+    removedEpochs.exists { removed =>
+      removed.epoch > entryToAppend.epoch || removed.startOffset != entryToAppend.startOffset
+    }
+  }
+
+  /**
+   * Returns the number of entries which have both a smaller epoch and a smaller start offset than `entry`, which are
+   * a prefix of the entries since both increase.
+   */
+  private def retainedSize(entry: EpochEntry): Int = {
+    math.min(insertionPoint(util.Arrays.binarySearch(epochs, 0, size, entry.epoch)),
+      insertionPoint(util.Arrays.binarySearch(startOffsets, 0, size, entry.startOffset)))
+  }
+
+  /**
+   * Returns the index of the first entry which is not smaller than the searched key.
+   */
+  private def insertionPoint(searchResult: Int): Int = if (searchResult >= 0) searchResult else -(searchResult + 1)
+
+  private def append(entry: EpochEntry): Unit = {
+    if (size == epochs.length) {
+      epochs = util.Arrays.copyOf(epochs, size * 2)
+      startOffsets = util.Arrays.copyOf(startOffsets, size * 2)
+    }
+    epochs(size) = entry.epoch
+    startOffsets(size) = entry.startOffset
+    size += 1
+  }
+
+  private def entry(index: Int): EpochEntry = EpochEntry(epochs(index), startOffsets(index))
+
+  private def entries(from: Int, until: Int): Seq[EpochEntry] = {
+    val result = new ArrayBuffer[EpochEntry](math.max(until - from, 0))
+    for (index <- from until until)
+      result += entry(index)
+    result
   }
 
   def nonEmpty: Boolean = inReadLock(lock) {
-    epochs.nonEmpty
+    size > 0
   }
 
   /**
@@ -101,7 +166,7 @@ class LeaderEpochFileCache(topicPartition: TopicPartition,
    */
   def latestEpoch: Option[Int] = {
     inReadLock(lock) {
-      epochs.lastOption.map(_.epoch)
+      if (size == 0) None else Some(epochs(size - 1))
     }
   }
 
@@ -110,7 +175,7 @@ class LeaderEpochFileCache(topicPartition: TopicPartition,
    */
   def earliestEntry: Option[EpochEntry] = {
     inReadLock(lock) {
-      epochs.headOption
+      if (size == 0) None else Some(entry(0))
     }
   }
 
@@ -136,33 +201,35 @@ class LeaderEpochFileCache(topicPartition: TopicPartition,
           // This may happen if a bootstrapping follower sends a request with undefined epoch or
           // a follower is on the older message format where leader epochs are not recorded
           (UNDEFINED_EPOCH, UNDEFINED_EPOCH_OFFSET)
-        } else if (latestEpoch.contains(requestedEpoch)) {
+        } else if (size > 0 && epochs(size - 1) == requestedEpoch) {
           // For the leader, the latest epoch is always the current leader epoch that is still being written to.
           // Followers should not have any reason to query for the end offset of the current epoch, but a consumer
           // might if it is verifying its committed offset following a group rebalance. In this case, we return
           // the current log end offset which makes the truncation check work as expected.
           (requestedEpoch, logEndOffset())
         } else {
-          val (subsequentEpochs, previousEpochs) = epochs.partition { e => e.epoch > requestedEpoch}
-          if (subsequentEpochs.isEmpty) {
+          // the index of the first epoch larger than the requested epoch
+          val searchResult = util.Arrays.binarySearch(epochs, 0, size, requestedEpoch)
+          val subsequentIndex = if (searchResult >= 0) searchResult + 1 else -(searchResult + 1)
+          if (subsequentIndex == size) {
             // The requested epoch is larger than any known epoch. This case should never be hit because
             // the latest cached epoch is always the largest.
             (UNDEFINED_EPOCH, UNDEFINED_EPOCH_OFFSET)
-          } else if (previousEpochs.isEmpty) {
+          } else if (subsequentIndex == 0) {
             // The requested epoch is smaller than any known epoch, so we return the start offset of the first
             // known epoch which is larger than it. This may be inaccurate as there could have been
             // epochs in between, but the point is that the data has already been removed from the log
             // and we want to ensure that the follower can replicate correctly beginning from the leader's
             // start offset.
-            (requestedEpoch, subsequentEpochs.head.startOffset)
+            (requestedEpoch, startOffsets(0))
           } else {
             // We have at least one previous epoch and one subsequent epoch. The result is the first
             // prior epoch and the starting offset of the first subsequent epoch.
-            (previousEpochs.last.epoch, subsequentEpochs.head.startOffset)
+            (epochs(subsequentIndex - 1), startOffsets(subsequentIndex))
           }
         }
       debug(s"Processed end offset request for epoch $requestedEpoch and returning epoch ${epochAndOffset._1} " +
-        s"with end offset ${epochAndOffset._2} from epoch cache of size ${epochs.size}")
+        s"with end offset ${epochAndOffset._2} from epoch cache of size $size")
       epochAndOffset
     }
   }
@@ -172,14 +239,15 @@ class LeaderEpochFileCache(topicPartition: TopicPartition,
     */
   def truncateFromEnd(endOffset: Long): Unit = {
     inWriteLock(lock) {
-      if (endOffset >= 0 && latestEntry.exists(_.startOffset >= endOffset)) {
-        val (subsequentEntries, previousEntries) = epochs.partition(_.startOffset >= endOffset)
-        epochs = previousEntries
+      if (endOffset >= 0 && size > 0 && startOffsets(size - 1) >= endOffset) {
+        val newSize = insertionPoint(util.Arrays.binarySearch(startOffsets, 0, size, endOffset))
+        val subsequentEntries = entries(newSize, size)
+        size = newSize
 
-        flush()
+        writeCheckpoint()
 
         debug(s"Cleared entries $subsequentEntries from epoch cache after " +
-          s"truncating to end offset $endOffset, leaving ${epochs.size} entries in the cache.")
+          s"truncating to end offset $endOffset, leaving $size entries in the cache.")
       }
     }
   }
@@ -190,22 +258,27 @@ class LeaderEpochFileCache(topicPartition: TopicPartition,
     *
     * This method is exclusive: so clearEarliest(6) will retain an entry at offset 6.
     *
+    * The checkpoint is written by the next `flush`, since the log start offset the entries are cleared up to is
+    * checkpointed separately, and the cleared entries are cleared again when the log is loaded.
+    *
     * @param startOffset the offset to clear up to
     */
   def truncateFromStart(startOffset: Long): Unit = {
     inWriteLock(lock) {
-      if (epochs.nonEmpty) {
-        val (subsequentEntries, previousEntries) = epochs.partition(_.startOffset > startOffset)
-
-        previousEntries.lastOption.foreach { firstBeforeStartOffset =>
-          val updatedFirstEntry = EpochEntry(firstBeforeStartOffset.epoch, startOffset)
-          epochs = updatedFirstEntry +: subsequentEntries
+      // the index of the first entry with a start offset larger than startOffset
+      val searchResult = util.Arrays.binarySearch(startOffsets, 0, size, startOffset)
+      val subsequentIndex = if (searchResult >= 0) searchResult + 1 else -(searchResult + 1)
+      if (subsequentIndex > 0) {
+        val previousEntries = entries(0, subsequentIndex)
+        val firstIndex = subsequentIndex - 1
+        size -= firstIndex
+        System.arraycopy(epochs, firstIndex, epochs, 0, size)
+        System.arraycopy(startOffsets, firstIndex, startOffsets, 0, size)
+        startOffsets(0) = startOffset
+        dirty = true
 
-          flush()
-
-          debug(s"Cleared entries $previousEntries and rewrote first entry $updatedFirstEntry after " +
-            s"truncating to start offset $startOffset, leaving ${epochs.size} in the cache.")
-        }
+        debug(s"Cleared entries $previousEntries and rewrote first entry ${entry(0)} after " +
+          s"truncating to start offset $startOffset, leaving $size in the cache.")
       }
     }
   }
@@ -215,26 +288,38 @@ class LeaderEpochFileCache(topicPartition: TopicPartition,
     */
   def clearAndFlush() = {
     inWriteLock(lock) {
-      epochs.clear()
-      flush()
+      size = 0
+      writeCheckpoint()
     }
   }
 
   def clear() = {
     inWriteLock(lock) {
-      epochs.clear()
+      size = 0
+      dirty = false
+    }
+  }
+
+  /**
+   * Writes the checkpoint if entries were appended or cleared from the start since it was last written.
+   */
+  def flush(): Unit = {
+    inWriteLock(lock) {
+      if (dirty)
+        writeCheckpoint()
     }
   }
 
   // Visible for testing
-  def epochEntries: Seq[EpochEntry] = {
-    epochs
+  def epochEntries: Seq[EpochEntry] = inReadLock(lock) {
+    entries(0, size)
   }
 
-  private def latestEntry: Option[EpochEntry] = epochs.lastOption
+  private def latestEntry: Option[EpochEntry] = if (size == 0) None else Some(entry(size - 1))
 
-  private def flush(): Unit = {
-    checkpoint.write(epochs)
+  private def writeCheckpoint(): Unit = {
+    checkpoint.write(entries(0, size))
+    dirty = false
   }
 
   private def validateAndMaybeWarn(entry: EpochEntry) = {
@@ -21,6 +21,9 @@ import kafka.api.LeaderAndIsr
 import kafka.controller.LeaderIsrAndControllerEpoch
 import kafka.zk._
 import org.apache.kafka.common.TopicPartition
+import org.apache.zookeeper.KeeperException.Code
+
+import scala.collection.Map
 
 object ReplicationUtils extends Logging {
 
@@ -35,6 +38,32 @@ object ReplicationUtils extends Logging {
     updatePersistentPath
   }
 
+  /**
+   * Conditionally update the leader and ISR of several partitions with pipelined requests. Returns the new zkVersion
+   * of each partition whose update succeeded, and None for the others.
+   */
+  def updateLeaderAndIsrs(zkClient: KafkaZkClient,
+                          newLeaderAndIsrs: Map[TopicPartition, LeaderIsrAndControllerEpoch]): Map[TopicPartition, Option[Int]] = {
+    debug(s"Updating ISR of ${newLeaderAndIsrs.size} partitions")
+    zkClient.setTopicPartitionStatesRaw(newLeaderAndIsrs, ZkVersion.MatchAnyVersion).map { setDataResponse =>
+      val partition = setDataResponse.ctx.get.asInstanceOf[TopicPartition]
+      val newVersionOpt = setDataResponse.resultCode match {
+        case Code.OK =>
+          debug(s"Updated ISR for $partition to ${newLeaderAndIsrs(partition).leaderAndIsr.isr.mkString(",")}")
+          Some(setDataResponse.stat.getVersion)
+        case Code.BADVERSION =>
+          // the update may have succeeded before a connection loss, and been retried
+          val newLeaderData = TopicPartitionStateZNode.encode(newLeaderAndIsrs(partition))
+          val (updateSucceeded, newVersion) = checkLeaderAndIsrZkData(zkClient, setDataResponse.path, newLeaderData)
+          if (updateSucceeded) Some(newVersion) else None
+        case _ =>
+          warn(s"Failed to update ISR for $partition due to ${setDataResponse.resultException.get.getMessage}")
+          None
+      }
+      partition -> newVersionOpt
+    }.toMap
+  }
+
   private def checkLeaderAndIsrZkData(zkClient: KafkaZkClient, path: String, expectedLeaderAndIsrInfo: Array[Byte]): (Boolean, Int) = {
     try {
       val (writtenLeaderOpt, writtenStat) = zkClient.getDataAndStat(path)
@@ -1395,6 +1395,24 @@ class KafkaZkClient private[zk] (zooKeeperClient: ZooKeeperClient, isSecure: Boo
     }
   }
 
+  /**
+   * Registers the given ZNodeChangeHandlers and checks the existence of their znodes with pipelined requests.
+   * @param zNodeChangeHandlers the handlers to register
+   * @return whether the znode of each of the handlers exists, by path
+   * @throws KeeperException if an error is returned by ZooKeeper.
+   */
+  def registerZNodeChangeHandlersAndCheckExistence(zNodeChangeHandlers: Seq[ZNodeChangeHandler]): Map[String, Boolean] = {
+    zNodeChangeHandlers.foreach(zooKeeperClient.registerZNodeChangeHandler)
+    val existsResponses = retryRequestsUntilConnected(zNodeChangeHandlers.map(handler => ExistsRequest(handler.path)))
+    existsResponses.map { existsResponse =>
+      existsResponse.resultCode match {
+        case Code.OK => existsResponse.path -> true
+        case Code.NONODE => existsResponse.path -> false
+        case _ => throw existsResponse.resultException.get
+      }
+    }.toMap
+  }
+
   /**
    * See ZooKeeperClient.registerZNodeChangeHandler
    * @param zNodeChangeHandler
@@ -20,8 +20,9 @@ import java.util.Optional
 
 import scala.collection.Seq
 import kafka.cluster.Partition
+import kafka.log.LogOffsetSnapshot
 import org.apache.kafka.common.TopicPartition
-import org.apache.kafka.common.errors.{FencedLeaderEpochException, NotLeaderOrFollowerException}
+import org.apache.kafka.common.errors.{FencedLeaderEpochException, KafkaStorageException, NotLeaderOrFollowerException}
 import org.apache.kafka.common.protocol.Errors
 import org.apache.kafka.common.record.MemoryRecords
 import org.apache.kafka.common.requests.FetchRequest
@@ -118,17 +119,151 @@ class DelayedFetchTest extends EasyMockSupport {
     assertTrue(fetchResultOpt.isDefined)
   }
 
+  @Test
+  def testOnlyChangedPartitionsAreChecked(): Unit = {
+    val tp0 = new TopicPartition("topic", 0)
+    val tp1 = new TopicPartition("topic", 1)
+    val fetchOffset = LogOffsetMetadata(500L, 0L, 5000)
+    val partition0: Partition = mock(classOf[Partition])
+    val partition1: Partition = mock(classOf[Partition])
+
+    var fetchResultOpt: Option[Seq[(TopicPartition, FetchPartitionData)]] = None
+    val delayedFetch = new DelayedFetch(
+      delayMs = 500,
+      fetchMetadata = buildFetchMetadata(replicaId = 1, fetchMinBytes = 100, tp0 -> fetchStatus(fetchOffset), tp1 -> fetchStatus(fetchOffset)),
+      replicaManager = replicaManager,
+      quota = replicaQuota,
+      clientMetadata = None,
+      responseCallback = responses => fetchResultOpt = Some(responses))
+
+    EasyMock.expect(replicaManager.getPartitionOrException(tp0)).andReturn(partition0).anyTimes()
+    EasyMock.expect(replicaManager.getPartitionOrException(tp1)).andReturn(partition1).anyTimes()
+    EasyMock.expect(replicaManager.shouldLeaderThrottle(EasyMock.eq(replicaQuota), EasyMock.anyObject(), EasyMock.eq(1)))
+      .andReturn(false).anyTimes()
+    // each partition is checked once when the fetch is created and once after its own key changes
+    expectLogEnd(partition0, fetchOffset, LogOffsetMetadata(510L, 0L, 5060))
+    expectLogEnd(partition1, fetchOffset, LogOffsetMetadata(510L, 0L, 5050))
+    expectReadFromReplicas()
+
+    replayAll()
+
+    assertFalse(delayedFetch.tryComplete())
+    delayedFetch.onKeyChanged(TopicPartitionOperationKey(tp1))
+    assertFalse(delayedFetch.tryComplete())
+    // the bytes available on the unchanged partition 1 are still counted
+    delayedFetch.onKeyChanged(TopicPartitionOperationKey(tp0))
+    assertTrue(delayedFetch.tryComplete())
+    assertTrue(delayedFetch.isCompleted)
+    assertEquals(Some(Seq.empty), fetchResultOpt)
+
+    verifyAll()
+  }
+
+  @Test
+  def testThrottlingOfOlderSegmentFetchIsCheckedAgain(): Unit = {
+    val tp0 = new TopicPartition("topic", 0)
+    val tp1 = new TopicPartition("topic", 1)
+    val fetchOffset = LogOffsetMetadata(500L, 0L, 5000)
+    val partition0: Partition = mock(classOf[Partition])
+    val partition1: Partition = mock(classOf[Partition])
+
+    val delayedFetch = new DelayedFetch(
+      delayMs = 500,
+      fetchMetadata = buildFetchMetadata(replicaId = 1, fetchMinBytes = 100, tp0 -> fetchStatus(fetchOffset), tp1 -> fetchStatus(fetchOffset)),
+      replicaManager = replicaManager,
+      quota = replicaQuota,
+      clientMetadata = None,
+      responseCallback = _ => ())
+
+    EasyMock.expect(replicaManager.getPartitionOrException(tp0)).andReturn(partition0).anyTimes()
+    EasyMock.expect(replicaManager.getPartitionOrException(tp1)).andReturn(partition1).anyTimes()
+    // partition 0 rolls a new segment, partition 1 does not change
+    expectLogEnd(partition0, fetchOffset, LogOffsetMetadata(600L, 600L, 0))
+    expectLogEnd(partition1, fetchOffset)
+    EasyMock.expect(replicaManager.shouldLeaderThrottle(replicaQuota, partition0, 1)).andReturn(true).andReturn(false)
+    expectReadFromReplicas()
+
+    replayAll()
+
+    assertFalse(delayedFetch.tryComplete())
+    delayedFetch.onKeyChanged(TopicPartitionOperationKey(tp0))
+    assertFalse(delayedFetch.tryComplete())
+    // no partition changed, but partition 0 is no longer throttled
+    assertTrue(delayedFetch.tryComplete())
+
+    verifyAll()
+  }
+
+  @Test
+  def testPartitionInOfflineLogDirIsCheckedWhenItsKeyChanges(): Unit = {
+    val tp0 = new TopicPartition("topic", 0)
+    val tp1 = new TopicPartition("topic", 1)
+    val fetchOffset = LogOffsetMetadata(500L, 0L, 5000)
+    val partition0: Partition = mock(classOf[Partition])
+    val partition1: Partition = mock(classOf[Partition])
+
+    val delayedFetch = new DelayedFetch(
+      delayMs = 500,
+      fetchMetadata = buildFetchMetadata(replicaId = 1, fetchMinBytes = 100, tp0 -> fetchStatus(fetchOffset), tp1 -> fetchStatus(fetchOffset)),
+      replicaManager = replicaManager,
+      quota = replicaQuota,
+      clientMetadata = None,
+      responseCallback = _ => ())
+
+    EasyMock.expect(replicaManager.getPartitionOrException(tp0)).andReturn(partition0)
+    // the log directory of partition 1 goes offline after the first check
+    EasyMock.expect(replicaManager.getPartitionOrException(tp1)).andReturn(partition1)
+      .andThrow(new KafkaStorageException(s"Partition $tp1 is in an offline log directory"))
+    expectLogEnd(partition0, fetchOffset)
+    expectLogEnd(partition1, fetchOffset)
+    expectReadFromReplicas()
+
+    replayAll()
+
+    assertFalse(delayedFetch.tryComplete())
+    delayedFetch.onKeyChanged(TopicPartitionOperationKey(tp1))
+    assertTrue(delayedFetch.tryComplete())
+    assertTrue(delayedFetch.isCompleted)
+
+    verifyAll()
+  }
+
   private def buildFetchMetadata(replicaId: Int,
                                  topicPartition: TopicPartition,
                                  fetchStatus: FetchPartitionStatus): FetchMetadata = {
-    FetchMetadata(fetchMinBytes = 1,
+    buildFetchMetadata(replicaId, fetchMinBytes = 1, topicPartition -> fetchStatus)
+  }
+
+  private def buildFetchMetadata(replicaId: Int,
+                                 fetchMinBytes: Int,
+                                 fetchPartitionStatus: (TopicPartition, FetchPartitionStatus)*): FetchMetadata = {
+    FetchMetadata(fetchMinBytes = fetchMinBytes,
       fetchMaxBytes = maxBytes,
       hardMaxBytesLimit = false,
       fetchOnlyLeader = true,
       fetchIsolation = FetchLogEnd,
       isFromFollower = true,
       replicaId = replicaId,
-      fetchPartitionStatus = Seq((topicPartition, fetchStatus)))
+      fetchPartitionStatus = fetchPartitionStatus)
+  }
+
+  private def fetchStatus(fetchOffset: LogOffsetMetadata): FetchPartitionStatus = {
+    FetchPartitionStatus(
+      startOffsetMetadata = fetchOffset,
+      fetchInfo = new FetchRequest.PartitionData(fetchOffset.messageOffset, 0L, maxBytes, Optional.empty[Integer]))
+  }
+
+  private def expectLogEnd(partition: Partition, logEndOffsets: LogOffsetMetadata*): Unit = {
+    logEndOffsets.foreach { logEndOffset =>
+      EasyMock.expect(partition.fetchOffsetSnapshot(Optional.empty[Integer], fetchOnlyFromLeader = true))
+        .andReturn(LogOffsetSnapshot(0L, logEndOffset, logEndOffset, logEndOffset))
+    }
+  }
+
+  private def expectReadFromReplicas(): Unit = {
+    EasyMock.expect(replicaManager.readFromLocalLog(EasyMock.anyInt(), EasyMock.anyBoolean(), EasyMock.anyObject(),
+      EasyMock.anyInt(), EasyMock.anyBoolean(), EasyMock.anyObject(), EasyMock.anyObject(), EasyMock.anyObject()))
+      .andReturn(Seq.empty)
   }
 
   private def expectReadFromReplicaWithError(replicaId: Int,
@@ -19,7 +19,7 @@ package unit.kafka.cluster
 import java.io.File
 import java.util.Properties
 
-import kafka.api.ApiVersion
+import kafka.api.{ApiVersion, LeaderAndIsr}
 import kafka.cluster.{DelayedOperations, Partition, PartitionStateStore}
 import kafka.log.{CleanerConfig, LogConfig, LogManager}
 import kafka.server.{Defaults, MetadataCache}
@@ -29,7 +29,8 @@ import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.utils.Utils
 import org.junit.{After, Before}
 import org.mockito.ArgumentMatchers
-import org.mockito.Mockito.{mock, when}
+import org.mockito.Mockito.{doAnswer, mock, when}
+import org.mockito.stubbing.Answer
 
 class AbstractPartitionTest {
 
@@ -76,6 +77,26 @@ class AbstractPartitionTest {
       .thenReturn(None)
   }
 
+  /**
+   * Mock the shrinking of the ISR to the given leader and ISR, which completes immediately with the given zkVersion.
+   */
+  def mockShrinkIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr, zkVersionOpt: Option[Int]): Unit = {
+    doAnswer(completeIsrUpdate(zkVersionOpt)).when(stateStore).shrinkIsr(ArgumentMatchers.eq(controllerEpoch),
+      ArgumentMatchers.eq(leaderAndIsr), ArgumentMatchers.any[Option[Int] => Unit]())
+  }
+
+  /**
+   * Mock the expansion of the ISR to the given leader and ISR, which completes immediately with the given zkVersion.
+   */
+  def mockExpandIsr(controllerEpoch: Int, leaderAndIsr: LeaderAndIsr, zkVersionOpt: Option[Int]): Unit = {
+    doAnswer(completeIsrUpdate(zkVersionOpt)).when(stateStore).expandIsr(ArgumentMatchers.eq(controllerEpoch),
+      ArgumentMatchers.eq(leaderAndIsr), ArgumentMatchers.any[Option[Int] => Unit]())
+  }
+
+  private def completeIsrUpdate(zkVersionOpt: Option[Int]): Answer[Unit] = { invocation =>
+    invocation.getArgument[Option[Int] => Unit](2).apply(zkVersionOpt)
+  }
+
   def createLogProperties(overrides: Map[String, String]): Properties = {
     val logProps = new Properties()
     logProps.put(LogConfig.SegmentBytesProp, 512: java.lang.Integer)
@@ -17,7 +17,7 @@
 
 package kafka.cluster
 
-import java.util.Properties
+import java.util.{Optional, Properties}
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent._
 
@@ -28,12 +28,14 @@ import kafka.server.checkpoints.OffsetCheckpoints
 import kafka.utils._
 import org.apache.kafka.common.message.LeaderAndIsrRequestData.LeaderAndIsrPartitionState
 import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.errors.ApiException
 import org.apache.kafka.common.record.{MemoryRecords, SimpleRecord}
 import org.apache.kafka.common.utils.Utils
 import org.junit.Assert.{assertEquals, assertFalse, assertTrue}
 import org.junit.{After, Before, Test}
 import org.mockito.ArgumentMatchers
-import org.mockito.Mockito.{mock, when}
+import org.mockito.Mockito.{doAnswer, mock, when}
+import org.mockito.stubbing.Answer
 
 import scala.jdk.CollectionConverters._
 import scala.concurrent.duration._
@@ -167,6 +169,74 @@ class PartitionLockTest extends Logging {
     assertTrue(s"Expected replica $replicaToCheck to be defined", partition.getReplica(replicaToCheck).isDefined)
   }
 
+  /**
+   * Verifies that fetches and offset lookups complete while a scheduler thread holds the write lock
+   * to update the ISR, since they read the leader state without acquiring the lock.
+   */
+  @Test
+  def testReadWithUpdateIsr(): Unit = {
+    val active = new AtomicBoolean(true)
+
+    val future = scheduleShrinkIsr(active, mockTimeSleepMs = 10000)
+    TestUtils.waitUntilTrue(() => shrinkIsrSemaphore.hasQueuedThreads, "shrinkIsr not invoked")
+    val readFuture = executorService.submit((() => {
+      partition.readRecords(0L, Optional.of(1), maxBytes = 1024, FetchHighWatermark,
+        fetchOnlyFromLeader = true, minOneMessage = true)
+      partition.fetchOffsetSnapshot(Optional.of(1), fetchOnlyFromLeader = true)
+      partition.lastOffsetForLeaderEpoch(Optional.of(1), 1, fetchOnlyFromLeader = true)
+    }): Runnable)
+    readFuture.get(15, TimeUnit.SECONDS)
+    assertTrue("shrinkIsr should still hold the write lock", shrinkIsrSemaphore.hasQueuedThreads)
+
+    active.set(false)
+    shrinkIsrSemaphore.release()
+    future.get(15, TimeUnit.SECONDS)
+  }
+
+  /**
+   * Fetches read the leader epoch and the leader without acquiring a lock, so they must never see
+   * the epoch of a leader change without the leader it was made for.
+   */
+  @Test
+  def testReadConsistentLeaderStateWithLeaderChanges(): Unit = {
+    val active = new AtomicBoolean(true)
+    val replicas = Seq[Integer](0, 1).asJava
+    val offsetCheckpoints: OffsetCheckpoints = mock(classOf[OffsetCheckpoints])
+    def partitionState(leader: Int, leaderEpoch: Int) = new LeaderAndIsrPartitionState()
+      .setControllerEpoch(1)
+      .setLeader(leader)
+      .setLeaderEpoch(leaderEpoch)
+      .setIsr(replicas)
+      .setZkVersion(1)
+      .setReplicas(replicas)
+      .setIsNew(false)
+
+    // the local broker is the leader in even epochs and a follower in odd epochs
+    val future = executorService.submit((() => {
+      var leaderEpoch = 2
+      while (active.get) {
+        if (leaderEpoch % 2 == 0)
+          partition.makeLeader(partitionState(0, leaderEpoch), offsetCheckpoints)
+        else
+          partition.makeFollower(partitionState(1, leaderEpoch), offsetCheckpoints)
+        leaderEpoch += 1
+      }
+    }): Runnable)
+
+    val deadline = 1.seconds.fromNow
+    while (deadline.hasTimeLeft()) {
+      val leaderEpoch = partition.getLeaderEpoch
+      try {
+        partition.fetchOffsetSnapshot(Optional.of(leaderEpoch), fetchOnlyFromLeader = true)
+        assertEquals(s"Fetch from leader succeeded in follower epoch $leaderEpoch", 0, leaderEpoch % 2)
+      } catch {
+        case _: ApiException => // the epoch or the leader has changed
+      }
+    }
+    active.set(false)
+    future.get(5, TimeUnit.SECONDS)
+  }
+
   /**
    * Perform concurrent appends and replica fetch requests that don't require write lock to
    * update follower state. Release sufficient append permits to complete all except one append.
@@ -264,7 +334,7 @@ class PartitionLockTest extends Logging {
       metadataCache,
       logManager) {
 
-      override def shrinkIsr(newIsr: Set[Int]): Unit = {
+      override def shrinkIsr(newIsr: Set[Int]): PendingIsrUpdate = {
         shrinkIsrSemaphore.acquire()
         try {
           super.shrinkIsr(newIsr)
@@ -281,10 +351,11 @@ class PartitionLockTest extends Logging {
     when(stateStore.fetchTopicConfig()).thenReturn(createLogProperties(Map.empty))
     when(offsetCheckpoints.fetch(ArgumentMatchers.anyString, ArgumentMatchers.eq(topicPartition)))
       .thenReturn(None)
-    when(stateStore.shrinkIsr(ArgumentMatchers.anyInt, ArgumentMatchers.any[LeaderAndIsr]))
-      .thenReturn(Some(2))
-    when(stateStore.expandIsr(ArgumentMatchers.anyInt, ArgumentMatchers.any[LeaderAndIsr]))
-      .thenReturn(Some(2))
+    val completeIsrUpdate: Answer[Unit] = invocation => invocation.getArgument[Option[Int] => Unit](2).apply(Some(2))
+    doAnswer(completeIsrUpdate).when(stateStore).shrinkIsr(ArgumentMatchers.anyInt, ArgumentMatchers.any[LeaderAndIsr],
+      ArgumentMatchers.any[Option[Int] => Unit]())
+    doAnswer(completeIsrUpdate).when(stateStore).expandIsr(ArgumentMatchers.anyInt, ArgumentMatchers.any[LeaderAndIsr],
+      ArgumentMatchers.any[Option[Int] => Unit]())
 
     partition.createLogIfNotExists(isNew = false, isFutureReplica = false, offsetCheckpoints)
 
@@ -41,7 +41,7 @@ import org.junit.Test
 import org.junit.Assert._
 import org.mockito.Mockito._
 import org.scalatest.Assertions.assertThrows
-import org.mockito.ArgumentMatchers
+import org.mockito.{ArgumentCaptor, ArgumentMatchers}
 import org.mockito.invocation.InvocationOnMock
 import unit.kafka.cluster.AbstractPartitionTest
 
@@ -519,9 +519,8 @@ class PartitionTest extends AbstractPartitionTest {
       }
     }
 
-    when(stateStore.expandIsr(controllerEpoch, new LeaderAndIsr(leader, leaderEpoch,
-      List(leader, follower2, follower1), 1)))
-      .thenReturn(Some(2))
+    mockExpandIsr(controllerEpoch, new LeaderAndIsr(leader, leaderEpoch,
+      List(leader, follower2, follower1), 1), Some(2))
 
     updateFollowerFetchState(follower1, LogOffsetMetadata(0))
     updateFollowerFetchState(follower1, LogOffsetMetadata(2))
@@ -612,9 +611,8 @@ class PartitionTest extends AbstractPartitionTest {
       case Left(e: ApiException) => fail(s"Should have seen OffsetNotAvailableException, saw $e")
     }
 
-    when(stateStore.expandIsr(controllerEpoch, new LeaderAndIsr(leader, leaderEpoch + 2,
-      List(leader, follower2, follower1), 5)))
-      .thenReturn(Some(2))
+    mockExpandIsr(controllerEpoch, new LeaderAndIsr(leader, leaderEpoch + 2,
+      List(leader, follower2, follower1), 5), Some(2))
 
     // Next fetch from replicas, HW is moved up to 5 (ahead of the LEO)
     updateFollowerFetchState(follower1, LogOffsetMetadata(5))
@@ -916,8 +914,8 @@ class PartitionTest extends AbstractPartitionTest {
 
     // fetch from the follower not in ISR from start offset of the current leader epoch should
     // add this follower to ISR
-    when(stateStore.expandIsr(controllerEpoch, new LeaderAndIsr(leader, leaderEpoch + 2,
-      List(leader, follower2, follower1), 1))).thenReturn(Some(2))
+    mockExpandIsr(controllerEpoch, new LeaderAndIsr(leader, leaderEpoch + 2,
+      List(leader, follower2, follower1), 1), Some(2))
     updateFollowerFetchState(follower1, LogOffsetMetadata(currentLeaderEpochStartOffset))
     assertEquals("ISR", Set[Integer](leader, follower1, follower2), partition.inSyncReplicaIds)
   }
@@ -954,14 +952,6 @@ class PartitionTest extends AbstractPartitionTest {
         metadataCache,
         logManager)
 
-      when(delayedOperations.checkAndCompleteFetch())
-        .thenAnswer((invocation: InvocationOnMock) => {
-          // Acquire leaderIsrUpdate read lock of a different partition when completing delayed fetch
-          val anotherPartition = (tp.partition + 1) % topicPartitions.size
-          val partition = partitions(anotherPartition)
-          partition.fetchOffsetSnapshot(Optional.of(leaderEpoch), fetchOnlyFromLeader = true)
-        })
-
       partition.setLog(log, isFutureLog = false)
       val leaderState = new LeaderAndIsrPartitionState()
         .setControllerEpoch(controllerEpoch)
@@ -973,6 +963,14 @@ class PartitionTest extends AbstractPartitionTest {
         .setIsNew(true)
       partition.makeLeader(leaderState, offsetCheckpoints)
       partitions += partition
+
+      when(delayedOperations.checkAndCompleteFetch())
+        .thenAnswer((invocation: InvocationOnMock) => {
+          // Acquire leaderIsrUpdate read lock of a different partition when completing delayed fetch
+          val anotherPartition = (tp.partition + 1) % topicPartitions.size
+          val partition = partitions(anotherPartition)
+          partition.fetchOffsetSnapshot(Optional.of(leaderEpoch), fetchOnlyFromLeader = true)
+        })
     }
 
     def createRecords(baseOffset: Long): MemoryRecords = {
@@ -1176,7 +1174,7 @@ class PartitionTest extends AbstractPartitionTest {
       leaderEpoch = leaderEpoch,
       isr = List(brokerId, remoteBrokerId),
       zkVersion = 1)
-    when(stateStore.expandIsr(controllerEpoch, updatedLeaderAndIsr)).thenReturn(Some(2))
+    mockExpandIsr(controllerEpoch, updatedLeaderAndIsr, Some(2))
 
     partition.updateFollowerFetchState(remoteBrokerId,
       followerFetchOffsetMetadata = LogOffsetMetadata(10),
@@ -1226,7 +1224,7 @@ class PartitionTest extends AbstractPartitionTest {
       leaderEpoch = leaderEpoch,
       isr = List(brokerId, remoteBrokerId),
       zkVersion = 1)
-    when(stateStore.expandIsr(controllerEpoch, updatedLeaderAndIsr)).thenReturn(None)
+    mockExpandIsr(controllerEpoch, updatedLeaderAndIsr, None)
 
     partition.updateFollowerFetchState(remoteBrokerId,
       followerFetchOffsetMetadata = LogOffsetMetadata(10),
@@ -1287,13 +1285,68 @@ class PartitionTest extends AbstractPartitionTest {
       leaderEpoch = leaderEpoch,
       isr = List(brokerId),
       zkVersion = 1)
-    when(stateStore.shrinkIsr(controllerEpoch, updatedLeaderAndIsr)).thenReturn(Some(2))
+    mockShrinkIsr(controllerEpoch, updatedLeaderAndIsr, Some(2))
 
     partition.maybeShrinkIsr()
     assertEquals(Set(brokerId), partition.inSyncReplicaIds)
     assertEquals(10L, partition.localLogOrException.highWatermark)
   }
 
+  @Test
+  def testIsrUpdateIgnoredAfterLeaderChange(): Unit = {
+    val log = logManager.getOrCreateLog(topicPartition, () => logConfig)
+    seedLogData(log, numRecords = 10, leaderEpoch = 4)
+
+    val controllerEpoch = 0
+    val leaderEpoch = 5
+    val remoteBrokerId = brokerId + 1
+    val replicas = List(brokerId, remoteBrokerId)
+    val isr = List[Integer](brokerId, remoteBrokerId).asJava
+
+    doNothing().when(delayedOperations).checkAndCompleteFetch()
+
+    def makeLeader(leaderEpoch: Int): Unit = {
+      partition.makeLeader(
+        new LeaderAndIsrPartitionState()
+          .setControllerEpoch(controllerEpoch)
+          .setLeader(brokerId)
+          .setLeaderEpoch(leaderEpoch)
+          .setIsr(isr)
+          .setZkVersion(1)
+          .setReplicas(replicas.map(Int.box).asJava)
+          .setIsNew(true),
+        offsetCheckpoints)
+    }
+
+    partition.createLogIfNotExists(isNew = false, isFutureReplica = false, offsetCheckpoints)
+    makeLeader(leaderEpoch)
+    assertEquals(Set(brokerId, remoteBrokerId), partition.inSyncReplicaIds)
+
+    // the ISR is shrunk once the update is written, which the state store has not completed yet
+    time.sleep(partition.replicaLagTimeMaxMs + 1)
+    val updatedLeaderAndIsr = LeaderAndIsr(
+      leader = brokerId,
+      leaderEpoch = leaderEpoch,
+      isr = List(brokerId),
+      zkVersion = 1)
+    val callbackCaptor: ArgumentCaptor[Option[Int] => Unit] = ArgumentCaptor.forClass(classOf[Option[Int] => Unit])
+    partition.maybeShrinkIsr()
+    verify(stateStore).shrinkIsr(ArgumentMatchers.eq(controllerEpoch), ArgumentMatchers.eq(updatedLeaderAndIsr),
+      callbackCaptor.capture())
+    assertEquals(Set(brokerId, remoteBrokerId), partition.inSyncReplicaIds)
+
+    // no other ISR change is made while the update is pending
+    partition.maybeShrinkIsr()
+    verify(stateStore, times(1)).shrinkIsr(ArgumentMatchers.anyInt, ArgumentMatchers.any[LeaderAndIsr],
+      ArgumentMatchers.any[Option[Int] => Unit]())
+
+    // the update is based on the previous leader epoch once the partition state changes
+    makeLeader(leaderEpoch + 1)
+    callbackCaptor.getValue.apply(Some(2))
+    assertEquals(Set(brokerId, remoteBrokerId), partition.inSyncReplicaIds)
+    assertEquals(leaderEpoch + 1, partition.getLeaderEpoch)
+  }
+
   @Test
   def testShouldNotShrinkIsrIfPreviousFetchIsCaughtUp(): Unit = {
     val log = logManager.getOrCreateLog(topicPartition, () => logConfig)
@@ -1460,7 +1513,7 @@ class PartitionTest extends AbstractPartitionTest {
       leaderEpoch = leaderEpoch,
       isr = List(brokerId),
       zkVersion = 1)
-    when(stateStore.shrinkIsr(controllerEpoch, updatedLeaderAndIsr)).thenReturn(None)
+    mockShrinkIsr(controllerEpoch, updatedLeaderAndIsr, None)
 
     partition.maybeShrinkIsr()
     assertEquals(Set(brokerId, remoteBrokerId), partition.inSyncReplicaIds)
@@ -16,21 +16,28 @@
  */
 package kafka.controller
 
-import java.util.Properties
+import java.util
+import java.util.{Collections, Properties}
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
 
 import kafka.api.{ApiVersion, KAFKA_0_10_0_IV1, KAFKA_0_10_2_IV0, KAFKA_0_9_0, KAFKA_1_0_IV0, KAFKA_2_2_IV0, KAFKA_2_4_IV0, KAFKA_2_4_IV1, KAFKA_2_6_IV0, LeaderAndIsr}
 import kafka.cluster.{Broker, EndPoint}
 import kafka.server.KafkaConfig
-import kafka.utils.TestUtils
-import org.apache.kafka.common.TopicPartition
+import kafka.utils.{MockTime, TestUtils}
+import com.yammer.metrics.core.MetricsRegistry
+import org.apache.kafka.clients.MockClient
+import org.apache.kafka.clients.MockClient.MockMetadataUpdater
+import org.apache.kafka.common.{Node, TopicPartition}
 import org.apache.kafka.common.message.{LeaderAndIsrResponseData, StopReplicaResponseData, UpdateMetadataResponseData}
 import org.apache.kafka.common.message.LeaderAndIsrResponseData.LeaderAndIsrPartitionError
+import org.apache.kafka.common.message.UpdateMetadataRequestData.{UpdateMetadataBroker, UpdateMetadataPartitionState}
 import org.apache.kafka.common.message.StopReplicaRequestData.StopReplicaPartitionState
 import org.apache.kafka.common.message.StopReplicaResponseData.StopReplicaPartitionError
 import org.apache.kafka.common.network.ListenerName
 import org.apache.kafka.common.protocol.{ApiKeys, Errors}
 import org.apache.kafka.common.requests.{AbstractControlRequest, AbstractResponse, LeaderAndIsrRequest, LeaderAndIsrResponse, StopReplicaRequest, StopReplicaResponse, UpdateMetadataRequest, UpdateMetadataResponse}
 import org.apache.kafka.common.security.auth.SecurityProtocol
+import org.apache.kafka.common.utils.Time
 import org.junit.Assert._
 import org.junit.Test
 import org.scalatest.Assertions
@@ -765,6 +772,79 @@ class ControllerChannelManagerTest {
       allVersions.forall(_ == expectedStopReplicaRequestVersion))
   }
 
+  @Test
+  def testRequestsArePipelined(): Unit = {
+    val sendThread = new TestRequestSendThread(maxInFlightRequests = 3)
+    sendThread.queueLeaderAndIsr("a")
+    sendThread.queueStopReplica("b")
+    sendThread.queueLeaderAndIsr("c")
+    sendThread.queueLeaderAndIsr("d")
+
+    sendThread.doWork()
+    assertEquals(List(ApiKeys.LEADER_AND_ISR, ApiKeys.STOP_REPLICA, ApiKeys.LEADER_AND_ISR),
+      sendThread.client.requests.asScala.map(_.apiKey).toList)
+
+    sendThread.client.respond(new LeaderAndIsrResponse(new LeaderAndIsrResponseData()))
+    sendThread.client.respond(new StopReplicaResponse(new StopReplicaResponseData()))
+    sendThread.doWork()
+    assertEquals(List("a", "b"), sendThread.completedRequests.toList)
+    // the fourth request is sent once the responses of the first requests are received
+    sendThread.doWork()
+    assertEquals(List(ApiKeys.LEADER_AND_ISR, ApiKeys.LEADER_AND_ISR),
+      sendThread.client.requests.asScala.map(_.apiKey).toList)
+    sendThread.close()
+  }
+
+  @Test
+  def testRequestsInFlightAreResentAfterDisconnection(): Unit = {
+    val sendThread = new TestRequestSendThread(maxInFlightRequests = 2)
+    sendThread.queueLeaderAndIsr("a")
+    sendThread.queueStopReplica("b")
+
+    sendThread.doWork()
+    assertEquals(2, sendThread.client.requests.size)
+    sendThread.client.disconnect(sendThread.brokerNode.idString)
+    sendThread.doWork()
+    assertTrue(sendThread.client.requests.isEmpty)
+    assertTrue(sendThread.completedRequests.isEmpty)
+
+    sendThread.doWork()
+    assertEquals(List(ApiKeys.LEADER_AND_ISR, ApiKeys.STOP_REPLICA),
+      sendThread.client.requests.asScala.map(_.apiKey).toList)
+    sendThread.client.respond(new LeaderAndIsrResponse(new LeaderAndIsrResponseData()))
+    sendThread.client.respond(new StopReplicaResponse(new StopReplicaResponseData()))
+    sendThread.doWork()
+    assertEquals(List("a", "b"), sendThread.completedRequests.toList)
+    sendThread.close()
+  }
+
+  @Test
+  def testQueuedUpdateMetadataRequestsAreMerged(): Unit = {
+    val foo0 = new TopicPartition("foo", 0)
+    val foo1 = new TopicPartition("foo", 1)
+    val sendThread = new TestRequestSendThread(maxInFlightRequests = 1)
+    sendThread.queueUpdateMetadata("a", Map(foo0 -> 1, foo1 -> 1), Seq(1, 2))
+    sendThread.queueUpdateMetadata("b", Map(foo1 -> 2), Seq(1, 2, 3))
+    sendThread.queueLeaderAndIsr("c")
+    sendThread.queueUpdateMetadata("d", Map(foo0 -> 2), Seq(1, 2, 3))
+
+    sendThread.doWork()
+    assertEquals(1, sendThread.client.requests.size)
+    val request = sendThread.client.requests.peek.requestBuilder.build().asInstanceOf[UpdateMetadataRequest]
+    assertEquals(Map(foo0 -> 1, foo1 -> 2), request.partitionStates.asScala
+      .map(state => new TopicPartition(state.topicName, state.partitionIndex) -> state.leader).toMap)
+    assertEquals(Seq(1, 2, 3), request.liveBrokers.asScala.map(_.id))
+    assertEquals(1, sendThread.mergedRequestsMeter.count)
+
+    sendThread.client.respond(new UpdateMetadataResponse(new UpdateMetadataResponseData()))
+    sendThread.doWork()
+    assertEquals(List("a", "b"), sendThread.completedRequests.toList)
+    // requests are not merged across other requests
+    sendThread.doWork()
+    assertEquals(List(ApiKeys.LEADER_AND_ISR), sendThread.client.requests.asScala.map(_.apiKey).toList)
+    sendThread.close()
+  }
+
   private case class LeaderAndDelete(leaderAndIsr: LeaderAndIsr,
                                      deletePartition: Boolean)
 
@@ -876,6 +956,49 @@ class ControllerChannelManagerTest {
     context
   }
 
+  private class TestRequestSendThread(maxInFlightRequests: Int) {
+    private val props = TestUtils.createBrokerConfig(controllerId, "zkConnect")
+    props.put(KafkaConfig.ControllerMaxInFlightRequestsPerBrokerProp, maxInFlightRequests.toString)
+    private val time = new MockTime()
+    private val metricsRegistry = new MetricsRegistry()
+    private val queue = new LinkedBlockingQueue[QueueItem]()
+    val brokerNode = new Node(2, "localhost", 9092)
+    val client = new MockClient(time, new MockMetadataUpdater {
+      override def fetchNodes(): util.List[Node] = Collections.singletonList(brokerNode)
+      override def isUpdateNeeded: Boolean = false
+      override def update(time: Time, update: MockClient.MetadataUpdate): Unit = {}
+    })
+    val mergedRequestsMeter = metricsRegistry.newMeter(getClass, "MergedRequests", "requests", TimeUnit.SECONDS)
+    val completedRequests = ListBuffer.empty[String]
+    private val thread = new RequestSendThread(controllerId, new ControllerContext, queue, client, brokerNode,
+      KafkaConfig.fromProps(props), time, metricsRegistry.newTimer(getClass, "QueueTime"), mergedRequestsMeter,
+      logger, "send-thread")
+
+    def doWork(): Unit = thread.doWork()
+
+    def close(): Unit = metricsRegistry.shutdown()
+
+    private def enqueue(request: ControlRequest, name: String): Unit =
+      queue.put(QueueItem(request.apiKey, request, _ => completedRequests += name, time.milliseconds()))
+
+    def queueLeaderAndIsr(name: String): Unit = enqueue(new LeaderAndIsrRequest.Builder(ApiKeys.LEADER_AND_ISR.latestVersion,
+      controllerId, controllerEpoch, 0L, Collections.emptyList(), Collections.emptyList()), name)
+
+    def queueStopReplica(name: String): Unit = enqueue(new StopReplicaRequest.Builder(ApiKeys.STOP_REPLICA.latestVersion,
+      controllerId, controllerEpoch, 0L, false, Collections.emptyList()), name)
+
+    def queueUpdateMetadata(name: String, leaders: Map[TopicPartition, Int], liveBrokers: Seq[Int]): Unit = {
+      val partitionStates = leaders.map { case (partition, leader) =>
+        new UpdateMetadataPartitionState()
+          .setTopicName(partition.topic)
+          .setPartitionIndex(partition.partition)
+          .setLeader(leader)
+      }.toBuffer.asJava
+      enqueue(new UpdateMetadataRequest.Builder(ApiKeys.UPDATE_METADATA.latestVersion, controllerId, controllerEpoch, 0L,
+        partitionStates, liveBrokers.map(new UpdateMetadataBroker().setId(_)).asJava), name)
+    }
+  }
+
   private case class SentRequest(request: ControlRequest, responseCallback: AbstractResponse => Unit)
 
   private class MockControllerBrokerRequestBatch(context: ControllerContext, config: KafkaConfig = config)
@@ -119,7 +119,8 @@ class ControllerEventManagerTest {
       time, controllerStats.rateAndTimeMetrics)
     controllerEventManager.start()
 
-    controllerEventManager.put(TopicChange)
+    // TopicChange is idempotent, so the second event is only queued once the first one is being processed
+    controllerEventManager.put(TopicChange).awaitProcessing()
     controllerEventManager.put(TopicChange)
     latch.countDown()
 
@@ -135,6 +136,76 @@ class ControllerEventManagerTest {
     assertEquals(500, queueTimeHistogram.max, 0.01)
   }
 
+  @Test
+  def testIdempotentEventsAreCoalesced(): Unit = {
+    val latch = new CountDownLatch(1)
+    val processedEvents = mutable.Buffer.empty[ControllerEvent]
+    val eventProcessor = new ControllerEventProcessor {
+      override def process(event: ControllerEvent): Unit = {
+        latch.await()
+        processedEvents.synchronized(processedEvents += event)
+      }
+      override def preempt(event: ControllerEvent): Unit = {}
+    }
+
+    controllerEventManager = new ControllerEventManager(0, eventProcessor,
+      new MockTime(), new ControllerStats().rateAndTimeMetrics)
+    controllerEventManager.start()
+
+    controllerEventManager.put(AutoPreferredReplicaLeaderElection).awaitProcessing()
+    val queuedEvent = controllerEventManager.put(TopicChange)
+    controllerEventManager.put(IsrChangeNotification)
+    assertTrue(queuedEvent eq controllerEventManager.put(TopicChange))
+    controllerEventManager.put(AutoPreferredReplicaLeaderElection)
+    controllerEventManager.put(AutoPreferredReplicaLeaderElection)
+    latch.countDown()
+
+    TestUtils.waitUntilTrue(() => controllerEventManager.isEmpty && controllerEventManager.state == ControllerState.Idle,
+      "Timed out waiting for processing of all events")
+    assertEquals(Seq(AutoPreferredReplicaLeaderElection, TopicChange, IsrChangeNotification,
+      AutoPreferredReplicaLeaderElection, AutoPreferredReplicaLeaderElection), processedEvents.synchronized(processedEvents.toList))
+  }
+
+  @Test
+  def testBatchableEventsAreProcessedInBatches(): Unit = {
+    val latch = new CountDownLatch(1)
+    val batches = mutable.Buffer.empty[Seq[ControllerEvent]]
+    val eventProcessor = new ControllerEventProcessor {
+      override def process(event: ControllerEvent): Unit = processBatch(Seq(event))
+      override def processBatch(events: collection.Seq[ControllerEvent]): Unit = {
+        latch.await()
+        batches.synchronized(batches += events.toList)
+      }
+      override def preempt(event: ControllerEvent): Unit = {}
+    }
+
+    controllerEventManager = new ControllerEventManager(0, eventProcessor,
+      new MockTime(), new ControllerStats().rateAndTimeMetrics)
+    controllerEventManager.start()
+
+    controllerEventManager.put(TopicChange).awaitProcessing()
+    controllerEventManager.put(PartitionModifications("foo"))
+    controllerEventManager.put(PartitionModifications("bar"))
+    controllerEventManager.put(PartitionModifications("foo"))
+    controllerEventManager.put(BrokerModifications(1))
+    controllerEventManager.put(PartitionModifications("baz"))
+    latch.countDown()
+
+    TestUtils.waitUntilTrue(() => batches.synchronized(batches.size) == 4,
+      "Timed out waiting for processing of all events")
+    assertEquals(Seq(
+      Seq(TopicChange),
+      Seq(PartitionModifications("foo"), PartitionModifications("bar")),
+      Seq(BrokerModifications(1)),
+      Seq(PartitionModifications("baz"))), batches.synchronized(batches.toList))
+
+    val batchSizeHistogram = KafkaYammerMetrics.defaultRegistry.allMetrics.asScala.filter { case (k, _) =>
+      k.getMBeanName == "kafka.controller:type=ControllerEventManager,name=EventBatchSize,event=PartitionModifications"
+    }.values.headOption.getOrElse(fail("Unable to find the batch size metric")).asInstanceOf[Histogram]
+    assertEquals(2, batchSizeHistogram.count)
+    assertEquals(2, batchSizeHistogram.max, 0.01)
+  }
+
   @Test
   def testSuccessfulEvent(): Unit = {
     check("kafka.controller:type=ControllerStats,name=AutoLeaderBalanceRateAndTimeMs",
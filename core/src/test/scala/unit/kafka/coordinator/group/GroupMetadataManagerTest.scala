@@ -29,8 +29,9 @@ import kafka.cluster.Partition
 import kafka.common.OffsetAndMetadata
 import kafka.log.{AppendOrigin, Log, LogAppendInfo}
 import kafka.metrics.KafkaYammerMetrics
-import kafka.server.{FetchDataInfo, FetchLogEnd, HostedPartition, KafkaConfig, LogOffsetMetadata, ReplicaManager}
+import kafka.server.{DelayedOperationPurgatory, FetchDataInfo, FetchLogEnd, HostedPartition, KafkaConfig, LogOffsetMetadata, ReplicaManager}
 import kafka.utils.{KafkaScheduler, MockTime, TestUtils}
+import kafka.utils.timer.MockTimer
 import kafka.zk.KafkaZkClient
 import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor
 import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor.Subscription
@@ -808,6 +809,120 @@ class GroupMetadataManagerTest {
     }
   }
 
+  /**
+   * Expects the load of a partition of two segments: the offsets of groupA are only in the first segment, groupB
+   * commits offsets in both segments and groupC commits transactional offsets in the first segment, which are
+   * committed by a marker in the second segment.
+   */
+  private def expectLoadOfGroupsInTwoSegments(tp0: TopicPartition, tp1: TopicPartition): Seq[String] = {
+    val groups @ Seq(groupA, groupB, groupC) = (0 until 100).map(i => s"group-$i")
+      .filter(groupMetadataManager.partitionFor(_) == groupPartitionId).take(3)
+    val producerId = 1000L
+    val producerEpoch: Short = 2
+
+    def appendOffsetCommits(buffer: ByteBuffer, group: String, baseOffset: Long, offsets: Map[TopicPartition, Long]): Int = {
+      val builder = MemoryRecords.builder(buffer, CompressionType.NONE, TimestampType.LOG_APPEND_TIME, baseOffset)
+      createCommittedOffsetRecords(offsets, groupId = group).foreach(builder.append)
+      builder.build()
+      offsets.size
+    }
+
+    val logMock: Log = EasyMock.mock(classOf[Log])
+    EasyMock.expect(replicaManager.getLog(groupTopicPartition)).andStubReturn(Some(logMock))
+
+    val segment1Buffer = ByteBuffer.allocate(1024)
+    var nextOffset = 0L
+    nextOffset += appendOffsetCommits(segment1Buffer, groupA, nextOffset, Map(tp0 -> 10L, tp1 -> 11L))
+    nextOffset += appendOffsetCommits(segment1Buffer, groupB, nextOffset, Map(tp0 -> 20L, tp1 -> 21L))
+    val txnOffsetsBuffer = ByteBuffer.allocate(1024)
+    val txnBuilder = MemoryRecords.builder(txnOffsetsBuffer, CompressionType.NONE, nextOffset, producerId, producerEpoch, 0, true)
+    createCommittedOffsetRecords(Map(tp0 -> 30L), groupId = groupC).foreach(txnBuilder.append)
+    val txnOffsets = txnBuilder.build()
+    segment1Buffer.put(txnOffsets.buffer)
+    nextOffset += 1
+    segment1Buffer.flip()
+    val segment1End = expectGroupMetadataLoad(logMock, 0L, MemoryRecords.readableRecords(segment1Buffer))
+
+    val segment2Buffer = ByteBuffer.allocate(1024)
+    nextOffset += appendOffsetCommits(segment2Buffer, groupB, segment1End, Map(tp1 -> 22L))
+    nextOffset += completeTransactionalOffsetCommit(segment2Buffer, producerId, producerEpoch, nextOffset, isCommit = true)
+    segment2Buffer.flip()
+    val segment2End = expectGroupMetadataLoad(logMock, segment1End, MemoryRecords.readableRecords(segment2Buffer))
+
+    EasyMock.expect(replicaManager.getLogEndOffset(groupTopicPartition)).andStubReturn(Some(segment2End))
+    EasyMock.replay(logMock, replicaManager)
+    groups
+  }
+
+  @Test
+  def testOffsetsOfLoadedGroupsCanBeFetchedBeforePartitionIsLoaded(): Unit = {
+    val tp0 = new TopicPartition("foo", 0)
+    val tp1 = new TopicPartition("foo", 1)
+    val Seq(groupA, groupB, groupC) = expectLoadOfGroupsInTwoSegments(tp0, tp1)
+
+    // whether the offsets of groupA and groupB could be fetched when each group was loaded
+    val loadedGroups = mutable.ArrayBuffer[(String, Boolean, Boolean)]()
+    def onGroupLoaded(group: GroupMetadata): Unit = {
+      loadedGroups += ((group.groupId, groupMetadataManager.isGroupOffsetsLoading(groupA),
+        groupMetadataManager.isGroupOffsetsLoading(groupB)))
+    }
+
+    assertTrue(groupMetadataManager.addLoadingPartition(groupPartitionId))
+    assertTrue(groupMetadataManager.isGroupOffsetsLoading(groupA))
+    groupMetadataManager.loadGroupsAndOffsets(groupTopicPartition, onGroupLoaded, 0L)
+
+    // groupA is loaded with the first segment, groupB with the second segment and groupC once the partition is loaded
+    assertEquals(Seq((groupA, true, true), (groupB, false, true), (groupC, false, false)), loadedGroups)
+    assertFalse(groupMetadataManager.isGroupOffsetsLoading(groupA))
+    assertFalse(groupMetadataManager.isGroupOffsetsLoading(groupB))
+
+    def offsets(group: String): Map[TopicPartition, Long] =
+      groupMetadataManager.getGroup(group).map(_.allOffsets.map { case (tp, offset) => tp -> offset.offset }).get
+    assertEquals(Map(tp0 -> 10L, tp1 -> 11L), offsets(groupA))
+    assertEquals(Map(tp0 -> 20L, tp1 -> 22L), offsets(groupB))
+    assertEquals(Map(tp0 -> 30L), offsets(groupC))
+  }
+
+  @Test
+  def testCoordinatorFetchesOffsetsOfLoadedGroupsBeforePartitionIsLoaded(): Unit = {
+    val tp0 = new TopicPartition("foo", 0)
+    val tp1 = new TopicPartition("foo", 1)
+    val Seq(groupA, groupB, groupC) = expectLoadOfGroupsInTwoSegments(tp0, tp1)
+
+    val groupConfig = GroupConfig(groupMinSessionTimeoutMs = 0, groupMaxSessionTimeoutMs = sessionTimeout,
+      groupMaxSize = Int.MaxValue, groupInitialRebalanceDelayMs = 0)
+    val timer = new MockTimer
+    val coordinator = new GroupCoordinator(0, groupConfig, OffsetConfig(), groupMetadataManager,
+      new DelayedOperationPurgatory[DelayedHeartbeat]("Heartbeat", timer, 0, reaperEnabled = false),
+      new DelayedOperationPurgatory[DelayedJoin]("Rebalance", timer, 0, reaperEnabled = false), time, metrics)
+    coordinator.startup(enableMetadataExpiration = false)
+
+    def fetchOffsets(group: String): (Errors, Map[TopicPartition, Long]) = {
+      val (error, partitionData) = coordinator.handleFetchOffsets(group, defaultRequireStable, Some(Seq(tp0, tp1)))
+      error -> partitionData.map { case (tp, data) => tp -> data.offset.toLong }
+    }
+
+    // the offsets fetched from the coordinator for each group when groupC was loaded, before its partition
+    var fetchedOffsets = Map.empty[String, (Errors, Map[TopicPartition, Long])]
+    def onGroupLoaded(group: GroupMetadata): Unit = {
+      if (group.groupId == groupC)
+        fetchedOffsets = Seq(groupA, groupB, groupC).map(group => group -> fetchOffsets(group)).toMap
+    }
+
+    try {
+      assertTrue(groupMetadataManager.addLoadingPartition(groupPartitionId))
+      assertEquals(Errors.COORDINATOR_LOAD_IN_PROGRESS, fetchOffsets(groupA)._1)
+      groupMetadataManager.loadGroupsAndOffsets(groupTopicPartition, onGroupLoaded, 0L)
+
+      assertEquals((Errors.NONE, Map(tp0 -> 10L, tp1 -> 11L)), fetchedOffsets(groupA))
+      assertEquals((Errors.NONE, Map(tp0 -> 20L, tp1 -> 22L)), fetchedOffsets(groupB))
+      assertEquals((Errors.COORDINATOR_LOAD_IN_PROGRESS, Map.empty), fetchedOffsets(groupC))
+      assertEquals((Errors.NONE, Map(tp0 -> 30L, tp1 -> -1L)), fetchOffsets(groupC))
+    } finally {
+      coordinator.shutdown()
+    }
+  }
+
   @Test
   def testAddGroup(): Unit = {
     val group = new GroupMetadata("foo", Empty, time)
@@ -1157,6 +1272,45 @@ class GroupMetadataManagerTest {
     EasyMock.verify(replicaManager)
   }
 
+  @Test
+  def testCommitOffsetsOfGroupsAreAppendedInOneBatch(): Unit = {
+    val batchingZkClient: KafkaZkClient = EasyMock.createNiceMock(classOf[KafkaZkClient])
+    EasyMock.expect(batchingZkClient.getTopicPartitionCount(Topic.GROUP_METADATA_TOPIC_NAME)).andReturn(Some(2))
+    EasyMock.replay(batchingZkClient)
+    val manager = new GroupMetadataManager(0, ApiVersion.latestVersion, OffsetConfig(offsetCommitLingerMs = 0),
+      replicaManager, batchingZkClient, time, metrics)
+    manager.addPartitionOwnership(groupPartitionId)
+    val otherGroupId = (0 until 100).map(i => s"group-$i").find(manager.partitionFor(_) == groupPartitionId).get
+    val groups = Seq(groupId, otherGroupId).map(id => manager.addGroup(new GroupMetadata(id, Empty, time)))
+    val topicPartition = new TopicPartition("foo", 0)
+
+    val capturedRecords = expectAppendMessage(Errors.NONE)
+    EasyMock.replay(replicaManager)
+
+    val commitErrors = mutable.Map[String, immutable.Map[TopicPartition, Errors]]()
+    groups.foreach { group =>
+      val offsets = immutable.Map(topicPartition -> OffsetAndMetadata(37, "", time.milliseconds()))
+      manager.storeOffsets(group, "", offsets, errors => commitErrors.synchronized(commitErrors.put(group.groupId, errors)))
+    }
+    assertTrue(commitErrors.isEmpty)
+
+    manager.startup(enableMetadataExpiration = false)
+    try {
+      TestUtils.waitUntilTrue(() => commitErrors.synchronized(commitErrors.size) == 2,
+        "Offset commits should be completed")
+    } finally {
+      manager.shutdown()
+    }
+
+    EasyMock.verify(replicaManager)
+    assertEquals(2, capturedRecords.getValue()(groupTopicPartition).records.asScala.size)
+    groups.foreach { group =>
+      assertEquals(immutable.Map(topicPartition -> Errors.NONE), commitErrors(group.groupId))
+      assertEquals(Some(37), manager.getOffsets(group.groupId, defaultRequireStable, Some(Seq(topicPartition)))
+        .get(topicPartition).map(_.offset))
+    }
+  }
+
   @Test
   def testTransactionalCommitOffsetCommitted(): Unit = {
     val memberId = ""
@@ -2307,7 +2461,7 @@ class GroupMetadataManagerTest {
   }
 
   /**
-   * mock records into a mocked log
+   * mock records into a mocked log, which may be read twice if the partition is scanned before it is loaded
    *
    * @return the calculated end offset to be mocked into [[ReplicaManager.getLogEndOffset]]
    */
@@ -2322,7 +2476,7 @@ class GroupMetadataManagerTest {
       maxLength = EasyMock.anyInt(),
       isolation = EasyMock.eq(FetchLogEnd),
       minOneMessage = EasyMock.eq(true)))
-      .andReturn(FetchDataInfo(LogOffsetMetadata(startOffset), fileRecordsMock))
+      .andReturn(FetchDataInfo(LogOffsetMetadata(startOffset), fileRecordsMock)).times(1, 2)
 
     EasyMock.expect(fileRecordsMock.sizeInBytes()).andStubReturn(records.sizeInBytes)
 
@@ -2334,7 +2488,7 @@ class GroupMetadataManagerTest {
         buffer.put(records.buffer.duplicate)
         buffer.flip()
       }
-    })
+    }).times(1, 2)
 
     EasyMock.replay(fileRecordsMock)
 
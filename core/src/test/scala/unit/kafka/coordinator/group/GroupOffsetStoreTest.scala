@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.util.Optional
+
+import kafka.common.OffsetAndMetadata
+import org.apache.kafka.common.TopicPartition
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.mutable
+
+class GroupOffsetStoreTest {
+  private val store = new GroupOffsetStore
+
+  private def offset(offset: Long, metadata: String = "", batchOffset: Option[Long] = Some(0L)): CommitRecordMetadataAndOffset =
+    CommitRecordMetadataAndOffset(batchOffset, OffsetAndMetadata(offset, metadata, 1000L))
+
+  @Test
+  def testPutAndGet(): Unit = {
+    val withLeaderEpoch = CommitRecordMetadataAndOffset(Some(15L),
+      OffsetAndMetadata(37L, Optional.of[Integer](5), "metadata", 1000L, None))
+    val withExpireTimestamp = CommitRecordMetadataAndOffset(None,
+      OffsetAndMetadata(42L, Optional.empty[Integer], "", 1000L, Some(2000L)))
+    val foo0 = new TopicPartition("foo", 0)
+    val foo1 = new TopicPartition("foo", 1)
+    val bar0 = new TopicPartition("bar", 0)
+
+    store.put(foo0, withLeaderEpoch)
+    store.put(foo1, withExpireTimestamp)
+    assertEquals(Some(withLeaderEpoch), store.get(foo0))
+    assertEquals(Some(withExpireTimestamp), store.get(foo1))
+    assertEquals(None, store.get(bar0))
+    assertFalse(store.contains(bar0))
+    assertEquals(2, store.size)
+
+    store.put(foo1, offset(43L))
+    assertEquals(Some(offset(43L)), store.get(foo1))
+    assertEquals(2, store.size)
+  }
+
+  @Test
+  def testPartitionsAreKeptSorted(): Unit = {
+    val partitions = Seq(7, 2, 9, 0, 5, 3, 8, 1).map(new TopicPartition("foo", _))
+    partitions.foreach(partition => store.put(partition, offset(partition.partition * 10L)))
+    assertEquals(partitions.sortBy(_.partition), store.keys)
+
+    assertEquals(Some(offset(50L)), store.remove(new TopicPartition("foo", 5)))
+    assertEquals(None, store.remove(new TopicPartition("foo", 5)))
+    assertEquals(None, store.remove(new TopicPartition("bar", 5)))
+    assertEquals(partitions.size - 1, store.size)
+
+    val remaining = mutable.Map[TopicPartition, Long]()
+    store.foreach((partition, offset) => remaining.put(partition, offset.offsetAndMetadata.offset))
+    assertEquals(partitions.filter(_.partition != 5).map(partition => partition -> partition.partition * 10L).toMap,
+      remaining)
+  }
+
+  @Test
+  def testRemovingAllOffsetsOfTopic(): Unit = {
+    val foo0 = new TopicPartition("foo", 0)
+    store.put(foo0, offset(1L))
+    store.remove(foo0)
+    assertTrue(store.isEmpty)
+    assertEquals(Seq.empty, store.keys)
+
+    store.put(foo0, offset(2L))
+    assertEquals(Some(offset(2L)), store.get(foo0))
+  }
+
+  @Test
+  def testMetadataIsShared(): Unit = {
+    store.put(new TopicPartition("foo", 0), offset(1L, new String("metadata")))
+    store.put(new TopicPartition("foo", 1), offset(1L, new String("metadata")))
+    val metadata0 = store.get(new TopicPartition("foo", 0)).get.offsetAndMetadata.metadata
+    val metadata1 = store.get(new TopicPartition("foo", 1)).get.offsetAndMetadata.metadata
+    assertSame(metadata0, metadata1)
+  }
+}
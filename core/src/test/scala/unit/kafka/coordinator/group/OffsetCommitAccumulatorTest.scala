@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.nio.charset.StandardCharsets
+
+import kafka.utils.{MockTime, TestUtils}
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.internals.Topic
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record.{AbstractRecords, CompressionType, MemoryRecords, RecordBatch, SimpleRecord}
+import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
+import org.junit.Assert._
+import org.junit.{After, Test}
+
+import scala.collection.mutable
+import scala.jdk.CollectionConverters._
+
+class OffsetCommitAccumulatorTest {
+  private val partition0 = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, 0)
+  private val partition1 = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, 1)
+  private val time = new MockTime()
+  private val appendedBatches = mutable.ArrayBuffer[(TopicPartition, Seq[String])]()
+  private val appendCallbacks = mutable.ArrayBuffer[PartitionResponse => Unit]()
+  private val results = mutable.Map[String, PartitionResponse]()
+  private var accumulator: OffsetCommitAccumulator = _
+
+  @After
+  def tearDown(): Unit = {
+    if (accumulator != null)
+      accumulator.shutdown()
+  }
+
+  private def appendRecords(partition: TopicPartition, records: MemoryRecords, callback: PartitionResponse => Unit): Unit = {
+    appendedBatches.synchronized {
+      assertEquals(1, records.batches.asScala.size)
+      val keys = records.records.asScala.map(record => StandardCharsets.UTF_8.decode(record.key).toString).toSeq
+      appendedBatches += partition -> keys
+      appendCallbacks += callback
+    }
+  }
+
+  private def createAccumulator(lingerMs: Int = 0,
+                                maxBatchBytes: Int = OffsetCommitAccumulator.MaxBatchBytes): OffsetCommitAccumulator = {
+    accumulator = new OffsetCommitAccumulator(0, lingerMs, CompressionType.NONE, time, appendRecords, maxBatchBytes)
+    accumulator
+  }
+
+  private def commit(partition: TopicPartition, name: String): PendingOffsetCommit = {
+    val records = Seq(new SimpleRecord(time.milliseconds, name.getBytes(StandardCharsets.UTF_8), Array[Byte](0)))
+    val sizeInBytes = AbstractRecords.estimateSizeInBytes(RecordBatch.CURRENT_MAGIC_VALUE, CompressionType.NONE,
+      records.asJava)
+    new PendingOffsetCommit(partition, RecordBatch.CURRENT_MAGIC_VALUE, records, sizeInBytes,
+      status => results.synchronized(results.put(name, status)), time.milliseconds)
+  }
+
+  @Test
+  def testCommitsOfPartitionAreAppendedInOneBatch(): Unit = {
+    createAccumulator()
+    accumulator.add(commit(partition0, "a"))
+    accumulator.add(commit(partition1, "b"))
+    accumulator.add(commit(partition0, "c"))
+    accumulator.appendQueuedCommits(_ => true)
+
+    assertEquals(Seq(partition0 -> Seq("a", "c"), partition1 -> Seq("b")), appendedBatches)
+    assertTrue(results.isEmpty)
+
+    appendCallbacks(0)(new PartitionResponse(Errors.NONE, 10L, RecordBatch.NO_TIMESTAMP, 0L))
+    appendCallbacks(1)(new PartitionResponse(Errors.NOT_LEADER_OR_FOLLOWER))
+    // the callbacks of the commits are only invoked by the accumulator thread
+    assertTrue(results.isEmpty)
+
+    accumulator.completeAppendedBatches()
+    assertEquals(Set("a", "c"), results.filter(_._2.error == Errors.NONE).keySet)
+    assertEquals(10L, results("a").baseOffset)
+    assertEquals(10L, results("c").baseOffset)
+    assertEquals(Errors.NOT_LEADER_OR_FOLLOWER, results("b").error)
+  }
+
+  @Test
+  def testBatchesAreBoundedByMaxBatchBytes(): Unit = {
+    val commits = Seq("a", "b", "c").map(commit(partition0, _))
+    createAccumulator(maxBatchBytes = commits.head.sizeInBytes * 2)
+    commits.foreach(accumulator.add)
+    accumulator.appendQueuedCommits(_ => true)
+
+    assertEquals(Seq(partition0 -> Seq("a", "b"), partition0 -> Seq("c")), appendedBatches)
+  }
+
+  @Test
+  def testFlushAppendsCommitsOfPartition(): Unit = {
+    createAccumulator()
+    accumulator.add(commit(partition0, "a"))
+    accumulator.add(commit(partition1, "b"))
+    accumulator.flush(partition1)
+    assertEquals(Seq(partition1 -> Seq("b")), appendedBatches)
+
+    accumulator.appendQueuedCommits(_ => true)
+    assertEquals(Seq(partition1 -> Seq("b"), partition0 -> Seq("a")), appendedBatches)
+  }
+
+  @Test
+  def testFailedAppendCompletesCommits(): Unit = {
+    accumulator = new OffsetCommitAccumulator(0, 0, CompressionType.NONE, time,
+      (_, _, _) => throw Errors.NOT_LEADER_OR_FOLLOWER.exception)
+    accumulator.add(commit(partition0, "a"))
+    accumulator.appendQueuedCommits(_ => true)
+    accumulator.completeAppendedBatches()
+
+    assertEquals(Errors.NOT_LEADER_OR_FOLLOWER, results("a").error)
+  }
+
+  @Test
+  def testCommitsAreAppendedAndCompletedByThread(): Unit = {
+    createAccumulator()
+    accumulator.start()
+    accumulator.add(commit(partition0, "a"))
+    accumulator.add(commit(partition1, "b"))
+
+    TestUtils.waitUntilTrue(() => appendedBatches.synchronized(appendCallbacks.size) == 2,
+      "Offset commits should be appended")
+    appendedBatches.synchronized(appendCallbacks.toList).foreach(_.apply(new PartitionResponse(Errors.NONE)))
+    TestUtils.waitUntilTrue(() => results.synchronized(results.size) == 2, "Offset commits should be completed")
+    assertTrue(results.synchronized(results.values.forall(_.error == Errors.NONE)))
+  }
+
+  @Test
+  def testShutdownFailsQueuedCommits(): Unit = {
+    createAccumulator(lingerMs = 1000)
+    accumulator.add(commit(partition0, "a"))
+    accumulator.shutdown()
+    accumulator.add(commit(partition0, "b"))
+    accumulator = null
+
+    assertTrue(appendedBatches.isEmpty)
+    assertEquals(Set("a", "b"), results.keySet)
+    assertTrue(results.values.forall(_.error == Errors.NOT_LEADER_OR_FOLLOWER))
+  }
+}
@@ -25,7 +25,7 @@ import java.util.Properties
 import java.util.concurrent.{CountDownLatch, TimeUnit}
 
 import kafka.common._
-import kafka.server.{BrokerTopicStats, LogDirFailureChannel}
+import kafka.server.{BrokerTopicStats, FetchLogEnd, LogDirFailureChannel}
 import kafka.utils._
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors.CorruptRecordException
@@ -1621,9 +1621,121 @@ class LogCleanerTest {
       checkGauge("max-buffer-utilization-percent")
       checkGauge("max-clean-time-secs")
       checkGauge("max-compaction-delay-secs")
+      checkGauge("max-log-cleaning-parallelism")
     } finally logCleaner.shutdown()
   }
 
+  @Test
+  def testParallelCleaningMatchesSequentialCleaning(): Unit = {
+    val tp = new TopicPartition("test", 0)
+    val sequentialLog = makeLog()
+    val parallelLog = makeLog(dir = TestUtils.randomPartitionLogDir(tmpdir))
+
+    // transactions spanning segment boundaries, so the transaction state carries over between segment groups
+    for (log <- Seq(sequentialLog, parallelLog)) {
+      val producerEpoch = 0.toShort
+      val appendTransaction = appendTransactionalAsLeader(log, 1L, producerEpoch)
+      for (i <- 0 until 40) {
+        appendTransaction(Seq(i % 11, i % 7))
+        writeToLog(log, (0 until 5).map(j => ((i + j) % 23, i)))
+        val marker = if (i % 3 == 0) abortMarker(1L, producerEpoch) else commitMarker(1L, producerEpoch)
+        log.appendAsLeader(marker, leaderEpoch = 0, origin = AppendOrigin.Coordinator)
+      }
+      log.roll()
+    }
+
+    val sequentialCleaner = makeCleaner(Int.MaxValue)
+    val parallelCleaner = makeParallelCleaner(Int.MaxValue, parallelism = 3)
+    try {
+      val (sequentialEndOffset, _) = sequentialCleaner.doClean(LogToClean(tp, sequentialLog, 0L,
+        sequentialLog.activeSegment.baseOffset), deleteHorizonMs = Long.MaxValue)
+      val (parallelEndOffset, stats) = parallelCleaner.doClean(LogToClean(tp, parallelLog, 0L,
+        parallelLog.activeSegment.baseOffset), deleteHorizonMs = Long.MaxValue)
+
+      assertEquals(3, stats.parallelism)
+      assertEquals(sequentialEndOffset, parallelEndOffset)
+      assertEquals(offsetsInLog(sequentialLog).toList, offsetsInLog(parallelLog).toList)
+      assertEquals(lastOffsetsPerBatchInLog(sequentialLog).toList, lastOffsetsPerBatchInLog(parallelLog).toList)
+      assertEquals(sequentialLog.collectAbortedTransactions(0L, sequentialLog.logEndOffset),
+        parallelLog.collectAbortedTransactions(0L, parallelLog.logEndOffset))
+    } finally parallelCleaner.shutdown()
+  }
+
+  @Test
+  def testParallelCleaningWithFullOffsetMapPartitions(): Unit = {
+    val tp = new TopicPartition("test", 0)
+    val log = makeLog()
+    writeToLog(log, (0 until 1000).map(i => (i % 100, i)))
+    log.roll()
+
+    // each partition holds at most 30 keys, so every partition fills up at a different offset
+    val cleaner = makeParallelCleaner(40, parallelism = 3)
+    try {
+      var dirtyOffset = 0L
+      while (dirtyOffset < log.activeSegment.baseOffset) {
+        val nextDirtyOffset = cleaner.doClean(LogToClean(tp, log, dirtyOffset, log.activeSegment.baseOffset),
+          deleteHorizonMs = Long.MaxValue)._1
+        assertTrue("Cleaning should make progress", nextDirtyOffset > dirtyOffset)
+        dirtyOffset = nextDirtyOffset
+      }
+    } finally cleaner.shutdown()
+
+    val keysAndValues = log.logSegments.flatMap(_.log.records.asScala).map { record =>
+      TestUtils.readString(record.key).toInt -> TestUtils.readString(record.value).toInt
+    }.toList
+    assertEquals((0 until 100).map(key => key -> (900 + key)).toMap, keysAndValues.toMap)
+    assertEquals(100, keysAndValues.size)
+  }
+
+  @Test
+  def testCleanSegmentsLeavesUnchangedSegmentsInPlace(): Unit = {
+    val tp = new TopicPartition("test", 0)
+    val cleaner = makeCleaner(Int.MaxValue)
+    val log = makeLog()
+
+    writeToLog(log, (0 until 60).map(key => (key, key)))
+    // only the first segment has a superseded key
+    writeToLog(log, Seq((0, 60)))
+    log.roll()
+
+    val segmentsBefore = log.logSegments.toList
+    val stats = cleaner.doClean(LogToClean(tp, log, 0L, log.activeSegment.baseOffset), deleteHorizonMs = Long.MaxValue)._2
+    val segmentsAfter = log.logSegments.toList
+
+    assertEquals(segmentsBefore.size, segmentsAfter.size)
+    assertNotSame(segmentsBefore.head, segmentsAfter.head)
+    segmentsBefore.tail.zip(segmentsAfter.tail).foreach { case (before, after) => assertSame(before, after) }
+    assertEquals(segmentsBefore.size - 2, stats.segmentsLeftInPlace)
+    assertEquals((1 until 61).toList, offsetsInLog(log).toList)
+  }
+
+  @Test
+  def testCleanIntoCopiesUnchangedChunksFromSource(): Unit = {
+    val tp = new TopicPartition("test", 0)
+    // an I/O buffer small enough for only a few batches at a time
+    val cleaner = makeCleaner(Int.MaxValue, maxMessageSize = 256)
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, 8192: java.lang.Integer)
+    logProps.put(LogConfig.IndexIntervalBytesProp, 1: java.lang.Integer)
+    val log = makeLog(config = LogConfig.fromProps(logConfig.originals, logProps))
+
+    writeToLog(log, (0 until 40).map(key => (key, key)))
+    writeToLog(log, (30 until 40).map(key => (key, key + 40)))
+    log.roll()
+
+    val stats = cleaner.doClean(LogToClean(tp, log, 0L, log.activeSegment.baseOffset), deleteHorizonMs = Long.MaxValue)._2
+    val expectedOffsets = (0 until 30) ++ (40 until 50)
+    assertEquals(expectedOffsets.toList, offsetsInLog(log).toList)
+    assertTrue("Records ahead of the superseded keys should be copied unchanged", stats.bytesCopiedUnchanged > 0)
+    assertEquals(0, stats.segmentsLeftInPlace)
+
+    // the indexes of the cleaned segment should locate every retained record
+    for (offset <- expectedOffsets) {
+      val records = log.read(offset, 1, FetchLogEnd, minOneMessage = true).records.records.asScala
+      assertEquals(offset.toLong, records.find(_.offset >= offset).map(_.offset).getOrElse(-1L))
+    }
+  }
+
 
   private def writeToLog(log: Log, keysAndValues: Iterable[(Int, Int)], offsetSeq: Iterable[Long]): Iterable[Long] = {
     for(((key, value), offset) <- keysAndValues.zip(offsetSeq))
@@ -1676,6 +1788,16 @@ class LogCleanerTest {
                 time = time,
                 checkDone = checkDone)
 
+  private def makeParallelCleaner(capacity: Int, parallelism: Int) =
+    new Cleaner(id = 0,
+                offsetMap = new PartitionedOffsetMap(Vector.fill(parallelism)(new FakeOffsetMap(capacity))),
+                ioBufferSize = 64 * 1024,
+                maxIoBufferSize = 64 * 1024,
+                dupBufferLoadFactor = 0.75,
+                throttler = throttler,
+                time = time,
+                checkDone = _ => ())
+
   private def writeToLog(log: Log, seq: Iterable[(Int, Int)]): Iterable[Long] = {
     for ((key, value) <- seq) yield log.appendAsLeader(record(key, value), leaderEpoch = 0).firstOffset.get
   }
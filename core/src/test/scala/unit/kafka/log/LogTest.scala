@@ -2225,6 +2225,108 @@ class LogTest {
     log.close()
   }
 
+  @Test
+  def testIndexRebuildOfUnflushedSegmentsOnlyDuringRecovery(): Unit = {
+    val numMessages = 200
+    val logConfig = LogTest.createLogConfig(segmentBytes = 200, indexIntervalBytes = 1)
+    var log = createLog(logDir, logConfig)
+    for (i <- 0 until numMessages)
+      log.appendAsLeader(TestUtils.singletonRecords(value = TestUtils.randomBytes(10), timestamp = mockTime.milliseconds + i * 10), leaderEpoch = 0)
+    val numSegments = log.numberOfSegments
+    val indexFiles = log.logSegments.map(_.lazyOffsetIndex.file)
+    log.close()
+    indexFiles.foreach(_.delete())
+
+    // all segments are above the recovery point, so each of them should only be recovered once
+    log = createLog(logDir, logConfig)
+    assertEquals(numSegments, log.loadTimes.numRecoveredSegments)
+    assertEquals(0, log.loadTimes.numDeferredIndexRebuilds)
+    assertTrue("The index should have been rebuilt", log.logSegments.head.offsetIndex.entries > 0)
+    log.close()
+  }
+
+  @Test
+  def testLazyIndexRebuild(): Unit = {
+    val numMessages = 200
+    val logConfig = LogTest.createLogConfig(segmentBytes = 200, indexIntervalBytes = 1)
+    var log = createLog(logDir, logConfig)
+    for (i <- 0 until numMessages)
+      log.appendAsLeader(TestUtils.singletonRecords(value = TestUtils.randomBytes(10), timestamp = mockTime.milliseconds + i * 10), leaderEpoch = 0)
+    val numSegments = log.numberOfSegments
+    val indexFiles = log.logSegments.map(_.lazyOffsetIndex.file)
+    val timeIndexFiles = log.logSegments.map(_.lazyTimeIndex.file)
+    val txnIndexFiles = log.logSegments.map(_.txnIndex.file)
+    log.close()
+    indexFiles.foreach(_.delete())
+    timeIndexFiles.foreach(_.delete())
+    // the transaction index files only exist for segments with aborted transactions, and the indexes of a segment are
+    // only rebuilt lazily if its transaction index is present
+    txnIndexFiles.foreach(_.createNewFile())
+
+    // reopen the log with every segment but the active one below the recovery point
+    log = createLog(logDir, logConfig, recoveryPoint = log.activeSegment.baseOffset, lazyIndexRebuild = true)
+    assertEquals(numMessages, log.logEndOffset)
+    assertEquals(1, log.loadTimes.numRecoveredSegments)
+    assertEquals(numSegments - 1, log.loadTimes.numDeferredIndexRebuilds)
+    assertTrue(log.logSegments.init.forall(_.isIndexRebuildPending))
+    assertFalse(log.activeSegment.isIndexRebuildPending)
+
+    // the indexes are rebuilt on first access
+    val firstSegment = log.logSegments.head
+    assertTrue("The index should have been rebuilt", firstSegment.offsetIndex.entries > 0)
+    assertFalse(firstSegment.isIndexRebuildPending)
+    assertTrue("The time index should have been rebuilt", firstSegment.timeIndex.entries > 0)
+    for (i <- 0 until numMessages) {
+      assertEquals(i, readLog(log, i, 100).records.batches.iterator.next().lastOffset)
+      if (i == 0)
+        assertEquals(log.logSegments.head.baseOffset, log.fetchOffsetByTimestamp(mockTime.milliseconds + i * 10).get.offset)
+      else
+        assertEquals(i, log.fetchOffsetByTimestamp(mockTime.milliseconds + i * 10).get.offset)
+    }
+    assertFalse(log.logSegments.exists(_.isIndexRebuildPending))
+    log.close()
+  }
+
+  @Test
+  def testLazyIndexRebuildRecoversSegmentsWithoutTransactionIndex(): Unit = {
+    val logConfig = LogTest.createLogConfig(segmentBytes = 256)
+    var log = createLog(logDir, logConfig)
+    val epoch = 0.toShort
+    val pid1 = 1L
+    val pid2 = 2L
+    val appendPid1 = appendTransactionalAsLeader(log, pid1, epoch)
+    val appendPid2 = appendTransactionalAsLeader(log, pid2, epoch)
+
+    appendPid1(5) // nextOffset: 5
+    appendNonTransactionalAsLeader(log, 3) // 8
+    appendPid2(2) // 10
+    appendPid1(10) // 20
+    appendEndTxnMarkerAsLeader(log, pid1, epoch, ControlRecordType.ABORT) // 21
+    appendPid2(6) // 27
+    appendEndTxnMarkerAsLeader(log, pid2, epoch, ControlRecordType.ABORT) // 28
+    appendNonTransactionalAsLeader(log, 20) // 48
+    val abortedTransactions = List(new AbortedTxn(pid1, 0L, 20L, 8L), new AbortedTxn(pid2, 8L, 27L, 28L))
+    assertEquals(abortedTransactions, allAbortedTransactions(log))
+    assertTrue(log.numberOfSegments > 2)
+
+    // delete all the index files of every segment
+    val recoveryPoint = log.activeSegment.baseOffset
+    log.logSegments.foreach { segment =>
+      segment.offsetIndex.deleteIfExists()
+      segment.timeIndex.deleteIfExists()
+      segment.txnIndex.deleteIfExists()
+    }
+    log.close()
+
+    // the segments below the recovery point are recovered instead of deferring their index rebuild, since the
+    // transaction index can only be rebuilt by recovery
+    log = createLog(logDir, logConfig, recoveryPoint = recoveryPoint, lazyIndexRebuild = true)
+    assertEquals(0, log.loadTimes.numDeferredIndexRebuilds)
+    assertFalse(log.logSegments.exists(_.isIndexRebuildPending))
+    assertEquals(abortedTransactions, allAbortedTransactions(log))
+    log.close()
+  }
+
   @Test
   def testFetchOffsetByTimestampIncludesLeaderEpoch(): Unit = {
     val logConfig = LogTest.createLogConfig(segmentBytes = 200, indexIntervalBytes = 1)
@@ -2945,6 +3047,8 @@ class LogTest {
     // have them lying around after the split.
     val recoveredLog = recoverAndCheck(logConfig, expectedKeys)
     assertEquals(expectedKeys, LogTest.keysInLog(recoveredLog))
+    // segments recovered before the split are not counted again when recovery is retried
+    assertEquals(recoveredLog.numberOfSegments, recoveredLog.loadTimes.numRecoveredSegments)
 
     // Running split again would throw an error
     for (segment <- recoveredLog.logSegments) {
@@ -3662,6 +3766,27 @@ class LogTest {
     recoveredLog.close()
   }
 
+  @Test
+  def testLeaderEpochCheckpointIsWrittenBeforeRecoveryPointAdvances(): Unit = {
+    val log = createLog(logDir, LogConfig())
+    log.appendAsFollower(singletonRecordsWithLeaderEpoch(value = "random".getBytes, leaderEpoch = 1, offset = 0))
+    log.appendAsFollower(singletonRecordsWithLeaderEpoch(value = "random".getBytes, leaderEpoch = 2, offset = 1))
+    val checkpoint = new LeaderEpochCheckpointFile(LeaderEpochCheckpointFile.newFile(log.dir))
+
+    // the appended epochs are written once the log is flushed past them
+    assertEquals(Seq(), checkpoint.read())
+    log.flush()
+    assertEquals(Seq(EpochEntry(1, 0), EpochEntry(2, 1)), checkpoint.read())
+
+    // an epoch appended after the recovery point is assigned again by recovery after a hard failure
+    log.appendAsFollower(singletonRecordsWithLeaderEpoch(value = "random".getBytes, leaderEpoch = 3, offset = 2))
+    log.closeHandlers()
+    assertEquals(Seq(EpochEntry(1, 0), EpochEntry(2, 1)), checkpoint.read())
+    val recoveredLog = createLog(logDir, LogConfig(), recoveryPoint = log.recoveryPoint)
+    assertEquals(Seq(EpochEntry(1, 0), EpochEntry(2, 1), EpochEntry(3, 2)), epochCache(recoveredLog).epochEntries)
+    recoveredLog.close()
+  }
+
   /**
    * Wrap a single record log buffer with leader epoch.
    */
@@ -4481,9 +4606,10 @@ class LogTest {
                         scheduler: Scheduler = mockTime.scheduler,
                         time: Time = mockTime,
                         maxProducerIdExpirationMs: Int = 60 * 60 * 1000,
-                        producerIdExpirationCheckIntervalMs: Int = LogManager.ProducerIdExpirationCheckIntervalMs): Log = {
+                        producerIdExpirationCheckIntervalMs: Int = LogManager.ProducerIdExpirationCheckIntervalMs,
+                        lazyIndexRebuild: Boolean = false): Log = {
     LogTest.createLog(dir, config, brokerTopicStats, scheduler, time, logStartOffset, recoveryPoint,
-      maxProducerIdExpirationMs, producerIdExpirationCheckIntervalMs)
+      maxProducerIdExpirationMs, producerIdExpirationCheckIntervalMs, lazyIndexRebuild)
   }
 
   private def createLogWithOffsetOverflow(logConfig: LogConfig): (Log, LogSegment) = {
@@ -4550,7 +4676,8 @@ object LogTest {
                 logStartOffset: Long = 0L,
                 recoveryPoint: Long = 0L,
                 maxProducerIdExpirationMs: Int = 60 * 60 * 1000,
-                producerIdExpirationCheckIntervalMs: Int = LogManager.ProducerIdExpirationCheckIntervalMs): Log = {
+                producerIdExpirationCheckIntervalMs: Int = LogManager.ProducerIdExpirationCheckIntervalMs,
+                lazyIndexRebuild: Boolean = false): Log = {
     Log(dir = dir,
       config = config,
       logStartOffset = logStartOffset,
@@ -4560,7 +4687,8 @@ object LogTest {
       time = time,
       maxProducerIdExpirationMs = maxProducerIdExpirationMs,
       producerIdExpirationCheckIntervalMs = producerIdExpirationCheckIntervalMs,
-      logDirFailureChannel = new LogDirFailureChannel(10))
+      logDirFailureChannel = new LogDirFailureChannel(10),
+      lazyIndexRebuild = lazyIndexRebuild)
   }
 
   /**
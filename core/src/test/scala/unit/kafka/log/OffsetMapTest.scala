@@ -57,6 +57,77 @@ class OffsetMapTest {
     assertEquals(map.get(key(i-1L)), i-1L)
   }
 
+  @Test
+  def testMurmur3BasicValidation(): Unit = {
+    for (items <- Seq(10, 100, 1000, 5000)) {
+      val map = new Murmur3OffsetMap((items / 0.5 * 24).toInt)
+      for (i <- 0 until items)
+        map.put(key(i), i)
+      for (i <- 0 until items)
+        assertEquals(i.toLong, map.get(key(i)))
+      assertEquals(items, map.size)
+      assertEquals(-1L, map.get(key(items)))
+    }
+  }
+
+  @Test
+  def testMurmur3Overwrite(): Unit = {
+    val map = new Murmur3OffsetMap(4000)
+    map.put(key(1), 1L)
+    map.put(key(1), 5L)
+    assertEquals(1, map.size)
+    assertEquals(5L, map.get(key(1)))
+    assertEquals(5L, map.latestOffset)
+  }
+
+  @Test
+  def testMurmur3Clear(): Unit = {
+    val map = new Murmur3OffsetMap(4000)
+    for (i <- 0 until 10)
+      map.put(key(i), i)
+    map.clear()
+    assertEquals(0, map.size)
+    assertEquals(-1L, map.latestOffset)
+    for (i <- 0 until 10)
+      assertEquals(-1L, map.get(key(i)))
+  }
+
+  @Test
+  def testMurmur3GetWhenFull(): Unit = {
+    val map = new Murmur3OffsetMap(4096)
+    var i = 37L
+    while (map.size < map.slots) {
+      map.put(key(i), i)
+      i = i + 1L
+    }
+    assertEquals(-1L, map.get(key(i)))
+    assertEquals(i - 1L, map.get(key(i - 1L)))
+  }
+
+  @Test
+  def testMurmur3HashIgnoresKeyPositionAndByteOrder(): Unit = {
+    val map = new Murmur3OffsetMap(4096)
+    // a key long enough to cover both the 16 byte blocks and the tail
+    val bytes = "a-key-that-is-longer-than-sixteen-bytes".getBytes
+    map.put(ByteBuffer.wrap(bytes), 10L)
+
+    val padded = ByteBuffer.allocateDirect(bytes.length + 3).order(ByteOrder.LITTLE_ENDIAN)
+    padded.position(3)
+    padded.put(bytes)
+    padded.position(3)
+    assertEquals(10L, map.get(padded))
+    assertEquals(3, padded.position())
+    assertEquals(-1L, map.get(ByteBuffer.wrap(bytes, 0, bytes.length - 1)))
+  }
+
+  @Test
+  def testOffsetMapForHashAlgorithm(): Unit = {
+    assertTrue(OffsetMap(4096, OffsetMap.Murmur3HashAlgorithm).isInstanceOf[Murmur3OffsetMap])
+    val skimpy = OffsetMap(4096, "SHA-256")
+    assertTrue(skimpy.isInstanceOf[SkimpyOffsetMap])
+    assertEquals("SHA-256", skimpy.asInstanceOf[SkimpyOffsetMap].hashAlgorithm)
+  }
+
   def key(key: Long) = ByteBuffer.wrap(key.toString.getBytes)
   
   def validateMap(items: Int, loadFactor: Double = 0.5): SkimpyOffsetMap = {
@@ -20,7 +20,7 @@ package kafka.log
 import java.io.File
 import java.nio.ByteBuffer
 import java.nio.channels.FileChannel
-import java.nio.file.StandardOpenOption
+import java.nio.file.{Files, StandardOpenOption}
 import java.util.Collections
 
 import kafka.server.LogOffsetMetadata
@@ -28,6 +28,7 @@ import kafka.utils.TestUtils
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors._
 import org.apache.kafka.common.internals.Topic
+import org.apache.kafka.common.protocol.types.Struct
 import org.apache.kafka.common.record._
 import org.apache.kafka.common.utils.{MockTime, Utils}
 import org.easymock.EasyMock
@@ -730,6 +731,51 @@ class ProducerStateManagerTest {
     assertTrue(stateManager.lastEntry(producerId).isDefined)
   }
 
+  @Test
+  def testRemoveExpiredProducersAcrossTimestamps(): Unit = {
+    val epoch = 0.toShort
+    val startTimeMs = time.milliseconds
+    for (i <- 0 until 10)
+      append(stateManager, i.toLong, epoch, 0, offset = i, timestamp = startTimeMs + i * maxPidExpirationMs / 10)
+
+    // producer 0 moves to a later timestamp and should no longer be expired with the others
+    append(stateManager, 0L, epoch, 1, offset = 10, timestamp = startTimeMs + maxPidExpirationMs)
+
+    time.sleep(maxPidExpirationMs + maxPidExpirationMs / 2)
+    stateManager.removeExpiredProducers(time.milliseconds)
+    assertEquals(Set(0L) ++ (6L until 10L), stateManager.activeProducers.keySet)
+
+    time.sleep(maxPidExpirationMs)
+    stateManager.removeExpiredProducers(time.milliseconds)
+    assertTrue(stateManager.activeProducers.isEmpty)
+  }
+
+  @Test
+  def testSnapshotMatchesSchema(): Unit = {
+    val epoch = 3.toShort
+    append(stateManager, producerId, epoch, 5, offset = 10L, timestamp = 1234L)
+    append(stateManager, producerId + 1, epoch, 0, offset = 11L, timestamp = 5678L, isTransactional = true)
+    stateManager.takeSnapshot()
+
+    val snapshotFile = Log.producerSnapshotFile(logDir, 12L)
+    val struct = ProducerStateManager.PidSnapshotMapSchema.read(ByteBuffer.wrap(Files.readAllBytes(snapshotFile.toPath)))
+    val entries = struct.getArray("producer_entries").map(_.asInstanceOf[Struct])
+      .map(entry => entry.getLong("producer_id") -> entry).toMap
+    assertEquals(Set(producerId, producerId + 1), entries.keySet)
+    assertEquals(epoch, entries(producerId).getShort("epoch"))
+    assertEquals(5, entries(producerId).getInt("last_sequence"))
+    assertEquals(10L, entries(producerId).getLong("last_offset"))
+    assertEquals(1234L, entries(producerId).getLong("timestamp"))
+    assertEquals(-1L, entries(producerId).getLong("current_txn_first_offset"))
+    assertEquals(11L, entries(producerId + 1).getLong("current_txn_first_offset"))
+
+    val loaded = ProducerStateManager.readSnapshot(snapshotFile).map(entry => entry.producerId -> entry).toMap
+    assertEquals(5, loaded(producerId).lastSeq)
+    assertEquals(10L, loaded(producerId).lastDataOffset)
+    assertEquals(5678L, loaded(producerId + 1).lastTimestamp)
+    assertEquals(Some(11L), loaded(producerId + 1).currentTxnFirstOffset)
+  }
+
   @Test
   def testSequenceNotValidatedForGroupMetadataTopic(): Unit = {
     val partition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, 0)
@@ -668,6 +668,54 @@ class AclAuthorizerTest extends ZooKeeperTestHarness {
     assertFalse(authorize(aclAuthorizer, requestContext, READ, new ResourcePattern(TOPIC, "foo_", LITERAL)))
   }
 
+  @Test
+  def testAuthorizeWithNestedPrefixedResources(): Unit = {
+    val fooBarResource = new ResourcePattern(TOPIC, "foo-bar", LITERAL)
+    addAcls(aclAuthorizer, Set(allowReadAcl), prefixedResource)
+    addAcls(aclAuthorizer, Set(denyReadAcl), new ResourcePattern(TOPIC, "foo-bar-", PREFIXED))
+    addAcls(aclAuthorizer, Set(denyReadAcl), new ResourcePattern(TOPIC, "fooz", PREFIXED))
+
+    assertTrue(authorize(aclAuthorizer, requestContext, READ, fooBarResource))
+    assertTrue(authorize(aclAuthorizer, requestContext, READ, new ResourcePattern(TOPIC, "foo", LITERAL)))
+    assertFalse(authorize(aclAuthorizer, requestContext, READ, new ResourcePattern(TOPIC, "foo-bar-baz", LITERAL)))
+    assertFalse(authorize(aclAuthorizer, requestContext, READ, new ResourcePattern(TOPIC, "fo", LITERAL)))
+
+    removeAcls(aclAuthorizer, Set(allowReadAcl), prefixedResource)
+    assertFalse(authorize(aclAuthorizer, requestContext, READ, fooBarResource))
+  }
+
+  @Test
+  def testDecisionCacheInvalidatedOnAclChangeNotification(): Unit = {
+    assertFalse(authorize(aclAuthorizer2, requestContext, READ, resource))
+    assertEquals(1, aclAuthorizer2.cachedDecisionCount)
+
+    addAcls(aclAuthorizer, Set(allowReadAcl), resource)
+    TestUtils.waitUntilTrue(() => authorize(aclAuthorizer2, requestContext, READ, resource),
+      "Decision should be updated once the ACL change notification is processed")
+
+    removeAcls(aclAuthorizer, Set(allowReadAcl), resource)
+    TestUtils.waitUntilTrue(() => !authorize(aclAuthorizer2, requestContext, READ, resource),
+      "Decision should be updated once the ACL change notification is processed")
+  }
+
+  @Test
+  def testDecisionCacheSizeIsBounded(): Unit = {
+    val props = TestUtils.createBrokerConfig(1, zkConnect)
+    props.put(AclAuthorizer.DecisionCacheSizeProp, "2")
+
+    val cfg = KafkaConfig.fromProps(props)
+    val testAuthorizer = new AclAuthorizer
+    try {
+      testAuthorizer.configure(cfg.originals)
+      (0 until 5).foreach { i =>
+        assertFalse(authorize(testAuthorizer, requestContext, READ, new ResourcePattern(TOPIC, s"topic-$i", LITERAL)))
+        assertTrue(testAuthorizer.cachedDecisionCount <= 2)
+      }
+    } finally {
+      testAuthorizer.close()
+    }
+  }
+
   @Test
   def testGetAclsPrincipal(): Unit = {
     val aclOnSpecificPrincipal = new AccessControlEntry(principal.toString, WildcardHost, WRITE, ALLOW)
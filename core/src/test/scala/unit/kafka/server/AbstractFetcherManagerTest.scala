@@ -19,12 +19,14 @@ package kafka.server
 import com.yammer.metrics.core.Gauge
 import kafka.cluster.BrokerEndPoint
 import kafka.metrics.KafkaYammerMetrics
-import kafka.utils.TestUtils
+import kafka.utils.{MockTime, TestUtils}
 import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.requests.{EpochEndOffset, FetchRequest}
 import org.easymock.EasyMock
 import org.junit.{Before, Test}
 import org.junit.Assert._
 
+import scala.collection.{Map, mutable}
 import scala.jdk.CollectionConverters._
 
 class AbstractFetcherManagerTest {
@@ -133,4 +135,143 @@ class AbstractFetcherManagerTest {
     assertEquals(0, fetcherManager.deadThreadCount)
     EasyMock.verify(fetcher)
   }
+
+  @Test
+  def testNewPartitionsAreBalancedAcrossFetchers(): Unit = {
+    val fetcherManager = new TestFetcherManager(numFetchers = 3)
+    fetcherManager.addFetcherForPartitions(initialFetchStates(0 until 7))
+    fetcherManager.addFetcherForPartitions(initialFetchStates(7 until 9))
+    assertEquals(3, fetcherManager.fetcherThreadMap.size)
+    fetcherManager.fetcherThreadMap.values.foreach(fetcher => assertEquals(3, fetcher.partitionCount))
+
+    // partitions which are added again stay in their fetcher
+    val fetcherId = fetcherManager.getFetcherId(partition(0))
+    fetcherManager.addFetcherForPartitions(initialFetchStates(Seq(0)))
+    assertEquals(fetcherId, fetcherManager.getFetcherId(partition(0)))
+  }
+
+  @Test
+  def testRebalanceMovesPartitionsByBytesRate(): Unit = {
+    val time = new MockTime()
+    val fetcherManager = new TestFetcherManager(numFetchers = 2, time = time)
+    fetcherManager.addFetcherForPartitions(initialFetchStates(0 until 4))
+    fetcherManager.rebalance()
+    val fetchStates = (0 until 4).map(i => partition(i) -> fetcherManager.getFetcher(partition(i)).get.fetchState(partition(i)).get).toMap
+
+    // the partitions of the first fetcher fetch 1 MB/s
+    val firstFetcher = fetcherManager.fetcherThreadMap(BrokerIdAndFetcherId(0, 0))
+    val hotPartitions = firstFetcher.partitionFetchedBytes.keySet
+    assertEquals(2, hotPartitions.size)
+    hotPartitions.foreach(firstFetcher.fetchedBytes.put(_, 10 * 1024 * 1024L))
+    time.sleep(10000)
+    fetcherManager.rebalance()
+
+    fetcherManager.fetcherThreadMap.values.foreach { fetcher =>
+      assertEquals(2, fetcher.partitionCount)
+      assertEquals(1, fetcher.partitionFetchedBytes.keySet.count(hotPartitions.contains))
+    }
+    // the partitions keep their fetch state
+    fetchStates.foreach { case (topicPartition, fetchState) =>
+      assertEquals(Some(fetchState), fetcherManager.getFetcher(topicPartition).get.fetchState(topicPartition))
+    }
+  }
+
+  @Test
+  def testRebalanceScalesFetchersByBytesRate(): Unit = {
+    val time = new MockTime()
+    val fetcherManager = new TestFetcherManager(numFetchers = 1, maxNumFetchers = 3,
+      targetBytesPerSecPerFetcher = 1024 * 1024L, time = time)
+    fetcherManager.addFetcherForPartitions(initialFetchStates(0 until 4))
+    fetcherManager.rebalance()
+    assertEquals(1, fetcherManager.fetcherThreadMap.size)
+
+    // 4 MB/s need 4 fetchers, which is capped to 3
+    val fetcher = fetcherManager.fetcherThreadMap(BrokerIdAndFetcherId(0, 0))
+    (0 until 4).foreach(i => fetcher.fetchedBytes.put(partition(i), 10 * 1024 * 1024L))
+    time.sleep(10000)
+    fetcherManager.rebalance()
+    assertEquals(Set(0, 1, 2), fetcherManager.fetcherThreadMap.keySet.map(_.fetcherId))
+    assertEquals(Seq(1, 1, 2), fetcherManager.fetcherThreadMap.values.map(_.partitionCount).toSeq.sorted)
+
+    // without traffic the average rate halves to 2 MB/s, so that the third fetcher is removed
+    time.sleep(10000)
+    fetcherManager.rebalance()
+    assertEquals(Set(0, 1), fetcherManager.fetcherThreadMap.keySet.map(_.fetcherId))
+    assertEquals(4, fetcherManager.fetcherThreadMap.values.map(_.partitionCount).sum)
+  }
+
+  @Test
+  def testResizeThreadPoolKeepsFetchState(): Unit = {
+    val fetcherManager = new TestFetcherManager(numFetchers = 2)
+    fetcherManager.addFetcherForPartitions(initialFetchStates(0 until 6))
+    val fetchStates = (0 until 6).map(i => partition(i) -> fetcherManager.getFetcher(partition(i)).get.fetchState(partition(i)).get).toMap
+    val removedFetcher = fetcherManager.fetcherThreadMap(BrokerIdAndFetcherId(0, 1))
+
+    fetcherManager.resizeThreadPool(1)
+    assertEquals(Set(0), fetcherManager.fetcherThreadMap.keySet.map(_.fetcherId))
+    assertTrue(removedFetcher.isShutdown)
+    assertEquals(6, fetcherManager.fetcherThreadMap(BrokerIdAndFetcherId(0, 0)).partitionCount)
+
+    fetcherManager.resizeThreadPool(3)
+    assertEquals(Set(0, 1, 2), fetcherManager.fetcherThreadMap.keySet.map(_.fetcherId))
+    fetcherManager.fetcherThreadMap.values.foreach(fetcher => assertEquals(2, fetcher.partitionCount))
+    fetchStates.foreach { case (topicPartition, fetchState) =>
+      assertEquals(Some(fetchState), fetcherManager.getFetcher(topicPartition).get.fetchState(topicPartition))
+      assertEquals(Some(fetcherManager.getFetcher(topicPartition).get.fetcherId), fetcherManager.getFetcherId(topicPartition))
+    }
+  }
+
+  private val leader = new BrokerEndPoint(0, "localhost", 9092)
+
+  private def partition(i: Int): TopicPartition = new TopicPartition("topic", i)
+
+  private def initialFetchStates(partitions: Seq[Int]): Map[TopicPartition, InitialFetchState] =
+    partitions.map(i => partition(i) -> InitialFetchState(leader, currentLeaderEpoch = 1, initOffset = 10L * i)).toMap
+
+  private class TestFetcherManager(numFetchers: Int,
+                                   maxNumFetchers: Int = 0,
+                                   targetBytesPerSecPerFetcher: Long = Long.MaxValue,
+                                   time: MockTime = new MockTime())
+    extends AbstractFetcherManager[TestFetcherThread]("fetcher-manager", "fetcher-manager", numFetchers,
+      maxNumFetchers, targetBytesPerSecPerFetcher, time) {
+    override def createFetcherThread(fetcherId: Int, sourceBroker: BrokerEndPoint): TestFetcherThread =
+      new TestFetcherThread(fetcherId, sourceBroker)
+  }
+
+  /**
+   * A fetcher thread which is never started, and which reports the fetched bytes set by the test.
+   */
+  private class TestFetcherThread(val fetcherId: Int, sourceBroker: BrokerEndPoint)
+    extends AbstractFetcherThread(s"test-fetcher-$fetcherId", "test-fetcher", sourceBroker, new FailedPartitions,
+      brokerTopicStats = new BrokerTopicStats) {
+    val fetchedBytes = mutable.Map[TopicPartition, Long]()
+    @volatile var isShutdown = false
+
+    override def start(): Unit = {}
+
+    override def shutdown(): Unit = isShutdown = true
+
+    override private[server] def partitionFetchedBytes: Map[TopicPartition, Long] =
+      super.partitionFetchedBytes.map { case (topicPartition, _) => topicPartition -> fetchedBytes.getOrElse(topicPartition, 0L) }
+
+    override protected def processPartitionData(topicPartition: TopicPartition, fetchOffset: Long,
+                                                partitionData: FetchData) = throw new UnsupportedOperationException
+    override protected def truncate(topicPartition: TopicPartition, truncationState: OffsetTruncationState): Unit =
+      throw new UnsupportedOperationException
+    override protected def truncateFullyAndStartAt(topicPartition: TopicPartition, offset: Long): Unit =
+      throw new UnsupportedOperationException
+    override protected def buildFetch(partitionMap: Map[TopicPartition, PartitionFetchState]) = throw new UnsupportedOperationException
+    override protected def latestEpoch(topicPartition: TopicPartition) = throw new UnsupportedOperationException
+    override protected def logStartOffset(topicPartition: TopicPartition) = throw new UnsupportedOperationException
+    override protected def logEndOffset(topicPartition: TopicPartition) = throw new UnsupportedOperationException
+    override protected def endOffsetForEpoch(topicPartition: TopicPartition, epoch: Int) = throw new UnsupportedOperationException
+    override protected def fetchEpochEndOffsets(partitions: Map[TopicPartition, EpochData]): Map[TopicPartition, EpochEndOffset] =
+      throw new UnsupportedOperationException
+    override protected def fetchFromLeader(fetchRequest: FetchRequest.Builder) = throw new UnsupportedOperationException
+    override protected def fetchEarliestOffsetFromLeader(topicPartition: TopicPartition, currentLeaderEpoch: Int) =
+      throw new UnsupportedOperationException
+    override protected def fetchLatestOffsetFromLeader(topicPartition: TopicPartition, currentLeaderEpoch: Int) =
+      throw new UnsupportedOperationException
+    override protected def isOffsetForLeaderEpochSupported: Boolean = true
+  }
 }
@@ -80,7 +80,8 @@ class AbstractFetcherThreadTest {
     fetcher.start()
 
     val brokerTopicStatsMetrics = fetcher.brokerTopicStats.allTopicsStats.metricMap.keySet
-    val fetcherMetrics = Set(FetcherMetrics.BytesPerSec, FetcherMetrics.RequestsPerSec, FetcherMetrics.ConsumerLag)
+    val fetcherMetrics = Set(FetcherMetrics.BytesPerSec, FetcherMetrics.BytesCopiedPerSec, FetcherMetrics.RequestsPerSec,
+      FetcherMetrics.ConsumerLag)
 
     // wait until all fetcher metrics are present
     TestUtils.waitUntilTrue(() => allMetricsNames == brokerTopicStatsMetrics ++ fetcherMetrics,
@@ -174,6 +174,34 @@ class DelayedOperationTest {
     assertEquals("Purgatory should have 1 watched elements instead of " + purgatory.watched, 1, purgatory.watched)
   }
 
+  @Test
+  def testPurgeIsSpreadOverClockAdvances(): Unit = {
+    val shardedPurgatory = DelayedOperationPurgatory[MockDelayedOperation](purgatoryName = "mock-sharded",
+      purgeInterval = 0, reaperEnabled = false, numShards = 16)
+    try {
+      val ops = (0 until 64).map { i =>
+        val op = new MockDelayedOperation(100000L)
+        shardedPurgatory.tryCompleteElseWatch(op, Seq(s"key-$i"))
+        op
+      }
+      // completing operations directly leaves them in the watch lists until they are purged
+      ops.foreach(_.forceComplete())
+      assertEquals(0, shardedPurgatory.numDelayed)
+      assertEquals(64, shardedPurgatory.watched)
+
+      // 2 of the 16 shards are purged by every clock advance
+      shardedPurgatory.advanceClock(0)
+      val watchedAfterFirstAdvance = shardedPurgatory.watched
+      assertTrue(s"Unexpected watched count $watchedAfterFirstAdvance",
+        watchedAfterFirstAdvance > 0 && watchedAfterFirstAdvance < 64)
+
+      (1 until 8).foreach(_ => shardedPurgatory.advanceClock(0))
+      assertEquals(0, shardedPurgatory.watched)
+    } finally {
+      shardedPurgatory.shutdown()
+    }
+  }
+
   @Test
   def shouldCancelForKeyReturningCancelledOperations(): Unit = {
     purgatory.tryCompleteElseWatch(new MockDelayedOperation(10000L), Seq("key"))
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import org.junit.Assert._
+import org.junit.Test
+
+class FetchResponseBufferPoolTest {
+
+  @Test
+  def testDirectBufferIsReusedAfterRelease(): Unit = {
+    val pool = new FetchResponseBufferPool(minDirectBytes = 100, maxDirectBytes = 10000)
+
+    val first = pool.tryAllocate(300)
+    assertTrue(first.isDirect)
+    assertEquals(0, first.position())
+    assertEquals(300, first.limit())
+    assertEquals(300, pool.directBufferCapacity)
+
+    // the direct buffer is in use until it is released
+    val second = pool.tryAllocate(300)
+    assertFalse(second.isDirect)
+    assertEquals(300, second.remaining)
+
+    pool.releaseAll()
+    val third = pool.tryAllocate(200)
+    assertTrue(third.isDirect)
+    assertEquals(200, third.remaining)
+    assertEquals(300, pool.directBufferCapacity)
+    // the new buffer shares the memory of the first one
+    third.put(0, 42.toByte)
+    assertEquals(42.toByte, first.get(0))
+  }
+
+  @Test
+  def testDirectBufferGrowsUpToMaxBytes(): Unit = {
+    val pool = new FetchResponseBufferPool(minDirectBytes = 100, maxDirectBytes = 10000)
+    assertTrue(pool.tryAllocate(1000).isDirect)
+    assertEquals(1000, pool.directBufferCapacity)
+
+    pool.releaseAll()
+    assertTrue(pool.tryAllocate(9000).isDirect)
+    assertEquals(9000, pool.directBufferCapacity)
+
+    pool.releaseAll()
+    val large = pool.tryAllocate(10001)
+    assertFalse(large.isDirect)
+    assertEquals(10001, large.remaining)
+  }
+
+  @Test
+  def testSmallBuffersAreAllocatedOnHeap(): Unit = {
+    val pool = new FetchResponseBufferPool(minDirectBytes = 100, maxDirectBytes = 10000)
+    assertFalse(pool.tryAllocate(99).isDirect)
+    assertEquals(0, pool.directBufferCapacity)
+    assertTrue(pool.tryAllocate(100).isDirect)
+  }
+}
@@ -126,6 +126,135 @@ class FetchSessionTest {
     assertEquals(3, cache.totalPartitions)
   }
 
+  @Test
+  def testEvictionIsWeightedByFetchRate(): Unit = {
+    val cache = new FetchSessionCache(2, 100)
+    val id1 = cache.maybeCreateSession(0, false, 10, () => dummyCreate(10))
+    val id2 = cache.maybeCreateSession(0, false, 10, () => dummyCreate(10))
+    // session 1 is fetched more often than session 2
+    for (now <- 20 to 200 by 20)
+      cache.touch(cache.get(id1).get, now)
+    cache.touch(cache.get(id2).get, 200)
+    assertEquals(0, cache.staleEvictionsMeter.count)
+
+    // a new session of 10 partitions is only as valuable as session 2, but a larger one is more valuable
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(200, false, 10, () => dummyCreate(10)))
+    val id3 = cache.maybeCreateSession(200, false, 20, () => dummyCreate(20))
+    assertCacheContains(cache, id1, id3)
+    assertEquals(1, cache.lessValuableEvictionsMeter.count)
+    // a new session is not more valuable than session 1
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(201, false, 30, () => dummyCreate(30)))
+    assertEquals(2, cache.cacheFullMissesMeter.count)
+  }
+
+  @Test
+  def testEvictionToStayWithinMaxPartitions(): Unit = {
+    val cache = new FetchSessionCache(10, 100, 10)
+    val id1 = cache.maybeCreateSession(0, false, 3, () => dummyCreate(3))
+    val id2 = cache.maybeCreateSession(0, false, 4, () => dummyCreate(4))
+    val id3 = cache.maybeCreateSession(0, false, 3, () => dummyCreate(3))
+    assertEquals(10, cache.totalPartitions)
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(50, false, 2, () => dummyCreate(2)))
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(50, false, 11, () => dummyCreate(11)))
+
+    cache.touch(cache.get(id2).get, 150)
+    // sessions 1 and 3 are stale, and evicted until the new session fits
+    val id4 = cache.maybeCreateSession(150, false, 6, () => dummyCreate(6))
+    assertCacheContains(cache, id2, id4)
+    assertEquals(10, cache.totalPartitions)
+    assertEquals(2, cache.staleEvictionsMeter.count)
+    assertFalse(cache.get(id1).isDefined || cache.get(id3).isDefined)
+  }
+
+  @Test
+  def testSessionGrowingBeyondMaxPartitionsIsEvicted(): Unit = {
+    val cache = new FetchSessionCache(10, 100, 10)
+    val id1 = cache.maybeCreateSession(0, false, 3, () => dummyCreate(3))
+    val id2 = cache.maybeCreateSession(0, false, 4, () => dummyCreate(4))
+    val session2 = cache.get(id2).get
+    // growing within the bound is fine
+    for (i <- 4 until 7)
+      session2.partitionMap.add(new CachedPartition("test", i))
+    cache.touch(session2, 10)
+    assertCacheContains(cache, id1, id2)
+    assertEquals(10, cache.totalPartitions)
+    assertEquals(0, cache.evictionsMeter.count)
+
+    // growing beyond the bound evicts the growing session, not the other ones
+    session2.partitionMap.add(new CachedPartition("test", 7))
+    cache.touch(session2, 20)
+    assertCacheContains(cache, id1)
+    assertEquals(3, cache.totalPartitions)
+    assertEquals(1, cache.evictionsMeter.count)
+    assertEquals(1, cache.maxPartitionsExceededEvictionsMeter.count)
+  }
+
+  @Test
+  def testCachedPartitionMap(): Unit = {
+    val map = new CachedPartitionMap()
+    val expected = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+    val random = new scala.util.Random(0)
+    for (i <- 0 until 2000) {
+      val tp = new TopicPartition("topic" + random.nextInt(5), random.nextInt(100))
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(tp) != null, map.remove(tp.topic, tp.partition))
+      } else {
+        val data = new FetchRequest.PartitionData(i, i / 2, 100 + i,
+          if (i % 2 == 0) Optional.empty[Integer] else Optional.of[Integer](i))
+        assertEquals(!expected.containsKey(tp), map.addOrUpdate(tp, data))
+        expected.put(tp, data)
+      }
+      assertEquals(expected.size, map.size)
+    }
+
+    val partitions = new util.ArrayList[TopicPartition]
+    map.forEach { (tp, data) =>
+      assertEquals(expected.get(tp), data)
+      assertEquals(data.fetchOffset, map.fetchOffset(map.find(tp)))
+      partitions.add(tp)
+    }
+    assertEquals(expected.keySet.size, partitions.size)
+    assertEquals(-1, map.find(new TopicPartition("unknown", 0)))
+
+    // partitions which are moved to the end are iterated last
+    val first = partitions.get(0)
+    map.moveToEnd(map.find(first))
+    val iter = map.iterator
+    var last: CachedPartition = null
+    while (iter.hasNext) {
+      last = iter.next()
+      iter.remove()
+    }
+    assertEquals(new CachedPartition(first), last)
+    assertTrue(map.isEmpty)
+  }
+
+  @Test
+  def testHitAndMissMetrics(): Unit = {
+    val time = new MockTime()
+    val cache = new FetchSessionCache(10, 1000)
+    val fetchManager = new FetchManager(time, cache)
+    val tp = new TopicPartition("foo", 0)
+
+    val request = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+    request.put(tp, new FetchRequest.PartitionData(0, 0, 100, Optional.empty()))
+    val response = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData[Records]]
+    response.put(tp, new FetchResponse.PartitionData(Errors.NONE, 100, 100, 100, null, null))
+    val sessionId = fetchManager.newContext(JFetchMetadata.INITIAL, request, EMPTY_PART_LIST, false)
+      .updateAndGenerateResponseData(response).sessionId
+
+    val emptyRequest = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+    assertEquals(classOf[IncrementalFetchContext],
+      fetchManager.newContext(new JFetchMetadata(sessionId, 1), emptyRequest, EMPTY_PART_LIST, false).getClass)
+    assertEquals(classOf[SessionErrorContext],
+      fetchManager.newContext(new JFetchMetadata(sessionId, 5), emptyRequest, EMPTY_PART_LIST, false).getClass)
+    assertEquals(classOf[SessionErrorContext],
+      fetchManager.newContext(new JFetchMetadata(sessionId + 1, 1), emptyRequest, EMPTY_PART_LIST, false).getClass)
+    assertEquals(1, cache.hitsMeter.count)
+    assertEquals(1, cache.invalidEpochMissesMeter.count)
+    assertEquals(1, cache.sessionNotFoundMissesMeter.count)
+  }
+
   val EMPTY_PART_LIST = Collections.unmodifiableList(new util.ArrayList[TopicPartition]())
 
 
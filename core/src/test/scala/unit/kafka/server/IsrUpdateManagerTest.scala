@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import kafka.api.LeaderAndIsr
+import kafka.controller.LeaderIsrAndControllerEpoch
+import kafka.utils.{MockTime, TestUtils}
+import kafka.zk._
+import org.apache.kafka.common.TopicPartition
+import org.junit.Assert._
+import org.junit.{After, Before, Test}
+
+import scala.collection.mutable
+
+class IsrUpdateManagerTest extends ZooKeeperTestHarness {
+  private val topic = "isr-update-topic"
+  private val partitions = (0 until 3).map(new TopicPartition(topic, _))
+  private val controllerEpoch = 1
+  private val leader = 1
+  private val leaderEpoch = 1
+  private val time = new MockTime()
+  private var isrUpdateManager: IsrUpdateManager = _
+
+  @Before
+  override def setUp(): Unit = {
+    super.setUp()
+    zkClient.makeSurePersistentPathExists(TopicZNode.path(topic))
+    zkClient.createTopicPartitionStatesRaw(partitions.map { partition =>
+      partition -> LeaderIsrAndControllerEpoch(LeaderAndIsr(leader, leaderEpoch, List(1, 2, 3), 0), controllerEpoch)
+    }.toMap, ZkVersion.MatchAnyVersion)
+    isrUpdateManager = new IsrUpdateManager(leader, zkClient, time)
+  }
+
+  @After
+  override def tearDown(): Unit = {
+    if (isrUpdateManager != null)
+      isrUpdateManager.shutdown()
+    super.tearDown()
+  }
+
+  @Test
+  def testWriteBatch(): Unit = {
+    val results = mutable.Map[String, Option[Int]]()
+    def update(name: String, partition: TopicPartition, leaderEpoch: Int, zkVersion: Int): IsrUpdate = {
+      val leaderAndIsr = LeaderAndIsr(leader, leaderEpoch, List(1, 2), zkVersion)
+      new IsrUpdate(partition, LeaderIsrAndControllerEpoch(leaderAndIsr, controllerEpoch),
+        newVersionOpt => results.put(name, newVersionOpt), time.milliseconds)
+    }
+
+    isrUpdateManager.writeBatch(Seq(
+      update("superseded", partitions(0), leaderEpoch - 1, 0),
+      update("written", partitions(0), leaderEpoch, 0),
+      update("stale", partitions(1), leaderEpoch + 1, 5),
+      update("missing", new TopicPartition(topic, 10), leaderEpoch, 0)))
+
+    assertEquals(Map("superseded" -> None, "written" -> Some(1), "stale" -> None, "missing" -> None), results)
+    assertEquals(Some(List(1, 2)), zkClient.getTopicPartitionState(partitions(0)).map(_.leaderAndIsr.isr))
+    assertEquals(Some(List(1, 2, 3)), zkClient.getTopicPartitionState(partitions(1)).map(_.leaderAndIsr.isr))
+  }
+
+  @Test
+  def testUpdatesAreWrittenByThread(): Unit = {
+    val results = mutable.Map[TopicPartition, Option[Int]]()
+    isrUpdateManager.start()
+    partitions.foreach { partition =>
+      val leaderAndIsr = LeaderAndIsr(leader, leaderEpoch, List(1), 0)
+      isrUpdateManager.submit(partition, LeaderIsrAndControllerEpoch(leaderAndIsr, controllerEpoch),
+        newVersionOpt => results.synchronized(results.put(partition, newVersionOpt)))
+    }
+
+    TestUtils.waitUntilTrue(() => results.synchronized(results.size) == partitions.size,
+      "ISR updates should be written")
+    assertEquals(partitions.map(_ -> Some(1)).toMap, results.synchronized(results.toMap))
+    partitions.foreach { partition =>
+      assertEquals(Some(List(1)), zkClient.getTopicPartitionState(partition).map(_.leaderAndIsr.isr))
+    }
+  }
+}
@@ -16,9 +16,13 @@
   */
 package kafka.server
 
+import java.nio.ByteBuffer
 import java.util
 import util.Arrays.asList
 
+import kafka.api.LeaderAndIsr
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic
 import org.apache.kafka.common.message.UpdateMetadataRequestData.{UpdateMetadataBroker, UpdateMetadataEndpoint, UpdateMetadataPartitionState}
 import org.apache.kafka.common.network.ListenerName
 import org.apache.kafka.common.protocol.{ApiKeys, Errors}
@@ -498,4 +502,85 @@ class MetadataCacheTest {
     assertEquals(initialBrokerIds.toSet, aliveBrokersFromCache.map(_.id).toSet)
   }
 
+  @Test
+  def getSerializedTopicMetadataIsInvalidatedByUpdates(): Unit = {
+    val cache = new MetadataCache(1)
+    val listenerName = ListenerName.forSecurityProtocol(SecurityProtocol.PLAINTEXT)
+    val metadataVersion = ApiKeys.METADATA.latestVersion
+
+    def serializedTopics(): collection.Map[String, ByteBuffer] =
+      cache.getSerializedTopicMetadata(Set("foo", "bar", "missing"), listenerName, metadataVersion)
+
+    def deserialize(serialized: ByteBuffer): MetadataResponseTopic =
+      new MetadataResponseTopic(MetadataResponseTopic.SCHEMAS(metadataVersion).read(serialized.duplicate()), metadataVersion)
+
+    updateCache(cache, Seq(0, 1), Seq(partitionState("foo", 0, 0, 0), partitionState("bar", 0, 1, 0)))
+    val initial = serializedTopics()
+    assertEquals(Set("foo", "bar"), initial.keySet)
+    assertEquals(cache.getTopicMetadata(Set("foo"), listenerName).head, deserialize(initial("foo")))
+    assertSame(initial("foo"), serializedTopics()("foo"))
+
+    // only the topic changed by the update is serialized again
+    updateCache(cache, Seq(0, 1), Seq(partitionState("foo", 0, 1, 1)))
+    val afterTopicUpdate = serializedTopics()
+    assertNotSame(initial("foo"), afterTopicUpdate("foo"))
+    assertEquals(1, deserialize(afterTopicUpdate("foo")).partitions.get(0).leaderId)
+    assertSame(initial("bar"), afterTopicUpdate("bar"))
+
+    // a change of the live brokers affects every topic
+    updateCache(cache, Seq(0), Seq.empty)
+    val afterBrokerUpdate = serializedTopics()
+    assertNotSame(afterTopicUpdate("bar"), afterBrokerUpdate("bar"))
+    assertEquals(Errors.LEADER_NOT_AVAILABLE.code, deserialize(afterBrokerUpdate("bar")).partitions.get(0).errorCode)
+  }
+
+  @Test
+  def updateMetadataOnlyChangesTopicsInRequest(): Unit = {
+    val cache = new MetadataCache(1)
+    updateCache(cache, Seq(0, 1), Seq(partitionState("foo", 0, 0, 0), partitionState("foo", 1, 1, 0),
+      partitionState("bar", 0, 1, 0), partitionState("baz", 0, 0, 0)))
+
+    val deletedPartitions = updateCache(cache, Seq(0, 1), Seq(partitionState("foo", 0, 1, 1),
+      partitionState("bar", 0, LeaderAndIsr.LeaderDuringDelete, 1), partitionState("missing", 0, LeaderAndIsr.LeaderDuringDelete, 1)))
+
+    assertEquals(Seq(new TopicPartition("bar", 0), new TopicPartition("missing", 0)), deletedPartitions)
+    assertEquals(Set("foo", "baz"), cache.getAllTopics())
+    assertEquals(Set(new TopicPartition("foo", 0), new TopicPartition("foo", 1), new TopicPartition("baz", 0)),
+      cache.getAllPartitions())
+    assertEquals(Some(1), cache.getPartitionInfo("foo", 0).map(_.leader))
+    assertEquals(Some(1), cache.getPartitionInfo("foo", 1).map(_.leader))
+    assertEquals(Some(0), cache.getPartitionInfo("baz", 0).map(_.leader))
+    assertFalse(cache.contains("bar"))
+  }
+
+  private def updateCache(cache: MetadataCache,
+                          brokerIds: Seq[Int],
+                          partitionStates: Seq[UpdateMetadataPartitionState]): collection.Seq[TopicPartition] = {
+    val securityProtocol = SecurityProtocol.PLAINTEXT
+    val brokers = brokerIds.map { brokerId =>
+      new UpdateMetadataBroker()
+        .setId(brokerId)
+        .setRack("")
+        .setEndpoints(Seq(new UpdateMetadataEndpoint()
+          .setHost("foo")
+          .setPort(9092)
+          .setSecurityProtocol(securityProtocol.id)
+          .setListener(ListenerName.forSecurityProtocol(securityProtocol).value)).asJava)
+    }
+    val updateMetadataRequest = new UpdateMetadataRequest.Builder(ApiKeys.UPDATE_METADATA.latestVersion, 2, 1,
+      brokerEpoch, partitionStates.asJava, brokers.asJava).build()
+    cache.updateMetadata(15, updateMetadataRequest)
+  }
+
+  private def partitionState(topic: String, partition: Int, leader: Int, leaderEpoch: Int): UpdateMetadataPartitionState =
+    new UpdateMetadataPartitionState()
+      .setTopicName(topic)
+      .setPartitionIndex(partition)
+      .setControllerEpoch(1)
+      .setLeader(leader)
+      .setLeaderEpoch(leaderEpoch)
+      .setIsr(asList(0, 1))
+      .setZkVersion(3)
+      .setReplicas(asList(0, 1))
+
 }
@@ -518,6 +518,48 @@ class ReplicaManagerTest {
     }
   }
 
+  @Test
+  def testDelayedFetchIsCompletedWhenItsLogDirFails(): Unit = {
+    val timer = new MockTimer(time)
+    val replicaManager = setupReplicaManagerWithMockedPurgatories(timer)
+
+    try {
+      val tp = new TopicPartition(topic, 0)
+      replicaManager.becomeLeaderOrFollower(0, leaderAndIsrRequest(tp, leaderEpoch = 0), (_, _) => ())
+      val logDir = replicaManager.getPartitionOrException(tp).localLogOrException.parentDir
+
+      val fetchResult = fetchAsConsumer(replicaManager, tp, new PartitionData(0, 0, 100000, Optional.empty()),
+        minBytes = 10000)
+      assertFalse(fetchResult.isFired)
+
+      replicaManager.handleLogDirFailure(logDir, sendZkNotification = false)
+      assertEquals(Errors.KAFKA_STORAGE_ERROR, fetchResult.assertFired.error)
+    } finally {
+      replicaManager.shutdown(checkpointHW = false)
+    }
+  }
+
+  @Test
+  def testDelayedFetchIsCompletedWhenItsLeaderEpochIsFenced(): Unit = {
+    val timer = new MockTimer(time)
+    val replicaManager = setupReplicaManagerWithMockedPurgatories(timer)
+
+    try {
+      val tp = new TopicPartition(topic, 0)
+      replicaManager.becomeLeaderOrFollower(0, leaderAndIsrRequest(tp, leaderEpoch = 0), (_, _) => ())
+
+      val fetchResult = fetchAsConsumer(replicaManager, tp, new PartitionData(0, 0, 100000, Optional.of[Integer](0)),
+        minBytes = 10000)
+      assertFalse(fetchResult.isFired)
+
+      // this broker stays the leader and its high watermark does not change
+      replicaManager.becomeLeaderOrFollower(0, leaderAndIsrRequest(tp, leaderEpoch = 1), (_, _) => ())
+      assertEquals(Errors.FENCED_LEADER_EPOCH, fetchResult.assertFired.error)
+    } finally {
+      replicaManager.shutdown(checkpointHW = false)
+    }
+  }
+
   @Test
   def testFetchBeyondHighWatermark(): Unit = {
     val rm = setupReplicaManagerWithMockedPurgatories(new MockTimer(time), aliveBrokerIds = Seq(0, 1, 2))
@@ -1643,6 +1685,22 @@ class ReplicaManagerTest {
     result
   }
 
+  private def leaderAndIsrRequest(tp: TopicPartition, leaderEpoch: Int): LeaderAndIsrRequest = {
+    val brokerList = Seq[Integer](0, 1).asJava
+    new LeaderAndIsrRequest.Builder(ApiKeys.LEADER_AND_ISR.latestVersion, 0, 0, brokerEpoch,
+      Seq(new LeaderAndIsrPartitionState()
+        .setTopicName(tp.topic)
+        .setPartitionIndex(tp.partition)
+        .setControllerEpoch(0)
+        .setLeader(0)
+        .setLeaderEpoch(leaderEpoch)
+        .setIsr(brokerList)
+        .setZkVersion(0)
+        .setReplicas(brokerList)
+        .setIsNew(true)).asJava,
+      Set(new Node(0, "host1", 0), new Node(1, "host2", 1)).asJava).build()
+  }
+
   private def setupReplicaManagerWithMockedPurgatories(timer: MockTimer, aliveBrokerIds: Seq[Int] = Seq(0, 1)): ReplicaManager = {
     val props = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect)
     props.put("log.dirs", TestUtils.tempRelativeDir("data").getAbsolutePath + "," + TestUtils.tempRelativeDir("data2").getAbsolutePath)
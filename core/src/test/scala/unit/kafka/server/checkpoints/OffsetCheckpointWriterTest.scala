@@ -0,0 +1,59 @@
+/**
+  * Licensed to the Apache Software Foundation (ASF) under one or more
+  * contributor license agreements.  See the NOTICE file distributed with
+  * this work for additional information regarding copyright ownership.
+  * The ASF licenses this file to You under the Apache License, Version 2.0
+  * (the "License"); you may not use this file except in compliance with
+  * the License.  You may obtain a copy of the License at
+  *
+  * http://www.apache.org/licenses/LICENSE-2.0
+  *
+  * Unless required by applicable law or agreed to in writing, software
+  * distributed under the License is distributed on an "AS IS" BASIS,
+  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  * See the License for the specific language governing permissions and
+  * limitations under the License.
+  */
+package kafka.server.checkpoints
+
+import kafka.utils.TestUtils
+import org.apache.kafka.common.TopicPartition
+import org.junit.Assert._
+import org.junit.{After, Test}
+
+import scala.collection.Map
+
+class OffsetCheckpointWriterTest {
+  private val writer = new OffsetCheckpointWriter("test-checkpoint-writer")
+
+  @After
+  def tearDown(): Unit = {
+    writer.shutdown()
+  }
+
+  @Test
+  def testLatestSubmittedOffsetsAreWritten(): Unit = {
+    val checkpoint = new OffsetCheckpointFile(TestUtils.tempFile())
+    val otherCheckpoint = new OffsetCheckpointFile(TestUtils.tempFile())
+    val partition = new TopicPartition("foo", 0)
+
+    // offsets submitted before the thread starts are pending, and replaced by the ones submitted later
+    writer.submit(checkpoint, Map(partition -> 5L))
+    writer.submit(checkpoint, Map(partition -> 10L))
+    writer.submit(otherCheckpoint, Map(partition -> 15L))
+    assertTrue(writer.hasPendingOffsets)
+    assertEquals(Map(), checkpoint.read())
+
+    writer.start()
+    TestUtils.waitUntilTrue(() => !writer.hasPendingOffsets && otherCheckpoint.read() == Map(partition -> 15L),
+      "Timed out waiting for the offsets to be written")
+    assertEquals(Map(partition -> 10L), checkpoint.read())
+  }
+
+  @Test
+  def testShutdownWithoutPendingOffsets(): Unit = {
+    writer.start()
+    writer.shutdown()
+    assertTrue(writer.thread.isShutdownComplete)
+  }
+}
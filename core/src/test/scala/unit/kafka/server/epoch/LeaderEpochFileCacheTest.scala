@@ -233,6 +233,7 @@ class LeaderEpochFileCacheTest {
     //Given
     val cache = new LeaderEpochFileCache(tp, () => logEndOffset, checkpoint)
     cache.assign(epoch = 2, startOffset = 6)
+    cache.flush()
 
     //When
     val checkpoint2 = new LeaderEpochCheckpointFile(new File(checkpointPath))
@@ -243,6 +244,61 @@ class LeaderEpochFileCacheTest {
     assertEquals(EpochEntry(2, 6), cache2.epochEntries.toList(0))
   }
 
+  @Test
+  def shouldOnlyWriteAppendedEpochsOnFlush(): Unit = {
+    cache.assign(epoch = 2, startOffset = 6)
+    cache.assign(epoch = 3, startOffset = 8)
+    assertEquals(Seq(), checkpoint.read())
+
+    cache.flush()
+    assertEquals(Seq(EpochEntry(2, 6), EpochEntry(3, 8)), checkpoint.read())
+
+    cache.truncateFromStart(startOffset = 7)
+    assertEquals(Seq(EpochEntry(2, 6), EpochEntry(3, 8)), checkpoint.read())
+    cache.flush()
+    assertEquals(Seq(EpochEntry(2, 7), EpochEntry(3, 8)), checkpoint.read())
+  }
+
+  @Test
+  def shouldWriteCheckpointWhenEpochsAreRemoved(): Unit = {
+    cache.assign(epoch = 2, startOffset = 6)
+    cache.assign(epoch = 3, startOffset = 8)
+    cache.assign(epoch = 4, startOffset = 10)
+
+    // truncating from the end writes the appended epochs too
+    cache.truncateFromEnd(endOffset = 10)
+    assertEquals(Seq(EpochEntry(2, 6), EpochEntry(3, 8)), checkpoint.read())
+
+    // an assigned epoch which conflicts with cached epochs removes them
+    cache.assign(epoch = 3, startOffset = 7)
+    assertEquals(Seq(EpochEntry(2, 6), EpochEntry(3, 7)), checkpoint.read())
+
+    // but a smaller epoch with no data replaced by a new epoch is only written on flush
+    cache.assign(epoch = 4, startOffset = 7)
+    assertEquals(Seq(EpochEntry(2, 6), EpochEntry(3, 7)), checkpoint.read())
+    cache.flush()
+    assertEquals(Seq(EpochEntry(2, 6), EpochEntry(4, 7)), checkpoint.read())
+  }
+
+  @Test
+  def shouldFindEndOffsetsOfManyEpochs(): Unit = {
+    for (epoch <- 0 until 100)
+      cache.assign(epoch = epoch * 2, startOffset = epoch * 10L)
+    logEndOffset = 1000
+
+    assertEquals((0, 10L), cache.endOffsetFor(0))
+    assertEquals((0, 10L), cache.endOffsetFor(1))
+    assertEquals((96, 490L), cache.endOffsetFor(97))
+    assertEquals((198, logEndOffset), cache.endOffsetFor(198))
+    assertEquals((UNDEFINED_EPOCH, UNDEFINED_EPOCH_OFFSET), cache.endOffsetFor(199))
+
+    cache.truncateFromEnd(endOffset = 505)
+    assertEquals(Some(100), cache.latestEpoch)
+    cache.truncateFromStart(startOffset = 255)
+    assertEquals(Some(EpochEntry(50, 255)), cache.earliestEntry)
+    assertEquals(26, cache.epochEntries.size)
+  }
+
   @Test
   def shouldEnforceMonotonicallyIncreasingEpochs(): Unit = {
     //Given
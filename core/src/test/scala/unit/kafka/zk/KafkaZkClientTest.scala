@@ -1157,6 +1157,27 @@ class KafkaZkClientTest extends ZooKeeperTestHarness {
     assertTrue("Failed to receive create notification", znodeChangeHandlerCountDownLatch.await(5, TimeUnit.SECONDS))
   }
 
+  @Test
+  def testZNodeChangeHandlersAreRegisteredAndExistenceIsChecked(): Unit = {
+    val znodeChangeHandlerCountDownLatch = new CountDownLatch(1)
+    val existingHandler = new ZNodeChangeHandler {
+      override val path: String = "/foo"
+    }
+    val missingHandler = new ZNodeChangeHandler {
+      override def handleCreation(): Unit = {
+        znodeChangeHandlerCountDownLatch.countDown()
+      }
+
+      override val path: String = "/bar"
+    }
+    zkClient.createRecursive(existingHandler.path)
+
+    assertEquals(Map("/foo" -> true, "/bar" -> false),
+      zkClient.registerZNodeChangeHandlersAndCheckExistence(Seq(existingHandler, missingHandler)))
+    zkClient.createRecursive(missingHandler.path)
+    assertTrue("Failed to receive create notification", znodeChangeHandlerCountDownLatch.await(5, TimeUnit.SECONDS))
+  }
+
   @Test
   def testClusterIdMethods(): Unit = {
     val clusterId = CoreUtils.generateUuidAsBase64
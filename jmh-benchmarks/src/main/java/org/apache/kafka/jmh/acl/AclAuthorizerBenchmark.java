@@ -20,6 +20,7 @@ package org.apache.kafka.jmh.acl;
 import kafka.security.authorizer.AclAuthorizer;
 import kafka.security.authorizer.AclAuthorizer.VersionedAcls;
 import kafka.security.authorizer.AclEntry;
+import kafka.security.authorizer.AclIndex;
 import org.apache.kafka.common.acl.AccessControlEntry;
 import org.apache.kafka.common.acl.AclBindingFilter;
 import org.apache.kafka.common.acl.AclOperation;
@@ -49,7 +50,6 @@ import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 import scala.collection.JavaConverters;
-import scala.collection.immutable.TreeMap;
 
 import java.lang.reflect.Field;
 import java.net.InetAddress;
@@ -74,6 +74,9 @@ public class AclAuthorizerBenchmark {
     //no. of. rules per resource
     @Param({"10", "50"})
     private int aclCount;
+    //max. no. of cached authorization decisions, 0 disables the decision cache
+    @Param({"0", "10000"})
+    private int decisionCacheSize;
 
     private final int hostPreCount = 1000;
     private final String resourceNamePrefix = "foo-bar35_resource-";
@@ -81,19 +84,27 @@ public class AclAuthorizerBenchmark {
     private final AclAuthorizer aclAuthorizer = new AclAuthorizer();
     private final KafkaPrincipal principal = new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "test-user");
     private List<Action> actions = new ArrayList<>();
+    private List<Action> topicActions = new ArrayList<>();
     private RequestContext context;
 
     @Setup(Level.Trial)
     public void setup() throws Exception {
-        setFieldValue(aclAuthorizer, AclAuthorizer.class.getDeclaredField("aclCache").getName(),
-            prepareAclCache());
-        // By adding `-95` to the resource name prefix, we cause the `TreeMap.from/to` call to return
-        // most map entries. In such cases, we rely on the filtering based on `String.startsWith`
-        // to return the matching ACLs. Using a more efficient data structure (e.g. a prefix
-        // tree) should improve performance significantly).
+        setFieldValue(aclAuthorizer, AclAuthorizer.class.getDeclaredField("aclIndex").getName(),
+            AclIndex.empty(decisionCacheSize));
+        prepareAclCache();
+        // By adding `-95` to the resource name prefix, we match the ACLs of the prefixed resources
+        // `foo-bar35_resource-` and `foo-bar35_resource-95` as well as of the wildcard resource.
         actions = Collections.singletonList(new Action(AclOperation.WRITE,
             new ResourcePattern(ResourceType.TOPIC, resourceNamePrefix + 95, PatternType.LITERAL),
             1, true, true));
+        // Authorizing a request for many topics, e.g. a metadata or fetch request, with a decision
+        // for each of the topics.
+        topicActions = new ArrayList<>();
+        for (int resourceId = 1; resourceId <= 1000; resourceId++) {
+            topicActions.add(new Action(AclOperation.DESCRIBE,
+                new ResourcePattern(ResourceType.TOPIC, resourceNamePrefix + resourceId, PatternType.LITERAL),
+                1, false, false));
+        }
         context = new RequestContext(new RequestHeader(ApiKeys.PRODUCE, Integer.valueOf(1).shortValue(),
             "someclient", 1), "1", InetAddress.getLocalHost(), KafkaPrincipal.ANONYMOUS,
             ListenerName.normalised("listener"), SecurityProtocol.PLAINTEXT, ClientInformation.EMPTY);
@@ -105,7 +116,7 @@ public class AclAuthorizerBenchmark {
         field.set(obj, value);
     }
 
-    private TreeMap<ResourcePattern, VersionedAcls> prepareAclCache() {
+    private void prepareAclCache() {
         Map<ResourcePattern, Set<AclEntry>> aclEntries = new HashMap<>();
         for (int resourceId = 0; resourceId < resourceCount; resourceId++) {
             ResourcePattern resource = new ResourcePattern(
@@ -141,13 +152,10 @@ public class AclAuthorizerBenchmark {
             entriesWildcard.add(new AclEntry(ace));
         }
 
-        TreeMap<ResourcePattern, VersionedAcls> aclCache = new TreeMap<>(new AclAuthorizer.ResourceOrdering());
         for (Map.Entry<ResourcePattern, Set<AclEntry>> entry : aclEntries.entrySet()) {
-            aclCache = aclCache.updated(entry.getKey(),
+            aclAuthorizer.updateCache(entry.getKey(),
                 new VersionedAcls(JavaConverters.asScalaSetConverter(entry.getValue()).asScala().toSet(), 1));
         }
-
-        return aclCache;
     }
 
     @TearDown(Level.Trial)
@@ -164,4 +172,9 @@ public class AclAuthorizerBenchmark {
     public void testAuthorizer() {
         aclAuthorizer.authorize(context, actions);
     }
+
+    @Benchmark
+    public void testAuthorizerManyTopics() {
+        aclAuthorizer.authorize(context, topicActions);
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.coordinator;
+
+import kafka.common.OffsetAndMetadata;
+import kafka.coordinator.group.CommitRecordMetadataAndOffset;
+import kafka.coordinator.group.GroupOffsetStore;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.Option;
+import scala.Some;
+import scala.collection.mutable.HashMap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the memory used to hold the committed offsets of a group by a map of boxed offsets, as the offsets used
+ * to be held, and by the compact offset store of the group coordinator.
+ *
+ * Run with `-prof gc`: the `gc.alloc.rate.norm` of the build benchmarks is the number of bytes allocated to hold the
+ * offsets of a group, which are all retained by the map, while the store only retains its arrays, apart from the
+ * arrays discarded as they grow. The map benchmark allocates the keys and values it retains, as they are when the
+ * offsets are loaded or committed.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GroupOffsetStoreBenchmark {
+
+    private static final String METADATA = "consumer-metadata";
+
+    @Param({"10"})
+    private int topicCount;
+
+    @Param({"10", "100", "1000"})
+    private int partitionsPerTopic;
+
+    private TopicPartition[] partitions;
+    private CommitRecordMetadataAndOffset[] offsets;
+    private HashMap<TopicPartition, CommitRecordMetadataAndOffset> offsetMap;
+    private GroupOffsetStore offsetStore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        partitions = new TopicPartition[topicCount * partitionsPerTopic];
+        offsets = new CommitRecordMetadataAndOffset[partitions.length];
+        for (int topic = 0; topic < topicCount; topic++) {
+            for (int partition = 0; partition < partitionsPerTopic; partition++) {
+                int index = topic * partitionsPerTopic + partition;
+                partitions[index] = new TopicPartition("topic-" + topic, partition);
+                offsets[index] = offset(index);
+            }
+        }
+        offsetMap = buildOffsetMap();
+        offsetStore = buildOffsetStore();
+    }
+
+    private static CommitRecordMetadataAndOffset offset(long offset) {
+        Option<Object> batchOffset = new Some<>(offset);
+        return new CommitRecordMetadataAndOffset(batchOffset,
+            OffsetAndMetadata.apply(offset, new String(METADATA), System.currentTimeMillis()));
+    }
+
+    @Benchmark
+    public HashMap<TopicPartition, CommitRecordMetadataAndOffset> buildOffsetMap() {
+        HashMap<TopicPartition, CommitRecordMetadataAndOffset> offsetMap = new HashMap<>();
+        for (int i = 0; i < partitions.length; i++) {
+            TopicPartition partition = new TopicPartition(partitions[i].topic(), partitions[i].partition());
+            offsetMap.put(partition, offset(i));
+        }
+        return offsetMap;
+    }
+
+    @Benchmark
+    public GroupOffsetStore buildOffsetStore() {
+        GroupOffsetStore offsetStore = new GroupOffsetStore();
+        for (int i = 0; i < partitions.length; i++)
+            offsetStore.put(partitions[i], offsets[i]);
+        return offsetStore;
+    }
+
+    @Benchmark
+    public int lookupOffsetMap() {
+        int found = 0;
+        for (TopicPartition partition : partitions) {
+            if (offsetMap.get(partition).isDefined())
+                found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int lookupOffsetStore() {
+        int found = 0;
+        for (TopicPartition partition : partitions) {
+            if (offsetStore.get(partition).isDefined())
+                found++;
+        }
+        return found;
+    }
+}
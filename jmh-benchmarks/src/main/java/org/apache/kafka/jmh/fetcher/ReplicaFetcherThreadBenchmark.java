@@ -125,6 +125,7 @@ public class ReplicaFetcherThreadBenchmark {
                 logConfig,
                 new CleanerConfig(0, 0, 0, 0, 0, 0.0, 0, false, "MD5"),
                 1,
+                false,
                 1000L,
                 10000L,
                 10000L,
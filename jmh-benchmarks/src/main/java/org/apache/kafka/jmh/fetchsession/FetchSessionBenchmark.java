@@ -17,13 +17,18 @@
 
 package org.apache.kafka.jmh.fetchsession;
 
+import kafka.server.FetchManager;
+import kafka.server.FetchSessionCache;
 import org.apache.kafka.clients.FetchSessionHandler;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.requests.FetchMetadata;
 import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.FetchResponse;
 import org.apache.kafka.common.utils.LogContext;
+import org.apache.kafka.common.utils.Time;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
@@ -38,6 +43,7 @@ import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.Warmup;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -63,6 +69,11 @@ public class FetchSessionBenchmark {
 
     private LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetches;
     private FetchSessionHandler handler;
+    private LinkedHashMap<TopicPartition, FetchRequest.PartitionData> updatedFetches;
+    private LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> serverResponses;
+    private FetchManager fetchManager;
+    private int sessionId;
+    private int sessionEpoch;
 
     @Setup(Level.Trial)
     public void setUp() {
@@ -71,6 +82,7 @@ public class FetchSessionBenchmark {
         FetchSessionHandler.Builder builder = handler.newBuilder();
 
         LinkedHashMap<TopicPartition, FetchResponse.PartitionData<MemoryRecords>> respMap = new LinkedHashMap<>();
+        serverResponses = new LinkedHashMap<>();
         for (int i = 0; i < partitionCount; i++) {
             TopicPartition tp = new TopicPartition("foo", i);
             FetchRequest.PartitionData partitionData = new FetchRequest.PartitionData(0, 0, 200,
@@ -84,11 +96,19 @@ public class FetchSessionBenchmark {
                     0,
                     null,
                     null));
+            serverResponses.put(tp, new FetchResponse.PartitionData<>(Errors.NONE, 0L, 0L, 0, null, null));
         }
-        builder.build();
+        FetchSessionHandler.FetchRequestData initialRequest = builder.build();
         // build and handle an initial response so that the next fetch will be incremental
         handler.handleResponse(new FetchResponse<>(Errors.NONE, respMap, 0, 1));
 
+        // create the same session on the broker side
+        fetchManager = new FetchManager(Time.SYSTEM, new FetchSessionCache(1000, 120000, Integer.MAX_VALUE));
+        sessionId = fetchManager.newContext(FetchMetadata.INITIAL, initialRequest.toSend(), Collections.emptyList(), false)
+            .updateAndGenerateResponseData(new LinkedHashMap<>(serverResponses)).sessionId();
+        sessionEpoch = FetchMetadata.nextEpoch(FetchMetadata.INITIAL_EPOCH);
+
+        updatedFetches = new LinkedHashMap<>();
         int counter = 0;
         for (TopicPartition topicPartition: new ArrayList<>(fetches.keySet())) {
             if (updatedPercentage != 0 && counter % (100 / updatedPercentage) == 0) {
@@ -96,6 +116,7 @@ public class FetchSessionBenchmark {
                 fetches.remove(topicPartition);
                 fetches.put(topicPartition, new FetchRequest.PartitionData(50, 40, 200,
                         Optional.empty()));
+                updatedFetches.put(topicPartition, fetches.get(topicPartition));
             }
             counter++;
         }
@@ -116,4 +137,13 @@ public class FetchSessionBenchmark {
 
         builder.build();
     }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public FetchResponse<Records> incrementalFetchContext() {
+        FetchMetadata metadata = new FetchMetadata(sessionId, sessionEpoch);
+        sessionEpoch = FetchMetadata.nextEpoch(sessionEpoch);
+        return fetchManager.newContext(metadata, updatedFetches, Collections.emptyList(), false)
+            .updateAndGenerateResponseData(new LinkedHashMap<>(serverResponses));
+    }
 }
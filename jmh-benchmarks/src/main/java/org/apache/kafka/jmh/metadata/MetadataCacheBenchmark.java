@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.metadata;
+
+import kafka.server.MetadataCache;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic;
+import org.apache.kafka.common.message.UpdateMetadataRequestData.UpdateMetadataBroker;
+import org.apache.kafka.common.message.UpdateMetadataRequestData.UpdateMetadataEndpoint;
+import org.apache.kafka.common.message.UpdateMetadataRequestData.UpdateMetadataPartitionState;
+import org.apache.kafka.common.network.ListenerName;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.requests.UpdateMetadataRequest;
+import org.apache.kafka.common.security.auth.SecurityProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import scala.collection.JavaConverters;
+
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetadataCacheBenchmark {
+    private static final ListenerName LISTENER_NAME = ListenerName.forSecurityProtocol(SecurityProtocol.PLAINTEXT);
+
+    @Param({"100000"})
+    private int partitionCount;
+
+    @Param({"10"})
+    private int partitionsPerTopic;
+
+    @Param({"10"})
+    private int brokerCount;
+
+    private MetadataCache metadataCache;
+    private List<UpdateMetadataBroker> brokers;
+    private UpdateMetadataRequest singlePartitionUpdate;
+    private UpdateMetadataRequest singleTopicUpdate;
+    private scala.collection.Set<String> singleTopic;
+    private scala.collection.Set<String> allTopics;
+    private int nextPartition = 0;
+
+    @SuppressWarnings("deprecation")
+    @Setup(Level.Trial)
+    public void setup() {
+        brokers = new ArrayList<>();
+        for (int brokerId = 0; brokerId < brokerCount; brokerId++) {
+            brokers.add(new UpdateMetadataBroker()
+                .setId(brokerId)
+                .setRack("")
+                .setEndpoints(Collections.singletonList(new UpdateMetadataEndpoint()
+                    .setHost("host" + brokerId)
+                    .setPort(9092)
+                    .setSecurityProtocol(SecurityProtocol.PLAINTEXT.id)
+                    .setListener(LISTENER_NAME.value()))));
+        }
+
+        int topicCount = partitionCount / partitionsPerTopic;
+        List<UpdateMetadataPartitionState> partitionStates = new ArrayList<>(partitionCount);
+        Set<String> topics = new HashSet<>();
+        for (int topic = 0; topic < topicCount; topic++) {
+            topics.add(topicName(topic));
+            for (int partition = 0; partition < partitionsPerTopic; partition++)
+                partitionStates.add(partitionState(topic, partition, 0));
+        }
+        metadataCache = new MetadataCache(0);
+        metadataCache.updateMetadata(0, updateMetadataRequest(partitionStates));
+
+        singlePartitionUpdate = updateMetadataRequest(Collections.singletonList(partitionState(0, 0, 1)));
+        List<UpdateMetadataPartitionState> topicStates = new ArrayList<>(partitionsPerTopic);
+        for (int partition = 0; partition < partitionsPerTopic; partition++)
+            topicStates.add(partitionState(1, partition, 1));
+        singleTopicUpdate = updateMetadataRequest(topicStates);
+
+        singleTopic = JavaConverters.asScalaSet(Collections.singleton(topicName(topicCount / 2)));
+        allTopics = JavaConverters.asScalaSet(topics);
+    }
+
+    private String topicName(int topic) {
+        return "topic-" + topic;
+    }
+
+    private UpdateMetadataPartitionState partitionState(int topic, int partition, int leaderEpoch) {
+        int leader = (topic + partition) % brokerCount;
+        List<Integer> replicas = Arrays.asList(leader, (leader + 1) % brokerCount, (leader + 2) % brokerCount);
+        return new UpdateMetadataPartitionState()
+            .setTopicName(topicName(topic))
+            .setPartitionIndex(partition)
+            .setControllerEpoch(1)
+            .setLeader(leader)
+            .setLeaderEpoch(leaderEpoch)
+            .setIsr(replicas)
+            .setZkVersion(leaderEpoch)
+            .setReplicas(replicas);
+    }
+
+    private UpdateMetadataRequest updateMetadataRequest(List<UpdateMetadataPartitionState> partitionStates) {
+        return new UpdateMetadataRequest.Builder(ApiKeys.UPDATE_METADATA.latestVersion(), 0, 1, 0,
+            partitionStates, brokers).build();
+    }
+
+    @Benchmark
+    public Object updateSinglePartition() {
+        return metadataCache.updateMetadata(1, singlePartitionUpdate);
+    }
+
+    @Benchmark
+    public Object updateSingleTopic() {
+        return metadataCache.updateMetadata(1, singleTopicUpdate);
+    }
+
+    @Benchmark
+    public Object getPartitionInfo() {
+        int partition = nextPartition++ % partitionCount;
+        return metadataCache.getPartitionInfo(topicName(partition / partitionsPerTopic), partition % partitionsPerTopic);
+    }
+
+    @Benchmark
+    public scala.collection.Seq<MetadataResponseTopic> getTopicMetadataSingleTopic() {
+        return metadataCache.getTopicMetadata(singleTopic, LISTENER_NAME, false, false);
+    }
+
+    @Benchmark
+    public scala.collection.Map<String, ByteBuffer> getSerializedTopicMetadataAllTopics() {
+        return metadataCache.getSerializedTopicMetadata(allTopics, LISTENER_NAME, ApiKeys.METADATA.latestVersion(),
+            false, false);
+    }
+}
@@ -25,8 +25,11 @@ import kafka.log.CleanerConfig;
 import kafka.log.Defaults;
 import kafka.log.LogConfig;
 import kafka.log.LogManager;
+import kafka.log.LogOffsetSnapshot;
+import kafka.log.LogReadInfo;
 import kafka.server.BrokerState;
 import kafka.server.BrokerTopicStats;
+import kafka.server.FetchHighWatermark$;
 import kafka.server.LogDirFailureChannel;
 import kafka.server.LogOffsetMetadata;
 import kafka.server.MetadataCache;
@@ -39,6 +42,8 @@ import org.mockito.Mockito;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
 import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
@@ -55,6 +60,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -71,6 +77,7 @@ public class UpdateFollowerFetchStateBenchmark {
     private KafkaScheduler scheduler = new KafkaScheduler(1, "scheduler", true);
     private BrokerTopicStats brokerTopicStats = new BrokerTopicStats();
     private LogDirFailureChannel logDirFailureChannel = Mockito.mock(LogDirFailureChannel.class);
+    private Optional<Integer> currentLeaderEpoch = Optional.of(0);
     private long nextOffset = 0;
     private LogManager logManager;
     private Partition partition;
@@ -86,6 +93,7 @@ public class UpdateFollowerFetchStateBenchmark {
                 logConfig,
                 new CleanerConfig(0, 0, 0, 0, 0, 0.0, 0, false, "MD5"),
                 1,
+                false,
                 1000L,
                 10000L,
                 10000L,
@@ -177,4 +185,28 @@ public class UpdateFollowerFetchStateBenchmark {
         partition.updateFollowerFetchState(2, new LogOffsetMetadata(nextOffset, nextOffset, 0),
                 0, 1, 100);
     }
+
+    @Benchmark
+    @Group("concurrentFetch")
+    @GroupThreads(3)
+    public LogReadInfo readRecordsBench() {
+        // measure fetches from several request handler threads while a follower updates its fetch state
+        return partition.readRecords(0, currentLeaderEpoch, 1024 * 1024, FetchHighWatermark$.MODULE$, true, true);
+    }
+
+    @Benchmark
+    @Group("concurrentFetch")
+    @GroupThreads(3)
+    public LogOffsetSnapshot fetchOffsetSnapshotBench() {
+        return partition.fetchOffsetSnapshot(currentLeaderEpoch, true);
+    }
+
+    @Benchmark
+    @Group("concurrentFetch")
+    @GroupThreads(1)
+    public void updateFollowerFetchStateConcurrentBench() {
+        partition.updateFollowerFetchState(1, new LogOffsetMetadata(nextOffset, nextOffset, 0),
+                0, 1, nextOffset);
+        nextOffset++;
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.purgatory;
+
+import kafka.server.DelayedOperation;
+import kafka.server.DelayedOperationPurgatory;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import scala.Option;
+import scala.collection.JavaConverters;
+import scala.collection.Seq;
+
+/**
+ * Watches operations on random partitions from some threads (like delayed fetches) while other threads complete
+ * them by advancing the partitions (like produce requests), with either a single shard or the default sharding of
+ * the watcher lists.
+ */
+@State(Scope.Group)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DelayedOperationPurgatoryBenchmark {
+
+    @Param({"1", "512"})
+    private int numShards;
+
+    @Param({"1000", "100000"})
+    private int partitionCount;
+
+    private DelayedOperationPurgatory<PartitionOperation> purgatory;
+    private TopicPartition[] partitions;
+    private Seq<Object>[] watchKeys;
+    private AtomicLongArray partitionVersions;
+
+    @SuppressWarnings({"unchecked", "deprecation"})
+    @Setup(Level.Trial)
+    public void setup() {
+        purgatory = DelayedOperationPurgatory.apply("Benchmark", 0, 1000, true, true, numShards);
+        partitions = new TopicPartition[partitionCount];
+        watchKeys = new Seq[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new TopicPartition("topic", i);
+            watchKeys[i] = JavaConverters.asScalaBuffer(Collections.<Object>singletonList(partitions[i]));
+        }
+        partitionVersions = new AtomicLongArray(partitionCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        purgatory.shutdown();
+    }
+
+    @Benchmark
+    @Group("purgatory")
+    @GroupThreads(2)
+    public boolean watch() {
+        int partition = ThreadLocalRandom.current().nextInt(partitionCount);
+        PartitionOperation operation = new PartitionOperation(partition, partitionVersions.get(partition));
+        return purgatory.tryCompleteElseWatch(operation, watchKeys[partition]);
+    }
+
+    @Benchmark
+    @Group("purgatory")
+    @GroupThreads(2)
+    public int complete() {
+        int partition = ThreadLocalRandom.current().nextInt(partitionCount);
+        partitionVersions.incrementAndGet(partition);
+        return purgatory.checkAndComplete(partitions[partition]);
+    }
+
+    /**
+     * An operation which can be completed once its partition has advanced.
+     */
+    private class PartitionOperation extends DelayedOperation {
+        private final int partition;
+        private final long version;
+
+        PartitionOperation(int partition, long version) {
+            super(30000L, Option.empty());
+            this.partition = partition;
+            this.version = version;
+        }
+
+        @Override
+        public boolean tryComplete() {
+            return partitionVersions.get(partition) > version && forceComplete();
+        }
+
+        @Override
+        public void onExpiration() {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.util.Properties;
 import kafka.cluster.Partition;
 import kafka.cluster.PartitionStateStore;
 import kafka.log.CleanerConfig;
+import kafka.log.Log;
 import kafka.log.LogConfig;
 import kafka.log.LogManager;
 import kafka.server.BrokerTopicStats;
@@ -89,6 +90,8 @@ public class CheckpointBench {
     private QuotaFactory.QuotaManagers quotaManagers;
     private LogDirFailureChannel failureChannel;
     private LogManager logManager;
+    private List<Log> logs;
+    private int leaderEpoch = 0;
 
 
     @SuppressWarnings("deprecation")
@@ -154,6 +157,7 @@ public class CheckpointBench {
         }
 
         replicaManager.checkpointHighWatermarks();
+        this.logs = new ArrayList<>(JavaConverters.asJavaCollection(logManager.allLogs()));
     }
 
     @TearDown(Level.Trial)
@@ -179,4 +183,13 @@ public class CheckpointBench {
     public void measureCheckpointLogStartOffsets() {
         this.logManager.checkpointLogStartOffsets();
     }
+
+    @Benchmark
+    @Threads(1)
+    public void measureAssignLeaderEpochs() {
+        leaderEpoch++;
+        for (Log log : logs) {
+            log.maybeAssignEpochStartOffset(leaderEpoch, log.logEndOffset());
+        }
+    }
 }